@@ -0,0 +1,312 @@
+using System;
+using System.Collections;
+using System.IO;
+using System.Text;
+
+namespace MusicServer
+{
+    // Frames do protocolo de colaboracao do TuxGuitar (mesmo formato de
+    // org.herac.tuxguitar.collab.CollabCodec), numeros em big endian:
+    //
+    //   'T' 'G'               magic
+    //   int    tamanho        bytes que seguem
+    //   byte   tipo           tipo da mensagem (CollabMessage)
+    //   int    sequencia      numerada por quem envia, a partir de 1
+    //   byte   qtd, int[]     valores (nota, track, duracao...)
+    //   byte   qtd, textos    cada um com tamanho (short) e bytes UTF-8
+    //   int    tamanho, byte[] dados, -1 quando nao existem
+    //
+    // No servidor uma mensagem e' um ArrayList: [dados, nomeEvento, valores, dados binarios]
+    #region class CollabFrame
+    class CollabFrame
+    {
+        public const int HEADER = 6;
+        public const int MAX = 16 * 1024 * 1024;
+
+        // Nomes dos tipos no protocolo texto anterior, o tipo 0 leva o nome no primeiro texto
+        private static readonly String[] NOMES = new String[] {
+            null,
+            "TUXGUITAR",
+            "PROT_lista_sessoes",
+            "ERRO",
+            "PROT_nova_sessao",
+            "PROT_sessao_existente",
+            "PROT_atualiza_modelo_cliente_inicial",
+            "PROT_inicio_sessao",
+            "PROT_fim_sessao",
+            "PROT_chat_msg",
+            "PlayNote",
+            "PROT_remove_elemento",
+            "NoteOp",
+            "PROT_pede_modelo",
+            "PROT_relogio",
+            "PROT_retoma",
+            "PROT_presenca",
+            "PROT_transporte",
+            "PROT_dicionario",
+        };
+
+        // Teclas do CoKeyboard, de C1.WAV (48) a C3.WAV (72), no texto do PlayNote
+        private static readonly String[] TECLAS = new String[] {
+            "C", "CS", "D", "DS", "E", "F", "FS", "G", "GS", "A", "AS", "B"
+        };
+        private const int PRIMEIRA_TECLA = 48;
+        private const int ULTIMA_TECLA = 72;
+
+        private byte[] buffer = new byte[8192];
+        private int tamanho = 0;
+
+        #region Append
+        // Acumula os bytes recebidos, os frames podem vir quebrados ou juntos
+        public void Append(byte[] bytes, int count)
+        {
+            if (this.tamanho + count > this.buffer.Length)
+            {
+                byte[] novo = new byte[Math.Max(this.buffer.Length * 2, this.tamanho + count)];
+                Array.Copy(this.buffer, 0, novo, 0, this.tamanho);
+                this.buffer = novo;
+            }
+            Array.Copy(bytes, 0, this.buffer, this.tamanho, count);
+            this.tamanho += count;
+        }
+        #endregion
+
+        #region Next
+        // Retorna a proxima mensagem completa, ou null se ainda faltam bytes
+        public Object Next()
+        {
+            if (this.tamanho < HEADER)
+                return null;
+
+            if (this.buffer[0] != (byte)'T' || this.buffer[1] != (byte)'G')
+                throw new IOException("Frame invalido");
+
+            int length = ReadInt(this.buffer, 2);
+            if (length < 0 || length > MAX)
+                throw new IOException("Frame invalido: " + length);
+
+            if (this.tamanho < HEADER + length)
+                return null;
+
+            Object mensagem = Decode(this.buffer, HEADER, length);
+
+            this.tamanho -= (HEADER + length);
+            Array.Copy(this.buffer, HEADER + length, this.buffer, 0, this.tamanho);
+
+            return mensagem;
+        }
+        #endregion
+
+        #region Decode
+        private static Object Decode(byte[] b, int p, int length)
+        {
+            int fim = p + length;
+
+            int tipo = b[p];
+            int qtdValores = b[p + 5];
+            p += 6;
+
+            int[] valores = new int[qtdValores];
+            for (int i = 0; i < qtdValores; i++)
+            {
+                valores[i] = ReadInt(b, p);
+                p += 4;
+            }
+
+            ArrayList textos = new ArrayList();
+            int qtdTextos = b[p++];
+            for (int i = 0; i < qtdTextos; i++)
+            {
+                int t = (b[p] << 8) | b[p + 1];
+                p += 2;
+                textos.Add(Encoding.UTF8.GetString(b, p, t));
+                p += t;
+            }
+
+            byte[] dados = null;
+            int qtdDados = ReadInt(b, p);
+            p += 4;
+            if (qtdDados >= 0)
+            {
+                dados = new byte[qtdDados];
+                Array.Copy(b, p, dados, 0, qtdDados);
+                p += qtdDados;
+            }
+
+            if (p > fim)
+                throw new IOException("Frame truncado");
+
+            String nome;
+            if (tipo > 0 && tipo < NOMES.Length)
+                nome = NOMES[tipo];
+            else
+            {
+                nome = (textos.Count > 0 ? (String)textos[0] : "");
+                if (textos.Count > 0)
+                    textos.RemoveAt(0);
+            }
+
+            ArrayList l = new ArrayList();
+            l.Add(textos);
+            l.Add(nome);
+            l.Add(valores);
+            l.Add(dados);
+            return l;
+        }
+        #endregion
+
+        #region Encode
+        // Converte uma mensagem (ArrayList [dados, nomeEvento, ...] ou o texto "a;b;c") em frame
+        public static byte[] Encode(int sequencia, Object obj)
+        {
+            String nome;
+            ArrayList textos = new ArrayList();
+            int[] valores = new int[0];
+            byte[] dados = null;
+
+            if (obj is String)
+            {
+                String[] partes = ((String)obj).Split(";".ToCharArray());
+                nome = partes[0];
+
+                // "PlayNote;C2.WAV;PIANO;login": a nota vai nos valores {nota, track, duracao}
+                // e o login no primeiro texto, como o TuxGuitar envia
+                if (nome.Equals("PlayNote") && partes.Length > 1)
+                {
+                    valores = new int[] { ValorNota(partes[1]), 0, 0 };
+                    textos.Add(partes.Length > 3 ? partes[3] : "");
+                    textos.Add(partes.Length > 2 ? partes[2] : "");
+                }
+                else
+                {
+                    for (int i = 1; i < partes.Length; i++)
+                        textos.Add(partes[i]);
+                }
+            }
+            else
+            {
+                ArrayList l = (ArrayList)obj;
+                nome = (String)l[1];
+                AddTextos(textos, l[0]);
+                if (l.Count > 2 && l[2] is int[])
+                    valores = (int[])l[2];
+                if (l.Count > 3 && l[3] is byte[])
+                    dados = (byte[])l[3];
+            }
+
+            int tipo = Array.IndexOf(NOMES, nome);
+            if (tipo <= 0)
+            {
+                tipo = 0;
+                textos.Insert(0, nome);
+            }
+
+            MemoryStream m = new MemoryStream();
+            m.WriteByte((byte)tipo);
+            WriteInt(m, sequencia);
+            m.WriteByte((byte)valores.Length);
+            for (int i = 0; i < valores.Length; i++)
+                WriteInt(m, valores[i]);
+            m.WriteByte((byte)textos.Count);
+            for (int i = 0; i < textos.Count; i++)
+            {
+                byte[] t = Encoding.UTF8.GetBytes((String)textos[i]);
+                m.WriteByte((byte)(t.Length >> 8));
+                m.WriteByte((byte)t.Length);
+                m.Write(t, 0, t.Length);
+            }
+            if (dados != null)
+            {
+                WriteInt(m, dados.Length);
+                m.Write(dados, 0, dados.Length);
+            }
+            else
+                WriteInt(m, -1);
+
+            byte[] corpo = m.ToArray();
+            byte[] frame = new byte[HEADER + corpo.Length];
+            frame[0] = (byte)'T';
+            frame[1] = (byte)'G';
+            frame[2] = (byte)(corpo.Length >> 24);
+            frame[3] = (byte)(corpo.Length >> 16);
+            frame[4] = (byte)(corpo.Length >> 8);
+            frame[5] = (byte)corpo.Length;
+            Array.Copy(corpo, 0, frame, HEADER, corpo.Length);
+            return frame;
+        }
+        #endregion
+
+        #region ParaTexto
+        // O PlayNote de um frame no texto do CoKeyboard, "PlayNote;C2.WAV;PIANO;login".
+        // As outras mensagens sao retornadas como vieram.
+        public static Object ParaTexto(Object obj)
+        {
+            ArrayList l = obj as ArrayList;
+            if (l == null || l.Count < 3 || !"PlayNote".Equals(l[1]) || !(l[2] is int[]) || ((int[])l[2]).Length == 0)
+                return obj;
+
+            ArrayList textos = new ArrayList();
+            AddTextos(textos, l[0]);
+            String login = (textos.Count > 0 ? (String)textos[0] : "");
+            String instrumento = (textos.Count > 1 ? (String)textos[1] : "PIANO");
+
+            return "PlayNote;" + NomeNota(((int[])l[2])[0]) + ";" + instrumento + ";" + login;
+        }
+        #endregion
+
+        // Valor MIDI do arquivo da tecla ("CS1.WAV" = 49), 0 quando nao e' uma tecla
+        public static int ValorNota(String arquivo)
+        {
+            String nome = arquivo.ToUpper();
+            if (!nome.EndsWith(".WAV") || nome.Length < 6)
+                return 0;
+            int oitava = nome[nome.Length - 5] - '1';
+            int tecla = Array.IndexOf(TECLAS, nome.Substring(0, nome.Length - 5));
+            if (tecla < 0 || oitava < 0 || oitava > 2)
+                return 0;
+            int valor = PRIMEIRA_TECLA + (oitava * 12) + tecla;
+            return (valor <= ULTIMA_TECLA ? valor : 0);
+        }
+
+        // Arquivo da tecla do valor, as notas fora do teclado vao para a oitava mais proxima dele
+        public static String NomeNota(int valor)
+        {
+            while (valor < PRIMEIRA_TECLA)
+                valor += 12;
+            while (valor > ULTIMA_TECLA)
+                valor -= 12;
+            int tecla = valor - PRIMEIRA_TECLA;
+            return TECLAS[tecla % 12] + ((tecla / 12) + 1) + ".WAV";
+        }
+
+        private static void AddTextos(ArrayList textos, Object o)
+        {
+            if (o == null)
+                return;
+            if (o is ArrayList)
+            {
+                ArrayList l = (ArrayList)o;
+                for (int i = 0; i < l.Count; i++)
+                    AddTextos(textos, l[i]);
+            }
+            else if (o is String[])
+                textos.Add(((String[])o)[0]);
+            else
+                textos.Add(o.ToString());
+        }
+
+        private static int ReadInt(byte[] b, int p)
+        {
+            return (b[p] << 24) | (b[p + 1] << 16) | (b[p + 2] << 8) | b[p + 3];
+        }
+
+        private static void WriteInt(Stream s, int v)
+        {
+            s.WriteByte((byte)(v >> 24));
+            s.WriteByte((byte)(v >> 16));
+            s.WriteByte((byte)(v >> 8));
+            s.WriteByte((byte)v);
+        }
+    }
+    #endregion
+}
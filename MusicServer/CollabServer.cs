@@ -28,6 +28,15 @@ namespace MusicServer
 
         private Thread tClienteConectado;
 
+        // Relogio da sessao: os clientes do TuxGuitar acertam o seu por ele (PROT_relogio)
+        public static Stopwatch relogio = Stopwatch.StartNew();
+
+        // Ultimo id de usuario dado em cada sessao, os ids nao voltam a ser usados
+        private Hashtable ultimo_usuario = new Hashtable();
+
+        // Relogio das operacoes de cada sessao: cada PlayNote recebe o seguinte (CarimbaNota)
+        private Hashtable relogio_operacoes = new Hashtable();
+
         #region MusicServer()
         public  MusicServer()
         {
@@ -246,6 +255,152 @@ namespace MusicServer
         }
         #endregion
 
+        // Outro participante TuxGuitar da sessao, que pode enviar o modelo para quem entra
+        #region MembroSessao
+        public MusicServerT MembroSessao (String nomesessao, MusicServerT exceto) 
+        {
+            MusicServerT aSingleThread = null;
+            
+            for (int i = 0; i < clientVector.Count; i++) 
+            {
+                aSingleThread = (MusicServerT) clientVector[i];
+
+                if( aSingleThread != exceto && aSingleThread.nome_sessao.Equals(nomesessao) && aSingleThread.tipocon.Equals("TUXGUITAR"))
+            	    return aSingleThread;
+            }
+            return null;
+        }
+        #endregion
+
+        #region ConexaoId
+        public MusicServerT ConexaoId (String id) 
+        {
+            MusicServerT aSingleThread = null;
+            
+            for (int i = 0; i < clientVector.Count; i++) 
+            {
+                aSingleThread = (MusicServerT) clientVector[i];
+
+                if( aSingleThread.id_conexao.Equals(id))
+            	    return aSingleThread;
+            }
+            return null;
+        }
+        #endregion
+
+        // Usuarios do TuxGuitar na sessao: cada um recebe um id, a track e a cor no cliente vem dele
+        #region EntraRoster
+        public void EntraRoster (MusicServerT novo) 
+        {
+            lock (this.ultimo_usuario)
+            {
+                int id = (this.ultimo_usuario.ContainsKey(novo.nome_sessao) ? (int)this.ultimo_usuario[novo.nome_sessao] : 0) + 1;
+                this.ultimo_usuario[novo.nome_sessao] = id;
+                novo.id_usuario = id;
+            }
+
+            MusicServerT aSingleThread = null;
+            
+            for (int i = 0; i < clientVector.Count; i++) 
+            {
+                aSingleThread = (MusicServerT) clientVector[i];
+
+                if( aSingleThread.nome_sessao.Equals(novo.nome_sessao) && aSingleThread.tipocon.Equals("TUXGUITAR") && aSingleThread.id_usuario > 0)
+                {
+                    // Quem entrou recebe todos (ele mesmo marcado com 1), os outros recebem quem entrou
+                    novo.BroadCastToClient(MensagemRoster("PROT_inicio_sessao", aSingleThread, (aSingleThread == novo ? 1 : 0)));
+
+                    if (aSingleThread != novo)
+                        aSingleThread.BroadCastToClient(MensagemRoster("PROT_inicio_sessao", novo, 0));
+                }
+            }
+        }
+        #endregion
+
+        // Um PlayNote vem depois de todas as operacoes que passaram antes dele, assim
+        // a nota tocada onde o editor escreveu ganha como uma edicao mais nova
+        #region CarimbaNota
+        public void CarimbaNota (ArrayList l, MusicServerT enviou)
+        {
+            String nomeEvento = (String) l[1];
+            int[] valores = (l.Count > 2 ? l[2] as int[] : null);
+            if (valores == null)
+                return;
+
+            lock (this.relogio_operacoes)
+            {
+                long relogio = (this.relogio_operacoes.ContainsKey(enviou.nome_sessao) ? (long)this.relogio_operacoes[enviou.nome_sessao] : 0);
+                if (nomeEvento.Equals("NoteOp") || nomeEvento.Equals("PROT_atualiza_modelo_cliente_inicial"))
+                {
+                    int indice = (nomeEvento.Equals("NoteOp") ? 8 : 0);
+                    if (valores.Length > indice)
+                        relogio = Math.Max(relogio, valores[indice]);
+                }
+                else
+                {
+                    // sem tempo da sessao (-1) e com o id de quem tocou quando o cliente nao mandou,
+                    // o tempo dos clientes antigos vem sem a parte alta (valor 6)
+                    int[] carimbados = new int[Math.Max(valores.Length, 7)];
+                    Array.Copy(valores, carimbados, valores.Length);
+                    for (int i = valores.Length; i < 5; i++)
+                        carimbados[i] = (i == 3 ? -1 : (i == 4 ? enviou.id_usuario : 0));
+                    if (valores.Length < 7)
+                        carimbados[6] = (carimbados[3] < 0 ? -1 : 0);
+                    carimbados[5] = (int) (++relogio);
+                    l[2] = carimbados;
+                }
+                this.relogio_operacoes[enviou.nome_sessao] = relogio;
+            }
+        }
+        #endregion
+
+        #region SaiRoster
+        public void SaiRoster (MusicServerT saiu) 
+        {
+            if (saiu.id_usuario <= 0)
+                return;
+
+            MusicServerT aSingleThread = null;
+            
+            for (int i = 0; i < clientVector.Count; i++) 
+            {
+                aSingleThread = (MusicServerT) clientVector[i];
+
+                if( aSingleThread != saiu && aSingleThread.nome_sessao.Equals(saiu.nome_sessao) && aSingleThread.tipocon.Equals("TUXGUITAR"))
+                    aSingleThread.BroadCastToClient(MensagemRoster("PROT_fim_sessao", saiu, 0));
+            }
+            saiu.id_usuario = 0;
+        }
+        #endregion
+
+        // Mensagens que so interessam aos outros participantes TuxGuitar da mesma sessao
+        #region BroadCastToSessao
+        public void BroadCastToSessao (Object objrecebido, MusicServerT tEnviada) 
+        {
+            MusicServerT aSingleThread = null;
+            
+            for (int i = 0; i < clientVector.Count; i++) 
+            {
+                aSingleThread = (MusicServerT) clientVector[i];
+
+                if( aSingleThread != tEnviada && aSingleThread.nome_sessao.Equals(tEnviada.nome_sessao) && aSingleThread.tipocon.Equals("TUXGUITAR"))
+                    aSingleThread.BroadCastToClient(objrecebido);
+            }
+        }
+        #endregion
+
+        private static ArrayList MensagemRoster (String nome, MusicServerT usuario, int proprio)
+        {
+            ArrayList login = new ArrayList();
+            login.Add(usuario.login);
+
+            ArrayList l = new ArrayList();
+            l.Add(login);
+            l.Add(nome);
+            l.Add(new int[] { usuario.id_usuario, proprio });
+            return l;
+        }
+
         // retorna todas os nomes da seses colaborativas atuais
         #region NomeSessoes 
 
@@ -473,8 +628,13 @@ namespace MusicServer
         private String CON = "OBJ";
     
         private MusicServer servidor;
+        private static int ultimo_id = 0;
+        public String id_conexao;         // identifica a conexao nos pedidos de modelo
+        public int id_usuario = 0;        // id do usuario na sessao, 0 fora de uma sessao
         public String id_pointer;
         public String tipocon; 
+        private CollabFrame frames = null;  // conexoes do TuxGuitar que enviam frames
+        private int sequencia = 0;
         public String login;
         public String senha;
         public String nome_sessao = "";
@@ -490,6 +650,7 @@ namespace MusicServer
            	// Preenche os campos e seta a priopridade desta Thread
     		this.client = client;
 	    	this.servidor = s;
+            this.id_conexao = Interlocked.Increment(ref ultimo_id).ToString();
     		this.tipocon = "";
         }
 
@@ -520,6 +681,22 @@ namespace MusicServer
                         break;
                     }
 
+                    // Conexao do TuxGuitar com frames: os bytes sao acumulados ate ter as mensagens completas
+                    if ((this.frames != null) || (this.tipocon.Equals("") && bytesRec >= 2 && bytes[0] == (byte)'T' && bytes[1] == (byte)'G'))
+                    {
+                        if (this.frames == null)
+                            this.frames = new CollabFrame();
+
+                        this.frames.Append(bytes, bytesRec);
+
+                        while ((clientObject = this.frames.Next()) != null)
+                        {
+                            if (!this.trataProtocolo(clientObject))
+                                this.servidor.BroadCastToAll(clientObject, this, true);
+                        }
+                        continue;
+                    }
+
                     string returnData = Encoding.ASCII.GetString(bytes);
 
                     // // Tratamento para o caso da informao vier pelo TuxGuitar
@@ -678,6 +855,15 @@ namespace MusicServer
             #endregion
 
 
+            #region PlayNote, NoteOp
+            // As notas e operacoes vao para todos, o PlayNote com o relogio da sessao
+            if (nomeEvento.Equals("PlayNote") || nomeEvento.Equals("NoteOp"))
+            {
+                this.servidor.CarimbaNota(list, this);
+                return false;
+            }
+            #endregion
+
             // Aqui so verificadas as mensagens de 'protocolo'
             #region PROT
             if (  nomeEvento.StartsWith("PROT") )
@@ -691,6 +877,7 @@ namespace MusicServer
     			    // A verificao da possvel criao de uma sesso que
     			    // j exista deve ser feita no ArgoUML e no no servidor!
         			
+                    this.servidor.SaiRoster(this);
 				    this.nome_sessao = ((String) li[0]);
     				
 				    // Colocando o modelo do diagrama atual no servidor
@@ -700,6 +887,7 @@ namespace MusicServer
                     {
                         this.modelo_inicial = null;
                         this.ids_inicial = null;
+                        this.servidor.EntraRoster(this);
                     }
                     else
                     {
@@ -728,8 +916,12 @@ namespace MusicServer
     			    {
         				
     				    // Aqui so feitas as devidas inicializaes da sesso colaborativa
+                        this.servidor.SaiRoster(this);
                         this.nome_sessao = session_name;
 
+                        if (this.tipocon.Equals("TUXGUITAR"))
+                            this.servidor.EntraRoster(this);
+
     				    // Obtem o modelo desta sesso de algum dos participantes
     				    this.modelo_inicial = this.servidor.ModeloSessaoInicial(this.nome_sessao);
     				    this.ids_inicial = this.servidor.IdsSessaoInicial(this.nome_sessao);
@@ -746,7 +938,22 @@ namespace MusicServer
 
     				    // this.BroadCastToClient(l);
 
-                        this.BroadCastToClient(l);
+                        // O TuxGuitar recebe a musica de outro participante: ele responde ao
+                        // PROT_pede_modelo com o modelo e o id desta conexao
+                        MusicServerT membro = this.servidor.MembroSessao(this.nome_sessao, this);
+                        if (this.tipocon.Equals("TUXGUITAR") && membro != null)
+                        {
+                            ArrayList id = new ArrayList();
+                            id.Add(this.id_conexao);
+
+                            ArrayList pede = new ArrayList();
+                            pede.Add(id);
+                            pede.Add("PROT_pede_modelo");
+
+                            membro.BroadCastToClient(pede);
+                        }
+                        else
+                            this.BroadCastToClient(l);
         				
     				    if(this.tipocon.Equals("ARGO"))
     				    {
@@ -802,6 +1009,9 @@ namespace MusicServer
     	        	
     			    this.servidor.BroadCastToAll(l, this, true,"ARGO");
 
+                    // Os outros clientes do TuxGuitar tiram o usuario da lista
+                    this.servidor.SaiRoster(this);
+
     			    //Removendo as dependncias deste cliente (Thread & afins)
     			    this.servidor.RemovePointer(this.id_pointer);
                     this.servidor.RemoveClient(this);
@@ -1055,6 +1265,66 @@ namespace MusicServer
 
                 #endregion
 
+                #region PROT_relogio
+                // O cliente quer o relogio da sessao: responde so para ele com o mesmo pedido e o tempo em ms,
+                // em 64 bits (a parte alta por ultimo), o int acabaria em 24 dias; o 0 e' a ultima sequencia
+                // recebida, que este servidor nao conta
+                if (nomeEvento.Equals("PROT_relogio"))
+                {
+                    int[] pedido = (int[]) list[2];
+
+                    ArrayList l = new ArrayList();
+                    l.Add(new ArrayList());
+                    l.Add("PROT_relogio");
+                    long agora = MusicServer.relogio.ElapsedMilliseconds;
+                    l.Add(new int[] { (pedido.Length > 0 ? pedido[0] : 0), (int) agora, 0, (int) (agora >> 32) });
+
+                    this.BroadCastToClient(l);
+                    return true;
+                }
+                #endregion
+
+                #region PROT_presenca
+                // O caret de um usuario do TuxGuitar, varias vezes por segundo: vai so para a sessao dele
+                if (nomeEvento.Equals("PROT_presenca"))
+                {
+                    this.servidor.BroadCastToSessao(clientObject, this);
+                    return true;
+                }
+                #endregion
+
+                #region PROT_transporte
+                // Tocar, parar ou mudar de compasso no tempo da sessao: vai so para a sessao
+                if (nomeEvento.Equals("PROT_transporte"))
+                {
+                    this.servidor.BroadCastToSessao(clientObject, this);
+                    return true;
+                }
+                #endregion
+
+                #region PROT_atualiza_modelo_cliente_inicial
+                // Um participante respondeu ao PROT_pede_modelo, o modelo vai para quem entrou
+                if (nomeEvento.Equals("PROT_atualiza_modelo_cliente_inicial"))
+                {
+                    ArrayList textos = (ArrayList) objDados;
+                    MusicServerT novo = this.servidor.ConexaoId((String) textos[0]);
+
+                    if (novo != null && novo.nome_sessao.Equals(this.nome_sessao))
+                    {
+                        this.servidor.CarimbaNota(list, this);
+
+                        ArrayList l = new ArrayList();
+                        l.Add(this.servidor.NomeSessoes());
+                        l.Add("PROT_atualiza_modelo_cliente_inicial");
+                        l.Add(list[2]); // valores: o relogio das operacoes do modelo
+                        l.Add(list[3]); // dados: a musica comprimida
+
+                        novo.BroadCastToClient(l);
+                    }
+                    return true;
+                }
+                #endregion
+
                 #region PROT_atualiza_modelo_servidor
                 //  O cliente mandou um modelo para ser atualizado nos clientes
     		    // Porem somente os clientes que so da mesma sesso!
@@ -1147,7 +1417,7 @@ namespace MusicServer
         private Object AcertaFormatoEnvio(string evento, object lista)
         {
             Object o;
-            if(evento.Equals("TUXGUITAR"))
+            if(evento.Equals("TUXGUITAR") && (this.frames == null))
             {
                 // Aqui vou transferir tudo que est na lista para uma string separada por ;
 
@@ -1250,6 +1520,7 @@ namespace MusicServer
 
                 // Aqui vou remover o Id do Telepointer
                 servidor.RemovePointer(this.id_pointer);
+                servidor.SaiRoster(this);
                 servidor.RemoveClient(this);
                 
                 // TODO: Preciso de um jeito para fechar esta Thread!
@@ -1276,6 +1547,21 @@ namespace MusicServer
                 // Aqui preciso verificar qual  o tipo do objeto
 
         
+                // Conexao com frames, numerados por conexao
+                if (this.frames != null)
+                {
+                    lock (this)
+                    {
+                        ByteGet = CollabFrame.Encode(++this.sequencia, obj);
+                        client.Send(ByteGet, ByteGet.Length, 0);
+                    }
+                    System.Threading.Thread.EndCriticalRegion();
+                    return;
+                }
+
+                // Notas dos clientes com frames vao em texto para o CoKeyboard
+                obj = CollabFrame.ParaTexto(obj);
+
                 // Se enviar apenas o string,  o caso do Tux
                 if (obj.GetType().Equals("a".GetType()))
                 {
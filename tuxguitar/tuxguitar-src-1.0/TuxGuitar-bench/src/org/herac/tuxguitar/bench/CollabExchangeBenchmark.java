@@ -0,0 +1,234 @@
+package org.herac.tuxguitar.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.herac.tuxguitar.collab.CollabCodec;
+import org.herac.tuxguitar.collab.CollabMessage;
+import org.herac.tuxguitar.collab.CollabOperation;
+import org.herac.tuxguitar.collab.CollabReplica;
+import org.herac.tuxguitar.song.managers.TGSongManager;
+import org.herac.tuxguitar.song.models.TGBeat;
+import org.herac.tuxguitar.song.models.TGDuration;
+import org.herac.tuxguitar.song.models.TGMeasure;
+import org.herac.tuxguitar.song.models.TGNote;
+import org.herac.tuxguitar.song.models.TGTrack;
+
+/**
+ * Two clients edit the same song at the same time and exchange their operations, as
+ * ClienteConecta.EnviaCompasso sends the edits of the editor and ClienteRecebe.TocaNotas applies them.
+ * Each round both make EDITS_PER_ROUND edits on their own song (insert, change or remove a note,
+ * often on the same positions), then each applies the frames of the other in a shuffled order.
+ * Then a keyboard plays PLAYS_PER_ROUND notes (PlayNote) on the first positions, where the
+ * editors also write, each stamped as CollabServer stamps it, after every operation relayed before.
+ * At the end both songs must have the same notes and no played note may have been lost to an older
+ * edit, the exit status is 1 when they do not.
+ * Arguments: [rounds] [seed].
+ */
+public class CollabExchangeBenchmark {
+	
+	private static final int MEASURES = 4;
+	
+	private static final int EDITS_PER_ROUND = 16;
+	
+	private static final int POSITIONS = 8;
+	
+	private static final int STRINGS = 3;
+	
+	private static final int PLAYS_PER_ROUND = 4;
+	
+	public static void main(String[] args) throws Throwable {
+		int rounds = (args.length > 0 ? Integer.parseInt(args[0]) : 200);
+		long seed = (args.length > 1 ? Long.parseLong(args[1]) : 1);
+		Random random = new Random(seed);
+		
+		Client a = new Client("A", new Random(random.nextLong()));
+		Client b = new Client("B", new Random(random.nextLong()));
+		
+		long operations = 0;
+		long applying = 0;
+		long served = 0;
+		long played = 0;
+		long dropped = 0;
+		for(int round = 0; round < rounds; round ++){
+			List fromA = a.edit();
+			List fromB = b.edit();
+			operations += (fromA.size() + fromB.size());
+			Collections.shuffle(fromA, random);
+			Collections.shuffle(fromB, random);
+			
+			long time = System.nanoTime();
+			a.apply(fromB);
+			b.apply(fromA);
+			applying += (System.nanoTime() - time);
+			
+			// the clock of the server is after every operation it relayed
+			served = Math.max(served, Math.max(getClock(fromA), getClock(fromB)));
+			for(int i = 0; i < PLAYS_PER_ROUND; i ++){
+				int[] values = new int[]{ (64 + random.nextInt(12)), 1, TGDuration.EIGHTH, -1, 0, (int)(++ served) };
+				byte[] frame = CollabCodec.encode(new CollabMessage(CollabMessage.PLAY_NOTE, values, new String[]{ ("K" + round) }));
+				boolean keptA = a.play(frame);
+				boolean keptB = b.play(frame);
+				played ++;
+				if(!keptA || !keptB){
+					dropped ++;
+				}
+			}
+		}
+		String notesA = a.getNotes();
+		String notesB = b.getNotes();
+		boolean converged = notesA.equals(notesB);
+		
+		System.out.println("rounds\toperations\tapply ms\tnotes\tplayed\tdropped\tconverged");
+		System.out.println(rounds + "\t" + operations + "\t\t" + (applying / 1000000) + "\t\t" + a.countNotes() + "\t" + played + "\t" + dropped + "\t" + converged);
+		if(!converged){
+			System.out.println("A: " + notesA);
+			System.out.println("B: " + notesB);
+		}
+		if(!converged || dropped > 0){
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * The last clock of the operations in the frames.
+	 */
+	private static long getClock(List frames) throws Throwable {
+		long clock = 0;
+		for(int i = 0; i < frames.size(); i ++){
+			byte[] frame = (byte[])frames.get(i);
+			clock = Math.max(clock, CollabOperation.fromMessage(CollabCodec.decode(frame, 0, frame.length)).getClock());
+		}
+		return clock;
+	}
+	
+	private static class Client{
+		
+		private String user;
+		private Random random;
+		private TGSongManager manager;
+		private CollabReplica replica;
+		
+		public Client(String user,Random random){
+			this.user = user;
+			this.random = random;
+			this.manager = new TGSongManager();
+			this.manager.setSong(this.manager.newSong());
+			for(int i = this.manager.getSong().countMeasureHeaders(); i < MEASURES; i ++){
+				this.manager.addNewMeasure(i + 1);
+			}
+			// a rest at each position, where the caret of the editor adds the notes
+			TGTrack track = this.manager.getFirstTrack();
+			for(int i = 1; i <= MEASURES; i ++){
+				TGMeasure measure = this.manager.getTrackManager().getMeasure(track, i);
+				this.manager.getMeasureManager().cleanMeasure(measure);
+				for(int j = 0; j < POSITIONS; j ++){
+					TGBeat beat = this.manager.getFactory().newBeat();
+					beat.setStart(measure.getStart() + (j * (TGDuration.QUARTER_TIME / 2)));
+					beat.getDuration().setValue(TGDuration.EIGHTH);
+					measure.addBeat(beat);
+				}
+			}
+			this.replica = new CollabReplica(user + "@" + random.nextInt());
+		}
+		
+		/**
+		 * The edits of the editor, each one sent as UndoableMeasureGeneric and EnviaCompasso do.
+		 * Returns the frames sent.
+		 */
+		public List edit() throws Throwable {
+			List frames = new ArrayList();
+			TGTrack track = this.manager.getFirstTrack();
+			for(int i = 0; i < EDITS_PER_ROUND; i ++){
+				TGMeasure measure = this.manager.getTrackManager().getMeasure(track, (1 + this.random.nextInt(MEASURES)));
+				long start = (measure.getStart() + (this.random.nextInt(POSITIONS) * (TGDuration.QUARTER_TIME / 2)));
+				int string = (1 + this.random.nextInt(STRINGS));
+				
+				TGMeasure before = measure.clone(this.manager.getFactory(), measure.getHeader().clone(this.manager.getFactory()));
+				TGNote note = this.manager.getMeasureManager().getNote(measure, start, string);
+				if(note == null){
+					note = this.manager.getFactory().newNote();
+					note.setValue(this.random.nextInt(12));
+					note.setString(string);
+					TGDuration duration = this.manager.getFactory().newDuration();
+					duration.setValue(TGDuration.EIGHTH);
+					this.manager.getMeasureManager().addNote(measure, start, note, duration);
+				}
+				else if(this.random.nextBoolean()){
+					this.manager.getMeasureManager().removeNote(measure, start, string);
+				}
+				else{
+					note.setValue(this.random.nextInt(12));
+				}
+				TGMeasure after = measure.clone(this.manager.getFactory(), measure.getHeader().clone(this.manager.getFactory()));
+				
+				List changes = CollabReplica.getChanges(track.getNumber(), before, after);
+				for(int j = 0; j < changes.size(); j ++){
+					CollabOperation change = (CollabOperation)changes.get(j);
+					CollabOperation operation = this.replica.newOperation(change.getKind(), change.getTrack(), change.getMeasure(), change.getStart(),
+							change.getString(), change.getValue(), change.getVelocity(), change.getDuration(), this.user);
+					this.replica.record(operation);
+					frames.add(CollabCodec.encode(operation.toMessage()));
+				}
+			}
+			return frames;
+		}
+		
+		/**
+		 * Applies the frames of the other client, as TocaNotas does.
+		 */
+		public void apply(List frames) throws Throwable {
+			List changed = new ArrayList();
+			for(int i = 0; i < frames.size(); i ++){
+				byte[] frame = (byte[])frames.get(i);
+				CollabMessage message = CollabCodec.decode(frame, 0, frame.length);
+				this.replica.apply(this.manager, CollabOperation.fromMessage(message), changed);
+			}
+		}
+		
+		/**
+		 * Applies a note of the keyboard, as TocaNotas does.
+		 * Returns false when the note is not in the song after it.
+		 */
+		public boolean play(byte[] frame) throws Throwable {
+			CollabMessage message = CollabCodec.decode(frame, 0, frame.length);
+			CollabOperation operation = this.replica.newPlayNote(this.manager, message, 0, null);
+			if(operation == null){
+				// no free string for it
+				return true;
+			}
+			this.replica.apply(this.manager, operation, new ArrayList());
+			TGMeasure measure = this.manager.getTrackManager().getMeasure(this.manager.getFirstTrack(), operation.getMeasure());
+			TGNote note = this.manager.getMeasureManager().getNote(measure, operation.getStart(), operation.getString());
+			return (note != null && note.getValue() == operation.getValue());
+		}
+		
+		/**
+		 * Every note of the song, in order of measure, start and string.
+		 */
+		public String getNotes(){
+			StringBuffer buffer = new StringBuffer();
+			TGTrack track = this.manager.getFirstTrack();
+			for(int i = 1; i <= MEASURES; i ++){
+				TGMeasure measure = this.manager.getTrackManager().getMeasure(track, i);
+				for(int j = 0; j < measure.countBeats(); j ++){
+					TGBeat beat = measure.getBeat(j);
+					for(int string = 1; string <= track.stringCount(); string ++){
+						TGNote note = this.manager.getMeasureManager().getNote(beat, string);
+						if(note != null){
+							buffer.append(i + ":" + beat.getStart() + ":" + string + "=" + note.getValue() + "/" + beat.getDuration().getValue() + " ");
+						}
+					}
+				}
+			}
+			return buffer.toString();
+		}
+		
+		public int countNotes(){
+			String notes = this.getNotes().trim();
+			return (notes.length() > 0 ? notes.split(" ").length : 0);
+		}
+	}
+}
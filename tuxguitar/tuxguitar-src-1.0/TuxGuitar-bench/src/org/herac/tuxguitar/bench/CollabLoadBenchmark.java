@@ -0,0 +1,336 @@
+package org.herac.tuxguitar.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Properties;
+
+import org.herac.tuxguitar.collab.CollabClock;
+import org.herac.tuxguitar.collab.CollabCodec;
+import org.herac.tuxguitar.collab.CollabDictionary;
+import org.herac.tuxguitar.collab.CollabLatency;
+import org.herac.tuxguitar.collab.CollabMessage;
+import org.herac.tuxguitar.collab.CollabTraffic;
+import org.herac.tuxguitar.collab.server.CollabServer;
+import org.herac.tuxguitar.song.models.TGDuration;
+
+/**
+ * Load on the collaboration path: virtual musicians log in like TuxGuitar does, synchronize
+ * their clock, join the sessions and play PlayNote streams at a fixed rate, while every member
+ * counts what it receives from the others.
+ * Reports the latency from the write of the sender to the read of each receiver, the notes lost
+ * or out of order, and the notes the server delivered per second.
+ * Arguments: [musicians] [sessions] [notes per second of each musician] [seconds] [host port].
+ * Without host the server is a CollabServer of this process, the C# server takes the users A to D.
+ * The musicians send compact frames when the server accepts them, unless
+ * -Dtuxguitar.collab.compact=false, and the traffic tells the bytes they saved.
+ */
+public class CollabLoadBenchmark {
+	
+	private static final int MUSICIANS = 32;
+	private static final int SESSIONS = 8;
+	private static final double NOTES_PER_SECOND = 20;
+	private static final int SECONDS = 10;
+	
+	/** Time to wait for the last notes, after the musicians stop playing. */
+	private static final long DRAIN_MILLIS = 10000;
+	
+	private static final String[] SERVER_USERS = new String[]{ "A", "B", "C", "D" };
+	
+	private static final long ORIGIN = System.nanoTime();
+	
+	private static final boolean COMPACT = !"false".equals(System.getProperty("tuxguitar.collab.compact"));
+	
+	public static void main(String[] args) throws Throwable {
+		int musicians = (args.length > 0 ? Integer.parseInt(args[0]) : MUSICIANS);
+		int sessions = Math.min((args.length > 1 ? Integer.parseInt(args[1]) : SESSIONS), musicians);
+		double rate = (args.length > 2 ? Double.parseDouble(args[2]) : NOTES_PER_SECOND);
+		int seconds = (args.length > 3 ? Integer.parseInt(args[3]) : SECONDS);
+		
+		String host = "127.0.0.1";
+		int port = 0;
+		CollabServer server = null;
+		if(args.length > 5){
+			host = args[4];
+			port = Integer.parseInt(args[5]);
+		}else{
+			Properties users = new Properties();
+			for(int i = 0; i < musicians; i ++){
+				users.setProperty(getLogin(i, false), getLogin(i, false));
+			}
+			server = new CollabServer(users);
+			server.open(0);
+			port = server.getPort();
+			new Thread(server, "CollabServer").start();
+		}
+		
+		System.out.println("musicians=" + musicians + " sessions=" + sessions + " notes/s=" + rate + " seconds=" + seconds + " server=" + (server != null ? "local" : host) + ":" + port);
+		
+		// the first musician of each session opens it, the others join it after
+		CollabLatency latency = new CollabLatency();
+		CollabTraffic traffic = new CollabTraffic();
+		Musician[] all = new Musician[musicians];
+		for(int i = 0; i < musicians; i ++){
+			int session = (i % sessions);
+			all[i] = new Musician(i, getLogin(i, (server == null)), ("load" + session), countMembers(session, sessions, musicians), latency, traffic);
+		}
+		for(int i = 0; i < musicians; i ++){
+			all[i].connect(host, port, (i < sessions));
+		}
+		for(int i = 0; i < musicians; i ++){
+			all[i].listen();
+		}
+		
+		long start = System.nanoTime();
+		for(int i = 0; i < musicians; i ++){
+			all[i].play(rate, seconds, start);
+		}
+		for(int i = 0; i < musicians; i ++){
+			all[i].join();
+		}
+		long played = System.nanoTime();
+		
+		long expected = 0;
+		for(int i = 0; i < musicians; i ++){
+			expected += (all[i].sent * (all[i].members - 1));
+		}
+		long received = waitReceived(all, expected);
+		
+		CollabLatency roundTrips = new CollabLatency();
+		long sent = 0;
+		long reordered = 0;
+		for(int i = 0; i < musicians; i ++){
+			sent += all[i].sent;
+			reordered += all[i].getReordered();
+			roundTrips.add(all[i].clock.getRoundTrip() * 1000);
+			all[i].close();
+		}
+		if(server != null){
+			server.close();
+		}
+		
+		double elapsed = ((played - start) / 1000000000.0);
+		System.out.println("sent\texpected\treceived\tlost\treordered\tsent/s\tdelivered/s");
+		System.out.println(sent + "\t" + expected + "\t\t" + received + "\t\t" + (expected - received) + "\t" + reordered + "\t\t"
+				+ Math.round(sent / elapsed) + "\t" + Math.round(received / elapsed));
+		System.out.println("latency: " + latency);
+		System.out.println("clock round trips: " + roundTrips);
+		System.out.println("traffic of the musicians (compact=" + COMPACT + "): " + traffic);
+	}
+	
+	private static String getLogin(int musician,boolean serverUsers){
+		return (serverUsers ? SERVER_USERS[musician % SERVER_USERS.length] : ("M" + musician));
+	}
+	
+	private static int countMembers(int session,int sessions,int musicians){
+		return ((musicians / sessions) + (session < (musicians % sessions) ? 1 : 0));
+	}
+	
+	private static long waitReceived(Musician[] all,long expected) throws InterruptedException{
+		long limit = (System.currentTimeMillis() + DRAIN_MILLIS);
+		long received = 0;
+		while(System.currentTimeMillis() < limit){
+			received = 0;
+			for(int i = 0; i < all.length; i ++){
+				received += all[i].getReceived();
+			}
+			if(received >= expected){
+				break;
+			}
+			Thread.sleep(50);
+		}
+		return received;
+	}
+	
+	private static int getMicros(){
+		return (int)((System.nanoTime() - ORIGIN) / 1000);
+	}
+	
+	/**
+	 * A client with its own connection: a thread plays the notes, another reads what comes.
+	 * PlayNote values: note, track, duration, session time, user id, the clock the server gives it,
+	 * the high word of the session time, then the write time (us) and the number of the note,
+	 * that the clients ignore.
+	 */
+	private static class Musician extends Thread{
+		protected int number;
+		protected String login;
+		protected String session;
+		protected int members;
+		protected CollabClock clock;
+		protected CollabLatency latency;
+		protected CollabTraffic traffic;
+		protected long sent;
+		
+		private Socket socket;
+		private DataInputStream input;
+		private DataOutputStream output;
+		private int sequence;
+		private int userId;
+		private int[] next;
+		private long received;
+		private long reordered;
+		private double rate;
+		private int seconds;
+		private long start;
+		private CollabDictionary dictionary;
+		
+		public Musician(int number,String login,String session,int members,CollabLatency latency,CollabTraffic traffic){
+			super("Musician " + number);
+			this.number = number;
+			this.login = login;
+			this.session = session;
+			this.members = members;
+			this.latency = latency;
+			this.traffic = traffic;
+			this.clock = new CollabClock();
+			this.next = new int[256];
+		}
+		
+		/**
+		 * Logs in, enters the session and synchronizes the clock, the answers of the
+		 * clock also tell that the server has handled the session message.
+		 */
+		public void connect(String host,int port,boolean open) throws IOException{
+			this.socket = new Socket(host, port);
+			this.socket.setTcpNoDelay(true);
+			this.input = new DataInputStream(this.socket.getInputStream());
+			this.output = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+			
+			this.send(new CollabMessage(CollabMessage.LOGIN, new int[]{ (COMPACT ? CollabCodec.COMPACT : 0) }, new String[]{ this.login, this.login }));
+			CollabMessage answer = this.read();
+			if(answer == null || answer.getType() != CollabMessage.SESSION_LIST){
+				throw new IOException("Login refused: " + this.login);
+			}
+			if(COMPACT && answer.countValues() > 1 && (answer.getValue(1) & CollabCodec.COMPACT) != 0){
+				this.dictionary = new CollabDictionary();
+			}
+			this.send(new CollabMessage((open ? CollabMessage.NEW_SESSION : CollabMessage.JOIN_SESSION), new String[]{ this.session }));
+			
+			boolean more = true;
+			while(more){
+				this.send(this.clock.newRequest());
+				CollabMessage message = this.read();
+				while(message != null && message.getType() != CollabMessage.CLOCK_SYNC){
+					this.receive(message);
+					message = this.read();
+				}
+				if(message == null){
+					throw new IOException("Connection closed: " + this.login);
+				}
+				more = this.clock.answer(message);
+			}
+		}
+		
+		public void listen(){
+			Thread reader = new Thread("Listener " + this.number){
+				public void run(){
+					try{
+						CollabMessage message = Musician.this.read();
+						while(message != null){
+							Musician.this.receive(message);
+							message = Musician.this.read();
+						}
+					}catch(IOException e){
+						// closed at the end
+					}
+				}
+			};
+			reader.setDaemon(true);
+			reader.start();
+		}
+		
+		public void play(double rate,int seconds,long start){
+			this.rate = rate;
+			this.seconds = seconds;
+			this.start = start;
+			this.start();
+		}
+		
+		public void run(){
+			long interval = (long)(1000000000.0 / this.rate);
+			long end = (this.start + (this.seconds * 1000000000L));
+			// the musicians do not play in step
+			long time = (this.start + (((interval / 100) * this.number) % interval));
+			try{
+				while(time < end){
+					long wait = ((time - System.nanoTime()) / 1000000);
+					if(wait > 0){
+						Thread.sleep(wait);
+					}
+					long now = this.clock.now();
+					int[] values = new int[]{ 40 + (int)(this.sent % 24), 0, TGDuration.EIGHTH, (int)now, this.userId, 0, CollabMessage.getHigh(now), getMicros(), (int)this.sent };
+					this.send(new CollabMessage(CollabMessage.PLAY_NOTE, values, new String[]{ this.login, Integer.toString(this.number) }));
+					this.sent ++;
+					time += interval;
+				}
+			}catch(Throwable throwable){
+				throwable.printStackTrace();
+			}
+		}
+		
+		protected void receive(CollabMessage message) throws IOException{
+			if(message.getType() == CollabMessage.PLAY_NOTE && message.countValues() > 8){
+				int now = getMicros();
+				int from = Integer.parseInt(message.getText(1));
+				int count = message.getValue(8);
+				this.latency.add((now - message.getValue(7)) * 1000L);
+				synchronized(this){
+					if(from >= this.next.length){
+						int[] next = new int[from * 2];
+						System.arraycopy(this.next, 0, next, 0, this.next.length);
+						this.next = next;
+					}
+					if(count < this.next[from]){
+						this.reordered ++;
+					}else{
+						this.next[from] = (count + 1);
+					}
+					this.received ++;
+				}
+			}
+			else if(message.getType() == CollabMessage.DICTIONARY && this.dictionary != null){
+				this.dictionary.put(message.getValue(0), message.getText(0));
+			}
+			else if(message.getType() == CollabMessage.SESSION_START && message.getValue(1) == 1){
+				this.userId = message.getValue(0);
+			}
+			// the song of the session is empty, the one that joins gets no data
+			else if(message.getType() == CollabMessage.MODEL_REQUEST){
+				this.send(new CollabMessage(CollabMessage.INITIAL_MODEL, new int[]{ 0 }, new String[]{ message.getText(0) }, null));
+			}
+		}
+		
+		public synchronized long getReceived(){
+			return this.received;
+		}
+		
+		public synchronized long getReordered(){
+			return this.reordered;
+		}
+		
+		private CollabMessage read() throws IOException{
+			return CollabCodec.read(this.input, this.dictionary, this.traffic);
+		}
+		
+		private void send(CollabMessage message) throws IOException{
+			synchronized(this.output){
+				message.setSequence(++ this.sequence);
+				byte[] frame = CollabCodec.encode(message, this.dictionary);
+				this.output.write(frame);
+				this.output.flush();
+				this.traffic.addOut(frame.length, (this.dictionary != null ? CollabCodec.getLength(message) : frame.length));
+			}
+		}
+		
+		public void close(){
+			try{
+				this.socket.close();
+			}catch(IOException e){
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package org.herac.tuxguitar.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.herac.tuxguitar.collab.CollabLatency;
+import org.herac.tuxguitar.collab.CollabMember;
+import org.herac.tuxguitar.collab.CollabMessage;
+import org.herac.tuxguitar.collab.CollabOperation;
+import org.herac.tuxguitar.collab.CollabRecorder;
+import org.herac.tuxguitar.collab.CollabReplayer;
+import org.herac.tuxguitar.collab.CollabReplica;
+import org.herac.tuxguitar.collab.CollabRoster;
+import org.herac.tuxguitar.collab.CollabSnapshot;
+import org.herac.tuxguitar.song.managers.TGSongManager;
+import org.herac.tuxguitar.song.models.TGDuration;
+
+/**
+ * Replays a log of the frames a client received (CollabRecorder, -Dtuxguitar.collab.record=file)
+ * on a client without editor: the roster, the song of INITIAL_MODEL, and the notes applied in
+ * batches as ClienteRecebe.TocaNotas does, a batch when nothing else arrived or at MAX_NOTES.
+ * Reports the time to apply each batch and the measures each one changes, the ones the editor
+ * lays out and paints again.
+ * Without a log, one is made of MUSICIANS playing NOTES_PER_SECOND for SECONDS.
+ * Arguments: [log file, "-" for the one made here] [realtime, 1x instead of as fast as possible].
+ */
+public class CollabReplayBenchmark {
+	
+	private static final int MAX_NOTES = 64;
+	
+	private static final int MUSICIANS = 4;
+	private static final int NOTES_PER_SECOND = 20;
+	private static final int SECONDS = 30;
+	
+	public static void main(String[] args) throws Throwable {
+		boolean realTime = (args.length > 1 && args[1].equals("realtime"));
+		InputStream stream = null;
+		if(args.length > 0 && !args[0].equals("-")){
+			stream = new FileInputStream(args[0]);
+		}else{
+			stream = new ByteArrayInputStream(createLog());
+		}
+		CollabReplayer replayer = new CollabReplayer(stream, realTime);
+		
+		TGSongManager manager = new TGSongManager();
+		manager.setSong(manager.newSong());
+		CollabReplica replica = new CollabReplica("replay");
+		CollabRoster roster = new CollabRoster();
+		
+		CollabLatency batches = new CollabLatency();
+		long frames = 0;
+		long notes = 0;
+		long measures = 0;
+		long applying = 0;
+		List batch = new ArrayList();
+		
+		long start = System.nanoTime();
+		CollabMessage message = replayer.next();
+		while(message != null){
+			frames ++;
+			if(message.getType() == CollabMessage.PLAY_NOTE || message.getType() == CollabMessage.NOTE_OPERATION){
+				batch.add(message);
+			}
+			else if(message.getType() == CollabMessage.SESSION_START){
+				roster.join(message.getValue(0), message.getText(0), message.getValue(1) == 1);
+			}
+			else if(message.getType() == CollabMessage.SESSION_END){
+				roster.leave(message.getValue(0));
+			}
+			else if(message.getType() == CollabMessage.INITIAL_MODEL && message.getData() != null){
+				manager.setSong(CollabSnapshot.read(manager.getFactory(), message.getData(), replica));
+			}
+			if(!batch.isEmpty() && (!replayer.isReady() || batch.size() >= MAX_NOTES)){
+				List changed = new ArrayList();
+				long time = System.nanoTime();
+				apply(manager, replica, roster, batch, changed);
+				time = (System.nanoTime() - time);
+				
+				batches.add(time);
+				applying += time;
+				notes += batch.size();
+				measures += changed.size();
+				batch.clear();
+			}
+			message = replayer.next();
+		}
+		long elapsed = (System.nanoTime() - start);
+		replayer.close();
+		
+		System.out.println("mode=" + (realTime ? "1x" : "fast") + " log=" + (args.length > 0 ? args[0] : "-") + " replay ms=" + (elapsed / 1000000) + " log ms=" + (replayer.getTime() / 1000));
+		System.out.println("frames\tnotes\tbatches\tmeasures\tapply ms\tnotes/s");
+		System.out.println(frames + "\t" + notes + "\t" + batches.getCount() + "\t" + measures + "\t\t" + (applying / 1000000) + "\t\t" + (applying > 0 ? Math.round(notes / (applying / 1000000000.0)) : 0));
+		System.out.println("batch apply: " + batches);
+	}
+	
+	/**
+	 * The model part of ClienteRecebe.TocaNotas: each note at the cursor of its user (or of the
+	 * operation), the changed measures in the list.
+	 */
+	private static void apply(TGSongManager manager,CollabReplica replica,CollabRoster roster,List messages,List changed){
+		for(int i = 0; i < messages.size(); i ++){
+			CollabMessage message = (CollabMessage)messages.get(i);
+			CollabOperation operation = null;
+			if(message.getType() == CollabMessage.PLAY_NOTE){
+				CollabMember member = roster.getMember(message.getValue(4), message.getText(0));
+				operation = replica.newPlayNote(manager, message, (member != null ? member.getTrack() : 0), changed);
+			}else{
+				operation = CollabOperation.fromMessage(message);
+			}
+			if(operation != null){
+				replica.apply(manager, operation, changed);
+			}
+		}
+	}
+	
+	/**
+	 * The frames a member receives while the others play: the roster, the song, then the
+	 * notes of each musician in turn, at the session time they were played.
+	 */
+	private static byte[] createLog() throws Throwable {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CollabRecorder recorder = new CollabRecorder(bytes);
+		long origin = System.nanoTime();
+		int sequence = 0;
+		
+		for(int i = 0; i <= MUSICIANS; i ++){
+			CollabMessage start = new CollabMessage(CollabMessage.SESSION_START, new int[]{ (i + 1), (i == MUSICIANS ? 1 : 0) }, new String[]{ ("M" + i) });
+			start.setSequence(++ sequence);
+			recorder.record(start, origin);
+		}
+		TGSongManager manager = new TGSongManager();
+		manager.setSong(manager.newSong());
+		CollabMessage model = new CollabMessage(CollabMessage.INITIAL_MODEL, new int[]{ 0 }, new String[0], CollabSnapshot.write(manager, new CollabReplica("member")));
+		model.setSequence(++ sequence);
+		recorder.record(model, origin);
+		
+		long interval = (1000000000L / (NOTES_PER_SECOND * MUSICIANS));
+		int count = (NOTES_PER_SECOND * MUSICIANS * SECONDS);
+		for(int i = 0; i < count; i ++){
+			int musician = (i % MUSICIANS);
+			long time = (interval * (i + 1));
+			CollabMessage note = CollabMessage.newPlayNote((48 + (i % 24)), 0, TGDuration.SIXTEENTH, (time / 1000000), (musician + 1), ("M" + musician));
+			note.setSequence(++ sequence);
+			recorder.record(note, (origin + time));
+		}
+		recorder.close();
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,126 @@
+package org.herac.tuxguitar.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.herac.tuxguitar.collab.CollabOperation;
+import org.herac.tuxguitar.collab.CollabReplica;
+import org.herac.tuxguitar.collab.CollabSnapshot;
+import org.herac.tuxguitar.song.managers.TGSongManager;
+import org.herac.tuxguitar.song.models.TGBeat;
+import org.herac.tuxguitar.song.models.TGDuration;
+import org.herac.tuxguitar.song.models.TGMeasure;
+import org.herac.tuxguitar.song.models.TGNote;
+import org.herac.tuxguitar.song.models.TGSong;
+import org.herac.tuxguitar.song.models.TGTrack;
+
+/**
+ * Measures the join of a late member to a session: the snapshot written by a member,
+ * its size, the snapshot read by the member that joins, and the operations that arrived
+ * after the snapshot applied on top of it.
+ * The song has 300 measures and 8 tracks of eighth notes, some of them already edited
+ * by operations, so the snapshot carries their stamps too.
+ */
+public class CollabSnapshotBenchmark {
+	
+	private static final int MEASURES = 300;
+	private static final int TRACKS = 8;
+	private static final int BEATS_PER_MEASURE = 8;
+	private static final int NOTES_PER_BEAT = 2;
+	private static final int OPERATIONS = 5000;
+	private static final int DELTAS = 500;
+	private static final int RUNS = 5;
+	
+	public static void main(String[] args) throws Throwable {
+		TGSongManager manager = createSong();
+		CollabReplica replica = new CollabReplica("member");
+		List operations = createOperations(manager, OPERATIONS + DELTAS);
+		for(int i = 0; i < OPERATIONS; i ++){
+			replica.apply(manager, (CollabOperation)operations.get(i), null);
+		}
+		
+		System.out.println("measures=" + MEASURES + " tracks=" + TRACKS + " operations=" + OPERATIONS + " deltas=" + DELTAS + " runs=" + RUNS + " (best ms)");
+		System.out.println("bytes\twrite\tread\tdeltas\ttotal");
+		
+		long bestWrite = Long.MAX_VALUE;
+		long bestRead = Long.MAX_VALUE;
+		long bestDeltas = Long.MAX_VALUE;
+		long bestTotal = Long.MAX_VALUE;
+		int bytes = 0;
+		for(int run = 0; run < (RUNS + 1); run ++){
+			long time = System.nanoTime();
+			byte[] snapshot = CollabSnapshot.write(manager, replica);
+			long written = System.nanoTime();
+			
+			TGSongManager joiner = new TGSongManager();
+			CollabReplica joinerReplica = new CollabReplica("joiner");
+			joiner.setSong(CollabSnapshot.read(joiner.getFactory(), snapshot, joinerReplica));
+			long read = System.nanoTime();
+			
+			for(int i = OPERATIONS; i < operations.size(); i ++){
+				joinerReplica.apply(joiner, (CollabOperation)operations.get(i), null);
+			}
+			long applied = System.nanoTime();
+			
+			// the first run warms up
+			if(run > 0){
+				bestWrite = Math.min(bestWrite, (written - time));
+				bestRead = Math.min(bestRead, (read - written));
+				bestDeltas = Math.min(bestDeltas, (applied - read));
+				bestTotal = Math.min(bestTotal, (applied - time));
+			}
+			bytes = snapshot.length;
+		}
+		System.out.println(bytes + "\t" + (bestWrite / 1000000) + "\t" + (bestRead / 1000000) + "\t" + (bestDeltas / 1000000) + "\t" + (bestTotal / 1000000));
+	}
+	
+	private static TGSongManager createSong(){
+		TGSongManager manager = new TGSongManager();
+		manager.setSong(manager.newSong());
+		for(int i = 1; i < TRACKS; i ++){
+			manager.createTrack();
+		}
+		for(int i = 1; i < MEASURES; i ++){
+			manager.addNewMeasureBeforeEnd();
+		}
+		TGSong song = manager.getSong();
+		for(int t = 0; t < song.countTracks(); t ++){
+			TGTrack track = song.getTrack(t);
+			for(int m = 0; m < track.countMeasures(); m ++){
+				TGMeasure measure = track.getMeasure(m);
+				for(int b = 0; b < BEATS_PER_MEASURE; b ++){
+					TGBeat beat = manager.getFactory().newBeat();
+					beat.setStart(measure.getStart() + (b * beatLength()));
+					beat.getDuration().setValue(TGDuration.EIGHTH);
+					for(int n = 0; n < NOTES_PER_BEAT; n ++){
+						TGNote note = manager.getFactory().newNote();
+						note.setString(n + 1);
+						note.setValue((b + m) % 12);
+						beat.addNote(note);
+					}
+					measure.addBeat(beat);
+				}
+			}
+		}
+		return manager;
+	}
+	
+	private static List createOperations(TGSongManager manager,int count){
+		CollabReplica[] sites = new CollabReplica[]{ new CollabReplica("A"), new CollabReplica("B"), new CollabReplica("C") };
+		Random random = new Random(count);
+		List operations = new ArrayList();
+		for(int i = 0; i < count; i ++){
+			int measure = (random.nextInt(MEASURES) + 1);
+			long start = (manager.getMeasureHeader(measure).getStart() + random.nextInt(BEATS_PER_MEASURE) * beatLength());
+			int kind = (random.nextInt(5) == 0 ? CollabOperation.REMOVE : CollabOperation.INSERT);
+			CollabReplica site = sites[random.nextInt(sites.length)];
+			operations.add(site.newOperation(kind, random.nextInt(TRACKS) + 1, measure, start, random.nextInt(6) + 1, random.nextInt(15), 95, TGDuration.EIGHTH, "A"));
+		}
+		return operations;
+	}
+	
+	private static long beatLength(){
+		return ((TGDuration.QUARTER_TIME * 4) / BEATS_PER_MEASURE);
+	}
+}
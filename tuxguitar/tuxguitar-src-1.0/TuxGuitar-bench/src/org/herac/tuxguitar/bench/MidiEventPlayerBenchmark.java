@@ -0,0 +1,172 @@
+package org.herac.tuxguitar.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.herac.tuxguitar.player.base.MidiPlayerException;
+import org.herac.tuxguitar.player.impl.sequencer.MidiEvent;
+import org.herac.tuxguitar.player.impl.sequencer.MidiEventPlayer;
+import org.herac.tuxguitar.player.impl.sequencer.MidiSequencerImpl;
+import org.herac.tuxguitar.song.models.TGDuration;
+
+/**
+ * Measures the cost of one sequencer timer wakeup for songs of growing length.
+ * The timeline walk must stay flat, the full list scan (the previous implementation) grows with the song.
+ */
+public class MidiEventPlayerBenchmark {
+	
+	private static final int TRACKS = 20;
+	private static final int NOTES_PER_MEASURE = 8;
+	private static final int[] MEASURES = new int[]{ 25, 50, 100, 200, 400, 800 };
+	
+	private static final long MEASURE_LENGTH = (TGDuration.QUARTER_TIME * 4);
+	
+	// 15 ms timer delay at 120 bpm.
+	private static final long TICKS_PER_WAKEUP = ((TGDuration.QUARTER_TIME * 120 * 15) / (60 * 1000));
+	private static final int WAKEUPS = 2000;
+	
+	public static void main(String[] args) throws Throwable {
+		System.out.println("tracks=" + TRACKS + " notes/measure/track=" + NOTES_PER_MEASURE + " wakeups=" + WAKEUPS);
+		System.out.println("measures\tevents\ttimeline ns/tick\tfull scan ns/tick");
+		
+		// warm up
+		run(MEASURES[0], true);
+		run(MEASURES[0], false);
+		
+		for(int i = 0; i < MEASURES.length; i ++){
+			List events = createEvents(MEASURES[i]);
+			long timeline = run(events, true);
+			long fullScan = run(events, false);
+			System.out.println(MEASURES[i] + "\t\t" + events.size() + "\t" + timeline + "\t\t\t" + fullScan);
+		}
+	}
+	
+	private static long run(int measures, boolean timeline) throws MidiPlayerException{
+		return run(createEvents(measures), timeline);
+	}
+	
+	private static long run(List events, boolean timeline) throws MidiPlayerException{
+		BenchSequencer sequencer = new BenchSequencer();
+		MidiEventPlayer player = new MidiEventPlayer(sequencer);
+		FullScanPlayer scanner = new FullScanPlayer(sequencer);
+		for(int i = 0; i < events.size(); i ++){
+			if(timeline){
+				player.addEvent((MidiEvent)events.get(i));
+			}else{
+				scanner.addEvent((MidiEvent)events.get(i));
+			}
+		}
+		sequencer.tick = TGDuration.QUARTER_TIME;
+		player.reset();
+		scanner.reset();
+		
+		// first wakeup sorts the timeline and restores the controllers, it is not part of the per tick cost.
+		if(timeline){
+			player.process();
+		}else{
+			scanner.process();
+		}
+		
+		long start = System.nanoTime();
+		for(int i = 0; i < WAKEUPS; i ++){
+			sequencer.tick += TICKS_PER_WAKEUP;
+			if(timeline){
+				player.process();
+			}else{
+				scanner.process();
+			}
+		}
+		return ((System.nanoTime() - start) / WAKEUPS);
+	}
+	
+	private static List createEvents(int measures){
+		List events = new ArrayList();
+		long noteLength = (MEASURE_LENGTH / NOTES_PER_MEASURE);
+		for(int track = 0; track < TRACKS; track ++){
+			int channel = (track % 16);
+			events.add(MidiEvent.programChange(TGDuration.QUARTER_TIME, track, channel, track));
+			events.add(MidiEvent.controlChange(TGDuration.QUARTER_TIME, track, channel, 7, 100));
+			for(int measure = 0; measure < measures; measure ++){
+				long measureStart = (TGDuration.QUARTER_TIME + (measure * MEASURE_LENGTH));
+				for(int note = 0; note < NOTES_PER_MEASURE; note ++){
+					long start = (measureStart + (note * noteLength));
+					int key = (40 + ((track + note) % 40));
+					events.add(MidiEvent.noteOn(start, track, channel, key, 95));
+					events.add(MidiEvent.noteOff(start + noteLength, track, channel, key, 95));
+				}
+			}
+		}
+		return events;
+	}
+	
+	private static class BenchSequencer extends MidiSequencerImpl{
+		
+		protected long tick;
+		protected long sent;
+		
+		public synchronized long getTickPosition(){
+			return this.tick;
+		}
+		
+		public synchronized void sendEvent(int type,int data){
+			this.sent ++;
+		}
+	}
+	
+	/**
+	 * Copy of the previous MidiEventPlayer, it walks every event on each wakeup.
+	 */
+	private static class FullScanPlayer{
+		private BenchSequencer sequencer;
+		private List events;
+		private long tick;
+		private long lastTick;
+		private boolean reset;
+		
+		public FullScanPlayer(BenchSequencer sequencer){
+			this.sequencer = sequencer;
+			this.events = new ArrayList();
+		}
+		
+		public void process(){
+			this.lastTick = this.tick;
+			this.tick = this.sequencer.getTickPosition();
+			for(int i = 0;i < this.events.size();i ++){
+				MidiEvent event = (MidiEvent)this.events.get(i);
+				if(shouldSend(event,this.tick,this.lastTick)){
+					this.sequencer.sendEvent(event.getType(),0);
+				}
+			}
+			this.reset = false;
+		}
+		
+		private boolean shouldSend(MidiEvent event,long tick,long lastTick){
+			if(event.getTick() > tick){
+				return false;
+			}
+			if(event.getTrack() != MidiEvent.ALL_TRACKS){
+				if(this.sequencer.getMidiTrackController().isMute(event.getTrack())){
+					return false;
+				}
+				if(this.sequencer.getMidiTrackController().isAnySolo() && !this.sequencer.getMidiTrackController().isSolo(event.getTrack())){
+					return false;
+				}
+			}
+			if(this.reset){
+				if(event.getType() == MidiEvent.MIDI_SYSTEM_EVENT || event.getType() == MidiEvent.MIDI_EVENT_CONTROL_CHANGE || event.getType() == MidiEvent.MIDI_EVENT_PROGRAM_CHANGE){
+					return true;
+				}
+			}
+			return (event.getTick() > lastTick);
+		}
+		
+		public void addEvent(MidiEvent event){
+			this.events.add(event);
+		}
+		
+		public void reset(){
+			this.tick = (this.sequencer.getTickPosition() - 1);
+			this.reset = true;
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package org.herac.tuxguitar.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+import org.herac.tuxguitar.player.base.MidiPlayerException;
+import org.herac.tuxguitar.player.base.MidiSequenceBlock;
+import org.herac.tuxguitar.player.base.MidiSequenceHandler;
+import org.herac.tuxguitar.player.base.MidiSequenceParser;
+import org.herac.tuxguitar.player.impl.sequencer.MidiEvent;
+import org.herac.tuxguitar.player.impl.sequencer.MidiEventPlayer;
+import org.herac.tuxguitar.player.impl.sequencer.MidiEventTimeline;
+import org.herac.tuxguitar.player.impl.sequencer.MidiSequencerImpl;
+import org.herac.tuxguitar.song.managers.TGSongManager;
+import org.herac.tuxguitar.song.models.TGBeat;
+import org.herac.tuxguitar.song.models.TGDuration;
+import org.herac.tuxguitar.song.models.TGMeasure;
+import org.herac.tuxguitar.song.models.TGNote;
+import org.herac.tuxguitar.song.models.TGSong;
+import org.herac.tuxguitar.song.models.TGTimeSignature;
+
+/**
+ * Measures the memory allocated to load a song into the built-in sequencer event player (parse and sort).
+ * The "events" column creates one MidiEvent (and its data array) per event as the previous sequence handler did,
+ * the "packed" column adds the events as primitives like the current handler, and "reload" loads the song again
+ * into the same player, as the sequencer does on each play.
+ * Allocated bytes are only available on virtual machines that count them per thread.
+ */
+public class MidiSequenceMemoryBenchmark {
+	
+	private static final int TRACKS = 30;
+	private static final int BEATS_PER_MEASURE = 8;
+	private static final int NOTES_PER_BEAT = 3;
+	private static final int[] MEASURES = new int[]{ 50, 200, 800 };
+	
+	public static void main(String[] args) throws Throwable {
+		System.out.println("tracks=" + TRACKS + " beats/measure=" + BEATS_PER_MEASURE + " notes/beat=" + NOTES_PER_BEAT);
+		System.out.println("measures\tevents\t\tevents KB\tpacked KB\treload KB\tretained bytes/event");
+		
+		// warm up
+		TGSongManager warmup = createSong(MEASURES[0]);
+		load(warmup, new MidiEventPlayer(new BenchSequencer()), false);
+		load(warmup, new MidiEventPlayer(new BenchSequencer()), true);
+		
+		for(int i = 0; i < MEASURES.length; i ++){
+			TGSongManager manager = createSong(MEASURES[i]);
+			long[] events = load(manager, new MidiEventPlayer(new BenchSequencer()), false);
+			
+			gc();
+			long used = usedMemory();
+			MidiEventPlayer player = new MidiEventPlayer(new BenchSequencer());
+			long[] packed = load(manager, player, true);
+			long[] reload = load(manager, player, true);
+			gc();
+			long retained = (usedMemory() - used);
+			
+			System.out.println(MEASURES[i] + "\t\t" + packed[0] + "\t\t" + format(events[1]) + "\t\t" + format(packed[1]) + "\t\t" + format(reload[1]) + "\t\t" + (retained / Math.max(packed[0], 1)));
+			if(player.getNextTick() < 0){
+				System.out.println("empty player");
+			}
+		}
+	}
+	
+	/**
+	 * Returns the events and the allocated bytes of one song load.
+	 */
+	private static long[] load(TGSongManager manager,MidiEventPlayer player,boolean packed) throws MidiPlayerException{
+		player.clearEvents();
+		long start = allocatedBytes();
+		MidiSequenceParser parser = new MidiSequenceParser(manager, MidiSequenceParser.DEFAULT_PLAY_FLAGS);
+		LoadHandler handler = new LoadHandler(player, (manager.getSong().countTracks() + 2), packed);
+		parser.parse(handler);
+		player.reset();
+		player.process();
+		long allocated = (start < 0 ? -1 : (allocatedBytes() - start));
+		return new long[]{ handler.events, allocated };
+	}
+	
+	private static String format(long bytes){
+		return (bytes < 0 ? "n/a" : Long.toString(bytes / 1024));
+	}
+	
+	private static void gc(){
+		for(int i = 0; i < 4; i ++){
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	private static long usedMemory(){
+		return (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+	}
+	
+	private static long allocatedBytes(){
+		try {
+			Object bean = ManagementFactory.getThreadMXBean();
+			Method method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", new Class[]{ long.class });
+			return ((Long)method.invoke(bean, new Object[]{ Long.valueOf(Thread.currentThread().getId()) })).longValue();
+		} catch (Throwable throwable) {
+			return -1;
+		}
+	}
+	
+	private static TGSongManager createSong(int measures){
+		TGSongManager manager = new TGSongManager();
+		manager.setSong(manager.newSong());
+		TGSong song = manager.getSong();
+		for(int i = 1; i < measures; i ++){
+			manager.addNewMeasureBeforeEnd();
+		}
+		for(int i = 1; i < TRACKS; i ++){
+			manager.createTrack();
+		}
+		long beatLength = ((TGDuration.QUARTER_TIME * 4) / BEATS_PER_MEASURE);
+		for(int t = 0; t < song.countTracks(); t ++){
+			for(int m = 0; m < measures; m ++){
+				TGMeasure measure = song.getTrack(t).getMeasure(m);
+				for(int b = 0; b < BEATS_PER_MEASURE; b ++){
+					TGBeat beat = manager.getFactory().newBeat();
+					beat.setStart(measure.getStart() + (b * beatLength));
+					beat.getDuration().setValue(TGDuration.EIGHTH);
+					measure.addBeat(beat);
+					for(int string = 1; string <= NOTES_PER_BEAT; string ++){
+						TGNote note = manager.getFactory().newNote();
+						note.setString(string);
+						note.setValue((b + string) % 12);
+						note.setVelocity(95);
+						note.getEffect().setVibrato(string == 1 && (b % 4) == 0);
+						beat.addNote(note);
+					}
+				}
+			}
+		}
+		return manager;
+	}
+	
+	private static class BenchSequencer extends MidiSequencerImpl{
+		
+		public synchronized long getTickPosition(){
+			return TGDuration.QUARTER_TIME;
+		}
+		
+		public synchronized void sendEvent(int type,int data){
+			//not sent
+		}
+	}
+	
+	/**
+	 * Adds the events to the player as the sequence handler of the built-in sequencer does,
+	 * or creating a MidiEvent for each one as the previous handler did.
+	 */
+	private static class LoadHandler extends MidiSequenceHandler{
+		
+		private MidiEventPlayer player;
+		private boolean packed;
+		protected long events;
+		
+		public LoadHandler(MidiEventPlayer player,int tracks,boolean packed){
+			super(tracks);
+			this.player = player;
+			this.packed = packed;
+		}
+		
+		private void add(long tick,int type,int track,int data,MidiEvent event){
+			this.events ++;
+			if(this.packed){
+				this.player.addEvent(tick, type, track, data, MidiSequenceBlock.NO_BLOCK);
+			}else{
+				this.player.addEvent(event);
+			}
+		}
+		
+		public void addNoteOn(long tick,int track,int channel,int note,int velocity){
+			this.add(tick, MidiEvent.MIDI_EVENT_NOTEON, track, MidiEventTimeline.pack(channel, note, velocity), (this.packed ? null : MidiEvent.noteOn(tick, track, channel, note, velocity)));
+		}
+		
+		public void addNoteOff(long tick,int track,int channel,int note,int velocity){
+			this.add(tick, MidiEvent.MIDI_EVENT_NOTEOFF, track, MidiEventTimeline.pack(channel, note, velocity), (this.packed ? null : MidiEvent.noteOff(tick, track, channel, note, velocity)));
+		}
+		
+		public void addControlChange(long tick,int track,int channel,int controller,int value){
+			this.add(tick, MidiEvent.MIDI_EVENT_CONTROL_CHANGE, track, MidiEventTimeline.pack(channel, controller, value), (this.packed ? null : MidiEvent.controlChange(tick, track, channel, controller, value)));
+		}
+		
+		public void addProgramChange(long tick,int track,int channel,int instrument){
+			this.add(tick, MidiEvent.MIDI_EVENT_PROGRAM_CHANGE, track, MidiEventTimeline.pack(channel, instrument, 0), (this.packed ? null : MidiEvent.programChange(tick, track, channel, instrument)));
+		}
+		
+		public void addPitchBend(long tick,int track,int channel,int value){
+			this.add(tick, MidiEvent.MIDI_EVENT_PITCH_BEND, track, MidiEventTimeline.pack(channel, value, 0), (this.packed ? null : MidiEvent.pitchBend(tick, track, channel, value)));
+		}
+		
+		public void addTempoInUSQ(long tick,int track,int usq){
+			this.add(tick, MidiEvent.MIDI_SYSTEM_EVENT, MidiEvent.ALL_TRACKS, (0x51 | ((usq & 0xffffff) << 8)), (this.packed ? null : MidiEvent.tempoInUSQ(tick, usq)));
+		}
+		
+		public void addTimeSignature(long tick,int track,TGTimeSignature ts){
+			//not implemented
+		}
+		
+		public void notifyFinish(){
+			//not implemented
+		}
+	}
+}
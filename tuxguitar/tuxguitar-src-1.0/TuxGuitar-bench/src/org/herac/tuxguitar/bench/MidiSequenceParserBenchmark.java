@@ -0,0 +1,219 @@
+package org.herac.tuxguitar.bench;
+
+import org.herac.tuxguitar.player.base.MidiSequenceHandler;
+import org.herac.tuxguitar.player.base.MidiSequenceParser;
+import org.herac.tuxguitar.song.managers.TGSongManager;
+import org.herac.tuxguitar.song.models.TGBeat;
+import org.herac.tuxguitar.song.models.TGDuration;
+import org.herac.tuxguitar.song.models.TGMeasure;
+import org.herac.tuxguitar.song.models.TGNote;
+import org.herac.tuxguitar.song.models.TGSong;
+import org.herac.tuxguitar.song.models.TGTimeSignature;
+import org.herac.tuxguitar.song.models.TGTrack;
+
+/**
+ * Measures the parse time of generated songs of growing note count.
+ * Each beat plays a melody note over a chord that is struck once and tied for a long passage.
+ * The parse must grow linearly with the notes, the "tie scans" column is the cost of
+ * the previous tie and hammer resolution (a scan of the following and previous beats for every note).
+ */
+public class MidiSequenceParserBenchmark {
+	
+	private static final int[] NOTES = new int[]{ 1000, 10000, 100000 };
+	
+	private static final int STRINGS = 6;
+	private static final int BEATS_PER_MEASURE = 8;
+	private static final int TIED_BEATS = 64;
+	private static final int RUNS = 5;
+	
+	public static void main(String[] args) throws Throwable {
+		System.out.println("strings=" + STRINGS + " beats/measure=" + BEATS_PER_MEASURE + " tied beats=" + TIED_BEATS + " runs=" + RUNS);
+		System.out.println("notes\t\tevents\t\tparse us\tparse ns/note\ttie scans us");
+		
+		// warm up
+		run(createSong(NOTES[0]));
+		
+		for(int i = 0; i < NOTES.length; i ++){
+			TGSongManager manager = createSong(NOTES[i]);
+			long[] result = run(manager);
+			long scans = runTieScans(manager.getSong().getTrack(0));
+			System.out.println(NOTES[i] + "\t\t" + result[1] + "\t\t" + (result[0] / 1000) + "\t\t" + (result[0] / NOTES[i]) + "\t\t" + (scans / 1000));
+		}
+	}
+	
+	/**
+	 * Returns the best parse time (nanoseconds) and the generated events.
+	 */
+	private static long[] run(TGSongManager manager){
+		long best = Long.MAX_VALUE;
+		long events = 0;
+		for(int i = 0; i < RUNS; i ++){
+			CountHandler handler = new CountHandler(manager.getSong().countTracks() + 2);
+			MidiSequenceParser parser = new MidiSequenceParser(manager, MidiSequenceParser.DEFAULT_EXPORT_FLAGS);
+			long start = System.nanoTime();
+			parser.parse(handler);
+			best = Math.min(best, (System.nanoTime() - start));
+			events = handler.events;
+		}
+		return new long[]{ best, events };
+	}
+	
+	private static long runTieScans(TGTrack track){
+		long best = Long.MAX_VALUE;
+		for(int i = 0; i < RUNS; i ++){
+			long start = System.nanoTime();
+			long total = 0;
+			for(int m = 0; m < track.countMeasures(); m ++){
+				TGMeasure measure = track.getMeasure(m);
+				for(int b = 0; b < measure.countBeats(); b ++){
+					TGBeat beat = measure.getBeat(b);
+					for(int n = 0; n < beat.countNotes(); n ++){
+						TGNote note = beat.getNote(n);
+						if(!note.isTiedNote()){
+							total += TieScans.getRealNoteDuration(note, beat.getDuration().getTime(), track, m, b);
+							total += (TieScans.getPreviousNote(note, track, m, b) != null ? 1 : 0);
+						}
+					}
+				}
+			}
+			best = Math.min(best, (System.nanoTime() - start));
+			if(total == 0){
+				System.out.println("no notes");
+			}
+		}
+		return best;
+	}
+	
+	private static TGSongManager createSong(int notes){
+		TGSongManager manager = new TGSongManager();
+		manager.setSong(manager.newSong());
+		TGSong song = manager.getSong();
+		int beats = (notes / STRINGS);
+		int measures = ((beats + BEATS_PER_MEASURE - 1) / BEATS_PER_MEASURE);
+		for(int i = 1; i < measures; i ++){
+			manager.addNewMeasureBeforeEnd();
+		}
+		TGTrack track = song.getTrack(0);
+		long beatLength = ((TGDuration.QUARTER_TIME * 4) / BEATS_PER_MEASURE);
+		for(int i = 0; i < beats; i ++){
+			TGMeasure measure = track.getMeasure(i / BEATS_PER_MEASURE);
+			TGBeat beat = manager.getFactory().newBeat();
+			beat.setStart(measure.getStart() + ((i % BEATS_PER_MEASURE) * beatLength));
+			beat.getDuration().setValue(TGDuration.EIGHTH);
+			measure.addBeat(beat);
+			for(int string = 1; string <= STRINGS; string ++){
+				TGNote note = manager.getFactory().newNote();
+				note.setString(string);
+				note.setVelocity(95);
+				if(string == 1){
+					note.setValue(i % 12);
+					note.getEffect().setHammer((i % 3) == 0);
+				}else{
+					note.setValue(string);
+					note.setTiedNote((i % TIED_BEATS) != 0);
+				}
+				beat.addNote(note);
+			}
+		}
+		return manager;
+	}
+	
+	private static class CountHandler extends MidiSequenceHandler{
+		
+		protected long events;
+		
+		public CountHandler(int tracks){
+			super(tracks);
+		}
+		
+		public void addNoteOn(long tick,int track,int channel,int note,int velocity){
+			this.events ++;
+		}
+		
+		public void addNoteOff(long tick,int track,int channel,int note,int velocity){
+			this.events ++;
+		}
+		
+		public void addControlChange(long tick,int track,int channel,int controller,int value){
+			this.events ++;
+		}
+		
+		public void addProgramChange(long tick,int track,int channel,int instrument){
+			this.events ++;
+		}
+		
+		public void addPitchBend(long tick,int track,int channel,int value){
+			this.events ++;
+		}
+		
+		public void addTempoInUSQ(long tick,int track,int usq){
+			this.events ++;
+		}
+		
+		public void addTimeSignature(long tick,int track,TGTimeSignature ts){
+			this.events ++;
+		}
+		
+		public void notifyFinish(){
+			//not implemented
+		}
+	}
+	
+	/**
+	 * Copy of the previous MidiSequenceParser note resolution, it scans the beats around every note.
+	 */
+	private static class TieScans{
+		
+		public static long getRealNoteDuration(TGNote note,long duration, TGTrack track, int mIndex, int bIndex) {
+			long lastEnd = (note.getBeat().getStart() + note.getBeat().getDuration().getTime());
+			long realDuration = duration;
+			int nextBIndex = (bIndex + 1);
+			int measureCount = track.countMeasures();
+			for (int m = mIndex; m < measureCount; m++) {
+				TGMeasure measure = track.getMeasure( m );
+				int beatCount = measure.countBeats();
+				for (int b = nextBIndex; b < beatCount; b++) {
+					TGBeat beat = measure.getBeat(b);
+					if(beat.isRestBeat()){
+						return realDuration;
+					}
+					int noteCount = beat.countNotes();
+					for (int n = 0; n < noteCount; n++) {
+						TGNote nextNote = beat.getNote( n );
+						if (!nextNote.equals(note)) {
+							if (nextNote.getString() == note.getString()) {
+								if (nextNote.isTiedNote()) {
+									realDuration += (beat.getStart() - lastEnd) + (nextNote.getBeat().getDuration().getTime());
+									lastEnd = (beat.getStart() + beat.getDuration().getTime());
+								} else {
+									return realDuration;
+								}
+							}
+						}
+					}
+				}
+				nextBIndex = 0;
+			}
+			return realDuration;
+		}
+		
+		public static TGNote getPreviousNote(TGNote note,TGTrack track, int mIndex, int bIndex){
+			int nextBIndex = bIndex;
+			for (int m = mIndex; m >= 0; m--) {
+				TGMeasure measure = track.getMeasure( m );
+				nextBIndex = (nextBIndex < 0 ? measure.countBeats() : nextBIndex);
+				for (int b = (nextBIndex - 1); b >= 0; b--) {
+					TGBeat beat = measure.getBeat( b );
+					for (int n = 0; n < beat.countNotes(); n ++) {
+						TGNote current = beat.getNote( n );
+						if(current.getString() == note.getString()){
+							return current;
+						}
+					}
+				}
+				nextBIndex = -1;
+			}
+			return null;
+		}
+	}
+}
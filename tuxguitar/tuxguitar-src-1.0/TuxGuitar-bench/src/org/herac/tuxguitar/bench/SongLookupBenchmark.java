@@ -0,0 +1,239 @@
+package org.herac.tuxguitar.bench;
+
+import java.util.Random;
+
+import org.herac.tuxguitar.song.managers.TGSongManager;
+import org.herac.tuxguitar.song.models.TGBeat;
+import org.herac.tuxguitar.song.models.TGDuration;
+import org.herac.tuxguitar.song.models.TGMeasure;
+import org.herac.tuxguitar.song.models.TGMeasureHeader;
+import org.herac.tuxguitar.song.models.TGSong;
+import org.herac.tuxguitar.song.models.TGTrack;
+
+/**
+ * Measures the song manager lookups (measure header, track measure and beat by start or number)
+ * on songs of growing measure count. The lookups must grow with the logarithm of the measures,
+ * the "linear" columns are the previous lookups, that scan the lists from the beginning.
+ * The "edited" column is a header lookup right after a header change, that checks the order again.
+ */
+public class SongLookupBenchmark {
+	
+	private static final int[] MEASURES = new int[]{ 100, 1000, 10000, 100000 };
+	
+	private static final int BEATS_PER_MEASURE = 16;
+	private static final int LOOKUPS = 20000;
+	private static final int RUNS = 5;
+	
+	private static final int HEADER_AT = 0;
+	private static final int HEADER = 1;
+	private static final int HEADERS_BETWEEN = 2;
+	private static final int MEASURE_AT = 3;
+	private static final int MEASURE = 4;
+	private static final int BEAT = 5;
+	private static final int BEAT_IN = 6;
+	private static final String[] NAMES = new String[]{ "headerAt", "header", "between", "measureAt", "measure", "beat", "beatIn" };
+	
+	public static void main(String[] args) throws Throwable {
+		System.out.println("beats/measure=" + BEATS_PER_MEASURE + " lookups=" + LOOKUPS + " runs=" + RUNS + " (ns/lookup)");
+		System.out.print("measures");
+		for(int i = 0; i < NAMES.length; i ++){
+			System.out.print("\t" + NAMES[i]);
+		}
+		System.out.println("\tlinear headerAt\tlinear measure\tlinear beatIn\tedited");
+		
+		// warm up
+		TGSongManager warmup = createSong(MEASURES[0]);
+		long[] warmupStarts = createStarts(warmup, LOOKUPS);
+		for(int i = 0; i < NAMES.length; i ++){
+			run(warmup, warmupStarts, i);
+		}
+		
+		for(int i = 0; i < MEASURES.length; i ++){
+			TGSongManager manager = createSong(MEASURES[i]);
+			long[] starts = createStarts(manager, LOOKUPS);
+			System.out.print(MEASURES[i]);
+			for(int lookup = 0; lookup < NAMES.length; lookup ++){
+				System.out.print("\t\t" + run(manager, starts, lookup));
+			}
+			// the linear lookups are too slow for all the starts on big songs
+			long[] linearStarts = createStarts(manager, Math.max(LOOKUPS / (MEASURES[i] / 100), 100));
+			System.out.print("\t\t" + runLinear(manager, linearStarts, HEADER_AT));
+			System.out.print("\t\t" + runLinear(manager, linearStarts, MEASURE));
+			System.out.print("\t\t" + runLinear(manager, linearStarts, BEAT_IN));
+			System.out.println("\t\t" + runEdited(manager, linearStarts));
+		}
+	}
+	
+	/**
+	 * Returns the best time (nanoseconds) of a lookup.
+	 */
+	private static long run(TGSongManager manager,long[] starts,int lookup){
+		TGTrack track = manager.getSong().getTrack(0);
+		long best = Long.MAX_VALUE;
+		long found = 0;
+		for(int run = 0; run < RUNS; run ++){
+			long time = System.nanoTime();
+			for(int i = 0; i < starts.length; i ++){
+				long start = starts[i];
+				switch(lookup){
+					case HEADER_AT:
+						found += manager.getMeasureHeaderAt(start).getNumber();
+						break;
+					case HEADER:
+						found += manager.getMeasureHeader((int)(start % manager.getSong().countMeasureHeaders()) + 1).getNumber();
+						break;
+					case HEADERS_BETWEEN:
+						found += manager.getMeasureHeadersBetween(start, start + TGDuration.QUARTER_TIME * 8).size();
+						break;
+					case MEASURE_AT:
+						found += manager.getTrackManager().getMeasureAt(track, start).getNumber();
+						break;
+					case MEASURE:
+						found += manager.getTrackManager().getMeasure(track, (int)(start % track.countMeasures()) + 1).getNumber();
+						break;
+					case BEAT:
+						TGMeasure measure = manager.getTrackManager().getMeasureAt(track, start);
+						TGBeat beat = manager.getMeasureManager().getBeat(measure, measure.getStart() + ((start - measure.getStart()) / beatLength()) * beatLength());
+						found += beat.getStart();
+						break;
+					case BEAT_IN:
+						found += manager.getMeasureManager().getBeatIn(manager.getTrackManager().getMeasureAt(track, start), start).getStart();
+						break;
+				}
+			}
+			best = Math.min(best, (System.nanoTime() - time));
+		}
+		check(found);
+		return (best / starts.length);
+	}
+	
+	private static long runLinear(TGSongManager manager,long[] starts,int lookup){
+		TGSong song = manager.getSong();
+		TGTrack track = song.getTrack(0);
+		long best = Long.MAX_VALUE;
+		long found = 0;
+		for(int run = 0; run < RUNS; run ++){
+			long time = System.nanoTime();
+			for(int i = 0; i < starts.length; i ++){
+				long start = starts[i];
+				switch(lookup){
+					case HEADER_AT:
+						found += LinearLookups.getMeasureHeaderAt(song, start).getNumber();
+						break;
+					case MEASURE:
+						found += LinearLookups.getMeasure(track, (int)(start % track.countMeasures()) + 1).getNumber();
+						break;
+					case BEAT_IN:
+						found += LinearLookups.getBeatIn(LinearLookups.getMeasureAt(track, start), start).getStart();
+						break;
+				}
+			}
+			best = Math.min(best, (System.nanoTime() - time));
+		}
+		check(found);
+		return (best / starts.length);
+	}
+	
+	private static long runEdited(TGSongManager manager,long[] starts){
+		TGMeasureHeader last = manager.getLastMeasureHeader();
+		long best = Long.MAX_VALUE;
+		long found = 0;
+		for(int run = 0; run < RUNS; run ++){
+			long time = System.nanoTime();
+			for(int i = 0; i < starts.length; i ++){
+				last.setStart(last.getStart());
+				found += manager.getMeasureHeaderAt(starts[i]).getNumber();
+			}
+			best = Math.min(best, (System.nanoTime() - time));
+		}
+		check(found);
+		return (best / starts.length);
+	}
+	
+	private static void check(long found){
+		if(found == 0){
+			System.out.println("nothing found");
+		}
+	}
+	
+	private static long beatLength(){
+		return ((TGDuration.QUARTER_TIME * 4) / BEATS_PER_MEASURE);
+	}
+	
+	private static long[] createStarts(TGSongManager manager,int count){
+		TGMeasureHeader first = manager.getFirstMeasureHeader();
+		TGMeasureHeader last = manager.getLastMeasureHeader();
+		long length = ((last.getStart() + last.getLength()) - first.getStart());
+		Random random = new Random(count);
+		long[] starts = new long[count];
+		for(int i = 0; i < count; i ++){
+			starts[i] = (first.getStart() + (long)(random.nextDouble() * length));
+		}
+		return starts;
+	}
+	
+	private static TGSongManager createSong(int measures){
+		TGSongManager manager = new TGSongManager();
+		manager.setSong(manager.newSong());
+		for(int i = 1; i < measures; i ++){
+			manager.addNewMeasureBeforeEnd();
+		}
+		TGTrack track = manager.getSong().getTrack(0);
+		for(int m = 0; m < track.countMeasures(); m ++){
+			TGMeasure measure = track.getMeasure(m);
+			for(int b = 0; b < BEATS_PER_MEASURE; b ++){
+				TGBeat beat = manager.getFactory().newBeat();
+				beat.setStart(measure.getStart() + (b * beatLength()));
+				beat.getDuration().setValue(TGDuration.SIXTEENTH);
+				measure.addBeat(beat);
+			}
+		}
+		return manager;
+	}
+	
+	/**
+	 * Copy of the previous song manager lookups, they scan the lists from the beginning.
+	 */
+	private static class LinearLookups{
+		
+		public static TGMeasureHeader getMeasureHeaderAt(TGSong song,long start){
+			for(int i = 0; i < song.countMeasureHeaders(); i ++){
+				TGMeasureHeader header = song.getMeasureHeader(i);
+				if(start >= header.getStart() && start < header.getStart() + header.getLength()){
+					return header;
+				}
+			}
+			return null;
+		}
+		
+		public static TGMeasure getMeasureAt(TGTrack track,long start){
+			for(int i = 0; i < track.countMeasures(); i ++){
+				TGMeasure measure = track.getMeasure(i);
+				if(start >= measure.getStart() && start < measure.getStart() + measure.getLength()){
+					return measure;
+				}
+			}
+			return null;
+		}
+		
+		public static TGMeasure getMeasure(TGTrack track,int number){
+			for(int i = 0; i < track.countMeasures(); i ++){
+				TGMeasure measure = track.getMeasure(i);
+				if(measure.getNumber() == number){
+					return measure;
+				}
+			}
+			return null;
+		}
+		
+		public static TGBeat getBeatIn(TGMeasure measure,long start){
+			for(int i = 0; i < measure.countBeats(); i ++){
+				TGBeat beat = measure.getBeat(i);
+				if(beat.getStart() <= start && (beat.getStart() + beat.getDuration().getTime() > start)){
+					return beat;
+				}
+			}
+			return null;
+		}
+	}
+}
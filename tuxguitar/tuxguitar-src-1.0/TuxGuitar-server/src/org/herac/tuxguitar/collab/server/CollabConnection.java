@@ -0,0 +1,479 @@
+package org.herac.tuxguitar.collab.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.BitSet;
+
+import org.herac.tuxguitar.collab.CollabCodec;
+import org.herac.tuxguitar.collab.CollabDictionary;
+import org.herac.tuxguitar.collab.CollabMessage;
+import org.herac.tuxguitar.collab.CollabTraffic;
+
+/**
+ * A client of the server, with its own input and output buffers.
+ * Frames are read from the input without copies and added to the output of
+ * every receiver, each connection numbers the frames it sends.
+ * The frames written stay in the output until the client acknowledges them, so when the
+ * socket is lost the client can resume on a new one without losing any (RESUME).
+ * A compact client (CollabCodec.COMPACT) knows the indexes of the dictionary of its session it was sent,
+ * and the traffic counts what its frames would take as plain ones.
+ * A client that does not start with a frame speaks the text protocol (CollabTextProtocol):
+ * its messages are read from the text, the frames for it are written as text, and it cannot resume.
+ */
+public class CollabConnection {
+	
+	/** Position of the sequence number inside a frame. */
+	private static final int SEQUENCE_OFFSET = (CollabCodec.HEADER_LENGTH + 1);
+	
+	private static final int BUFFER_SIZE = 4096;
+	
+	/** Buffers bigger than this go back to BUFFER_SIZE when they are empty. */
+	private static final int BUFFER_KEEP = (64 * 1024);
+	
+	/** Longest frame before the login, a LOGIN or a RESUME: nobody else can make the server allocate more. */
+	private static final int LOGIN_MAX_LENGTH = BUFFER_SIZE;
+	
+	/** Frames written and not acknowledged kept to send again, older ones are dropped. */
+	private static final int JOURNAL_SIZE = (256 * 1024);
+	
+	private static final int PROTOCOL_UNKNOWN = 0;
+	
+	private static final int PROTOCOL_FRAMES = 1;
+	
+	private static final int PROTOCOL_TEXT = 2;
+	
+	private int id;
+	private int protocol;
+	private SocketChannel channel;
+	private SelectionKey key;
+	private ByteBuffer input;
+	private ByteBuffer output;
+	private int frameOffset;
+	private int frameLength;
+	private int sequence;
+	private int written;
+	private int dropped;
+	private int received;
+	private long parkedTime;
+	private String login;
+	private CollabSession session;
+	private int userId;
+	private CollabConnection modelSource;
+	private boolean flushing;
+	private boolean closed;
+	private boolean compact;
+	private BitSet known;
+	private CollabTraffic traffic;
+	
+	public CollabConnection(int id,SocketChannel channel,SelectionKey key){
+		this.id = id;
+		this.channel = channel;
+		this.key = key;
+		this.input = ByteBuffer.allocate(BUFFER_SIZE);
+		this.output = ByteBuffer.allocate(BUFFER_SIZE);
+		this.known = new BitSet();
+		this.traffic = new CollabTraffic();
+	}
+	
+	/**
+	 * Reads what is available, returns false at the end of the stream.
+	 */
+	public boolean read() throws IOException{
+		return (this.channel.read(this.input) >= 0);
+	}
+	
+	/**
+	 * Returns the next complete message already read, or null.
+	 * Its frame stays in the input buffer (getFrame) until the next call.
+	 * The texts of compact frames come from the dictionary.
+	 * Before the login a frame longer than LOGIN_MAX_LENGTH is an error.
+	 */
+	public CollabMessage nextMessage(CollabDictionary dictionary) throws IOException{
+		this.frameOffset += this.frameLength;
+		this.frameLength = 0;
+		
+		int available = (this.input.position() - this.frameOffset);
+		if(this.protocol == PROTOCOL_UNKNOWN){
+			if(available < 2){
+				this.compact(0);
+				return null;
+			}
+			this.protocol = (CollabTextProtocol.isText(this.input.array(), this.frameOffset) ? PROTOCOL_TEXT : PROTOCOL_FRAMES);
+		}
+		if(this.protocol == PROTOCOL_TEXT){
+			return this.nextText();
+		}
+		int length = CollabCodec.getFrameLength(this.input.array(), this.frameOffset, available);
+		if(this.login == null && length > LOGIN_MAX_LENGTH){
+			throw new IOException("Frame of " + length + " bytes before the login");
+		}
+		if(length < 0 || length > available){
+			this.compact(length);
+			return null;
+		}
+		this.frameLength = length;
+		CollabMessage message = CollabCodec.decode(this.input.array(), this.frameOffset, length, dictionary);
+		this.traffic.addIn(length, (this.isFrameCompact() ? CollabCodec.getLength(message) : length));
+		return message;
+	}
+	
+	/**
+	 * Reads the next message of a text client, up to a NUL or a line end. Without them
+	 * the text read is the message, the client writes one at a time like CollabServer.cs reads them.
+	 */
+	private CollabMessage nextText() throws IOException{
+		byte[] buffer = this.input.array();
+		CollabMessage message = null;
+		while(message == null){
+			int end = this.frameOffset;
+			while(end < this.input.position() && buffer[end] != 0 && buffer[end] != '\n' && buffer[end] != '\r'){
+				end ++;
+			}
+			if(end == this.frameOffset && end == this.input.position()){
+				this.compact(0);
+				return null;
+			}
+			String text = new String(buffer, this.frameOffset, (end - this.frameOffset), "ISO-8859-1");
+			this.frameLength = (Math.min(end + 1, this.input.position()) - this.frameOffset);
+			this.traffic.addIn(this.frameLength, this.frameLength);
+			message = CollabTextProtocol.parse(text);
+			if(message == null){
+				this.frameOffset += this.frameLength;
+				this.frameLength = 0;
+			}
+		}
+		return message;
+	}
+	
+	/**
+	 * True when the frame of the last message is compact.
+	 */
+	public boolean isFrameCompact(){
+		return (this.protocol == PROTOCOL_FRAMES && CollabCodec.isCompact(this.input.array(), this.frameOffset));
+	}
+	
+	/**
+	 * True when the client speaks the text protocol, its messages have no frame in the input.
+	 */
+	public boolean isText(){
+		return (this.protocol == PROTOCOL_TEXT);
+	}
+	
+	public byte[] getFrame(){
+		return this.input.array();
+	}
+	
+	public int getFrameOffset(){
+		return this.frameOffset;
+	}
+	
+	public int getFrameLength(){
+		return this.frameLength;
+	}
+	
+	/**
+	 * Moves the incomplete frame to the start of the input, with room for all its bytes.
+	 */
+	private void compact(int length){
+		int available = (this.input.position() - this.frameOffset);
+		int capacity = this.input.capacity();
+		if(length > capacity){
+			capacity = length;
+		}else if(available == 0 && capacity > BUFFER_KEEP){
+			capacity = BUFFER_SIZE;
+		}
+		if(capacity != this.input.capacity()){
+			ByteBuffer input = ByteBuffer.allocate(capacity);
+			input.put(this.input.array(), this.frameOffset, available);
+			this.input = input;
+		}else if(this.frameOffset > 0){
+			System.arraycopy(this.input.array(), this.frameOffset, this.input.array(), 0, available);
+			this.input.position(available);
+		}
+		this.frameOffset = 0;
+	}
+	
+	/**
+	 * Adds a frame to the output, numbered in the sequence of this connection.
+	 * Plain is the length the frame would take as a plain one.
+	 * Returns false when the output would hold more than the limit.
+	 */
+	public boolean send(byte[] frame,int offset,int length,int plain,int limit){
+		if(this.protocol == PROTOCOL_TEXT){
+			return this.sendText(frame, offset, length, limit);
+		}
+		int pending = this.getPendingOutput();
+		if(pending > 0 && (pending + length) > limit){
+			return false;
+		}
+		int position = this.output.position();
+		this.ensureOutput(length);
+		this.output.put(frame, offset, length);
+		this.output.putInt((position + SEQUENCE_OFFSET), ++ this.sequence);
+		this.traffic.addOut(length, plain);
+		return true;
+	}
+	
+	/**
+	 * Adds the text of the frame to the output, ended by a NUL as the clients cut it.
+	 * The frames text clients do not take are left out.
+	 */
+	private boolean sendText(byte[] frame,int offset,int length,int limit){
+		String text = null;
+		try{
+			text = CollabTextProtocol.format(CollabCodec.decode(frame, offset, length));
+		}catch(IOException e){
+			e.printStackTrace();
+		}
+		if(text == null){
+			return true;
+		}
+		byte[] bytes = null;
+		try{
+			bytes = (text + "\0").getBytes("ISO-8859-1");
+		}catch(IOException e){
+			bytes = (text + "\0").getBytes();
+		}
+		int pending = this.getPendingOutput();
+		if(pending > 0 && (pending + bytes.length) > limit){
+			return false;
+		}
+		this.ensureOutput(bytes.length);
+		this.output.put(bytes);
+		this.traffic.addOut(bytes.length, bytes.length);
+		return true;
+	}
+	
+	private void ensureOutput(int length){
+		if(this.output.remaining() < length){
+			ByteBuffer output = ByteBuffer.allocate(Math.max(this.output.capacity() * 2, this.output.position() + length));
+			this.output.flip();
+			output.put(this.output);
+			this.output = output;
+		}
+	}
+	
+	/**
+	 * Writes as much of the output as the socket takes, returns the bytes still pending.
+	 */
+	public int write() throws IOException{
+		int pending = this.getPendingOutput();
+		if(pending > 0){
+			this.written += this.channel.write(ByteBuffer.wrap(this.output.array(), this.written, pending));
+			if(this.protocol == PROTOCOL_TEXT){
+				// nothing is sent again to a text client
+				this.discard(this.written);
+			}
+			else if(this.written > (JOURNAL_SIZE * 2)){
+				this.dropped = Math.max(this.dropped, this.remove(this.written - JOURNAL_SIZE, Integer.MAX_VALUE));
+			}
+		}
+		return this.getPendingOutput();
+	}
+	
+	/**
+	 * The bytes not written yet.
+	 */
+	public int getPendingOutput(){
+		return (this.output.position() - this.written);
+	}
+	
+	/**
+	 * The client received every frame up to the sequence, they are not kept any more.
+	 */
+	public void acknowledge(int sequence){
+		this.remove(Integer.MAX_VALUE, sequence);
+	}
+	
+	/**
+	 * Removes the frames written from the start of the output, until length bytes are gone
+	 * or a frame has a bigger sequence. Returns the sequence of the last frame removed.
+	 */
+	private int remove(int length,int sequence){
+		int offset = 0;
+		int last = 0;
+		while(offset < length && offset < this.written && this.output.getInt(offset + SEQUENCE_OFFSET) <= sequence){
+			int end = (offset + CollabCodec.HEADER_LENGTH + this.output.getInt(offset + 2));
+			if(end > this.written){
+				break;
+			}
+			last = this.output.getInt(offset + SEQUENCE_OFFSET);
+			offset = end;
+		}
+		this.discard(offset);
+		return last;
+	}
+	
+	/**
+	 * Removes the bytes written from the start of the output.
+	 */
+	private void discard(int offset){
+		if(offset > 0){
+			int position = this.output.position();
+			System.arraycopy(this.output.array(), offset, this.output.array(), 0, (position - offset));
+			this.output.position(position - offset);
+			this.written -= offset;
+			if(this.output.position() == 0 && this.output.capacity() > BUFFER_KEEP){
+				this.output = ByteBuffer.allocate(BUFFER_SIZE);
+			}
+		}
+	}
+	
+	/**
+	 * The socket was lost, the connection keeps its session and its output while the client
+	 * may come back.
+	 */
+	public void park(long time){
+		this.parkedTime = time;
+		this.channel = null;
+		this.key = null;
+	}
+	
+	public boolean isParked(){
+		return (this.channel == null);
+	}
+	
+	public long getParkedTime(){
+		return this.parkedTime;
+	}
+	
+	/**
+	 * Takes the socket of the client that came back, which received every frame up to the sequence.
+	 * The answer goes first, then every frame after the sequence.
+	 * Returns false when some of them were already dropped.
+	 */
+	public boolean resume(SocketChannel channel,SelectionKey key,int received,byte[] answer){
+		if(received < this.dropped){
+			return false;
+		}
+		this.acknowledge(received);
+		ByteBuffer output = ByteBuffer.allocate(Math.max(BUFFER_SIZE, (answer.length + this.output.position())));
+		output.put(answer);
+		output.put(this.output.array(), 0, this.output.position());
+		this.output = output;
+		this.written = 0;
+		this.channel = channel;
+		this.key = key;
+		this.key.attach(this);
+		return true;
+	}
+	
+	/**
+	 * The last sequence read from the client, a frame sent again after a resume has one already read.
+	 */
+	public int getReceived(){
+		return this.received;
+	}
+	
+	public void setReceived(int received){
+		this.received = received;
+	}
+	
+	public int getId(){
+		return this.id;
+	}
+	
+	public SocketChannel getChannel(){
+		return this.channel;
+	}
+	
+	public SelectionKey getKey(){
+		return this.key;
+	}
+	
+	public String getLogin(){
+		return this.login;
+	}
+	
+	public void setLogin(String login){
+		this.login = login;
+	}
+	
+	public CollabSession getSession(){
+		return this.session;
+	}
+	
+	public void setSession(CollabSession session){
+		this.session = session;
+	}
+	
+	/**
+	 * The id of the user in its session, given by CollabSession.
+	 */
+	public int getUserId(){
+		return this.userId;
+	}
+	
+	public void setUserId(int userId){
+		this.userId = userId;
+	}
+	
+	/**
+	 * The member asked for the song of the session, while this connection waits for it.
+	 */
+	public CollabConnection getModelSource(){
+		return this.modelSource;
+	}
+	
+	public void setModelSource(CollabConnection modelSource){
+		this.modelSource = modelSource;
+	}
+	
+	/**
+	 * True while the connection waits in the list of outputs to write.
+	 */
+	public boolean isFlushing(){
+		return this.flushing;
+	}
+	
+	public void setFlushing(boolean flushing){
+		this.flushing = flushing;
+	}
+	
+	public boolean isClosed(){
+		return this.closed;
+	}
+	
+	public void setClosed(boolean closed){
+		this.closed = closed;
+	}
+	
+	/**
+	 * True when the client takes compact frames.
+	 */
+	public boolean isCompact(){
+		return this.compact;
+	}
+	
+	public void setCompact(boolean compact){
+		this.compact = compact;
+	}
+	
+	/**
+	 * True when the client was sent the text of the index of the dictionary.
+	 */
+	public boolean knows(int index){
+		return this.known.get(index);
+	}
+	
+	public void setKnown(int index){
+		this.known.set(index);
+	}
+	
+	/**
+	 * The client entered another session, the indexes it was sent are not valid there.
+	 */
+	public void clearKnown(){
+		this.known.clear();
+	}
+	
+	public CollabTraffic getTraffic(){
+		return this.traffic;
+	}
+	
+	public String toString(){
+		return (this.login + "@" + (this.channel != null ? this.channel.socket().getRemoteSocketAddress() : (Object)"parked"));
+	}
+}
@@ -0,0 +1,881 @@
+package org.herac.tuxguitar.collab.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.herac.tuxguitar.collab.CollabCodec;
+import org.herac.tuxguitar.collab.CollabDictionary;
+import org.herac.tuxguitar.collab.CollabMessage;
+import org.herac.tuxguitar.collab.CollabOperation;
+
+/**
+ * Collaboration server, speaks the framed protocol of the TuxGuitar client
+ * (the same messages as MusicServer/CollabServer.cs).
+ * A single thread serves every connection with a selector: frames are relayed
+ * to the other members of the session straight from the input buffer, and each
+ * connection writes its output once per loop.
+ * A connection that does not read what it receives stops being read when its
+ * output reaches PAUSE_OUTPUT, and is closed when it reaches MAX_OUTPUT.
+ * A connection that fails, or sends a long frame before its login, is closed alone.
+ * The server keeps the song of each session (CollabSongStore): the first member sends it
+ * (MODEL_REQUEST), and the members that join get it from the server with the edits after it.
+ * Until the server has it they get it from another member, and the edits relayed after the request.
+ * The thread of the store (CollabStore) opens, changes and writes the songs, with a directory
+ * they are saved and a saved session can be joined again. The members that join while the store
+ * opens its song wait for it.
+ * Members learn who is in the session, with the user id of each one, from the
+ * SESSION_START and SESSION_END messages.
+ * The session clock is the time since the server started, in 64 bits, the clients estimate
+ * their offset to it with CLOCK_SYNC requests, that also acknowledge what they received.
+ * A member that loses its socket keeps its place in the session for RESUME_MILLIS, the
+ * frames for it wait in its output, and it can come back with a RESUME.
+ * Clients that ask for it at the LOGIN send and receive compact frames (CollabCodec.COMPACT):
+ * the logins and sites of the notes get an index in the dictionary of the session, sent
+ * (DICTIONARY) to the compact members of the session, and the compact frames go to the
+ * plain members encoded again as plain ones.
+ * The clients of the text protocol (CollabTextProtocol), the TuxGuitar before the frames, log in,
+ * chat and play notes with the others: the server tells them apart by the first bytes they send.
+ * They do not send the song nor resume. The clients that send .NET serialized objects
+ * (the ARGO, GEF and CoKeyboard clients) still need CollabServer.cs.
+ */
+public class CollabServer implements Runnable{
+	
+	public static final int DEFAULT_PORT = 100;
+	
+	private static final int PAUSE_OUTPUT = (256 * 1024);
+	
+	private static final int MAX_OUTPUT = (4 * 1024 * 1024);
+	
+	/** Time a member that lost its socket can take to come back. */
+	private static final long RESUME_MILLIS = 60000;
+	
+	/** Values of a PlayNote relayed by the server, with its clock (stamp) and the high word of its time. */
+	private static final int PLAY_NOTE_VALUES = 7;
+	
+	private static final int PLAY_NOTE_CLOCK = 5;
+	
+	/** Longest wait of the selector, to expire the members that did not come back. */
+	private static final long SELECT_MILLIS = 1000;
+	
+	private Selector selector;
+	private ServerSocketChannel server;
+	private Properties users;
+	private CollabStore store;
+	private Map sessions;
+	private List flushing;
+	private List parked;
+	private List opening;
+	private ByteArrayOutputStream encoder;
+	private CollabDictionary noSession;
+	private int connections;
+	private int lastId;
+	private long started;
+	private volatile boolean running;
+	
+	public CollabServer(Properties users){
+		this.users = users;
+		this.sessions = new LinkedHashMap();
+		this.flushing = new ArrayList();
+		this.parked = new ArrayList();
+		this.opening = new ArrayList();
+		this.encoder = new ByteArrayOutputStream(1024);
+		this.noSession = new CollabDictionary();
+		this.started = System.nanoTime();
+	}
+	
+	public void open(int port) throws IOException{
+		this.selector = Selector.open();
+		this.server = ServerSocketChannel.open();
+		this.server.configureBlocking(false);
+		this.server.socket().setReuseAddress(true);
+		this.server.socket().bind(new InetSocketAddress(port), 1024);
+		this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+		if(this.store == null){
+			this.setStore(new CollabStore(null));
+			this.store.start();
+		}
+		this.running = true;
+	}
+	
+	/**
+	 * Saves the songs of the sessions in the store, before open.
+	 * Without it they are kept in memory only.
+	 */
+	public void setStore(CollabStore store){
+		this.store = store;
+		this.store.setListener(new Runnable(){
+			public void run(){
+				// a song is open, the members that wait for it get it
+				CollabServer.this.selector.wakeup();
+			}
+		});
+	}
+	
+	public int getPort(){
+		return this.server.socket().getLocalPort();
+	}
+	
+	public int countConnections(){
+		return this.connections;
+	}
+	
+	public void close(){
+		this.running = false;
+		this.selector.wakeup();
+	}
+	
+	public void run(){
+		try{
+			while(this.running){
+				this.selector.select(SELECT_MILLIS);
+				Iterator it = this.selector.selectedKeys().iterator();
+				while(it.hasNext()){
+					SelectionKey key = (SelectionKey)it.next();
+					it.remove();
+					try{
+						this.select(key);
+					}catch(IOException e){
+						this.fail(key, e);
+					}catch(RuntimeException e){
+						this.fail(key, e);
+					}
+				}
+				this.sendOpened();
+				this.write();
+				this.expire();
+			}
+		}catch(IOException e){
+			e.printStackTrace();
+		}
+		this.shutdown();
+	}
+	
+	private void select(SelectionKey key) throws IOException{
+		if(!key.isValid()){
+			return;
+		}
+		if(key.isAcceptable()){
+			this.accept();
+			return;
+		}
+		CollabConnection connection = (CollabConnection)key.attachment();
+		if(key.isWritable()){
+			this.flush(connection);
+		}
+		if(key.isValid() && key.isReadable()){
+			this.read(connection);
+		}
+	}
+	
+	/**
+	 * A key failed: its connection is closed, the server and the other connections go on.
+	 */
+	private void fail(SelectionKey key,Exception e){
+		Object attachment = key.attachment();
+		System.out.println("Error on " + (attachment != null ? attachment : "accept") + ": " + e);
+		if(attachment instanceof CollabConnection){
+			this.disconnect((CollabConnection)attachment);
+		}
+	}
+	
+	private void accept() throws IOException{
+		SocketChannel channel = this.server.accept();
+		while(channel != null){
+			try{
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ);
+				key.attach(new CollabConnection(++ this.lastId, channel, key));
+				this.connections ++;
+			}catch(IOException e){
+				System.out.println("Can not accept " + channel + ": " + e);
+				channel.close();
+			}
+			channel = this.server.accept();
+		}
+	}
+	
+	private void read(CollabConnection connection){
+		try{
+			boolean open = connection.read();
+			CollabMessage message = connection.nextMessage(this.getDictionary(connection));
+			while(message != null && !connection.isClosed()){
+				this.receive(connection, message);
+				message = connection.nextMessage(this.getDictionary(connection));
+			}
+			if(!open){
+				this.park(connection);
+			}
+		}catch(IOException e){
+			this.park(connection);
+		}
+	}
+	
+	/**
+	 * The dictionary of the compact frames of the connection, the one of its session.
+	 */
+	private CollabDictionary getDictionary(CollabConnection connection){
+		CollabSession session = connection.getSession();
+		return (session != null ? session.getDictionary() : this.noSession);
+	}
+	
+	/**
+	 * Handles the messages of the server, like CollabServer.cs does, and relays the others.
+	 */
+	private void receive(CollabConnection connection,CollabMessage message) throws IOException{
+		if(connection.getLogin() == null){
+			if(message.getType() == CollabMessage.LOGIN){
+				this.login(connection, message);
+			}
+			else if(message.getType() == CollabMessage.RESUME){
+				this.resume(connection, message);
+			}
+			return;
+		}
+		if(message.getSequence() > 0){
+			// sent again after a resume, it was handled before
+			if(message.getSequence() <= connection.getReceived()){
+				return;
+			}
+			connection.setReceived(message.getSequence());
+		}
+		CollabSession session = connection.getSession();
+		switch(message.getType()){
+			case CollabMessage.NEW_SESSION:
+				if(this.join(connection, message.getText(0)) && !connection.isText()){
+					this.sendSong(connection);
+				}
+				break;
+			case CollabMessage.JOIN_SESSION:
+				if(this.sessions.containsKey(message.getText(0)) || this.store.contains(message.getText(0))){
+					if(this.join(connection, message.getText(0)) && !connection.isText()){
+						this.sendSong(connection);
+					}
+				}
+				break;
+			case CollabMessage.INITIAL_MODEL:
+				if(session != null){
+					this.sendModel(session, connection, message);
+				}
+				break;
+			case CollabMessage.CLOCK_SYNC:
+				connection.acknowledge(message.getValue(1));
+				long time = this.getSessionTime();
+				this.send(connection, new CollabMessage(CollabMessage.CLOCK_SYNC, new int[]{ message.getValue(0), (int)time, connection.getReceived(), CollabMessage.getHigh(time) }, null));
+				break;
+			case CollabMessage.CHAT:
+				if(session != null){
+					this.broadcast(session, new CollabMessage(CollabMessage.CHAT, new String[]{ connection.getLogin() + ":" + message.getText(0) }), null);
+				}
+				break;
+			case CollabMessage.SESSION_END:
+				this.leave(connection);
+				break;
+			case CollabMessage.EVENT:
+				if(session != null && !message.getName().startsWith("PROT")){
+					this.relay(session, connection, message);
+				}
+				break;
+			case CollabMessage.PLAY_NOTE:
+			case CollabMessage.NOTE_OPERATION:
+				if(session != null){
+					message = this.stamp(session, connection, message);
+					this.keep(session, connection, message);
+					this.relay(session, connection, message);
+				}
+				break;
+			case CollabMessage.PRESENCE:
+			case CollabMessage.TRANSPORT:
+			case CollabMessage.REMOVE_ELEMENT:
+				if(session != null){
+					this.relay(session, connection, message);
+				}
+				break;
+		}
+	}
+	
+	private void login(CollabConnection connection,CollabMessage message) throws IOException{
+		if(this.checkPassword(message.getText(0), message.getText(1))){
+			connection.setLogin(message.getText(0));
+			connection.setReceived(message.getSequence());
+			connection.setCompact(message.countValues() > 0 && (message.getValue(0) & CollabCodec.COMPACT) != 0);
+			this.send(connection, new CollabMessage(CollabMessage.SESSION_LIST, new int[]{ connection.getId(), CollabCodec.COMPACT }, this.getSessionNames()));
+		}else{
+			this.send(connection, new CollabMessage(CollabMessage.LOGIN_ERROR, new String[]{ "ERRO" }));
+		}
+	}
+	
+	private boolean checkPassword(String login,String password){
+		String expected = this.users.getProperty((login != null ? login : ""));
+		return (expected != null && expected.equals(password));
+	}
+	
+	/**
+	 * The member of a lost connection comes back on this one: it gets what it did not receive
+	 * and sends again what the server did not. When the frames are not all kept on both sides
+	 * the member leaves the session, and the client logs in again.
+	 */
+	private void resume(CollabConnection connection,CollabMessage message) throws IOException{
+		CollabConnection parked = null;
+		for(int i = 0; i < this.parked.size(); i ++){
+			CollabConnection next = (CollabConnection)this.parked.get(i);
+			if(next.getId() == message.getValue(0) && next.getLogin().equals(message.getText(0))){
+				parked = next;
+			}
+		}
+		if(parked != null && this.checkPassword(message.getText(0), message.getText(1))){
+			this.parked.remove(parked);
+			byte[] answer = CollabCodec.encode(new CollabMessage(CollabMessage.RESUME, new int[]{ parked.getReceived() }, null));
+			if(message.getValue(2) <= (parked.getReceived() + 1) && parked.resume(connection.getChannel(), connection.getKey(), message.getValue(1), answer)){
+				// this one is only the socket of the parked connection now
+				connection.setClosed(true);
+				if(!parked.isFlushing()){
+					parked.setFlushing(true);
+					this.flushing.add(parked);
+				}
+				return;
+			}
+			this.disconnect(parked);
+		}
+		this.send(connection, new CollabMessage(CollabMessage.LOGIN_ERROR, new String[]{ "ERRO" }));
+	}
+	
+	/**
+	 * Adds the connection to the session, returns false when there is no name.
+	 */
+	private boolean join(CollabConnection connection,String name){
+		if(name == null){
+			return false;
+		}
+		this.leave(connection);
+		CollabSession session = (CollabSession)this.sessions.get(name);
+		if(session == null){
+			session = new CollabSession(name, this.store.getSong(name));
+			this.sessions.put(name, session);
+		}
+		session.addMember(connection);
+		connection.setSession(session);
+		// the client starts its dictionary again with its SESSION_START
+		connection.clearKnown();
+		
+		// the roster: the others learn the new user, the new user learns everybody
+		try{
+			this.broadcast(session, new CollabMessage(CollabMessage.SESSION_START, new int[]{ connection.getUserId(), 0 }, new String[]{ connection.getLogin() }), connection);
+			CollabConnection[] members = session.getMembers();
+			for(int i = 0; i < members.length; i ++){
+				int self = (members[i] == connection ? 1 : 0);
+				this.send(connection, new CollabMessage(CollabMessage.SESSION_START, new int[]{ members[i].getUserId(), self }, new String[]{ members[i].getLogin() }));
+			}
+		}catch(IOException e){
+			e.printStackTrace();
+		}
+		return true;
+	}
+	
+	/**
+	 * Removes the connection from its session and tells the other members.
+	 * The song of a session without members is saved.
+	 */
+	private void leave(CollabConnection connection){
+		CollabSession session = connection.getSession();
+		if(session != null){
+			connection.setSession(null);
+			connection.setModelSource(null);
+			session.removeMember(connection);
+			if(session.countMembers() == 0){
+				this.sessions.remove(session.getName());
+				this.release(session);
+			}else{
+				try{
+					this.broadcast(session, new CollabMessage(CollabMessage.SESSION_END, new int[]{ connection.getUserId() }, new String[]{ connection.getLogin() }), connection);
+					this.requestModels(session, connection);
+				}catch(IOException e){
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * The members that waited for the song of the connection ask another one, and the server too.
+	 */
+	private void requestModels(CollabSession session,CollabConnection connection) throws IOException{
+		if(session.getSongSource() == connection){
+			this.requestSong(session);
+		}
+		CollabConnection[] members = session.getMembers();
+		for(int i = 0; i < members.length; i ++){
+			if(members[i].getModelSource() == connection){
+				this.requestModel(members[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Asks another member for the song of the session, the edits relayed from now on
+	 * reach the new member after the song. Without other members the song is empty.
+	 */
+	private void requestModel(CollabConnection connection) throws IOException{
+		connection.setModelSource(null);
+		CollabConnection[] members = connection.getSession().getMembers();
+		for(int i = 0; i < members.length; i ++){
+			if(members[i] != connection && this.isModelSource(members[i])){
+				connection.setModelSource(members[i]);
+				this.send(members[i], new CollabMessage(CollabMessage.MODEL_REQUEST, new String[]{ Integer.toString(connection.getId()) }));
+				return;
+			}
+		}
+		this.send(connection, new CollabMessage(CollabMessage.INITIAL_MODEL, this.getSessionNames()));
+	}
+	
+	/**
+	 * Sends the song of the session kept by the server and the edits after it. While the store
+	 * opens it the member waits for it, and while the server does not have it, it is asked to
+	 * the first member and the others ask another member.
+	 */
+	private void sendSong(CollabConnection connection) throws IOException{
+		CollabSession session = connection.getSession();
+		CollabSongStore song = session.getSong();
+		if(song.isLoaded()){
+			this.sendSong(connection, song, Integer.MAX_VALUE);
+		}
+		else if(song.isOpening()){
+			// the edits that wait for the song are relayed to the member from now on
+			session.addWaiting(connection, song.countPending());
+			if(!this.opening.contains(session)){
+				this.opening.add(session);
+			}
+		}
+		else{
+			if(session.getSongSource() == null){
+				this.requestSong(session);
+			}
+			if(session.getSongSource() == connection){
+				// its song is the one of the session
+				this.send(connection, new CollabMessage(CollabMessage.INITIAL_MODEL, this.getSessionNames()));
+			}else{
+				this.requestModel(connection);
+			}
+		}
+	}
+	
+	/**
+	 * Sends the checkpoint of the song and the first edits after it.
+	 */
+	private void sendSong(CollabConnection connection,CollabSongStore song,int edits){
+		try{
+			this.send(connection, song.getCheckpoint(this.getSessionNames()));
+		}catch(IOException e){
+			e.printStackTrace();
+			return;
+		}
+		byte[][] frames = song.getFrames();
+		for(int i = 0; i < frames.length && i < edits; i ++){
+			this.send(connection, frames[i], 0, frames[i].length);
+		}
+	}
+	
+	/**
+	 * The members that waited for a song the store opened get it, with the edits that came
+	 * before they joined: the ones after were relayed to them. When the store could not
+	 * open it they ask a member.
+	 */
+	private void sendOpened(){
+		for(int i = (this.opening.size() - 1); i >= 0; i --){
+			CollabSession session = (CollabSession)this.opening.get(i);
+			CollabSongStore song = session.getSong();
+			if(!song.isOpening()){
+				this.opening.remove(i);
+				Map waiting = session.removeWaiting();
+				Iterator it = waiting.entrySet().iterator();
+				while(it.hasNext()){
+					Map.Entry entry = (Map.Entry)it.next();
+					CollabConnection connection = (CollabConnection)entry.getKey();
+					if(song.isLoaded()){
+						this.sendSong(connection, song, ((Integer)entry.getValue()).intValue());
+					}else{
+						try{
+							this.sendSong(connection);
+						}catch(IOException e){
+							e.printStackTrace();
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Asks a member for the song of the session, for the server (the id 0 of MODEL_REQUEST):
+	 * the edits of the others from now on are applied on it when it comes.
+	 */
+	private void requestSong(CollabSession session) throws IOException{
+		session.setSongSource(null);
+		session.getSong().request();
+		CollabConnection[] members = session.getMembers();
+		for(int i = 0; i < members.length; i ++){
+			if(this.isModelSource(members[i])){
+				session.setSongSource(members[i]);
+				this.send(members[i], new CollabMessage(CollabMessage.MODEL_REQUEST, new String[]{ "0" }));
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * True when the member can send the song of the session now.
+	 */
+	private boolean isModelSource(CollabConnection member){
+		return (member.getModelSource() == null && !member.isText() && !member.isClosed() && !member.isParked() && !member.getSession().isWaiting(member));
+	}
+	
+	/**
+	 * Applies an edit on the song of the session. Before the song comes, the edits of its
+	 * source are in it and the others wait for it, as they wait for the song the store opens.
+	 */
+	private void keep(CollabSession session,CollabConnection from,CollabMessage message){
+		CollabSongStore song = session.getSong();
+		if(song.isLoaded() || song.isOpening() || (session.getSongSource() != null && session.getSongSource() != from)){
+			song.receive(message, from.getUserId());
+		}
+	}
+	
+	/**
+	 * The session has no members: its song is saved, and forgotten when the store has no directory.
+	 * Its dictionary goes with it, the session is not kept.
+	 */
+	private void release(CollabSession session){
+		session.setSongSource(null);
+		session.getSong().checkpoint();
+		this.store.release(session.getName());
+	}
+	
+	/**
+	 * Passes the song sent by a member to the member that is waiting for it, or to the server.
+	 */
+	private void sendModel(CollabSession session,CollabConnection from,CollabMessage message) throws IOException{
+		if("0".equals(message.getText(0))){
+			if(session.getSongSource() == from){
+				session.setSongSource(null);
+				try{
+					session.getSong().load(message.getData(), (message.countValues() > 0 ? message.getValue(0) : 0));
+				}catch(IOException e){
+					// the member had no song, it is asked again when a member joins
+					session.getSong().request();
+				}
+			}
+			return;
+		}
+		CollabConnection[] members = session.getMembers();
+		for(int i = 0; i < members.length; i ++){
+			if(members[i].getModelSource() == from && Integer.toString(members[i].getId()).equals(message.getText(0))){
+				members[i].setModelSource(null);
+				this.send(members[i], new CollabMessage(CollabMessage.INITIAL_MODEL, message.getValues(), this.getSessionNames(), message.getData()));
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Milliseconds since the server started.
+	 */
+	private long getSessionTime(){
+		return ((System.nanoTime() - this.started) / 1000000);
+	}
+	
+	/**
+	 * The sessions with members, then the ones saved in the store.
+	 */
+	private String[] getSessionNames(){
+		List names = new ArrayList(this.sessions.keySet());
+		String[] stored = this.store.getNames();
+		for(int i = 0; i < stored.length; i ++){
+			if(!names.contains(stored[i])){
+				names.add(stored[i]);
+			}
+		}
+		return (String[])names.toArray(new String[names.size()]);
+	}
+	
+	/**
+	 * A PlayNote gets the next clock of the session, after the clock of every operation relayed
+	 * before it, so on every replica its note comes after them (CollabReplica.newPlayNote).
+	 * The values it does not have are added: no session time, and the user id of the sender.
+	 */
+	private CollabMessage stamp(CollabSession session,CollabConnection from,CollabMessage message){
+		CollabSongStore song = session.getSong();
+		if(song.isLoaded()){
+			session.observe(song.getClock());
+		}
+		if(message.getType() == CollabMessage.NOTE_OPERATION){
+			session.observe(CollabOperation.fromMessage(message).getClock());
+			return message;
+		}
+		int[] values = new int[Math.max(message.countValues(), PLAY_NOTE_VALUES)];
+		System.arraycopy(message.getValues(), 0, values, 0, message.countValues());
+		for(int i = message.countValues(); i < PLAY_NOTE_VALUES; i ++){
+			values[i] = (i == 3 ? -1 : (i == 4 ? from.getUserId() : 0));
+		}
+		if(message.countValues() < PLAY_NOTE_VALUES){
+			// the time of the older clients has no high word
+			values[PLAY_NOTE_VALUES - 1] = CollabMessage.getHigh(values[3]);
+		}
+		values[PLAY_NOTE_CLOCK] = (int)session.nextClock();
+		return new CollabMessage(CollabMessage.PLAY_NOTE, values, message.getTexts());
+	}
+	
+	/**
+	 * Relays the frame just read from the connection, as it came. A compact one goes as it
+	 * came to the compact members, that are sent its texts first, and as plain to the others.
+	 * The messages of a text client are encoded as plain frames, a PlayNote is encoded again
+	 * with its stamp (stamp) for each kind of member.
+	 * The texts of the notes and operations get an index when they have none.
+	 */
+	private void relay(CollabSession session,CollabConnection from,CollabMessage message) throws IOException{
+		boolean add = (message.getType() == CollabMessage.PLAY_NOTE || message.getType() == CollabMessage.NOTE_OPERATION);
+		boolean stamped = (message.getType() == CollabMessage.PLAY_NOTE);
+		if(add || from.isFrameCompact()){
+			this.learn(session, message, add);
+		}
+		if(from.isText() && !stamped){
+			this.broadcast(session, message, from);
+			return;
+		}
+		if(!from.isFrameCompact() && !stamped){
+			this.broadcast(session, from.getFrame(), from.getFrameOffset(), from.getFrameLength(), from);
+			return;
+		}
+		int length = CollabCodec.getLength(message);
+		byte[] plain = null;
+		byte[] compact = null;
+		CollabConnection[] members = session.getMembers();
+		for(int i = 0; i < members.length; i ++){
+			if(members[i] != from){
+				if(members[i].isCompact() && !stamped){
+					this.send(members[i], from.getFrame(), from.getFrameOffset(), from.getFrameLength(), length);
+				}
+				else if(members[i].isCompact()){
+					if(compact == null){
+						// every text of the note has its index (learn)
+						compact = CollabCodec.encode(message, session.getDictionary());
+					}
+					this.send(members[i], compact, 0, compact.length, length);
+				}else{
+					if(plain == null){
+						plain = CollabCodec.encode(message);
+					}
+					this.send(members[i], plain, 0, plain.length, length);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Sends the index of each text of the message to the compact members that were not sent
+	 * it yet, the sender too, so it sends the index from then on. With add, the texts get an
+	 * index when they have none.
+	 */
+	private void learn(CollabSession session,CollabMessage message,boolean add) throws IOException{
+		CollabDictionary dictionary = session.getDictionary();
+		CollabConnection[] members = session.getMembers();
+		for(int i = 0; i < message.countTexts(); i ++){
+			int index = (add ? dictionary.add(message.getText(i)) : dictionary.indexOf(message.getText(i)));
+			if(index >= 0){
+				for(int j = 0; j < members.length; j ++){
+					if(members[j].isCompact() && !members[j].knows(index)){
+						members[j].setKnown(index);
+						this.send(members[j], new CollabMessage(CollabMessage.DICTIONARY, new int[]{ index }, new String[]{ message.getText(i) }));
+					}
+				}
+			}
+		}
+	}
+	
+	private void broadcast(CollabSession session,CollabMessage message,CollabConnection skip) throws IOException{
+		this.encoder.reset();
+		CollabCodec.encode(message, this.encoder);
+		byte[] frame = this.encoder.toByteArray();
+		this.broadcast(session, frame, 0, frame.length, skip);
+	}
+	
+	private void broadcast(CollabSession session,byte[] frame,int offset,int length,CollabConnection skip){
+		CollabConnection[] members = session.getMembers();
+		for(int i = 0; i < members.length; i ++){
+			if(members[i] != skip){
+				this.send(members[i], frame, offset, length);
+			}
+		}
+	}
+	
+	private void send(CollabConnection connection,CollabMessage message) throws IOException{
+		byte[] frame = CollabCodec.encode(message);
+		this.send(connection, frame, 0, frame.length);
+	}
+	
+	private void send(CollabConnection connection,byte[] frame,int offset,int length){
+		this.send(connection, frame, offset, length, length);
+	}
+	
+	private void send(CollabConnection connection,byte[] frame,int offset,int length,int plain){
+		if(!connection.isClosed()){
+			if(!connection.send(frame, offset, length, plain, MAX_OUTPUT)){
+				System.out.println("Slow client closed: " + connection);
+				this.disconnect(connection);
+			}
+			else if(!connection.isFlushing()){
+				connection.setFlushing(true);
+				this.flushing.add(connection);
+			}
+		}
+	}
+	
+	/**
+	 * Writes the output of every connection that received something in this loop.
+	 */
+	private void write(){
+		for(int i = 0; i < this.flushing.size(); i ++){
+			CollabConnection connection = (CollabConnection)this.flushing.get(i);
+			connection.setFlushing(false);
+			this.flush(connection);
+		}
+		this.flushing.clear();
+	}
+	
+	private void flush(CollabConnection connection){
+		if(!connection.isClosed() && !connection.isParked()){
+			try{
+				int pending = connection.write();
+				int ops = (pending < PAUSE_OUTPUT ? SelectionKey.OP_READ : 0);
+				if(pending > 0){
+					ops |= SelectionKey.OP_WRITE;
+				}
+				if(connection.getKey().interestOps() != ops){
+					connection.getKey().interestOps(ops);
+				}
+			}catch(IOException e){
+				this.park(connection);
+			}
+		}
+	}
+	
+	/**
+	 * The socket of the connection was lost: a member of a session waits for its client to come back.
+	 */
+	private void park(CollabConnection connection){
+		CollabSession session = connection.getSession();
+		if(session == null || connection.isText() || connection.isClosed() || connection.isParked()){
+			this.disconnect(connection);
+			return;
+		}
+		this.close(connection);
+		connection.park(System.currentTimeMillis());
+		this.parked.add(connection);
+		try{
+			this.requestModels(session, connection);
+		}catch(IOException e){
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * The members that did not come back in time leave their session.
+	 */
+	private void expire(){
+		long now = System.currentTimeMillis();
+		for(int i = (this.parked.size() - 1); i >= 0; i --){
+			CollabConnection connection = (CollabConnection)this.parked.get(i);
+			if(connection.isClosed() || (now - connection.getParkedTime()) > RESUME_MILLIS){
+				this.parked.remove(i);
+				this.disconnect(connection);
+			}
+		}
+	}
+	
+	private void disconnect(CollabConnection connection){
+		if(!connection.isClosed()){
+			connection.setClosed(true);
+			System.out.println("Traffic of " + connection + " " + connection.getTraffic());
+			if(!connection.isParked()){
+				this.close(connection);
+			}
+			this.leave(connection);
+		}
+	}
+	
+	private void close(CollabConnection connection){
+		connection.getKey().cancel();
+		try{
+			connection.getChannel().close();
+		}catch(IOException e){
+			e.printStackTrace();
+		}
+		this.connections --;
+	}
+	
+	private void shutdown(){
+		Iterator sessions = this.sessions.values().iterator();
+		while(sessions.hasNext()){
+			this.release((CollabSession)sessions.next());
+		}
+		this.sessions.clear();
+		this.store.close();
+		try{
+			Iterator it = this.selector.keys().iterator();
+			while(it.hasNext()){
+				((SelectionKey)it.next()).channel().close();
+			}
+			this.selector.close();
+		}catch(IOException e){
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * The users of CollabServer.cs, when there is no users file.
+	 */
+	public static Properties getDefaultUsers(){
+		Properties users = new Properties();
+		users.setProperty("A", "A");
+		users.setProperty("B", "B");
+		users.setProperty("C", "C");
+		users.setProperty("D", "D");
+		return users;
+	}
+	
+	/**
+	 * Arguments: [port] [users file, a "login=password" line for each user] [directory of the saved songs]
+	 */
+	public static void main(String[] args) throws IOException{
+		int port = (args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT);
+		Properties users = getDefaultUsers();
+		if(args.length > 1 && args[1].length() > 0){
+			users = new Properties();
+			InputStream stream = new FileInputStream(args[1]);
+			users.load(stream);
+			stream.close();
+		}
+		CollabServer server = new CollabServer(users);
+		if(args.length > 2 && args[2].length() > 0){
+			CollabStore store = new CollabStore(new File(args[2]));
+			store.start();
+			server.setStore(store);
+		}
+		server.open(port);
+		System.out.println("Local address and port: " + server.server.socket().getLocalSocketAddress());
+		server.run();
+	}
+}
@@ -0,0 +1,123 @@
+package org.herac.tuxguitar.collab.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.herac.tuxguitar.collab.CollabDictionary;
+
+/**
+ * A collaborative session and the connections that take part in it.
+ * Members are kept in an array that is replaced on every change, so messages
+ * can be sent to all of them while some are removed.
+ * Each member gets the next user id of the session, ids are not given again.
+ * The song of the session is kept by the server (CollabSongStore), until it has it
+ * a member is asked for it, the song source. While the store opens it the members wait for it.
+ * The texts of the compact frames of the session get their index in its dictionary,
+ * that goes with the session when its last member leaves.
+ * Its clock gives the PlayNotes their place after the operations relayed before them.
+ */
+public class CollabSession {
+	
+	private static final CollabConnection[] NO_MEMBERS = new CollabConnection[0];
+	
+	private String name;
+	private CollabConnection[] members;
+	private int lastUserId;
+	private CollabSongStore song;
+	private CollabConnection songSource;
+	private CollabDictionary dictionary;
+	private Map waiting;
+	private long clock;
+	
+	public CollabSession(String name,CollabSongStore song){
+		this.name = name;
+		this.song = song;
+		this.members = NO_MEMBERS;
+		this.dictionary = new CollabDictionary();
+		this.waiting = new LinkedHashMap();
+	}
+	
+	public String getName(){
+		return this.name;
+	}
+	
+	public CollabSongStore getSong(){
+		return this.song;
+	}
+	
+	public CollabConnection getSongSource(){
+		return this.songSource;
+	}
+	
+	public void setSongSource(CollabConnection songSource){
+		this.songSource = songSource;
+	}
+	
+	public CollabDictionary getDictionary(){
+		return this.dictionary;
+	}
+	
+	/**
+	 * The member waits for the song the store opens, the edits after the first ones
+	 * that wait for it are relayed to the member.
+	 */
+	public void addWaiting(CollabConnection connection,int edits){
+		this.waiting.put(connection, new Integer(edits));
+	}
+	
+	public boolean isWaiting(CollabConnection connection){
+		return this.waiting.containsKey(connection);
+	}
+	
+	/**
+	 * Returns the members that wait for the song, with the edits they were not relayed.
+	 */
+	public Map removeWaiting(){
+		Map waiting = this.waiting;
+		this.waiting = new LinkedHashMap();
+		return waiting;
+	}
+	
+	/**
+	 * The session saw an operation with the clock, or a song with it.
+	 */
+	public void observe(long clock){
+		this.clock = Math.max(this.clock, clock);
+	}
+	
+	/**
+	 * The clock of a PlayNote, after everything the session saw.
+	 */
+	public long nextClock(){
+		return (++ this.clock);
+	}
+	
+	public CollabConnection[] getMembers(){
+		return this.members;
+	}
+	
+	public int countMembers(){
+		return this.members.length;
+	}
+	
+	public void addMember(CollabConnection connection){
+		connection.setUserId(++ this.lastUserId);
+		CollabConnection[] members = new CollabConnection[this.members.length + 1];
+		System.arraycopy(this.members, 0, members, 0, this.members.length);
+		members[this.members.length] = connection;
+		this.members = members;
+	}
+	
+	public void removeMember(CollabConnection connection){
+		this.waiting.remove(connection);
+		for(int i = 0; i < this.members.length; i ++){
+			if(this.members[i] == connection){
+				CollabConnection[] members = new CollabConnection[this.members.length - 1];
+				System.arraycopy(this.members, 0, members, 0, i);
+				System.arraycopy(this.members, i + 1, members, i, (members.length - i));
+				this.members = members;
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,351 @@
+package org.herac.tuxguitar.collab.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.herac.tuxguitar.collab.CollabCodec;
+import org.herac.tuxguitar.collab.CollabMessage;
+import org.herac.tuxguitar.collab.CollabOperation;
+import org.herac.tuxguitar.collab.CollabReplica;
+import org.herac.tuxguitar.collab.CollabSnapshot;
+import org.herac.tuxguitar.io.base.TGFileFormatException;
+import org.herac.tuxguitar.io.tg.TGInputStream;
+import org.herac.tuxguitar.song.managers.TGSongManager;
+
+/**
+ * The song of a session, kept by the server: the operations and the PlayNote messages of the
+ * members are applied on it as the clients apply them (CollabReplica), so it is the song they have.
+ * A member that joins gets the last checkpoint, a CollabSnapshot, and the operations that came
+ * after it. Every CHECKPOINT_OPERATIONS operations a new checkpoint replaces them, and the store
+ * (CollabStore) saves it and empties its log, so the log never grows with the session.
+ * The server only numbers the operations and keeps their frames: the song is opened, changed and
+ * written by the thread of the store, and the frames in a checkpoint are dropped when it is ready.
+ * A new session has no song until a member sends it or the store opens the saved one,
+ * the operations of the others wait for it.
+ */
+public class CollabSongStore {
+	
+	/** Operations kept after a checkpoint, before the next one. */
+	public static final int CHECKPOINT_OPERATIONS = 512;
+	
+	/** Site of the replica of the server, it makes no operations of its own. */
+	private static final String SITE = "server";
+	
+	private String name;
+	private CollabStore store;
+	
+	// the song, used by the thread of the store only
+	private TGSongManager manager;
+	private CollabReplica replica;
+	private long applied;
+	
+	// what the members get, used by the thread of the server only
+	private byte[] checkpoint;
+	private long checkpointClock;
+	private List frames;
+	private List pending;
+	private long logged;
+	private long checkpointed;
+	private boolean opening;
+	
+	// the last checkpoint of the store, the server takes it
+	private Checkpoint ready;
+	private boolean failed;
+	
+	public CollabSongStore(String name,CollabStore store){
+		this.name = name;
+		this.store = store;
+		this.manager = new TGSongManager();
+		this.replica = new CollabReplica(SITE);
+		this.frames = new ArrayList();
+		this.pending = new ArrayList();
+	}
+	
+	public String getName(){
+		return this.name;
+	}
+	
+	/**
+	 * True when the song of the session is known.
+	 */
+	public boolean isLoaded(){
+		this.update();
+		return (this.checkpoint != null);
+	}
+	
+	/**
+	 * True while the store reads the saved song.
+	 */
+	public boolean isOpening(){
+		this.update();
+		return this.opening;
+	}
+	
+	/**
+	 * The store reads the saved song, the operations wait for it.
+	 */
+	protected void setOpening(){
+		this.opening = true;
+	}
+	
+	/**
+	 * A member is asked for the song: what it has is in the song it sends.
+	 */
+	public void request(){
+		this.pending.clear();
+	}
+	
+	/**
+	 * The operations waiting for the song.
+	 */
+	public int countPending(){
+		return this.pending.size();
+	}
+	
+	/**
+	 * The song a member sent (INITIAL_MODEL) with the clock of its replica, then the operations
+	 * that came after it was asked. The store reads it.
+	 */
+	public void load(byte[] snapshot,long clock) throws IOException{
+		if(this.isLoaded()){
+			return;
+		}
+		if(snapshot == null){
+			throw new IOException("No song for " + this.name);
+		}
+		this.checkpoint = snapshot;
+		this.checkpointClock = clock;
+		this.checkpointed = this.logged;
+		this.frames.clear();
+		this.store.load(this, snapshot, this.logged);
+		this.receivePending();
+	}
+	
+	/**
+	 * Applies a NOTE_OPERATION or a PLAY_NOTE of the user and keeps it for the members that join.
+	 * A PlayNote without track is kept with the track of its user (CollabMember), so it gives
+	 * the same note after the user left.
+	 */
+	public void receive(CollabMessage message,int userId){
+		if(message.getType() == CollabMessage.PLAY_NOTE && message.countValues() > 1 && message.getValue(1) <= 0){
+			int[] values = new int[message.countValues()];
+			System.arraycopy(message.getValues(), 0, values, 0, values.length);
+			values[1] = CollabReplica.getPlayNoteTrack(message, userId);
+			message = new CollabMessage(CollabMessage.PLAY_NOTE, values, message.getTexts());
+		}
+		if(this.isLoaded()){
+			this.receive(message);
+		}else{
+			this.pending.add(message);
+		}
+	}
+	
+	private void receive(CollabMessage message){
+		try{
+			message.setSequence((int)(++ this.logged));
+			byte[] frame = CollabCodec.encode(message);
+			this.frames.add(frame);
+			this.store.append(this, frame);
+		}catch(IOException e){
+			e.printStackTrace();
+		}
+		if((this.logged - this.checkpointed) >= CHECKPOINT_OPERATIONS){
+			this.checkpoint();
+		}
+	}
+	
+	private void receivePending(){
+		for(int i = 0; i < this.pending.size(); i ++){
+			this.receive((CollabMessage)this.pending.get(i));
+		}
+		this.pending.clear();
+	}
+	
+	/**
+	 * Asks the store for a checkpoint when operations came after the last one.
+	 */
+	public void checkpoint(){
+		if(this.isLoaded() && this.logged > this.checkpointed){
+			this.checkpointed = this.logged;
+			this.store.checkpoint(this);
+		}
+	}
+	
+	/**
+	 * Takes the checkpoint the store wrote: the frames in it are dropped.
+	 * When the store opened the song, the operations that waited for it come after it.
+	 */
+	private void update(){
+		Checkpoint ready = null;
+		boolean failed = false;
+		synchronized(this){
+			ready = this.ready;
+			failed = this.failed;
+			this.ready = null;
+			this.failed = false;
+		}
+		if(failed){
+			// the song can not be read, a member is asked for it
+			this.opening = false;
+			this.checkpoint = null;
+			this.frames.clear();
+		}
+		else if(ready != null){
+			if(this.opening){
+				this.opening = false;
+				this.logged = ready.logged;
+				this.checkpointed = ready.logged;
+				this.checkpoint = ready.snapshot;
+				this.checkpointClock = ready.clock;
+				this.receivePending();
+			}else{
+				this.frames.subList(0, (int)(this.frames.size() - (this.logged - ready.logged))).clear();
+				this.checkpoint = ready.snapshot;
+				this.checkpointClock = ready.clock;
+			}
+		}
+	}
+	
+	/**
+	 * The song for a member that joins, the frames of getFrames() follow it.
+	 * Both are taken after isLoaded, that is when a new checkpoint replaces the frames.
+	 */
+	public CollabMessage getCheckpoint(String[] sessionNames){
+		return new CollabMessage(CollabMessage.INITIAL_MODEL, new int[]{ (int)this.checkpointClock }, sessionNames, this.checkpoint);
+	}
+	
+	/**
+	 * The clock of the replica in the checkpoint.
+	 */
+	public long getClock(){
+		return this.checkpointClock;
+	}
+	
+	/**
+	 * The operations after the checkpoint, in the order they came.
+	 */
+	public byte[][] getFrames(){
+		return (byte[][])this.frames.toArray(new byte[this.frames.size()][]);
+	}
+	
+	/**
+	 * Opens the song saved by the store, on its thread: the state written by writeState, and
+	 * the log of the operations after it. Returns true when operations of the log were applied.
+	 */
+	protected boolean open(DataInputStream state,DataInputStream log) throws IOException,TGFileFormatException{
+		this.applied = state.readLong();
+		this.replica.read(state);
+		
+		byte[] song = new byte[state.readInt()];
+		state.readFully(song);
+		TGInputStream input = new TGInputStream();
+		input.init(this.manager.getFactory(), new ByteArrayInputStream(song));
+		this.manager.setSong(input.readSong());
+		
+		boolean replayed = false;
+		if(log != null){
+			try{
+				CollabMessage message = CollabCodec.read(log);
+				while(message != null){
+					if(message.getSequence() > this.applied){
+						this.apply(message);
+						this.applied = message.getSequence();
+						replayed = true;
+					}
+					message = CollabCodec.read(log);
+				}
+			}catch(IOException e){
+				// the last operation was not written whole
+			}
+		}
+		return replayed;
+	}
+	
+	/**
+	 * Reads the song a member sent, on the thread of the store, the operations after the
+	 * number logged follow it. Returns the song in the TuxGuitar format.
+	 */
+	protected byte[] read(byte[] snapshot,long logged) throws IOException,TGFileFormatException{
+		byte[] song = CollabSnapshot.read(snapshot, this.replica);
+		TGInputStream input = new TGInputStream();
+		input.init(this.manager.getFactory(), new ByteArrayInputStream(song));
+		this.manager.setSong(input.readSong());
+		this.applied = logged;
+		return song;
+	}
+	
+	/**
+	 * Applies the frame of an operation, on the thread of the store.
+	 */
+	protected void apply(byte[] frame) throws IOException{
+		CollabMessage message = CollabCodec.decode(frame, 0, frame.length);
+		this.apply(message);
+		this.applied = message.getSequence();
+	}
+	
+	private void apply(CollabMessage message){
+		try{
+			if(message.getType() == CollabMessage.PLAY_NOTE){
+				// applied even when the song can not take it, it moves the cursor of its user
+				CollabOperation operation = this.replica.newPlayNote(this.manager, message, 0, null);
+				if(operation != null){
+					this.replica.apply(this.manager, operation, null);
+				}
+			}
+			else if(message.getType() == CollabMessage.NOTE_OPERATION){
+				this.replica.apply(this.manager, CollabOperation.fromMessage(message), null);
+			}
+		}catch(Throwable throwable){
+			throwable.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Writes a checkpoint of the song, on the thread of the store.
+	 */
+	protected Checkpoint newCheckpoint() throws IOException{
+		byte[] song = CollabSnapshot.writeSong(this.manager);
+		return new Checkpoint(CollabSnapshot.write(this.replica, song), song, this.replica.getClock(), this.applied);
+	}
+	
+	/**
+	 * Writes the number of the last operation in the song, the state of the replica and the song
+	 * of the checkpoint (TuxGuitar format), on the thread of the store.
+	 */
+	protected void writeState(DataOutputStream state,byte[] song) throws IOException{
+		state.writeLong(this.applied);
+		this.replica.write(state);
+		state.writeInt(song.length);
+		state.write(song);
+	}
+	
+	/**
+	 * The store has a new checkpoint, or can not read the song (null), the server takes it on its next call.
+	 */
+	protected synchronized void setCheckpoint(Checkpoint checkpoint){
+		this.ready = checkpoint;
+		this.failed = (checkpoint == null);
+	}
+	
+	/**
+	 * A snapshot of the song with the clock of its replica and the number of its last operation,
+	 * and the song in the TuxGuitar format for the store.
+	 */
+	protected static class Checkpoint{
+		protected byte[] snapshot;
+		protected byte[] song;
+		protected long clock;
+		protected long logged;
+		
+		public Checkpoint(byte[] snapshot,byte[] song,long clock,long logged){
+			this.snapshot = snapshot;
+			this.song = song;
+			this.clock = clock;
+			this.logged = logged;
+		}
+	}
+}
@@ -0,0 +1,409 @@
+package org.herac.tuxguitar.collab.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves the songs of the sessions in a directory, two files for each session: the last checkpoint
+ * (NAME.state), that is the number of its last operation, the state of its replica and the song,
+ * and the operations after it (NAME.log). A copy of the song that opens in TuxGuitar (NAME.tg)
+ * is written after each checkpoint, it is never read.
+ * The server only queues the work: a thread of the store opens the saved songs, applies each
+ * operation on its song (CollabSongStore) and appends it to the log, and writes each checkpoint
+ * once, in a new file that replaces the old one in one rename before the log is emptied.
+ * The server gets a checkpoint only when it is written, then it drops the frames in it.
+ * Without a directory the songs are only kept in memory.
+ * A song stays in memory while a session uses it or its work is queued, it is read
+ * from the files only when nothing is pending for it.
+ */
+public class CollabStore implements Runnable{
+	
+	private static final String SONG = ".tg";
+	private static final String STATE = ".state";
+	private static final String LOG = ".log";
+	private static final String TEMP = ".tmp";
+	
+	private static final int BUFFER_SIZE = 8192;
+	
+	private static final int OPEN = 0;
+	private static final int LOAD = 1;
+	private static final int FRAME = 2;
+	private static final int CHECKPOINT = 3;
+	private static final int REMOVE = 4;
+	
+	private File directory;
+	private LinkedList tasks;
+	private Map songs;
+	private Map logs;
+	private Runnable listener;
+	private Thread thread;
+	private boolean closed;
+	
+	/**
+	 * Saves the songs in the directory, or keeps them in memory when it is null.
+	 */
+	public CollabStore(File directory) throws IOException{
+		if(directory != null && !directory.isDirectory() && !directory.mkdirs()){
+			throw new IOException("Can not create " + directory);
+		}
+		this.directory = directory;
+		this.tasks = new LinkedList();
+		this.songs = new HashMap();
+		this.logs = new HashMap();
+	}
+	
+	/**
+	 * Called from the thread of the store when it opened a song, or could not.
+	 */
+	public void setListener(Runnable listener){
+		this.listener = listener;
+	}
+	
+	public void start(){
+		this.thread = new Thread(this, "CollabStore");
+		this.thread.start();
+	}
+	
+	/**
+	 * Writes what is queued and stops the thread.
+	 */
+	public void close(){
+		synchronized(this.tasks){
+			this.closed = true;
+			this.tasks.notifyAll();
+		}
+		try{
+			if(this.thread != null){
+				this.thread.join();
+			}
+		}catch(InterruptedException e){
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * The sessions saved in the directory.
+	 */
+	public String[] getNames(){
+		List names = new ArrayList();
+		String[] files = (this.directory != null ? this.directory.list() : null);
+		for(int i = 0; files != null && i < files.length; i ++){
+			if(files[i].endsWith(STATE)){
+				names.add(decode(files[i].substring(0, files[i].length() - STATE.length())));
+			}
+		}
+		return (String[])names.toArray(new String[names.size()]);
+	}
+	
+	public boolean contains(String name){
+		return (this.directory != null && this.getFile(name, STATE).exists());
+	}
+	
+	/**
+	 * The song of the session, the thread of the store opens it when it is saved in the directory.
+	 * Each call is followed by a call to release, when the session ends.
+	 */
+	public CollabSongStore getSong(String name){
+		synchronized(this.songs){
+			Entry entry = (Entry)this.songs.get(name);
+			if(entry == null){
+				entry = new Entry(new CollabSongStore(name, this));
+				if(this.contains(name)){
+					entry.song.setOpening();
+					this.queue(new Task(OPEN, entry.song, null, 0));
+				}
+				this.songs.put(name, entry);
+			}
+			entry.uses ++;
+			return entry.song;
+		}
+	}
+	
+	/**
+	 * The session of the song ended: the song leaves the memory after its last write.
+	 */
+	public void release(String name){
+		CollabSongStore song = null;
+		synchronized(this.songs){
+			Entry entry = (Entry)this.songs.get(name);
+			if(entry == null){
+				return;
+			}
+			entry.uses --;
+			song = entry.song;
+		}
+		this.queue(new Task(REMOVE, song, null, 0));
+	}
+	
+	/**
+	 * Queues the song a member sent (CollabSnapshot), the operations after the number logged follow it.
+	 */
+	public void load(CollabSongStore song,byte[] snapshot,long logged){
+		this.queue(new Task(LOAD, song, snapshot, logged));
+	}
+	
+	/**
+	 * Queues an operation for the song and the log of the session.
+	 */
+	public void append(CollabSongStore song,byte[] frame){
+		this.queue(new Task(FRAME, song, frame, 0));
+	}
+	
+	/**
+	 * Queues a checkpoint of the song, the song gets it when it is written.
+	 */
+	public void checkpoint(CollabSongStore song){
+		this.queue(new Task(CHECKPOINT, song, null, 0));
+	}
+	
+	private void queue(Task task){
+		synchronized(this.tasks){
+			this.tasks.addLast(task);
+			this.tasks.notifyAll();
+		}
+	}
+	
+	public void run(){
+		while(true){
+			Task task = null;
+			synchronized(this.tasks){
+				while(this.tasks.isEmpty() && !this.closed){
+					try{
+						this.tasks.wait();
+					}catch(InterruptedException e){
+						return;
+					}
+				}
+				if(this.tasks.isEmpty()){
+					break;
+				}
+				task = (Task)this.tasks.removeFirst();
+			}
+			try{
+				switch(task.type){
+					case OPEN:
+						this.openSong(task.song);
+						break;
+					case LOAD:
+						this.loadSong(task.song, task.data, task.logged);
+						break;
+					case FRAME:
+						this.writeFrame(task.song.getName(), task.data);
+						task.song.apply(task.data);
+						break;
+					case CHECKPOINT:
+						CollabSongStore.Checkpoint checkpoint = task.song.newCheckpoint();
+						this.writeCheckpoint(task.song, checkpoint.song);
+						task.song.setCheckpoint(checkpoint);
+						break;
+					case REMOVE:
+						this.remove(task.song.getName());
+						break;
+				}
+			}catch(Throwable throwable){
+				System.out.println("Can not save the song of " + task.song.getName() + ": " + throwable.getMessage());
+			}
+		}
+		this.closeLogs();
+	}
+	
+	/**
+	 * Opens the saved song and writes a checkpoint of it, saved when the log had operations.
+	 * When it can not be saved, the files still have the song: the checkpoint and the same log.
+	 */
+	private void openSong(CollabSongStore song){
+		String name = song.getName();
+		CollabSongStore.Checkpoint checkpoint = null;
+		try{
+			DataInputStream state = new DataInputStream(new BufferedInputStream(new FileInputStream(this.getFile(name, STATE)), BUFFER_SIZE));
+			DataInputStream log = null;
+			if(this.getFile(name, LOG).exists()){
+				log = new DataInputStream(new BufferedInputStream(new FileInputStream(this.getFile(name, LOG)), BUFFER_SIZE));
+			}
+			try{
+				boolean replayed = song.open(state, log);
+				checkpoint = song.newCheckpoint();
+				if(replayed){
+					this.writeCheckpoint(song, checkpoint.song);
+				}
+			}finally{
+				state.close();
+				if(log != null){
+					log.close();
+				}
+			}
+		}catch(Throwable throwable){
+			System.out.println("Can not open the song of " + name + ": " + throwable.getMessage());
+		}
+		song.setCheckpoint(checkpoint);
+		if(this.listener != null){
+			this.listener.run();
+		}
+	}
+	
+	/**
+	 * Reads the song a member sent and saves it.
+	 */
+	private void loadSong(CollabSongStore song,byte[] snapshot,long logged) throws IOException{
+		byte[] tg = null;
+		try{
+			tg = song.read(snapshot, logged);
+		}catch(Throwable throwable){
+			System.out.println("Invalid song of " + song.getName() + ": " + throwable.getMessage());
+			song.setCheckpoint(null);
+			return;
+		}
+		this.writeCheckpoint(song, tg);
+	}
+	
+	private void writeFrame(String name,byte[] frame) throws IOException{
+		if(this.directory == null){
+			return;
+		}
+		OutputStream log = (OutputStream)this.logs.get(name);
+		if(log == null){
+			log = new FileOutputStream(this.getFile(name, LOG), true);
+			this.logs.put(name, log);
+		}
+		log.write(frame);
+	}
+	
+	/**
+	 * Writes the state with the song, as it is in the checkpoint, in a new file that replaces the old one,
+	 * so the song and the number of its last operation are always saved together.
+	 * The log is emptied last: until then the operations in it after that number are read again.
+	 */
+	private void writeCheckpoint(CollabSongStore song,byte[] tg) throws IOException{
+		if(this.directory == null){
+			return;
+		}
+		String name = song.getName();
+		File stateFile = this.getFile(name, STATE + TEMP);
+		FileOutputStream output = new FileOutputStream(stateFile);
+		DataOutputStream state = new DataOutputStream(new BufferedOutputStream(output, BUFFER_SIZE));
+		try{
+			song.writeState(state, tg);
+			state.flush();
+			output.getFD().sync();
+		}finally{
+			state.close();
+		}
+		this.rename(stateFile, this.getFile(name, STATE));
+		
+		// the copy for TuxGuitar, the state has the song
+		File songFile = this.getFile(name, SONG + TEMP);
+		OutputStream copy = new FileOutputStream(songFile);
+		try{
+			copy.write(tg);
+		}finally{
+			copy.close();
+		}
+		this.rename(songFile, this.getFile(name, SONG));
+		
+		OutputStream log = (OutputStream)this.logs.remove(name);
+		if(log != null){
+			log.close();
+		}
+		new FileOutputStream(this.getFile(name, LOG)).close();
+	}
+	
+	private void rename(File from,File to) throws IOException{
+		if(!from.renameTo(to)){
+			to.delete();
+			if(!from.renameTo(to)){
+				throw new IOException("Can not rename " + from + " to " + to);
+			}
+		}
+	}
+	
+	/**
+	 * The writes of the song before this one are done, it can be read from the files again.
+	 */
+	private void remove(String name) throws IOException{
+		synchronized(this.songs){
+			Entry entry = (Entry)this.songs.get(name);
+			if(entry == null || entry.uses > 0){
+				return;
+			}
+			this.songs.remove(name);
+		}
+		OutputStream log = (OutputStream)this.logs.remove(name);
+		if(log != null){
+			log.close();
+		}
+	}
+	
+	private void closeLogs(){
+		Iterator it = this.logs.values().iterator();
+		while(it.hasNext()){
+			try{
+				((OutputStream)it.next()).close();
+			}catch(IOException e){
+				e.printStackTrace();
+			}
+		}
+		this.logs.clear();
+	}
+	
+	private File getFile(String name,String extension){
+		return new File(this.directory, encode(name) + extension);
+	}
+	
+	private static String encode(String name){
+		try{
+			return URLEncoder.encode(name, "UTF-8");
+		}catch(UnsupportedEncodingException e){
+			return name;
+		}
+	}
+	
+	private static String decode(String name){
+		try{
+			return URLDecoder.decode(name, "UTF-8");
+		}catch(UnsupportedEncodingException e){
+			return name;
+		}
+	}
+	
+	private static class Entry{
+		protected CollabSongStore song;
+		protected int uses;
+		
+		public Entry(CollabSongStore song){
+			this.song = song;
+		}
+	}
+	
+	/**
+	 * The work queued for a song: the frame of an operation, or the snapshot a member sent.
+	 */
+	private static class Task{
+		protected int type;
+		protected CollabSongStore song;
+		protected byte[] data;
+		protected long logged;
+		
+		public Task(int type,CollabSongStore song,byte[] data,long logged){
+			this.type = type;
+			this.song = song;
+			this.data = data;
+			this.logged = logged;
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package org.herac.tuxguitar.collab.server;
+
+import org.herac.tuxguitar.collab.CollabMessage;
+
+/**
+ * The text protocol of the clients before the frames, as MusicServer/CollabServer.cs reads it:
+ * "name;text;text;", one message for each write of the client.
+ * The LOGIN is "TUXGUITAR;login;password", and its answer has the name last
+ * ("session;session;PROT_lista_sessoes") or is "ERRO;ERRO".
+ * The notes carry the key of CoKeyboard ("PlayNote;C2.WAV;PIANO;login"), the note value of the
+ * frames is the MIDI value of the key.
+ */
+public class CollabTextProtocol {
+	
+	public static final String LOGIN = "TUXGUITAR";
+	
+	private static final String[] KEYS = new String[]{ "C", "CS", "D", "DS", "E", "F", "FS", "G", "GS", "A", "AS", "B" };
+	
+	/** MIDI value of C1.WAV, the first key of CoKeyboard. */
+	private static final int FIRST_KEY = 48;
+	
+	/** MIDI value of C3.WAV, the last key of CoKeyboard. */
+	private static final int LAST_KEY = 72;
+	
+	private static final String DEFAULT_INSTRUMENT = "PIANO";
+	
+	/**
+	 * True when the first bytes of a connection are not the start of a frame.
+	 */
+	public static boolean isText(byte[] buffer,int offset){
+		return (buffer[offset] != 'T' || buffer[offset + 1] != 'G');
+	}
+	
+	/**
+	 * Returns the message of the text, or null when it has none.
+	 * The notes are {value, track, duration} with the texts {login, instrument}, the track 0 is the one of the user.
+	 */
+	public static CollabMessage parse(String text){
+		String[] parts = text.trim().split(";");
+		if(parts.length == 0 || parts[0].length() == 0){
+			return null;
+		}
+		String[] texts = new String[parts.length - 1];
+		System.arraycopy(parts, 1, texts, 0, texts.length);
+		if(parts[0].equals(LOGIN)){
+			return new CollabMessage(CollabMessage.LOGIN, texts);
+		}
+		if(CollabMessage.getType(parts[0]) == CollabMessage.PLAY_NOTE){
+			int value = (texts.length > 0 ? getKeyValue(texts[0]) : -1);
+			if(value < 0){
+				return null;
+			}
+			String instrument = (texts.length > 1 ? texts[1] : DEFAULT_INSTRUMENT);
+			String login = (texts.length > 2 ? texts[2] : "");
+			return new CollabMessage(CollabMessage.PLAY_NOTE, new int[]{ value, 0, 0 }, new String[]{ login, instrument });
+		}
+		return CollabMessage.newEvent(parts[0], texts);
+	}
+	
+	/**
+	 * Returns the text of the message, or null when the text clients do not take it.
+	 */
+	public static String format(CollabMessage message){
+		StringBuffer buffer = new StringBuffer();
+		switch(message.getType()){
+			case CollabMessage.SESSION_LIST:
+				for(int i = 0; i < message.countTexts(); i ++){
+					buffer.append(message.getText(i) + ";");
+				}
+				buffer.append(message.getName());
+				return buffer.toString();
+			case CollabMessage.LOGIN_ERROR:
+				return (message.getName() + ";" + message.getName());
+			case CollabMessage.PLAY_NOTE:
+				buffer.append(message.getName() + ";" + getKeyFile(message.getValue(0)));
+				buffer.append(";" + (message.countTexts() > 1 ? message.getText(1) : DEFAULT_INSTRUMENT));
+				buffer.append(";" + (message.countTexts() > 0 ? message.getText(0) : ""));
+				return buffer.toString();
+			case CollabMessage.CHAT:
+			case CollabMessage.EVENT:
+				buffer.append(message.getName());
+				for(int i = (message.getType() == CollabMessage.EVENT ? 1 : 0); i < message.countTexts(); i ++){
+					buffer.append(";" + message.getText(i));
+				}
+				return buffer.toString();
+		}
+		return null;
+	}
+	
+	/**
+	 * The MIDI value of a key of CoKeyboard ("C2.WAV", "FS1.WAV"), -1 when it is not one.
+	 */
+	public static int getKeyValue(String file){
+		int end = file.indexOf('.');
+		String name = (end >= 0 ? file.substring(0, end) : file).toUpperCase();
+		int octave = 0;
+		while(octave < name.length() && !Character.isDigit(name.charAt(octave))){
+			octave ++;
+		}
+		for(int i = 0; i < KEYS.length && octave > 0 && octave < name.length(); i ++){
+			if(KEYS[i].equals(name.substring(0, octave))){
+				try{
+					int value = (FIRST_KEY + ((Integer.parseInt(name.substring(octave)) - 1) * KEYS.length) + i);
+					return ((value >= FIRST_KEY && value <= LAST_KEY) ? value : -1);
+				}catch(NumberFormatException e){
+					return -1;
+				}
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * The key of CoKeyboard for a MIDI value, the values out of its keys go to the same note in its octaves.
+	 */
+	public static String getKeyFile(int value){
+		while(value < FIRST_KEY){
+			value += KEYS.length;
+		}
+		while(value > LAST_KEY){
+			value -= KEYS.length;
+		}
+		int key = (value - FIRST_KEY);
+		return (KEYS[key % KEYS.length] + ((key / KEYS.length) + 1) + ".WAV");
+	}
+}
@@ -0,0 +1,136 @@
+package org.herac.tuxguitar.collab;
+
+/**
+ * The clock of the session, kept by the server, as seen by one client.
+ * As NTP does, each request keeps the time it left and the time its answer came back, and the
+ * server answers with its time: the offset is the server time less the middle of the round trip,
+ * wrong by at most half of it. Of the last SAMPLES answers the one with the shortest round trip,
+ * the one that waited the least in the queues, gives the offset.
+ * Session times are milliseconds, the offset and the round trips are microseconds.
+ */
+public class CollabClock {
+	
+	public static final int SAMPLES = 8;
+	
+	private long origin;
+	private int request;
+	private long requestTime;
+	private long[] offsets;
+	private long[] roundTrips;
+	private int count;
+	private long offset;
+	private long roundTrip;
+	private CollabLatency latency;
+	
+	public CollabClock(){
+		this.origin = System.nanoTime();
+		this.requestTime = -1;
+		this.offsets = new long[SAMPLES];
+		this.roundTrips = new long[SAMPLES];
+		this.roundTrip = -1;
+		this.latency = new CollabLatency();
+	}
+	
+	/**
+	 * Starts a new request, an answer to the previous one is ignored from now on.
+	 */
+	public CollabMessage newRequest(){
+		return this.newRequest(0);
+	}
+	
+	/**
+	 * Starts a new request that also acknowledges the messages received up to the sequence.
+	 */
+	public synchronized CollabMessage newRequest(int received){
+		this.requestTime = this.getLocalTime();
+		return new CollabMessage(CollabMessage.CLOCK_SYNC, new int[]{ ++ this.request, received }, null);
+	}
+	
+	/**
+	 * Takes the answer of the server, must be called as soon as it is read.
+	 * Returns true while the estimate wants more samples.
+	 */
+	public synchronized boolean answer(CollabMessage message){
+		long received = this.getLocalTime();
+		if(this.requestTime < 0 || message.getValue(0) != this.request){
+			return false;
+		}
+		long roundTrip = (received - this.requestTime);
+		long offset = ((message.getLong(3, 1) * 1000L) - ((this.requestTime + received) / 2));
+		this.requestTime = -1;
+		
+		int index = (this.count % SAMPLES);
+		this.offsets[index] = offset;
+		this.roundTrips[index] = roundTrip;
+		this.count ++;
+		this.latency.add(roundTrip * 1000);
+		
+		int best = 0;
+		for(int i = 1; i < Math.min(this.count, SAMPLES); i ++){
+			if(this.roundTrips[i] < this.roundTrips[best]){
+				best = i;
+			}
+		}
+		this.offset = this.offsets[best];
+		this.roundTrip = this.roundTrips[best];
+		
+		return (this.count < SAMPLES);
+	}
+	
+	public synchronized boolean isSynchronized(){
+		return (this.count > 0);
+	}
+	
+	/**
+	 * The time of the session in milliseconds, -1 before the first answer.
+	 */
+	public synchronized long now(){
+		if(this.count == 0){
+			return -1;
+		}
+		return ((this.getLocalTime() + this.offset) / 1000);
+	}
+	
+	/**
+	 * The System.nanoTime() when the session clock reaches the time, in microseconds.
+	 */
+	public synchronized long toNanoTime(long time){
+		return (this.origin + ((time - this.offset) * 1000));
+	}
+	
+	/**
+	 * The time of the session in microseconds at the System.nanoTime().
+	 */
+	public synchronized long fromNanoTime(long nanoTime){
+		return (((nanoTime - this.origin) / 1000) + this.offset);
+	}
+	
+	/**
+	 * The offset from the local clock to the session clock, in microseconds.
+	 */
+	public synchronized long getOffset(){
+		return this.offset;
+	}
+	
+	/**
+	 * The round trip of the sample that gave the offset, in microseconds, -1 before the first answer.
+	 */
+	public synchronized long getRoundTrip(){
+		return this.roundTrip;
+	}
+	
+	/**
+	 * The round trips of every answer.
+	 */
+	public CollabLatency getRoundTrips(){
+		return this.latency;
+	}
+	
+	private long getLocalTime(){
+		return ((System.nanoTime() - this.origin) / 1000);
+	}
+	
+	public String toString(){
+		return ("offset=" + getOffset() + "us rtt=" + getRoundTrip() + "us rtts: " + getRoundTrips());
+	}
+}
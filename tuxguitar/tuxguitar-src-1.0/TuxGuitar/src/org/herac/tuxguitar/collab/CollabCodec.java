@@ -0,0 +1,450 @@
+package org.herac.tuxguitar.collab;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Frames of the collaboration protocol, all numbers are big endian:
+ * <pre>
+ * 'T' 'G'                  magic
+ * int    length            bytes that follow
+ * byte   type              CollabMessage type
+ * int    sequence          numbered by the sender, from 1
+ * byte   count, int[]      values
+ * byte   count, texts      each one a short length and UTF-8 bytes
+ * int    length, byte[]    data, -1 when there is none
+ * </pre>
+ * Blocking streams read whole frames with read(), non-blocking servers accumulate the bytes
+ * and check with getFrameLength() when a frame is complete.
+ * <p>
+ * A client and a server that agree on it at the LOGIN send compact frames: the same header,
+ * with COMPACT in the type, and after the sequence
+ * <pre>
+ * varint count, varints    values, zigzag encoded
+ * varint count, texts      each one a varint: (index &lt;&lt; 1) | 1 of a CollabDictionary text,
+ *                          or (length &lt;&lt; 1) and UTF-8 bytes
+ * varint length + 1, data  0 when there is none; with DEFLATED in the type, the data is
+ *                          a varint length and the bytes deflated
+ * </pre>
+ * The header keeps its place, so servers still relay and number compact frames without decoding them.
+ */
+public class CollabCodec {
+
+	public static final int MAGIC_1 = 'T';
+	public static final int MAGIC_2 = 'G';
+	public static final int HEADER_LENGTH = 6;
+	public static final int MAX_LENGTH = (16 * 1024 * 1024);
+	
+	/** In the type of a compact frame, and in the formats of LOGIN and SESSION_LIST. */
+	public static final int COMPACT = 0x80;
+	
+	/** In the type of a compact frame with its data deflated. */
+	public static final int DEFLATED = 0x40;
+	
+	private static final int TYPE_MASK = 0x3f;
+	
+	/** Data shorter than this is not deflated. */
+	private static final int DEFLATE_MIN = 256;
+
+	private static final String CHARSET = "UTF-8";
+
+	private CollabCodec(){
+		super();
+	}
+
+	public static byte[] encode(CollabMessage message) throws IOException{
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+		encode(message, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * The compact frame of the message, the texts of the dictionary go as their index.
+	 */
+	public static byte[] encode(CollabMessage message,CollabDictionary dictionary) throws IOException{
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+		encode(message, out, dictionary);
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Writes the frame of the message, compact when there is a dictionary.
+	 */
+	public static void encode(CollabMessage message,ByteArrayOutputStream out,CollabDictionary dictionary) throws IOException{
+		if(dictionary != null){
+			encodeCompact(message, out, dictionary);
+		}else{
+			encode(message, out);
+		}
+	}
+	
+	/**
+	 * Writes the frame of the message, writes into a buffer can be sent together.
+	 */
+	public static void encode(CollabMessage message,ByteArrayOutputStream out) throws IOException{
+		byte[][] texts = new byte[message.countTexts()][];
+		int length = (1 + 4 + 1 + (message.countValues() * 4) + 1 + 4);
+		for(int i = 0; i < texts.length; i ++){
+			texts[i] = getBytes(message.getText(i));
+			length += (2 + texts[i].length);
+		}
+		byte[] data = message.getData();
+		if(data != null){
+			length += data.length;
+		}
+		if(message.countValues() > 0xff || texts.length > 0xff || length > MAX_LENGTH){
+			throw new IOException("Message too big: " + message.getName());
+		}
+		out.write(MAGIC_1);
+		out.write(MAGIC_2);
+		writeInt(out, length);
+		out.write(message.getType());
+		writeInt(out, message.getSequence());
+		out.write(message.countValues());
+		for(int i = 0; i < message.countValues(); i ++){
+			writeInt(out, message.getValue(i));
+		}
+		out.write(texts.length);
+		for(int i = 0; i < texts.length; i ++){
+			out.write((texts[i].length >>> 8) & 0xff);
+			out.write(texts[i].length & 0xff);
+			out.write(texts[i], 0, texts[i].length);
+		}
+		if(data != null){
+			writeInt(out, data.length);
+			out.write(data, 0, data.length);
+		}else{
+			writeInt(out, -1);
+		}
+	}
+
+	private static void encodeCompact(CollabMessage message,ByteArrayOutputStream out,CollabDictionary dictionary) throws IOException{
+		if(message.countValues() > 0xff || message.countTexts() > 0xff){
+			throw new IOException("Message too big: " + message.getName());
+		}
+		ByteArrayOutputStream body = new ByteArrayOutputStream(32);
+		int type = (message.getType() | COMPACT);
+		writeVarint(body, message.countValues());
+		for(int i = 0; i < message.countValues(); i ++){
+			int value = message.getValue(i);
+			writeVarint(body, ((value << 1) ^ (value >> 31)));
+		}
+		writeVarint(body, message.countTexts());
+		for(int i = 0; i < message.countTexts(); i ++){
+			int index = dictionary.indexOf(message.getText(i));
+			if(index >= 0){
+				writeVarint(body, ((index << 1) | 1));
+			}else{
+				byte[] text = getBytes(message.getText(i));
+				writeVarint(body, (text.length << 1));
+				body.write(text, 0, text.length);
+			}
+		}
+		byte[] data = message.getData();
+		if(data == null){
+			writeVarint(body, 0);
+		}else{
+			byte[] deflated = deflate(data);
+			if(deflated != null){
+				type |= DEFLATED;
+				ByteArrayOutputStream length = new ByteArrayOutputStream(5);
+				writeVarint(length, data.length);
+				writeVarint(body, (length.size() + deflated.length + 1));
+				length.writeTo(body);
+				data = deflated;
+			}else{
+				writeVarint(body, (data.length + 1));
+			}
+			body.write(data, 0, data.length);
+		}
+		int length = (1 + 4 + body.size());
+		if(length > MAX_LENGTH){
+			throw new IOException("Message too big: " + message.getName());
+		}
+		out.write(MAGIC_1);
+		out.write(MAGIC_2);
+		writeInt(out, length);
+		out.write(type);
+		writeInt(out, message.getSequence());
+		body.writeTo(out);
+	}
+	
+	/**
+	 * The data deflated, or null when it is short, compressed already (gzip, as CollabSnapshot)
+	 * or does not get shorter.
+	 */
+	private static byte[] deflate(byte[] data){
+		if(data.length < DEFLATE_MIN || ((data[0] & 0xff) == 0x1f && (data[1] & 0xff) == 0x8b)){
+			return null;
+		}
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		deflater.setInput(data);
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+		byte[] buffer = new byte[4096];
+		while(!deflater.finished() && out.size() < data.length){
+			int count = deflater.deflate(buffer);
+			out.write(buffer, 0, count);
+		}
+		deflater.end();
+		return (out.size() < data.length ? out.toByteArray() : null);
+	}
+	
+	private static byte[] inflate(byte[] buffer,int offset,int length,int size) throws IOException{
+		if(size < 0 || size > MAX_LENGTH){
+			throw new IOException("Bad data length: " + size);
+		}
+		Inflater inflater = new Inflater();
+		try{
+			inflater.setInput(buffer, offset, length);
+			byte[] data = new byte[size];
+			int count = 0;
+			while(count < size && !inflater.finished()){
+				int inflated = inflater.inflate(data, count, (size - count));
+				if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())){
+					break;
+				}
+				count += inflated;
+			}
+			if(count != size){
+				throw new IOException("Truncated data");
+			}
+			return data;
+		}catch(DataFormatException e){
+			throw new IOException("Bad data: " + e.getMessage());
+		}finally{
+			inflater.end();
+		}
+	}
+	
+	/**
+	 * The length of the plain frame of the message, to compare with the compact one.
+	 */
+	public static int getLength(CollabMessage message) throws IOException{
+		int length = (HEADER_LENGTH + 1 + 4 + 1 + (message.countValues() * 4) + 1 + 4);
+		for(int i = 0; i < message.countTexts(); i ++){
+			length += (2 + getBytes(message.getText(i)).length);
+		}
+		if(message.getData() != null){
+			length += message.getData().length;
+		}
+		return length;
+	}
+	
+	/**
+	 * True when the frame that starts at offset is compact.
+	 */
+	public static boolean isCompact(byte[] buffer,int offset){
+		return ((buffer[offset + HEADER_LENGTH] & COMPACT) != 0);
+	}
+	
+	/**
+	 * Reads the next frame, or returns null at the end of the stream.
+	 */
+	public static CollabMessage read(DataInputStream in) throws IOException{
+		return read(in, null, null);
+	}
+	
+	/**
+	 * Reads the next frame, plain or compact, and counts it in the traffic when there is one.
+	 */
+	public static CollabMessage read(DataInputStream in,CollabDictionary dictionary,CollabTraffic traffic) throws IOException{
+		int magic = in.read();
+		if(magic < 0){
+			return null;
+		}
+		byte[] header = new byte[HEADER_LENGTH];
+		header[0] = (byte)magic;
+		in.readFully(header, 1, (HEADER_LENGTH - 1));
+		int length = getFrameLength(header, 0, HEADER_LENGTH);
+		byte[] frame = new byte[length];
+		System.arraycopy(header, 0, frame, 0, HEADER_LENGTH);
+		in.readFully(frame, HEADER_LENGTH, (length - HEADER_LENGTH));
+		CollabMessage message = decode(frame, 0, length, dictionary);
+		if(traffic != null){
+			traffic.addIn(length, (isCompact(frame, 0) ? getLength(message) : length));
+		}
+		return message;
+	}
+
+	/**
+	 * Returns the length of the frame that starts at offset, header included,
+	 * or -1 when the available bytes do not hold the header yet.
+	 */
+	public static int getFrameLength(byte[] buffer,int offset,int available) throws IOException{
+		if(available > 0 && (buffer[offset] & 0xff) != MAGIC_1){
+			throw new IOException("Bad frame");
+		}
+		if(available > 1 && (buffer[offset + 1] & 0xff) != MAGIC_2){
+			throw new IOException("Bad frame");
+		}
+		if(available < HEADER_LENGTH){
+			return -1;
+		}
+		int length = readInt(buffer, offset + 2);
+		if(length < 0 || length > MAX_LENGTH){
+			throw new IOException("Bad frame length: " + length);
+		}
+		return (HEADER_LENGTH + length);
+	}
+
+	/**
+	 * Decodes a whole plain frame, header included.
+	 */
+	public static CollabMessage decode(byte[] buffer,int offset,int length) throws IOException{
+		return decode(buffer, offset, length, null);
+	}
+	
+	/**
+	 * Decodes a whole frame, header included, the texts of a compact one from the dictionary.
+	 */
+	public static CollabMessage decode(byte[] buffer,int offset,int length,CollabDictionary dictionary) throws IOException{
+		int end = (offset + length);
+		int position = (offset + HEADER_LENGTH);
+
+		checkAvailable(position, 6, end);
+		if(isCompact(buffer, offset)){
+			if(dictionary == null){
+				throw new IOException("Compact frame not expected");
+			}
+			return decodeCompact(buffer, position, end, dictionary);
+		}
+		int type = (buffer[position] & 0xff);
+		int sequence = readInt(buffer, position + 1);
+		int valueCount = (buffer[position + 5] & 0xff);
+		position += 6;
+
+		checkAvailable(position, (valueCount * 4) + 1, end);
+		int[] values = new int[valueCount];
+		for(int i = 0; i < valueCount; i ++){
+			values[i] = readInt(buffer, position);
+			position += 4;
+		}
+		int textCount = (buffer[position ++] & 0xff);
+		String[] texts = new String[textCount];
+		for(int i = 0; i < textCount; i ++){
+			checkAvailable(position, 2, end);
+			int textLength = (((buffer[position] & 0xff) << 8) | (buffer[position + 1] & 0xff));
+			position += 2;
+			checkAvailable(position, textLength, end);
+			texts[i] = new String(buffer, position, textLength, CHARSET);
+			position += textLength;
+		}
+
+		checkAvailable(position, 4, end);
+		int dataLength = readInt(buffer, position);
+		position += 4;
+		byte[] data = null;
+		if(dataLength >= 0){
+			checkAvailable(position, dataLength, end);
+			data = new byte[dataLength];
+			System.arraycopy(buffer, position, data, 0, dataLength);
+		}
+
+		CollabMessage message = new CollabMessage(type, values, texts, data);
+		message.setSequence(sequence);
+		return message;
+	}
+
+	private static CollabMessage decodeCompact(byte[] buffer,int position,int end,CollabDictionary dictionary) throws IOException{
+		int type = (buffer[position] & 0xff);
+		int sequence = readInt(buffer, position + 1);
+		int[] next = new int[]{ (position + 5) };
+
+		int valueCount = readVarint(buffer, next, end);
+		checkAvailable(next[0], valueCount, end);
+		int[] values = new int[valueCount];
+		for(int i = 0; i < valueCount; i ++){
+			int value = readVarint(buffer, next, end);
+			values[i] = ((value >>> 1) ^ -(value & 1));
+		}
+		int textCount = readVarint(buffer, next, end);
+		checkAvailable(next[0], textCount, end);
+		String[] texts = new String[textCount];
+		for(int i = 0; i < textCount; i ++){
+			int text = readVarint(buffer, next, end);
+			if((text & 1) != 0){
+				texts[i] = dictionary.get(text >>> 1);
+				if(texts[i] == null){
+					throw new IOException("Unknown text index: " + (text >>> 1));
+				}
+			}else{
+				checkAvailable(next[0], (text >>> 1), end);
+				texts[i] = new String(buffer, next[0], (text >>> 1), CHARSET);
+				next[0] += (text >>> 1);
+			}
+		}
+		byte[] data = null;
+		int dataLength = (readVarint(buffer, next, end) - 1);
+		if(dataLength >= 0){
+			checkAvailable(next[0], dataLength, end);
+			if((type & DEFLATED) != 0){
+				int start = next[0];
+				int size = readVarint(buffer, next, end);
+				data = inflate(buffer, next[0], (dataLength - (next[0] - start)), size);
+			}else{
+				data = new byte[dataLength];
+				System.arraycopy(buffer, next[0], data, 0, dataLength);
+			}
+		}
+
+		CollabMessage message = new CollabMessage((type & TYPE_MASK), values, texts, data);
+		message.setSequence(sequence);
+		return message;
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out,int value){
+		while((value & ~0x7f) != 0){
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	/**
+	 * Reads a varint at position[0] and moves it after.
+	 */
+	private static int readVarint(byte[] buffer,int[] position,int end) throws IOException{
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7){
+			checkAvailable(position[0], 1, end);
+			int next = (buffer[position[0] ++] & 0xff);
+			value |= ((next & 0x7f) << shift);
+			if((next & 0x80) == 0){
+				return value;
+			}
+		}
+		throw new IOException("Bad varint");
+	}
+
+	private static void checkAvailable(int position,int count,int end) throws IOException{
+		if(count < 0 || (position + count) > end){
+			throw new EOFException("Truncated frame");
+		}
+	}
+
+	private static byte[] getBytes(String text) throws UnsupportedEncodingException{
+		byte[] bytes = (text != null ? text.getBytes(CHARSET) : new byte[0]);
+		if(bytes.length > 0xffff){
+			throw new UnsupportedEncodingException("Text too long");
+		}
+		return bytes;
+	}
+
+	private static void writeInt(ByteArrayOutputStream out,int value){
+		out.write((value >>> 24) & 0xff);
+		out.write((value >>> 16) & 0xff);
+		out.write((value >>> 8) & 0xff);
+		out.write(value & 0xff);
+	}
+
+	private static int readInt(byte[] buffer,int offset){
+		return (((buffer[offset] & 0xff) << 24) | ((buffer[offset + 1] & 0xff) << 16) | ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff));
+	}
+}
@@ -0,0 +1,67 @@
+package org.herac.tuxguitar.collab;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The texts that compact frames send as an index (CollabCodec.COMPACT): the logins and the
+ * sites that come in every PlayNote and operation.
+ * The server gives the indexes of each session, an index keeps its text while the session
+ * has members, and sends each one (DICTIONARY) to its compact members. A client uses only
+ * the indexes it received in its session, so its dictionary is started again when it enters
+ * one (its own SESSION_START), and it sends plain frames while it waits for it.
+ */
+public class CollabDictionary {
+	
+	/** Indexes the server gives at most, later texts are sent whole. */
+	public static final int MAX_ENTRIES = 4096;
+	
+	private Map texts;
+	private Map indexes;
+	
+	public CollabDictionary(){
+		this.texts = new HashMap();
+		this.indexes = new HashMap();
+	}
+	
+	/**
+	 * The index of the text, or -1 when it has none.
+	 */
+	public synchronized int indexOf(String text){
+		Integer index = (Integer)this.indexes.get(text);
+		return (index != null ? index.intValue() : -1);
+	}
+	
+	/**
+	 * The text of the index, or null when it is not known.
+	 */
+	public synchronized String get(int index){
+		return (String)this.texts.get(new Integer(index));
+	}
+	
+	/**
+	 * Keeps the text of an index received (DICTIONARY).
+	 */
+	public synchronized void put(int index,String text){
+		if(index >= 0 && index < MAX_ENTRIES && text != null){
+			this.texts.put(new Integer(index), text);
+			this.indexes.put(text, new Integer(index));
+		}
+	}
+	
+	/**
+	 * The index of the text, a new one when it has none; -1 when the dictionary is full.
+	 */
+	public synchronized int add(String text){
+		int index = this.indexOf(text);
+		if(index < 0 && text != null && this.texts.size() < MAX_ENTRIES){
+			index = this.texts.size();
+			this.put(index, text);
+		}
+		return index;
+	}
+	
+	public synchronized int size(){
+		return this.texts.size();
+	}
+}
@@ -0,0 +1,82 @@
+package org.herac.tuxguitar.collab;
+
+/**
+ * The messages sent on a connection that the server has not acknowledged yet, in the order
+ * of their sequence. When the connection is lost they are sent again on the new one, from the
+ * first one the server did not receive (RESUME).
+ * It keeps at most its capacity, the oldest messages are dropped and can not be sent again.
+ */
+public class CollabJournal {
+	
+	private CollabMessage[] messages;
+	private int first;
+	private int count;
+	private int last;
+	
+	/**
+	 * @param sequence the last sequence number already sent.
+	 */
+	public CollabJournal(int capacity,int sequence){
+		this.messages = new CollabMessage[capacity];
+		this.last = sequence;
+	}
+	
+	/**
+	 * Adds a message already numbered, after the others.
+	 */
+	public synchronized void add(CollabMessage message){
+		if(this.count == this.messages.length){
+			this.remove();
+		}
+		this.messages[(this.first + this.count) % this.messages.length] = message;
+		this.count ++;
+		this.last = message.getSequence();
+	}
+	
+	/**
+	 * The server received every message up to the sequence.
+	 */
+	public synchronized void acknowledge(int sequence){
+		while(this.count > 0 && this.messages[this.first].getSequence() <= sequence){
+			this.remove();
+		}
+	}
+	
+	/**
+	 * The messages after the sequence, to send them again.
+	 */
+	public synchronized CollabMessage[] getMessages(int sequence){
+		this.acknowledge(sequence);
+		CollabMessage[] messages = new CollabMessage[this.count];
+		for(int i = 0; i < this.count; i ++){
+			messages[i] = this.messages[(this.first + i) % this.messages.length];
+		}
+		return messages;
+	}
+	
+	/**
+	 * The first sequence that can be sent again, the next one when every message was acknowledged.
+	 */
+	public synchronized int getFirstSequence(){
+		return (this.count > 0 ? this.messages[this.first].getSequence() : (this.last + 1));
+	}
+	
+	public synchronized int countMessages(){
+		return this.count;
+	}
+	
+	/**
+	 * Forgets every message, after a new login.
+	 */
+	public synchronized void clear(){
+		while(this.count > 0){
+			this.remove();
+		}
+	}
+	
+	private void remove(){
+		this.messages[this.first] = null;
+		this.first = ((this.first + 1) % this.messages.length);
+		this.count --;
+	}
+}
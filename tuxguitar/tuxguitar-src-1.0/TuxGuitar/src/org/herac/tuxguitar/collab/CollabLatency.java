@@ -0,0 +1,76 @@
+package org.herac.tuxguitar.collab;
+
+/**
+ * Latency statistics, kept in buckets of powers of two microseconds.
+ */
+public class CollabLatency {
+	
+	private static final int BUCKETS = 32;
+	
+	private long count;
+	private long total;
+	private long max;
+	private long[] buckets;
+	
+	public CollabLatency(){
+		this.buckets = new long[BUCKETS];
+	}
+	
+	public synchronized void add(long nanos){
+		long micros = Math.max(nanos / 1000, 0);
+		int bucket = 0;
+		while(bucket < (BUCKETS - 1) && (1L << bucket) <= micros){
+			bucket ++;
+		}
+		this.buckets[bucket] ++;
+		this.count ++;
+		this.total += micros;
+		this.max = Math.max(this.max, micros);
+	}
+	
+	public synchronized long getCount(){
+		return this.count;
+	}
+	
+	/**
+	 * Mean in microseconds.
+	 */
+	public synchronized long getMean(){
+		return (this.count > 0 ? (this.total / this.count) : 0);
+	}
+	
+	/**
+	 * Maximum in microseconds.
+	 */
+	public synchronized long getMax(){
+		return this.max;
+	}
+	
+	/**
+	 * Upper bound (microseconds) of the bucket that holds the percentile.
+	 */
+	public synchronized long getPercentile(double percentile){
+		long limit = (long)Math.ceil(this.count * (percentile / 100.0));
+		long accumulated = 0;
+		for(int i = 0; i < BUCKETS; i ++){
+			accumulated += this.buckets[i];
+			if(accumulated >= limit && accumulated > 0){
+				return Math.min((1L << i), Math.max(this.max, 1));
+			}
+		}
+		return this.max;
+	}
+	
+	public synchronized void reset(){
+		this.count = 0;
+		this.total = 0;
+		this.max = 0;
+		for(int i = 0; i < BUCKETS; i ++){
+			this.buckets[i] = 0;
+		}
+	}
+	
+	public String toString(){
+		return ("count=" + getCount() + " mean=" + getMean() + "us p50<=" + getPercentile(50) + "us p99<=" + getPercentile(99) + "us max=" + getMax() + "us");
+	}
+}
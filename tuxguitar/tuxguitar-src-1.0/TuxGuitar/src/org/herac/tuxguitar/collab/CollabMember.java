@@ -0,0 +1,130 @@
+package org.herac.tuxguitar.collab;
+
+/**
+ * A user of the session. The id is given by the server when the user joins, from 1 on,
+ * and is not given again in the session: the track and the color of the user follow from it.
+ */
+public class CollabMember {
+	
+	private int id;
+	private String login;
+	private boolean present;
+	private long notes;
+	private long operations;
+	private long lastTime;
+	private int caretTrack;
+	private int caretMeasure;
+	private long caretStart;
+	private int caretString;
+	
+	public CollabMember(int id,String login){
+		this.id = id;
+		this.login = login;
+		this.present = true;
+	}
+	
+	public int getId(){
+		return this.id;
+	}
+	
+	public String getLogin(){
+		return this.login;
+	}
+	
+	/**
+	 * False after the user left, the notes the user played keep the color.
+	 */
+	public boolean isPresent(){
+		return this.present;
+	}
+	
+	public void setPresent(boolean present){
+		this.present = present;
+	}
+	
+	/**
+	 * The track the user plays on, the first one for the first user.
+	 */
+	public int getTrack(){
+		return this.id;
+	}
+	
+	/**
+	 * Index of the color of the user, in the palette of the client.
+	 */
+	public int getColor(){
+		return (this.id - 1);
+	}
+	
+	public synchronized void addNote(long time){
+		this.notes ++;
+		this.lastTime = time;
+	}
+	
+	public synchronized void addOperation(long time){
+		this.operations ++;
+		this.lastTime = time;
+	}
+	
+	/**
+	 * Notes played by the user and placed at the cursor.
+	 */
+	public synchronized long getNotes(){
+		return this.notes;
+	}
+	
+	/**
+	 * Edits of the user addressed by position.
+	 */
+	public synchronized long getOperations(){
+		return this.operations;
+	}
+	
+	/**
+	 * When the last note or edit of the user came, System.currentTimeMillis().
+	 */
+	public synchronized long getLastTime(){
+		return this.lastTime;
+	}
+	
+	/**
+	 * Moves the caret of the user, from its PRESENCE messages. Returns false when it is already there.
+	 */
+	public synchronized boolean moveCaret(int track,int measure,long start,int string){
+		if(this.caretTrack == track && this.caretMeasure == measure && this.caretStart == start && this.caretString == string){
+			return false;
+		}
+		this.caretTrack = track;
+		this.caretMeasure = measure;
+		this.caretStart = start;
+		this.caretString = string;
+		return true;
+	}
+	
+	/**
+	 * False until the first PRESENCE of the user.
+	 */
+	public synchronized boolean hasCaret(){
+		return (this.caretMeasure > 0);
+	}
+	
+	public synchronized int getCaretTrack(){
+		return this.caretTrack;
+	}
+	
+	public synchronized int getCaretMeasure(){
+		return this.caretMeasure;
+	}
+	
+	public synchronized long getCaretStart(){
+		return this.caretStart;
+	}
+	
+	public synchronized int getCaretString(){
+		return this.caretString;
+	}
+	
+	public String toString(){
+		return (this.id + ":" + this.login + (this.present ? "" : " (left)") + " notes=" + getNotes() + " operations=" + getOperations());
+	}
+}
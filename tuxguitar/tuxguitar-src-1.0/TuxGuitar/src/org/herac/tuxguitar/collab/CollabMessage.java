@@ -0,0 +1,215 @@
+package org.herac.tuxguitar.collab;
+
+/**
+ * A message of the collaboration protocol.
+ * Numbers (note, track, duration...) travel as values, names as texts, and models as data.
+ */
+public class CollabMessage {
+
+	/** A message known by its name only, the name is the first text. */
+	public static final int EVENT = 0;
+	/** texts: login, password, values: frame formats the client can use (CollabCodec.COMPACT) */
+	public static final int LOGIN = 1;
+	/** texts: session names, values: id of the connection, to resume it (RESUME), frame formats the server accepts of the ones of the LOGIN */
+	public static final int SESSION_LIST = 2;
+	public static final int LOGIN_ERROR = 3;
+	/** texts: session name */
+	public static final int NEW_SESSION = 4;
+	/** texts: session name */
+	public static final int JOIN_SESSION = 5;
+	/** texts: session names (the id of MODEL_REQUEST when a member sends it), values: clock, data: the session song (CollabSnapshot) */
+	public static final int INITIAL_MODEL = 6;
+	/** values: user id, 1 for the user of the client that receives it, texts: user (CollabRoster) */
+	public static final int SESSION_START = 7;
+	/** values: user id, texts: user */
+	public static final int SESSION_END = 8;
+	/** texts: user, message */
+	public static final int CHAT = 9;
+	/**
+	 * values: note, track, duration, session time in ms (-1 when unknown), user id, clock given by the server (CollabReplica.newPlayNote),
+	 * high word of the session time (getLong), texts: user
+	 */
+	public static final int PLAY_NOTE = 10;
+	public static final int REMOVE_ELEMENT = 11;
+	/** values: kind, track, measure, start, string, value, velocity, duration, clock, texts: site, user (CollabOperation) */
+	public static final int NOTE_OPERATION = 12;
+	/** texts: id of the member that joins, the answer is an INITIAL_MODEL with the same id */
+	public static final int MODEL_REQUEST = 13;
+	/**
+	 * values: request, last sequence received; the answer of the server has the request, the session time in ms (CollabClock),
+	 * the last sequence it received and the high word of the session time (getLong)
+	 */
+	public static final int CLOCK_SYNC = 14;
+	/**
+	 * values: id of the lost connection, last sequence received, first sequence the client can send again, texts: login, password.
+	 * The answer of the server has the last sequence it received and is followed by what the client did not receive,
+	 * or it is a LOGIN_ERROR when the connection can not be resumed. The client waits for it before sending anything else (CollabJournal).
+	 */
+	public static final int RESUME = 15;
+	/** values: user id, track, measure, beat start, string of the caret of the user; not numbered nor kept to send again (CollabPresence) */
+	public static final int PRESENCE = 16;
+	/**
+	 * values: action, tick, session time in ms, microseconds after it, user id, high word of the session time (getLong);
+	 * the tick is played at that time by every member (CollabTransport)
+	 */
+	public static final int TRANSPORT = 17;
+	/** values: index, texts: the text of the index in the compact frames (CollabDictionary); sent by the server only to the clients that use them */
+	public static final int DICTIONARY = 18;
+
+	/**
+	 * Names of the types in the previous text protocol, they are still used by the servers.
+	 */
+	private static final String[] NAMES = new String[]{
+		null,
+		"TUXGUITAR",
+		"PROT_lista_sessoes",
+		"ERRO",
+		"PROT_nova_sessao",
+		"PROT_sessao_existente",
+		"PROT_atualiza_modelo_cliente_inicial",
+		"PROT_inicio_sessao",
+		"PROT_fim_sessao",
+		"PROT_chat_msg",
+		"PlayNote",
+		"PROT_remove_elemento",
+		"NoteOp",
+		"PROT_pede_modelo",
+		"PROT_relogio",
+		"PROT_retoma",
+		"PROT_presenca",
+		"PROT_transporte",
+		"PROT_dicionario",
+	};
+
+	private static final int[] NO_VALUES = new int[0];
+	private static final String[] NO_TEXTS = new String[0];
+
+	private int type;
+	private int sequence;
+	private int[] values;
+	private String[] texts;
+	private byte[] data;
+
+	public CollabMessage(int type,int[] values,String[] texts,byte[] data){
+		this.type = type;
+		this.sequence = 0;
+		this.values = (values != null ? values : NO_VALUES);
+		this.texts = (texts != null ? texts : NO_TEXTS);
+		this.data = data;
+	}
+
+	public CollabMessage(int type,int[] values,String[] texts){
+		this(type, values, texts, null);
+	}
+
+	public CollabMessage(int type,String[] texts){
+		this(type, null, texts, null);
+	}
+
+	/**
+	 * Creates the message of an event of the previous text protocol, the name and its texts.
+	 */
+	public static CollabMessage newEvent(String name,String[] texts){
+		int type = getType(name);
+		if(type == EVENT){
+			String[] eventTexts = new String[texts.length + 1];
+			eventTexts[0] = name;
+			System.arraycopy(texts, 0, eventTexts, 1, texts.length);
+			return new CollabMessage(EVENT, eventTexts);
+		}
+		return new CollabMessage(type, texts);
+	}
+
+	public static CollabMessage newPlayNote(int value,int track,int duration,long time,int userId,String user){
+		return new CollabMessage(PLAY_NOTE, new int[]{ value, track, duration, (int)time, userId, 0, getHigh(time) }, new String[]{ user });
+	}
+
+	/**
+	 * The high word of a value of 64 bits, the session times do not fit an int after 24 days.
+	 */
+	public static int getHigh(long value){
+		return (int)(value >> 32);
+	}
+
+	public static int getType(String name){
+		for(int i = 1; i < NAMES.length; i ++){
+			if(NAMES[i].equals(name)){
+				return i;
+			}
+		}
+		return EVENT;
+	}
+
+	public String getName(){
+		if(this.type > EVENT && this.type < NAMES.length){
+			return NAMES[this.type];
+		}
+		return (this.texts.length > 0 ? this.texts[0] : "");
+	}
+
+	public int getType(){
+		return this.type;
+	}
+
+	public int getSequence(){
+		return this.sequence;
+	}
+
+	public void setSequence(int sequence){
+		this.sequence = sequence;
+	}
+
+	public int countValues(){
+		return this.values.length;
+	}
+
+	public int getValue(int index){
+		return (index < this.values.length ? this.values[index] : 0);
+	}
+
+	/**
+	 * The value of 64 bits with its high word at the index high and the low one at the index low (getHigh).
+	 * Without the high word, from the older clients, the low one is the value.
+	 */
+	public long getLong(int high,int low){
+		if(high >= this.values.length){
+			return this.getValue(low);
+		}
+		return (((long)this.values[high] << 32) | (this.getValue(low) & 0xffffffffL));
+	}
+
+	public int[] getValues(){
+		return this.values;
+	}
+
+	public int countTexts(){
+		return this.texts.length;
+	}
+
+	public String getText(int index){
+		return (index < this.texts.length ? this.texts[index] : null);
+	}
+
+	public String[] getTexts(){
+		return this.texts;
+	}
+
+	public byte[] getData(){
+		return this.data;
+	}
+
+	public String toString(){
+		StringBuffer buffer = new StringBuffer(getName());
+		buffer.append("#" + this.sequence);
+		for(int i = 0; i < this.values.length; i ++){
+			buffer.append(";" + this.values[i]);
+		}
+		for(int i = 0; i < this.texts.length; i ++){
+			buffer.append(";" + this.texts[i]);
+		}
+		if(this.data != null){
+			buffer.append(";[" + this.data.length + " bytes]");
+		}
+		return buffer.toString();
+	}
+}
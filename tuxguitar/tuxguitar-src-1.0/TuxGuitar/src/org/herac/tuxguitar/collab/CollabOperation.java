@@ -0,0 +1,108 @@
+package org.herac.tuxguitar.collab;
+
+/**
+ * An edit of one note, addressed by its position in the song instead of the caret:
+ * track, measure, beat start and string.
+ * The clock and the site order the operations the same way on every client.
+ */
+public class CollabOperation {
+	
+	public static final int INSERT = 1;
+	public static final int REMOVE = 2;
+	public static final int MODIFY = 3;
+	
+	private int kind;
+	private int track;
+	private int measure;
+	private long start;
+	private int string;
+	private int value;
+	private int velocity;
+	private int duration;
+	private long clock;
+	private String site;
+	private String user;
+	
+	public CollabOperation(int kind,int track,int measure,long start,int string,int value,int velocity,int duration,long clock,String site,String user){
+		this.kind = kind;
+		this.track = track;
+		this.measure = measure;
+		this.start = start;
+		this.string = string;
+		this.value = value;
+		this.velocity = velocity;
+		this.duration = duration;
+		this.clock = clock;
+		this.site = site;
+		this.user = user;
+	}
+	
+	public static CollabOperation fromMessage(CollabMessage message){
+		return new CollabOperation(message.getValue(0), message.getValue(1), message.getValue(2), message.getValue(3),
+				message.getValue(4), message.getValue(5), message.getValue(6), message.getValue(7), message.getValue(8),
+				message.getText(0), message.getText(1));
+	}
+	
+	public CollabMessage toMessage(){
+		int[] values = new int[]{ this.kind, this.track, this.measure, (int)this.start, this.string, this.value, this.velocity, this.duration, (int)this.clock };
+		return new CollabMessage(CollabMessage.NOTE_OPERATION, values, new String[]{ this.site, this.user });
+	}
+	
+	/**
+	 * Returns true when this operation comes after the other one in the order shared by all clients.
+	 */
+	public boolean isAfter(long clock,String site){
+		if(this.clock != clock){
+			return (this.clock > clock);
+		}
+		return (site == null || (this.site != null && this.site.compareTo(site) > 0));
+	}
+	
+	public int getKind(){
+		return this.kind;
+	}
+	
+	public int getTrack(){
+		return this.track;
+	}
+	
+	public int getMeasure(){
+		return this.measure;
+	}
+	
+	public long getStart(){
+		return this.start;
+	}
+	
+	public int getString(){
+		return this.string;
+	}
+	
+	public int getValue(){
+		return this.value;
+	}
+	
+	public int getVelocity(){
+		return this.velocity;
+	}
+	
+	public int getDuration(){
+		return this.duration;
+	}
+	
+	public long getClock(){
+		return this.clock;
+	}
+	
+	public String getSite(){
+		return this.site;
+	}
+	
+	public String getUser(){
+		return this.user;
+	}
+	
+	public String toString(){
+		return ("op" + this.kind + " " + this.track + ":" + this.measure + ":" + this.start + ":" + this.string + " value=" + this.value + " @" + this.clock + "/" + this.site);
+	}
+}
@@ -0,0 +1,48 @@
+package org.herac.tuxguitar.collab;
+
+/**
+ * The caret of the user of this client, for the other members of the session.
+ * The caret moves as often as the user types, it is sent at most once every INTERVAL ms and
+ * only when it moved: the moves in between are coalesced and the last one is sent.
+ * A PRESENCE frame has always the same five values and no texts, and it does not go
+ * through the operations or the journal: a lost one is replaced by the next.
+ */
+public class CollabPresence {
+	
+	/** Milliseconds between two PRESENCE messages, at most. */
+	public static final long INTERVAL = 100;
+	
+	private int track;
+	private int measure;
+	private long start;
+	private int string;
+	private boolean moved;
+	
+	public synchronized void move(int track,int measure,long start,int string){
+		if(this.track != track || this.measure != measure || this.start != start || this.string != string){
+			this.track = track;
+			this.measure = measure;
+			this.start = start;
+			this.string = string;
+			this.moved = true;
+		}
+	}
+	
+	/**
+	 * Sends the caret again at the next poll, after entering a session.
+	 */
+	public synchronized void reset(){
+		this.moved = (this.measure > 0);
+	}
+	
+	/**
+	 * The PRESENCE message of the last move, or null when the caret did not move since the last one.
+	 */
+	public synchronized CollabMessage poll(int userId){
+		if(!this.moved){
+			return null;
+		}
+		this.moved = false;
+		return new CollabMessage(CollabMessage.PRESENCE, new int[]{ userId, this.track, this.measure, (int)this.start, this.string }, null);
+	}
+}
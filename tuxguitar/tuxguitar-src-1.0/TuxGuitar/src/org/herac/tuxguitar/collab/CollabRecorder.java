@@ -0,0 +1,79 @@
+package org.herac.tuxguitar.collab;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records the frames a client receives, for CollabReplayer.
+ * The log starts with MAGIC and VERSION, then each frame as CollabCodec writes it, after
+ * the microseconds since the frame before it (System.nanoTime, the first one since the log opened).
+ * A client records when the PROPERTY system property names the file of the log.
+ */
+public class CollabRecorder {
+	
+	public static final String PROPERTY = "tuxguitar.collab.record";
+	
+	public static final int MAGIC = 0x54474352;
+	public static final int VERSION = 1;
+	
+	private static final int BUFFER_SIZE = 8192;
+	
+	private DataOutputStream data;
+	private ByteArrayOutputStream frame;
+	private long last;
+	
+	public CollabRecorder(OutputStream stream) throws IOException{
+		this.data = new DataOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+		this.data.writeInt(MAGIC);
+		this.data.writeByte(VERSION);
+		this.data.flush();
+		this.frame = new ByteArrayOutputStream(64);
+		this.last = System.nanoTime();
+	}
+	
+	/**
+	 * The recorder of the file of the PROPERTY, null when it is not set.
+	 */
+	public static CollabRecorder open() throws IOException{
+		String file = System.getProperty(PROPERTY);
+		if(file == null || file.length() == 0){
+			return null;
+		}
+		return new CollabRecorder(new FileOutputStream(file));
+	}
+	
+	/**
+	 * Records a frame just received, the time is taken now.
+	 */
+	public void record(CollabMessage message) throws IOException{
+		this.record(message, System.nanoTime());
+	}
+	
+	/**
+	 * Records a frame received at the time (System.nanoTime), not before the last one.
+	 */
+	public synchronized void record(CollabMessage message,long now) throws IOException{
+		int delay = (int)Math.min(Math.max((now - this.last) / 1000, 0), Integer.MAX_VALUE);
+		this.data.writeInt(delay);
+		this.frame.reset();
+		CollabCodec.encode(message, this.frame);
+		this.frame.writeTo(this.data);
+		// the nanoseconds left out are counted in the next delay
+		this.last += (delay * 1000L);
+	}
+	
+	/**
+	 * Writes the frames recorded so far, they are not lost if the client is killed.
+	 */
+	public synchronized void flush() throws IOException{
+		this.data.flush();
+	}
+	
+	public synchronized void close() throws IOException{
+		this.data.close();
+	}
+}
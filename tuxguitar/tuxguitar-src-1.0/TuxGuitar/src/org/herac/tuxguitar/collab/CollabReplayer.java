@@ -0,0 +1,101 @@
+package org.herac.tuxguitar.collab;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Gives back the frames of a log of CollabRecorder, in the order they were received.
+ * In real time each frame comes when as much time passed since the first one as when it
+ * was recorded, otherwise they come as fast as they are read.
+ * The next frame is read ahead, so isReady() tells, like the available bytes of a socket,
+ * whether more frames arrived with the last one.
+ */
+public class CollabReplayer {
+	
+	private static final int BUFFER_SIZE = 8192;
+	
+	private DataInputStream data;
+	private boolean realTime;
+	private long started;
+	private CollabMessage next;
+	private long nextTime;
+	private long time;
+	
+	public CollabReplayer(InputStream stream,boolean realTime) throws IOException{
+		this.data = new DataInputStream(new BufferedInputStream(stream, BUFFER_SIZE));
+		if(this.data.readInt() != CollabRecorder.MAGIC){
+			throw new IOException("Not a collaboration log");
+		}
+		int version = this.data.readUnsignedByte();
+		if(version != CollabRecorder.VERSION){
+			throw new IOException("Unsupported log version: " + version);
+		}
+		this.realTime = realTime;
+		this.readNext();
+	}
+	
+	/**
+	 * The next frame, waiting for its time in real time, or null at the end of the log.
+	 */
+	public CollabMessage next() throws IOException{
+		CollabMessage message = this.next;
+		if(message != null){
+			if(this.started == 0){
+				this.started = (System.nanoTime() - (this.nextTime * 1000));
+			}
+			if(this.realTime){
+				waitTime(this.started + (this.nextTime * 1000));
+			}
+			this.time = this.nextTime;
+			this.readNext();
+		}
+		return message;
+	}
+	
+	/**
+	 * True when the next frame is there already: at its time in real time, or not at the end.
+	 */
+	public boolean isReady(){
+		if(this.next == null){
+			return false;
+		}
+		return (!this.realTime || (this.started + (this.nextTime * 1000)) <= System.nanoTime());
+	}
+	
+	/**
+	 * Microseconds from the start of the log to the last frame given.
+	 */
+	public long getTime(){
+		return this.time;
+	}
+	
+	public void close() throws IOException{
+		this.data.close();
+	}
+	
+	private void readNext() throws IOException{
+		this.next = null;
+		try{
+			long delay = this.data.readInt();
+			CollabMessage message = CollabCodec.read(this.data);
+			if(message != null){
+				this.next = message;
+				this.nextTime += delay;
+			}
+		}catch(EOFException e){
+			// the client was stopped while recording a frame
+		}
+	}
+	
+	private static void waitTime(long time){
+		long wait = (time - System.nanoTime());
+		while(wait > 0){
+			LockSupport.parkNanos(wait);
+			wait = (time - System.nanoTime());
+		}
+	}
+}
@@ -0,0 +1,702 @@
+package org.herac.tuxguitar.collab;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.herac.tuxguitar.song.factory.TGFactory;
+import org.herac.tuxguitar.song.managers.TGSongManager;
+import org.herac.tuxguitar.song.models.TGBeat;
+import org.herac.tuxguitar.song.models.TGDuration;
+import org.herac.tuxguitar.song.models.TGMeasure;
+import org.herac.tuxguitar.song.models.TGMeasureHeader;
+import org.herac.tuxguitar.song.models.TGNote;
+import org.herac.tuxguitar.song.models.TGString;
+import org.herac.tuxguitar.song.models.TGTrack;
+import org.herac.tuxguitar.song.models.TGVelocities;
+
+/**
+ * The song of a collaborative session as seen by one client.
+ * Each note position, and each beat for its duration, keeps the stamp of the last operation
+ * applied on it, and older operations are ignored: the last writer wins whatever the order
+ * the operations arrive in. A changed measure is written again from these positions, so all
+ * clients end with the same song without asking the server.
+ * PlayNote messages have no position, they are placed at the cursor of their user, which
+ * moves the same way on every client. When they carry the session time they were played at,
+ * the cursor goes where that time falls, so the network does not change the rhythm.
+ * The server stamps each one with a clock after every operation it relayed before it,
+ * so a note played where the editor wrote wins as any later edit.
+ * Nothing here touches the caret of the editor.
+ */
+public class CollabReplica {
+	
+	/** Measures that an operation may add at the end of the song. */
+	private static final int MAX_NEW_MEASURES = 64;
+	
+	/** Tracks that an operation may add at the end of the song, one for each user of the session. */
+	private static final int MAX_NEW_TRACKS = 64;
+	
+	/** Measures a timed note may fall after the cursor, a longer pause starts a new phrase at the cursor. */
+	private static final int MAX_PAUSE_MEASURES = 2;
+	
+	private String site;
+	private long clock;
+	private Map measures;
+	private Map cursors;
+	
+	public CollabReplica(String site){
+		this.site = site;
+		this.clock = 0;
+		this.measures = new HashMap();
+		this.cursors = new HashMap();
+	}
+	
+	public String getSite(){
+		return this.site;
+	}
+	
+	public synchronized long getClock(){
+		return this.clock;
+	}
+	
+	/**
+	 * Creates an operation of this client, after everything it has seen.
+	 */
+	public synchronized CollabOperation newOperation(int kind,int track,int measure,long start,int string,int value,int velocity,int duration,String user){
+		return new CollabOperation(kind, track, measure, start, string, value, velocity, duration, ++ this.clock, this.site, user);
+	}
+	
+	/**
+	 * Turns a PLAY_NOTE message into an insert at the cursor of its user (the newPlayNote below),
+	 * the same way on the clients, the server and the benchmarks.
+	 * The user track is the one of the user that played it (CollabMember.getTrack), 0 when not known.
+	 */
+	public CollabOperation newPlayNote(TGSongManager manager,CollabMessage message,int userTrack,List measures){
+		long time = (message.countValues() > 3 ? message.getLong(6, 3) : -1);
+		long clock = (message.countValues() > 5 ? message.getValue(5) : 0);
+		return this.newPlayNote(manager, message.getText(0), message.getValue(0), getPlayNoteTrack(message, userTrack), message.getValue(2), time, clock, measures);
+	}
+	
+	/**
+	 * The track of a PLAY_NOTE: its own, else the one of its user, else the first.
+	 */
+	public static int getPlayNoteTrack(CollabMessage message,int userTrack){
+		int track = (message.countValues() > 1 ? message.getValue(1) : 0);
+		if(track <= 0){
+			track = userTrack;
+		}
+		return Math.max(track, 1);
+	}
+	
+	/**
+	 * Turns a note played by a user into an insert at the cursor of the user, and moves the cursor.
+	 * A note with its session time (ms, -1 when unknown) goes first to the position of that time.
+	 * The track is the one of the note, or of the user when the note has none (CollabMember).
+	 * The insert has the clock the server gave to the note, the notes relayed without one
+	 * (0, by CollabServer.cs from the text clients) are only ordered among the notes of their user.
+	 * Returns null when no string of the track can play the note.
+	 */
+	public synchronized CollabOperation newPlayNote(TGSongManager manager,String user,int value,int track,int duration,long time,long clock,List measures){
+		Cursor cursor = (Cursor)this.cursors.get(user);
+		if(cursor == null){
+			TGMeasureHeader first = manager.getFirstMeasureHeader();
+			if(first == null){
+				return null;
+			}
+			cursor = new Cursor(track, first.getNumber(), first.getStart());
+			this.cursors.put(user, cursor);
+		}
+		if(track > 0){
+			cursor.track = track;
+		}
+		int durationValue = (duration > 0 ? duration : TGDuration.QUARTER);
+		TGDuration length = manager.getFactory().newDuration();
+		length.setValue(durationValue);
+		if(time >= 0){
+			this.moveCursor(manager, cursor, time, length.getTime());
+		}
+		TGTrack tgTrack = this.getTrack(manager, cursor.track);
+		TGMeasure measure = (tgTrack != null ? this.getMeasure(manager, tgTrack, cursor.measure, measures) : null);
+		if(measure == null){
+			return null;
+		}
+		TGString string = this.getFreeString(manager, tgTrack, measure, cursor.start, value);
+		if(string == null){
+			return null;
+		}
+		CollabOperation operation = new CollabOperation(CollabOperation.INSERT, cursor.track, cursor.measure, cursor.start, string.getNumber(),
+				(value - string.getValue()), TGVelocities.DEFAULT, durationValue, (clock > 0 ? clock : ++ cursor.count), user, user);
+		
+		long end = (measure.getStart() + measure.getLength());
+		cursor.start += length.getTime();
+		if(cursor.start >= end){
+			cursor.measure ++;
+			cursor.start = end;
+		}
+		return operation;
+	}
+	
+	/**
+	 * Moves the cursor to the time of the note: from the time and the position of the first note
+	 * of the phrase, through the tempo of each measure, rounded to the grid of the note duration.
+	 */
+	private void moveCursor(TGSongManager manager,Cursor cursor,long time,long grid){
+		if(cursor.time >= 0 && time >= cursor.time){
+			long[] position = getTimePosition(manager, cursor.phraseMeasure, cursor.phraseStart, (time - cursor.time), grid);
+			if(position != null && position[0] <= (cursor.measure + MAX_PAUSE_MEASURES)){
+				cursor.measure = (int)position[0];
+				cursor.start = position[1];
+				return;
+			}
+		}
+		cursor.time = time;
+		cursor.phraseMeasure = cursor.measure;
+		cursor.phraseStart = cursor.start;
+	}
+	
+	/**
+	 * Returns the measure and the start where the time falls, counted from a position of the song.
+	 * The measures after the end of the song take the time signature and the tempo of the last one.
+	 */
+	private static long[] getTimePosition(TGSongManager manager,int number,long start,long millis,long grid){
+		TGMeasureHeader last = manager.getLastMeasureHeader();
+		if(last == null){
+			return null;
+		}
+		double remaining = millis;
+		long measureStart = getMeasureStart(manager, last, number);
+		long offset = Math.max(start - measureStart, 0);
+		for(int i = number; i <= (last.getNumber() + MAX_NEW_MEASURES); i ++){
+			TGMeasureHeader header = (i < last.getNumber() ? manager.getMeasureHeader(i) : last);
+			double tickMillis = (60000.0 / (header.getTempo().getValue() * TGDuration.QUARTER_TIME));
+			double position = (offset + (remaining / tickMillis));
+			if(position < header.getLength()){
+				long slot = (Math.round(position / grid) * grid);
+				if((slot + grid) <= header.getLength()){
+					return new long[]{ i, measureStart + slot };
+				}
+				return new long[]{ i + 1, measureStart + header.getLength() };
+			}
+			remaining -= ((header.getLength() - offset) * tickMillis);
+			measureStart += header.getLength();
+			offset = 0;
+		}
+		return null;
+	}
+	
+	private static long getMeasureStart(TGSongManager manager,TGMeasureHeader last,int number){
+		if(number <= last.getNumber()){
+			return manager.getMeasureHeader(number).getStart();
+		}
+		return (last.getStart() + ((number - last.getNumber()) * last.getLength()));
+	}
+	
+	/**
+	 * The edits of a measure made in the editor as operations without clock: the notes removed,
+	 * the notes added, and the notes whose value, velocity or beat duration changed.
+	 */
+	public static List getChanges(int track,TGMeasure before,TGMeasure after){
+		List changes = new ArrayList();
+		Map beforeBeats = getNoteBeats(before);
+		Map afterBeats = getNoteBeats(after);
+		Iterator it = beforeBeats.values().iterator();
+		while(it.hasNext()){
+			TGBeat beat = (TGBeat)it.next();
+			TGBeat afterBeat = (TGBeat)afterBeats.get(new Long(beat.getStart()));
+			for(int i = 0; i < beat.countNotes(); i ++){
+				TGNote note = beat.getNote(i);
+				if(afterBeat == null || getNote(afterBeat, note.getString()) == null){
+					changes.add(newChange(CollabOperation.REMOVE, track, after.getNumber(), beat, note));
+				}
+			}
+		}
+		it = afterBeats.values().iterator();
+		while(it.hasNext()){
+			TGBeat beat = (TGBeat)it.next();
+			TGBeat beforeBeat = (TGBeat)beforeBeats.get(new Long(beat.getStart()));
+			for(int i = 0; i < beat.countNotes(); i ++){
+				TGNote note = beat.getNote(i);
+				TGNote beforeNote = (beforeBeat != null ? getNote(beforeBeat, note.getString()) : null);
+				if(beforeNote == null){
+					changes.add(newChange(CollabOperation.INSERT, track, after.getNumber(), beat, note));
+				}
+				else if(beforeNote.getValue() != note.getValue() || beforeNote.getVelocity() != note.getVelocity() || beforeBeat.getDuration().getValue() != beat.getDuration().getValue()){
+					changes.add(newChange(CollabOperation.MODIFY, track, after.getNumber(), beat, note));
+				}
+			}
+		}
+		return changes;
+	}
+	
+	private static Map getNoteBeats(TGMeasure measure){
+		Map beats = new TreeMap();
+		for(int i = 0; i < measure.countBeats(); i ++){
+			TGBeat beat = measure.getBeat(i);
+			if(beat.countNotes() > 0){
+				beats.put(new Long(beat.getStart()), beat);
+			}
+		}
+		return beats;
+	}
+	
+	private static TGNote getNote(TGBeat beat,int string){
+		for(int i = 0; i < beat.countNotes(); i ++){
+			if(beat.getNote(i).getString() == string){
+				return beat.getNote(i);
+			}
+		}
+		return null;
+	}
+	
+	private static CollabOperation newChange(int kind,int track,int measure,TGBeat beat,TGNote note){
+		return new CollabOperation(kind, track, measure, beat.getStart(), note.getString(), note.getValue(), note.getVelocity(), beat.getDuration().getValue(), 0, null, null);
+	}
+	
+	/**
+	 * Keeps an operation already made on the local song.
+	 */
+	public synchronized void record(CollabOperation operation){
+		this.clock = Math.max(this.clock, operation.getClock());
+		this.update(this.getMeasureState(operation.getTrack(), operation.getMeasure()), operation);
+	}
+	
+	/**
+	 * Applies the operation if nothing newer was applied on its position, and writes again the
+	 * notes of its measure from the state of the replica, so the order the operations came in
+	 * does not change the song. The numbers of the measures changed or added are added to the list.
+	 */
+	public synchronized boolean apply(TGSongManager manager,CollabOperation operation,List measures){
+		this.clock = Math.max(this.clock, operation.getClock());
+		
+		TGTrack track = this.getTrack(manager, operation.getTrack());
+		TGMeasure measure = (track != null ? this.getMeasure(manager, track, operation.getMeasure(), measures) : null);
+		if(measure == null){
+			return false;
+		}
+		MeasureState state = this.getMeasureState(operation.getTrack(), operation.getMeasure());
+		if(!state.loaded){
+			this.load(state, measure);
+		}
+		if(!this.update(state, operation)){
+			return false;
+		}
+		this.write(manager, state, measure);
+		addMeasure(measures, measure.getNumber());
+		return true;
+	}
+	
+	/**
+	 * Writes the clock, the cursors and the stamps of the operations, each site and user name once.
+	 * Clocks are written as ints, as they travel in the operations.
+	 * The notes the measures had before any operation are left out, they are read again from the song.
+	 */
+	public synchronized void write(DataOutputStream data) throws IOException{
+		List names = new ArrayList();
+		Map indexes = new HashMap();
+		List measures = new ArrayList();
+		Iterator it = this.measures.values().iterator();
+		while(it.hasNext()){
+			MeasureState state = (MeasureState)it.next();
+			List beats = new ArrayList();
+			Iterator beatIt = state.beats.entrySet().iterator();
+			while(beatIt.hasNext()){
+				Map.Entry entry = (Map.Entry)beatIt.next();
+				BeatState beat = (BeatState)entry.getValue();
+				List notes = beat.getOperationNotes();
+				if(beat.isStamped() || !notes.isEmpty()){
+					beats.add(new Object[]{ entry.getKey(), beat, notes });
+					getNameIndex(beat.site, names, indexes);
+					for(int i = 0; i < notes.size(); i ++){
+						NoteState note = (NoteState)((Map.Entry)notes.get(i)).getValue();
+						getNameIndex(note.site, names, indexes);
+						getNameIndex(note.user, names, indexes);
+					}
+				}
+			}
+			if(!beats.isEmpty()){
+				measures.add(new Object[]{ state, beats });
+			}
+		}
+		
+		data.writeLong(this.clock);
+		data.writeInt(names.size());
+		for(int i = 0; i < names.size(); i ++){
+			data.writeUTF((String)names.get(i));
+		}
+		data.writeInt(this.cursors.size());
+		it = this.cursors.entrySet().iterator();
+		while(it.hasNext()){
+			Map.Entry entry = (Map.Entry)it.next();
+			Cursor cursor = (Cursor)entry.getValue();
+			data.writeUTF((String)entry.getKey());
+			data.writeInt(cursor.track);
+			data.writeInt(cursor.measure);
+			data.writeLong(cursor.start);
+			data.writeLong(cursor.count);
+			data.writeLong(cursor.time);
+			data.writeInt(cursor.phraseMeasure);
+			data.writeLong(cursor.phraseStart);
+		}
+		data.writeInt(measures.size());
+		for(int i = 0; i < measures.size(); i ++){
+			MeasureState state = (MeasureState)((Object[])measures.get(i))[0];
+			List beats = (List)((Object[])measures.get(i))[1];
+			data.writeInt(state.track);
+			data.writeInt(state.number);
+			data.writeInt(beats.size());
+			for(int j = 0; j < beats.size(); j ++){
+				Object[] entry = (Object[])beats.get(j);
+				BeatState beat = (BeatState)entry[1];
+				List notes = (List)entry[2];
+				data.writeLong(((Long)entry[0]).longValue());
+				data.writeBoolean(beat.isStamped());
+				if(beat.isStamped()){
+					data.writeInt((int)beat.clock);
+					data.writeShort(getNameIndex(beat.site, names, indexes));
+					data.writeByte(beat.duration);
+				}
+				data.writeByte(notes.size());
+				for(int k = 0; k < notes.size(); k ++){
+					Map.Entry note = (Map.Entry)notes.get(k);
+					NoteState noteState = (NoteState)note.getValue();
+					data.writeByte(((Integer)note.getKey()).intValue());
+					data.writeInt((int)noteState.clock);
+					data.writeShort(getNameIndex(noteState.site, names, indexes));
+					data.writeBoolean(noteState.removed);
+					data.writeShort(noteState.value);
+					data.writeByte(noteState.velocity);
+					data.writeShort(getNameIndex(noteState.user, names, indexes));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Replaces the state by the one written by another client, the site of this client is kept.
+	 */
+	public synchronized void read(DataInputStream data) throws IOException{
+		this.clock = Math.max(this.clock, data.readLong());
+		this.cursors.clear();
+		this.measures.clear();
+		String[] names = new String[data.readInt()];
+		for(int i = 0; i < names.length; i ++){
+			names[i] = data.readUTF();
+		}
+		int cursors = data.readInt();
+		for(int i = 0; i < cursors; i ++){
+			String user = data.readUTF();
+			Cursor cursor = new Cursor(data.readInt(), data.readInt(), data.readLong());
+			cursor.count = data.readLong();
+			cursor.time = data.readLong();
+			cursor.phraseMeasure = data.readInt();
+			cursor.phraseStart = data.readLong();
+			this.cursors.put(user, cursor);
+		}
+		int measures = data.readInt();
+		for(int i = 0; i < measures; i ++){
+			MeasureState state = this.getMeasureState(data.readInt(), data.readInt());
+			int beats = data.readInt();
+			for(int j = 0; j < beats; j ++){
+				BeatState beat = new BeatState();
+				state.beats.put(new Long(data.readLong()), beat);
+				if(data.readBoolean()){
+					beat.clock = data.readInt();
+					beat.site = names[data.readUnsignedShort()];
+					beat.duration = data.readUnsignedByte();
+				}
+				int notes = data.readUnsignedByte();
+				for(int k = 0; k < notes; k ++){
+					Integer string = new Integer(data.readUnsignedByte());
+					NoteState note = new NoteState();
+					note.clock = data.readInt();
+					note.site = names[data.readUnsignedShort()];
+					note.removed = data.readBoolean();
+					note.value = data.readShort();
+					note.velocity = data.readUnsignedByte();
+					note.user = names[data.readUnsignedShort()];
+					beat.notes.put(string, note);
+				}
+			}
+		}
+	}
+	
+	private static int getNameIndex(String name,List names,Map indexes){
+		String key = (name != null ? name : "");
+		Integer index = (Integer)indexes.get(key);
+		if(index == null){
+			index = new Integer(names.size());
+			names.add(key);
+			indexes.put(key, index);
+		}
+		return index.intValue();
+	}
+	
+	private MeasureState getMeasureState(int track,int measure){
+		String key = (track + ":" + measure);
+		MeasureState state = (MeasureState)this.measures.get(key);
+		if(state == null){
+			state = new MeasureState(track, measure);
+			this.measures.put(key, state);
+		}
+		return state;
+	}
+	
+	/**
+	 * Changes the note and the beat duration of the position where the operation is newer.
+	 */
+	private boolean update(MeasureState state,CollabOperation operation){
+		Long start = new Long(operation.getStart());
+		BeatState beat = (BeatState)state.beats.get(start);
+		if(beat == null){
+			beat = new BeatState();
+			state.beats.put(start, beat);
+		}
+		boolean changed = false;
+		if(operation.getKind() != CollabOperation.REMOVE && (beat.site == null || operation.isAfter(beat.clock, beat.site))){
+			beat.clock = operation.getClock();
+			beat.site = operation.getSite();
+			beat.duration = operation.getDuration();
+			beat.model = null;
+			changed = true;
+		}
+		Integer string = new Integer(operation.getString());
+		NoteState note = (NoteState)beat.notes.get(string);
+		if(note == null || operation.isAfter(note.clock, note.site)){
+			if(note == null){
+				note = new NoteState();
+				beat.notes.put(string, note);
+			}
+			note.clock = operation.getClock();
+			note.site = operation.getSite();
+			note.removed = (operation.getKind() == CollabOperation.REMOVE);
+			note.value = operation.getValue();
+			note.velocity = operation.getVelocity();
+			note.user = operation.getUser();
+			note.model = null;
+			changed = true;
+		}
+		return changed;
+	}
+	
+	/**
+	 * Takes the beats the measure had before the first operation on it, older than any operation.
+	 */
+	private void load(MeasureState state,TGMeasure measure){
+		for(int i = 0; i < measure.countBeats(); i ++){
+			TGBeat beat = measure.getBeat(i);
+			if(beat.isRestBeat() && !beat.isChordBeat() && !beat.isTextBeat()){
+				continue;
+			}
+			Long start = new Long(beat.getStart());
+			BeatState beatState = (BeatState)state.beats.get(start);
+			if(beatState == null){
+				beatState = new BeatState();
+				state.beats.put(start, beatState);
+			}
+			if(beatState.site == null){
+				beatState.site = "";
+				beatState.model = beat;
+			}
+			for(int j = 0; j < beat.countNotes(); j ++){
+				TGNote note = beat.getNote(j);
+				Integer string = new Integer(note.getString());
+				if(!beatState.notes.containsKey(string)){
+					NoteState noteState = new NoteState();
+					noteState.site = "";
+					noteState.model = note;
+					beatState.notes.put(string, noteState);
+				}
+			}
+		}
+		state.loaded = true;
+	}
+	
+	/**
+	 * Writes the measure from its state: beats in order of start and notes in order of string.
+	 * A beat that starts before the end of the previous one, or ends after the measure, is left
+	 * out until the beats around it change, and the rests are completed by the measure manager.
+	 */
+	private void write(TGSongManager manager,MeasureState state,TGMeasure measure){
+		TGFactory factory = manager.getFactory();
+		long free = measure.getStart();
+		long end = (measure.getStart() + measure.getLength());
+		List beats = new ArrayList();
+		Iterator it = state.beats.entrySet().iterator();
+		while(it.hasNext()){
+			Map.Entry entry = (Map.Entry)it.next();
+			BeatState beatState = (BeatState)entry.getValue();
+			TGBeat beat = null;
+			if(beatState.model != null){
+				beat = beatState.model.clone(factory);
+				manager.getMeasureManager().cleanBeatNotes(beat);
+			}else{
+				beat = factory.newBeat();
+				beat.getDuration().setValue(beatState.duration);
+			}
+			beat.setStart(((Long)entry.getKey()).longValue());
+			Iterator notes = beatState.notes.entrySet().iterator();
+			while(notes.hasNext()){
+				Map.Entry note = (Map.Entry)notes.next();
+				NoteState noteState = (NoteState)note.getValue();
+				if(!noteState.removed){
+					beat.addNote(noteState.newNote(factory, ((Integer)note.getKey()).intValue()));
+				}
+			}
+			long beatEnd = (beat.getStart() + beat.getDuration().getTime());
+			if((!beat.isRestBeat() || beat.isChordBeat() || beat.isTextBeat()) && beat.getStart() >= free && beatEnd <= end){
+				beats.add(beat);
+				free = beatEnd;
+			}
+		}
+		manager.getMeasureManager().cleanMeasure(measure);
+		for(int i = 0; i < beats.size(); i ++){
+			measure.addBeat((TGBeat)beats.get(i));
+		}
+		manager.getMeasureManager().autoCompleteSilences(measure);
+		manager.getMeasureManager().orderBeats(measure);
+	}
+	
+	/**
+	 * Returns the measure, adding the measures missing at the end of the song.
+	 */
+	private TGMeasure getMeasure(TGSongManager manager,TGTrack track,int number,List measures){
+		int count = manager.getSong().countMeasureHeaders();
+		if(number < 1 || number > (count + MAX_NEW_MEASURES)){
+			return null;
+		}
+		while(count < number){
+			manager.addNewMeasure(++ count);
+			addMeasure(measures, count);
+		}
+		return manager.getTrackManager().getMeasure(track, number);
+	}
+	
+	private TGString getFreeString(TGSongManager manager,TGTrack track,TGMeasure measure,long start,int value){
+		List strings = track.getStrings();
+		for(int i = 0; i < strings.size(); i ++){
+			TGString string = (TGString)strings.get(i);
+			if(value >= string.getValue() && manager.getMeasureManager().getNote(measure, start, string.getNumber()) == null){
+				return string;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the track, adding the tracks missing at the end of the song.
+	 */
+	private TGTrack getTrack(TGSongManager manager,int number){
+		int count = manager.getSong().countTracks();
+		if(number < 1 || number > (count + MAX_NEW_TRACKS)){
+			return null;
+		}
+		while(count < number){
+			manager.createTrack();
+			count ++;
+		}
+		return manager.getTrack(number);
+	}
+	
+	private static void addMeasure(List measures,int number){
+		Integer measure = new Integer(number);
+		if(measures != null && !measures.contains(measure)){
+			measures.add(measure);
+		}
+	}
+	
+	private static class MeasureState{
+		protected int track;
+		protected int number;
+		protected boolean loaded;
+		protected TreeMap beats = new TreeMap();
+		
+		public MeasureState(int track,int number){
+			this.track = track;
+			this.number = number;
+		}
+	}
+	
+	/**
+	 * A start of the measure: the stamp of its duration and its notes by string.
+	 * The model is the beat the measure had there before any operation.
+	 */
+	private static class BeatState{
+		protected long clock;
+		protected String site;
+		protected int duration = TGDuration.QUARTER;
+		protected TGBeat model;
+		protected TreeMap notes = new TreeMap();
+		
+		/**
+		 * True when the duration comes from an operation.
+		 */
+		public boolean isStamped(){
+			return (this.site != null && this.model == null);
+		}
+		
+		public List getOperationNotes(){
+			List notes = new ArrayList();
+			Iterator it = this.notes.entrySet().iterator();
+			while(it.hasNext()){
+				Map.Entry entry = (Map.Entry)it.next();
+				if(((NoteState)entry.getValue()).model == null){
+					notes.add(entry);
+				}
+			}
+			return notes;
+		}
+	}
+	
+	private static class NoteState{
+		protected long clock;
+		protected String site;
+		protected boolean removed;
+		protected int value;
+		protected int velocity;
+		protected String user;
+		protected TGNote model;
+		
+		public TGNote newNote(TGFactory factory,int string){
+			TGNote note = null;
+			if(this.model != null){
+				note = this.model.clone(factory);
+				note.setUser(this.model.getUser());
+			}else{
+				note = factory.newNote();
+				note.setValue(this.value);
+				note.setVelocity(this.velocity);
+				note.setUser(this.user);
+			}
+			note.setString(string);
+			return note;
+		}
+	}
+	
+	/**
+	 * Where the next note of a user goes, and the session time and position of the first
+	 * timed note of the phrase the user is playing.
+	 */
+	private static class Cursor{
+		protected int track;
+		protected int measure;
+		protected long start;
+		protected long count;
+		protected long time;
+		protected int phraseMeasure;
+		protected long phraseStart;
+		
+		public Cursor(int track,int measure,long start){
+			this.track = track;
+			this.measure = measure;
+			this.start = start;
+			this.count = 0;
+			this.time = -1;
+		}
+	}
+}
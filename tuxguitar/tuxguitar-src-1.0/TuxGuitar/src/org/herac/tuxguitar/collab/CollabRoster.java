@@ -0,0 +1,130 @@
+package org.herac.tuxguitar.collab;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The users of the session, filled by the SESSION_START and SESSION_END messages of the server.
+ * Users are found by id in an array, or by login (notes and older clients only carry the login)
+ * in a map, both without going through the list.
+ */
+public class CollabRoster {
+	
+	private static final CollabMember[] NO_MEMBERS = new CollabMember[0];
+	
+	private CollabMember[] members;
+	private Map logins;
+	private CollabMember self;
+	
+	public CollabRoster(){
+		this.members = NO_MEMBERS;
+		this.logins = new HashMap();
+	}
+	
+	/**
+	 * Adds the user that joined, or marks it present again. Self is true for the user of this client.
+	 */
+	public synchronized CollabMember join(int id,String login,boolean self){
+		if(id < 1){
+			return null;
+		}
+		if(id > this.members.length){
+			CollabMember[] members = new CollabMember[Math.max(id, this.members.length * 2)];
+			System.arraycopy(this.members, 0, members, 0, this.members.length);
+			this.members = members;
+		}
+		CollabMember member = this.members[id - 1];
+		if(member == null){
+			member = new CollabMember(id, login);
+			this.members[id - 1] = member;
+		}
+		member.setPresent(true);
+		this.logins.put(login, member);
+		if(self){
+			this.self = member;
+		}
+		return member;
+	}
+	
+	public synchronized CollabMember leave(int id){
+		CollabMember member = this.getMember(id);
+		if(member != null){
+			member.setPresent(false);
+		}
+		return member;
+	}
+	
+	/**
+	 * Forgets the users, when this client enters another session.
+	 */
+	public synchronized void clear(){
+		this.members = NO_MEMBERS;
+		this.logins.clear();
+		this.self = null;
+	}
+	
+	public synchronized CollabMember getMember(int id){
+		return ((id > 0 && id <= this.members.length) ? this.members[id - 1] : null);
+	}
+	
+	/**
+	 * The last user that joined with the login.
+	 */
+	public synchronized CollabMember getMember(String login){
+		return (login != null ? (CollabMember)this.logins.get(login) : null);
+	}
+	
+	/**
+	 * The user of the message: by id when it has one, else by login.
+	 */
+	public CollabMember getMember(int id,String login){
+		CollabMember member = this.getMember(id);
+		return (member != null ? member : this.getMember(login));
+	}
+	
+	/**
+	 * The user of this client, null before the server tells it.
+	 */
+	public synchronized CollabMember getSelf(){
+		return this.self;
+	}
+	
+	/**
+	 * Every user that joined the session, present or not, by id.
+	 */
+	public synchronized CollabMember[] getMembers(){
+		int count = 0;
+		for(int i = 0; i < this.members.length; i ++){
+			if(this.members[i] != null){
+				count ++;
+			}
+		}
+		CollabMember[] members = new CollabMember[count];
+		for(int i = 0, j = 0; i < this.members.length; i ++){
+			if(this.members[i] != null){
+				members[j ++] = this.members[i];
+			}
+		}
+		return members;
+	}
+	
+	public synchronized int countPresent(){
+		int count = 0;
+		for(int i = 0; i < this.members.length; i ++){
+			if(this.members[i] != null && this.members[i].isPresent()){
+				count ++;
+			}
+		}
+		return count;
+	}
+	
+	public synchronized String toString(){
+		StringBuffer buffer = new StringBuffer();
+		for(int i = 0; i < this.members.length; i ++){
+			if(this.members[i] != null){
+				buffer.append(this.members[i]).append("\n");
+			}
+		}
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,232 @@
+package org.herac.tuxguitar.collab;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends the messages of a connection from its own writer thread.
+ * Any thread can add messages without blocking, the writer wakes up at once and sends
+ * everything pending in a single write, numbering the frames in order.
+ * The time from send() to the write is kept in the latency statistics.
+ * The messages written stay in a journal until the server acknowledges them: when the
+ * stream fails, the messages added keep waiting and resume() sends again what was lost.
+ * PRESENCE messages are neither numbered nor kept, a lost one is replaced by the next.
+ * With a dictionary the frames are compact (CollabCodec.COMPACT), the traffic counts
+ * what they would take as plain ones.
+ */
+public class CollabSender implements Runnable{
+	
+	/** Messages kept for the server to acknowledge. */
+	private static final int JOURNAL_SIZE = 4096;
+	
+	private OutputStream stream;
+	private ConcurrentLinkedQueue queue;
+	private ByteArrayOutputStream buffer;
+	private CollabLatency latency;
+	private CollabJournal journal;
+	private long[] times;
+	private int sequence;
+	private volatile CollabDictionary dictionary;
+	private volatile CollabTraffic traffic;
+	private volatile Thread writer;
+	private volatile boolean closed;
+	private volatile IOException error;
+	
+	/**
+	 * @param sequence the last sequence number already sent on the stream.
+	 */
+	public CollabSender(OutputStream stream,int sequence){
+		this.stream = stream;
+		this.queue = new ConcurrentLinkedQueue();
+		this.buffer = new ByteArrayOutputStream(1024);
+		this.latency = new CollabLatency();
+		this.journal = new CollabJournal(JOURNAL_SIZE, sequence);
+		this.times = new long[64];
+		this.sequence = sequence;
+		this.closed = false;
+	}
+	
+	public void send(CollabMessage message){
+		if(!this.closed){
+			this.queue.offer(new Pending(message, System.nanoTime()));
+			Thread writer = this.writer;
+			if(writer != null){
+				LockSupport.unpark(writer);
+			}
+		}
+	}
+	
+	/**
+	 * Writes until close() is called or the stream fails (getError).
+	 */
+	public void run(){
+		this.writer = Thread.currentThread();
+		try{
+			while(!this.closed && this.error == null){
+				if(!this.write()){
+					// send() unparks after adding, a message added before park makes it return at once
+					LockSupport.park(this);
+				}
+			}
+			if(this.error == null){
+				this.write();
+			}
+		}catch(IOException e){
+			this.error = e;
+		}
+		this.writer = null;
+	}
+	
+	/**
+	 * Stops the writer as if the stream had failed, when the reader finds the connection lost.
+	 */
+	public void fail(IOException error){
+		this.error = error;
+		Thread writer = this.writer;
+		if(writer != null){
+			LockSupport.unpark(writer);
+		}
+	}
+	
+	/**
+	 * Continues on the stream of a new connection, once run() has returned: the messages
+	 * after the last one the server received are written again, then run() can be called.
+	 */
+	public void resume(OutputStream stream,int received) throws IOException{
+		CollabMessage[] messages = this.journal.getMessages(received);
+		this.buffer.reset();
+		for(int i = 0; i < messages.length; i ++){
+			this.encode(messages[i]);
+		}
+		this.buffer.writeTo(stream);
+		stream.flush();
+		this.stream = stream;
+		this.error = null;
+	}
+	
+	/**
+	 * Continues on the stream of a new login, the messages that were not acknowledged are lost.
+	 */
+	public void restart(OutputStream stream){
+		this.journal.clear();
+		this.stream = stream;
+		this.error = null;
+	}
+	
+	/**
+	 * The server received every message up to the sequence.
+	 */
+	public void acknowledge(int sequence){
+		this.journal.acknowledge(sequence);
+	}
+	
+	/**
+	 * The dictionary of the compact frames, null to send plain ones.
+	 * Set before run(), and again when the client enters a session.
+	 */
+	public void setDictionary(CollabDictionary dictionary){
+		this.dictionary = dictionary;
+	}
+	
+	public void setTraffic(CollabTraffic traffic){
+		this.traffic = traffic;
+	}
+	
+	public CollabJournal getJournal(){
+		return this.journal;
+	}
+	
+	/**
+	 * Stops the writer, the messages already added are sent before it ends.
+	 */
+	public void close(){
+		this.closed = true;
+		Thread writer = this.writer;
+		if(writer != null){
+			LockSupport.unpark(writer);
+		}
+	}
+	
+	public boolean isClosed(){
+		return this.closed;
+	}
+	
+	/**
+	 * The error that stopped the writer, if any.
+	 */
+	public IOException getError(){
+		return this.error;
+	}
+	
+	public CollabLatency getLatency(){
+		return this.latency;
+	}
+	
+	public int getPendingCount(){
+		return this.queue.size();
+	}
+	
+	private boolean write() throws IOException{
+		Pending pending = (Pending)this.queue.poll();
+		if(pending == null){
+			return false;
+		}
+		int count = 0;
+		this.buffer.reset();
+		while(pending != null){
+			boolean numbered = (pending.message.getType() != CollabMessage.PRESENCE);
+			pending.message.setSequence(numbered ? (this.sequence + 1) : 0);
+			if(this.encode(pending.message)){
+				if(numbered){
+					this.sequence ++;
+					this.journal.add(pending.message);
+				}
+				if(count == this.times.length){
+					long[] times = new long[count * 2];
+					System.arraycopy(this.times, 0, times, 0, count);
+					this.times = times;
+				}
+				this.times[count ++] = pending.time;
+			}
+			pending = (Pending)this.queue.poll();
+		}
+		this.buffer.writeTo(this.stream);
+		this.stream.flush();
+		long now = System.nanoTime();
+		for(int i = 0; i < count; i ++){
+			this.latency.add(now - this.times[i]);
+		}
+		return true;
+	}
+	
+	/**
+	 * A message that can not be framed (too big) is dropped, the others are still sent.
+	 */
+	private boolean encode(CollabMessage message){
+		try{
+			int size = this.buffer.size();
+			CollabCodec.encode(message, this.buffer, this.dictionary);
+			if(this.traffic != null){
+				int length = (this.buffer.size() - size);
+				this.traffic.addOut(length, (this.dictionary != null ? CollabCodec.getLength(message) : length));
+			}
+			return true;
+		}catch(IOException e){
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	private static class Pending{
+		protected CollabMessage message;
+		protected long time;
+		
+		public Pending(CollabMessage message,long time){
+			this.message = message;
+			this.time = time;
+		}
+	}
+}
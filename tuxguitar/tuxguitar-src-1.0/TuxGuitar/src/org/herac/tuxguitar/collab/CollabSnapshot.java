@@ -0,0 +1,144 @@
+package org.herac.tuxguitar.collab;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.herac.tuxguitar.io.base.TGFileFormatException;
+import org.herac.tuxguitar.io.tg.TGInputStream;
+import org.herac.tuxguitar.io.tg.TGOutputStream;
+import org.herac.tuxguitar.song.factory.TGFactory;
+import org.herac.tuxguitar.song.managers.TGSongManager;
+import org.herac.tuxguitar.song.models.TGMeasure;
+import org.herac.tuxguitar.song.models.TGSong;
+import org.herac.tuxguitar.song.models.TGTrack;
+
+/**
+ * The song of a session for a member that joins it late, compressed with gzip:
+ * the state of the replica, stamped with the clock of the last operation it has seen,
+ * followed by the song in the TuxGuitar format.
+ * The operations that arrive after the snapshot are applied on top of it, the ones
+ * older than the stamps it carries are ignored.
+ */
+public class CollabSnapshot {
+	
+	private static final int BUFFER_SIZE = 8192;
+	
+	/**
+	 * Must be called with the song locked.
+	 */
+	public static byte[] write(TGSongManager manager,CollabReplica replica) throws IOException{
+		completeMeasures(manager);
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(BUFFER_SIZE);
+		OutputStream stream = newOutputStream(bytes);
+		
+		DataOutputStream data = new DataOutputStream(stream);
+		replica.write(data);
+		data.flush();
+		
+		// writes the song and closes the stream
+		TGOutputStream output = new TGOutputStream();
+		output.init(manager.getFactory(), stream);
+		output.writeSong(manager.getSong());
+		
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * The snapshot of a song written by writeSong.
+	 */
+	public static byte[] write(CollabReplica replica,byte[] song) throws IOException{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(BUFFER_SIZE);
+		DataOutputStream data = new DataOutputStream(newOutputStream(bytes));
+		replica.write(data);
+		data.write(song);
+		data.close();
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * The song in the TuxGuitar format, as it goes in a snapshot and in a .tg file.
+	 * Must be called with the song locked.
+	 */
+	public static byte[] writeSong(TGSongManager manager) throws IOException{
+		completeMeasures(manager);
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(BUFFER_SIZE);
+		TGOutputStream output = new TGOutputStream();
+		output.init(manager.getFactory(), bytes);
+		output.writeSong(manager.getSong());
+		return bytes.toByteArray();
+	}
+	
+	public static TGSong read(TGFactory factory,byte[] snapshot,CollabReplica replica) throws IOException,TGFileFormatException{
+		InputStream stream = newInputStream(snapshot);
+		
+		replica.read(new DataInputStream(stream));
+		
+		TGInputStream input = new TGInputStream();
+		input.init(factory, stream);
+		return input.readSong();
+	}
+	
+	/**
+	 * Reads the state of the replica, returns the song as it is in the snapshot, in the TuxGuitar format.
+	 */
+	public static byte[] read(byte[] snapshot,CollabReplica replica) throws IOException{
+		InputStream stream = newInputStream(snapshot);
+		
+		replica.read(new DataInputStream(stream));
+		
+		ByteArrayOutputStream song = new ByteArrayOutputStream(BUFFER_SIZE);
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int read = stream.read(buffer);
+		while(read >= 0){
+			song.write(buffer, 0, read);
+			read = stream.read(buffer);
+		}
+		return song.toByteArray();
+	}
+	
+	private static OutputStream newOutputStream(OutputStream bytes) throws IOException{
+		return new BufferedOutputStream(new GZIPOutputStream(bytes, BUFFER_SIZE){
+			{
+				// the snapshot is sent once, on a LAN the time to compress counts more than the bytes
+				this.def.setLevel(Deflater.BEST_SPEED);
+			}
+		}, BUFFER_SIZE);
+	}
+	
+	private static InputStream newInputStream(byte[] snapshot) throws IOException{
+		return new BufferedInputStream(new GZIPInputStream(new ByteArrayInputStream(snapshot), BUFFER_SIZE), BUFFER_SIZE);
+	}
+	
+	/**
+	 * The format keeps the beats of a measure one after the other and has no empty measures:
+	 * the measures not laid out yet get their rests and their order now, as the layout would do.
+	 */
+	private static void completeMeasures(TGSongManager manager){
+		Iterator tracks = manager.getSong().getTracks();
+		while(tracks.hasNext()){
+			Iterator measures = ((TGTrack)tracks.next()).getMeasures();
+			while(measures.hasNext()){
+				TGMeasure measure = (TGMeasure)measures.next();
+				if(measure.countBeats() == 0){
+					manager.getMeasureManager().autoCompleteSilences(measure);
+				}
+				if(!measure.isBeatsOrdered()){
+					manager.getMeasureManager().orderBeats(measure);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package org.herac.tuxguitar.collab;
+
+/**
+ * The frames and bytes a connection received and sent, and the bytes they would take as
+ * plain frames, to see what the compact frames save (CollabCodec.COMPACT).
+ */
+public class CollabTraffic {
+	
+	private long framesIn;
+	private long bytesIn;
+	private long plainIn;
+	private long framesOut;
+	private long bytesOut;
+	private long plainOut;
+	
+	public synchronized void addIn(int bytes,int plain){
+		this.framesIn ++;
+		this.bytesIn += bytes;
+		this.plainIn += plain;
+	}
+	
+	public synchronized void addOut(int bytes,int plain){
+		this.framesOut ++;
+		this.bytesOut += bytes;
+		this.plainOut += plain;
+	}
+	
+	public synchronized long getFramesIn(){
+		return this.framesIn;
+	}
+	
+	public synchronized long getBytesIn(){
+		return this.bytesIn;
+	}
+	
+	public synchronized long getPlainIn(){
+		return this.plainIn;
+	}
+	
+	public synchronized long getFramesOut(){
+		return this.framesOut;
+	}
+	
+	public synchronized long getBytesOut(){
+		return this.bytesOut;
+	}
+	
+	public synchronized long getPlainOut(){
+		return this.plainOut;
+	}
+	
+	public synchronized void reset(){
+		this.framesIn = 0;
+		this.bytesIn = 0;
+		this.plainIn = 0;
+		this.framesOut = 0;
+		this.bytesOut = 0;
+		this.plainOut = 0;
+	}
+	
+	public synchronized String toString(){
+		return ("in: frames=" + this.framesIn + " bytes=" + this.bytesIn + " plain=" + this.plainIn + toSaved(this.bytesIn, this.plainIn)
+				+ " out: frames=" + this.framesOut + " bytes=" + this.bytesOut + " plain=" + this.plainOut + toSaved(this.bytesOut, this.plainOut));
+	}
+	
+	private static String toSaved(long bytes,long plain){
+		return (" saved=" + (plain > 0 ? ((plain - bytes) * 100 / plain) : 0) + "%");
+	}
+}
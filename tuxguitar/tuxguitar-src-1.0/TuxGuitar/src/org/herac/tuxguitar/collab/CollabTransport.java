@@ -0,0 +1,82 @@
+package org.herac.tuxguitar.collab;
+
+/**
+ * The playback shared by the members of a session.
+ * Play, stop and seek are sent for a session time a little in the future, so every member receives
+ * them before: each one prepares its sequence and starts (or moves) its sequencer at that time.
+ * While playing, the member that started the playback sends a BEACON with the tick its sequencer
+ * plays at a session time, and the others move their sequencer to play it at the same time.
+ * Times are session times in microseconds (CollabClock).
+ */
+public class CollabTransport {
+	
+	public static final int PLAY = 0;
+	public static final int STOP = 1;
+	public static final int SEEK = 2;
+	public static final int BEACON = 3;
+	
+	/** Least time from a command to the session time it is played at, in microseconds. */
+	public static final long LEAD = (300 * 1000);
+	
+	/** Milliseconds between two BEACON messages of the member that started the playback. */
+	public static final long BEACON_INTERVAL = 1000;
+	
+	private int leader;
+	
+	public static CollabMessage newMessage(int action,long tick,long time,int userId){
+		long millis = (time / 1000);
+		return new CollabMessage(CollabMessage.TRANSPORT, new int[]{ action, (int)tick, (int)millis, (int)(time % 1000), userId, CollabMessage.getHigh(millis) }, null);
+	}
+	
+	public static int getAction(CollabMessage message){
+		return message.getValue(0);
+	}
+	
+	public static long getTick(CollabMessage message){
+		return message.getValue(1);
+	}
+	
+	public static long getTime(CollabMessage message){
+		return ((message.getLong(5, 2) * 1000L) + message.getValue(3));
+	}
+	
+	public static int getUserId(CollabMessage message){
+		return message.getValue(4);
+	}
+	
+	/**
+	 * The session time for a command sent now: at least LEAD ahead, and twice the round trip to the
+	 * server when it is longer, the command goes to the server and back to the others.
+	 */
+	public static long getCommandTime(CollabClock clock){
+		long now = (clock.now() * 1000);
+		return (now + Math.max(LEAD, (clock.getRoundTrip() * 2)));
+	}
+	
+	/**
+	 * Takes a command of any member, sent or received: the member that plays sends the beacons.
+	 */
+	public synchronized void receive(CollabMessage message){
+		int action = getAction(message);
+		if(action == PLAY){
+			this.leader = getUserId(message);
+		}
+		else if(action == STOP){
+			this.leader = 0;
+		}
+	}
+	
+	/**
+	 * True when the user started the playback and sends the beacons.
+	 */
+	public synchronized boolean isLeader(int userId){
+		return (this.leader != 0 && this.leader == userId);
+	}
+	
+	/**
+	 * Forgets the playback, after entering a session.
+	 */
+	public synchronized void reset(){
+		this.leader = 0;
+	}
+}
@@ -29,29 +29,43 @@
 
 
 package org.herac.tuxguitar.gui;
-import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.URL;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.Vector;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import org.eclipse.swt.graphics.Color;
 
-import javax.swing.JOptionPane;
-import javax.swing.event.EventListenerList;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Color;
-
-//Estes imports so teis para a colaborao!
-import java.net.*;
-import java.io.*;
-import java.util.*;
+import org.herac.tuxguitar.collab.CollabClock;
+import org.herac.tuxguitar.collab.CollabCodec;
+import org.herac.tuxguitar.collab.CollabDictionary;
+import org.herac.tuxguitar.collab.CollabLatency;
+import org.herac.tuxguitar.collab.CollabMember;
+import org.herac.tuxguitar.collab.CollabMessage;
+import org.herac.tuxguitar.collab.CollabOperation;
+import org.herac.tuxguitar.collab.CollabPresence;
+import org.herac.tuxguitar.collab.CollabRecorder;
+import org.herac.tuxguitar.collab.CollabReplica;
+import org.herac.tuxguitar.collab.CollabRoster;
+import org.herac.tuxguitar.collab.CollabSender;
+import org.herac.tuxguitar.collab.CollabTraffic;
+import org.herac.tuxguitar.collab.CollabTransport;
+import org.herac.tuxguitar.gui.actions.ActionLock;
+import org.herac.tuxguitar.gui.actions.transport.TransportPlayAction;
+import org.herac.tuxguitar.gui.actions.transport.TransportStopAction;
+import org.herac.tuxguitar.player.base.MidiPlayer;
+import org.herac.tuxguitar.song.models.TGMeasure;
+import org.herac.tuxguitar.util.TGSynchronizer;
 
 
 public class ClienteConecta extends Thread 
@@ -67,19 +81,45 @@ public class ClienteConecta extends Thread
     private DataInputStream is;
     private Color cor;
     public boolean connected;
+    private int sequence;
     
     private ClienteRecebe cr;
-    public Vector objAenviar;         // vector of currently connected clients
+    private CollabSender sender;      // envia os objetos assim que chegam, sem esperar
+    private CollabReplica replica;    // estado da sessao, as operacoes sao aplicadas por posicao
+    private CollabClock relogio;      // relogio da sessao, mantido pelo servidor
+    private CollabRoster roster;      // usuarios da sessao, com o id dado pelo servidor
+    private Timer sincroniza;
+    private int conexao;              // id da conexao no servidor, para retoma-la se cair
+    private String sessao;            // sessao em que o usuario entrou
+    private CollabPresence presenca = new CollabPresence(); // caret deste usuario para os outros
+    private CollabTransport transporte = new CollabTransport(); // reproducao compartilhada pela sessao
+    private CollabRecorder gravador;  // frames recebidos, com -Dtuxguitar.collab.record=arquivo
+    private boolean gravadorAberto;
+    private CollabDictionary dicionario; // logins e sites enviados como indice, null se o servidor nao aceita
+    private CollabTraffic trafego = new CollabTraffic(); // bytes enviados e recebidos, e quanto seriam sem compactar
+    private Throwable erro; // a ultima queda ou reconexao que falhou, null com a conexao de pe
+    
+    // Frames compactos, se o servidor aceitar; -Dtuxguitar.collab.compact=false usa sempre os normais
+    private static final boolean COMPACTO = !"false".equals(System.getProperty("tuxguitar.collab.compact"));
+    
+    // Intervalo entre as sincronizacoes do relogio depois das primeiras
+    private static final long INTERVALO_RELOGIO = 10000;
+    
+    // Espera antes da primeira tentativa de reconexao, dobra a cada tentativa ate a maxima
+    private static final int RECONEXAO_INICIAL = 500;
+    private static final int RECONEXAO_MAXIMA = 30000;
     public Vector objFila = new Vector();
     
     public ArrayList listaSessoes;  
 	public String AcaoAnterior = "";
 	
-	// Cores
-	private Color azul;
-	private Color vermelho; 
-	private Color cyan;
-	private Color laranja;
+	// Cores dos usuarios, pelo id na sessao
+	private static final int[] CORES = new int[]{
+		SWT.COLOR_RED, SWT.COLOR_BLUE, SWT.COLOR_CYAN, SWT.COLOR_MAGENTA,
+		SWT.COLOR_DARK_GREEN, SWT.COLOR_DARK_YELLOW, SWT.COLOR_DARK_RED, SWT.COLOR_DARK_BLUE,
+		SWT.COLOR_DARK_CYAN, SWT.COLOR_DARK_MAGENTA, SWT.COLOR_GREEN, SWT.COLOR_DARK_GRAY,
+	};
+	private Color[] cores;
 	
 
 
@@ -94,12 +134,25 @@ public class ClienteConecta extends Thread
         	// list.add(_modeManager.getModes().clone()); // o vetor de modes
         	// list.add(this.getModeManager().getModes());
         
-        	this.objAenviar.add(list);
+        	this.Envia(list);
     	}
 
     }
 
 
+    /**
+     * Pede o relogio da sessao ao servidor, a resposta chega em ClienteRecebe.
+     */
+    public void SincronizaRelogio()
+    {
+    	if(connected && this.relogio != null) 
+    	{
+    		// O pedido confirma o que ja chegou do servidor
+    		this.Envia(this.relogio.newRequest(this.cr.getSequence()));
+    	}
+    }
+
+
     public void EnviaEventoAtraso(Object me,String evento)
     {
     	if(connected) 
@@ -130,7 +183,7 @@ public class ClienteConecta extends Thread
     	// eventos pendentes do argo.
     	 for (int i = 0; i < objFila.size(); i++) 
     	 {
-    		 this.objAenviar.add( objFila.elementAt(i)  );
+    		 this.Envia( objFila.elementAt(i)  );
     	 }
     	 
     	 objFila.clear();
@@ -139,11 +192,343 @@ public class ClienteConecta extends Thread
     	 // Globals.curEditor().clienteEnvia.EventosArgo = false; 
     }
     
+    /**
+     * O caret deste usuario mudou, vai para os outros no proximo EnviaPresenca.
+     */
+    public void MoveCaret(int track,int measure,long start,int string)
+    {
+    	this.presenca.move(track, measure, start, string);
+    }
+    
+    /**
+     * Manda o caret de novo, para quem entrou na sessao.
+     */
+    public void ReenviaPresenca()
+    {
+    	this.presenca.reset();
+    }
+    
+    /**
+     * Chamado a cada CollabPresence.INTERVAL: manda o ultimo caret se ele mudou.
+     */
+    public void EnviaPresenca()
+    {
+    	CollabMember eu = (this.roster != null ? this.roster.getSelf() : null);
+    	if(connected && this.sessao != null && eu != null) 
+    	{
+    		CollabMessage presenca = this.presenca.poll(eu.getId());
+    		if(presenca != null)
+    			this.Envia(presenca);
+    	}
+    }
+    
+    /**
+     * Toca, para ou muda de compasso junto com a sessao: o comando vai para os outros e e' executado
+     * aqui tambem, todos no mesmo tempo da sessao. Retorna false fora de uma sessao, o comando e' so local.
+     */
+    public boolean Transporte(int acao,long tick)
+    {
+    	CollabMember eu = (this.roster != null ? this.roster.getSelf() : null);
+    	if(!connected || this.sessao == null || eu == null || !this.relogio.isSynchronized())
+    		return false;
+    	
+    	CollabMessage comando = CollabTransport.newMessage(acao, tick, CollabTransport.getCommandTime(this.relogio), eu.getId());
+    	this.Envia(comando);
+    	this.ExecutaTransporte(comando);
+    	return true;
+    }
+    
+    /**
+     * Executa um comando de transporte, deste usuario ou recebido, no tempo da sessao que ele traz.
+     */
+    public void ExecutaTransporte(CollabMessage comando)
+    {
+    	this.transporte.receive(comando);
+    	
+    	final MidiPlayer player = TuxGuitar.instance().getPlayer();
+    	final int acao = CollabTransport.getAction(comando);
+    	final long tick = CollabTransport.getTick(comando);
+    	final long tempo = this.relogio.toNanoTime(CollabTransport.getTime(comando));
+    	
+    	// A batida so corrige quem ja esta tocando
+    	if(acao == CollabTransport.BEACON)
+    	{
+    		player.follow(tick, tempo);
+    		return;
+    	}
+    	
+    	// O sequenciador espera o tempo para comecar, a sequencia e' preparada antes
+    	if(acao == CollabTransport.PLAY && !player.isRunning())
+    	{
+    		this.ExecutaAcao(new Runnable() {
+    			public void run() {
+    				((TransportPlayAction)TuxGuitar.instance().getAction(TransportPlayAction.NAME)).play(tick, tempo);
+    			}
+    		});
+    		return;
+    	}
+    	
+    	// Parar e mudar de compasso acontecem no tempo, o tick cai no tempo certo mesmo com o timer atrasado
+    	long espera = Math.max(0, (tempo - System.nanoTime()) / 1000000);
+    	this.sincroniza.schedule(new TimerTask()
+    	{
+    		public void run()
+    		{
+    			if(acao == CollabTransport.STOP)
+    			{
+    				ExecutaAcao(new Runnable() {
+    					public void run() {
+    						((TransportStopAction)TuxGuitar.instance().getAction(TransportStopAction.NAME)).stop(tick);
+    					}
+    				});
+    			}
+    			else if(player.isRunning())
+    			{
+    				player.follow(tick, tempo);
+    			}
+    		}
+    	}, espera);
+    }
+    
+    /**
+     * Como Action.process, para os comandos que vem da sessao.
+     */
+    private void ExecutaAcao(final Runnable acao)
+    {
+    	TGSynchronizer.instance().addRunnableLater(new TGSynchronizer.TGRunnable() {
+    		public void run() {
+    			if(!TuxGuitar.isDisposed())
+    			{
+    				ActionLock.lock();
+    				try {
+    					acao.run();
+    				} finally {
+    					TuxGuitar.instance().updateCache(true);
+    					ActionLock.unlock();
+    				}
+    			}
+    		}
+    	});
+    }
+    
+    /**
+     * Chamado a cada CollabTransport.BEACON_INTERVAL: quem comecou a reproducao diz aos outros
+     * que tick o sequenciador toca e quando.
+     */
+    public void EnviaBatida()
+    {
+    	CollabMember eu = (this.roster != null ? this.roster.getSelf() : null);
+    	MidiPlayer player = TuxGuitar.instance().getPlayer();
+    	if(connected && this.sessao != null && eu != null && this.transporte.isLeader(eu.getId()) && player.isRunning())
+    	{
+    		long tick = player.getTickPosition();
+    		long tempo = player.getTickTime(tick);
+    		if(tempo != -1)
+    			this.Envia(CollabTransport.newMessage(CollabTransport.BEACON, tick, this.relogio.fromNanoTime(tempo), eu.getId()));
+    	}
+    }
+    
+    private void Envia(Object envia)
+    {
+    	// Antes do login aceito ainda nao existe quem envie
+    	if(this.sender != null)
+    	{
+    		this.sender.send(AcertaFormatoEnvia(envia));
+    	}
+    }
+    
+    /**
+     * Envia a edicao de uma nota na posicao dada, que ja foi feita no modelo local.
+     */
+    public void EnviaOperacao(int kind,int track,int measure,long start,int string,int value,int velocity,int duration)
+    {
+    	if(connected && this.replica != null) 
+    	{
+    		CollabOperation operacao = this.replica.newOperation(kind, track, measure, start, string, value, velocity, duration, this.lo);
+    		
+    		// Registra a operacao sem aplicar de novo, o modelo local ja tem a nota
+    		this.replica.record(operacao);
+    		this.Envia(operacao.toMessage());
+    	}
+    }
+    
+    /**
+     * Envia as notas que uma edicao local mudou no compasso (UndoableMeasureGeneric),
+     * e tambem as do undo e do redo dela: uma operacao para cada nota.
+     */
+    public void EnviaCompasso(int track,TGMeasure antes,TGMeasure depois)
+    {
+    	if(connected && this.replica != null) 
+    	{
+    		List operacoes = CollabReplica.getChanges(track, antes, depois);
+    		for(int i = 0;i < operacoes.size();i ++)
+    		{
+    			CollabOperation o = (CollabOperation) operacoes.get(i);
+    			this.EnviaOperacao(o.getKind(), o.getTrack(), o.getMeasure(), o.getStart(), o.getString(), o.getValue(), o.getVelocity(), o.getDuration());
+    		}
+    	}
+    }
+    
+    /**
+     * Abre uma sessao nova, os usuarios da sessao anterior sao esquecidos.
+     */
+    public void NovaSessao(String sessao)
+    {
+    	if(connected) 
+    	{
+    		this.roster.clear();
+    		this.sessao = sessao;
+    		this.presenca.reset();
+    		this.transporte.reset();
+    		this.sender.setDictionary(null);
+    		
+    		ArrayList l = new ArrayList();
+    		l.add(sessao);
+    		this.EnviaEvento(l,"PROT_nova_sessao");
+    	}
+    }
+    
+    /**
+     * Entra numa sessao existente, as notas recebidas esperam o modelo da sessao.
+     */
+    public void EntraSessao(String sessao)
+    {
+    	if(connected) 
+    	{
+    		this.roster.clear();
+    		this.sessao = sessao;
+    		this.presenca.reset();
+    		this.transporte.reset();
+    		this.cr.EsperaModelo();
+    		this.sender.setDictionary(null);
+    		
+    		ArrayList l = new ArrayList();
+    		l.add(sessao);
+    		this.EnviaEvento(l,"PROT_sessao_existente");
+    	}
+    }
+    
+    /**
+     * Resposta ao PROT_pede_modelo: o modelo comprimido e o relogio das operacoes que ele contem.
+     */
+    public void EnviaModelo(String quem,long clock,byte[] modelo)
+    {
+    	if(connected) 
+    	{
+    		this.Envia(new CollabMessage(CollabMessage.INITIAL_MODEL, new int[]{ (int)clock }, new String[]{ quem }, modelo));
+    	}
+    }
+    
+    /**
+     * O servidor recebeu as mensagens ate a sequencia, elas saem do journal.
+     */
+    public void Confirma(int sequencia)
+    {
+    	if(this.sender != null)
+    		this.sender.acknowledge(sequencia);
+    }
+    
+    /**
+     * Chamado pelo ClienteRecebe quando a leitura termina: o envio para e run() refaz a conexao.
+     */
+    public void ConexaoPerdida(ClienteRecebe quem)
+    {
+    	if(quem == this.cr && this.sender != null)
+    		this.sender.fail(new IOException("Conexao perdida"));
+    }
+    
+    public CollabReplica getReplica()
+    {
+    	return this.replica;
+    }
+    
+    /**
+     * Diferenca para o relogio da sessao e tempos de ida e volta ao servidor.
+     */
+    public CollabClock getRelogio()
+    {
+    	return this.relogio;
+    }
+    
+    /**
+     * Usuarios da sessao: track, cor e contagens de cada um.
+     */
+    public CollabRoster getRoster()
+    {
+    	return this.roster;
+    }
+    
+    /**
+     * Grava os frames recebidos no arquivo da propriedade tuxguitar.collab.record, null sem ela.
+     * O mesmo arquivo serve para todas as conexoes, uma sessao inteira pode ser repetida (CollabReplayer).
+     */
+    public synchronized CollabRecorder getGravador()
+    {
+    	if(!this.gravadorAberto)
+    	{
+    		this.gravadorAberto = true;
+    		try
+    		{
+    			this.gravador = CollabRecorder.open();
+    		}
+    		catch (IOException e)
+    		{
+    			e.printStackTrace();
+    		}
+    	}
+    	return this.gravador;
+    }
+    
+    /**
+     * Indices dos textos dos frames compactos, null quando se usa os normais.
+     */
+    public CollabDictionary getDicionario()
+    {
+    	return this.dicionario;
+    }
+    
+    /**
+     * Os indices sao de cada sessao: ao entrar numa o dicionario comeca vazio de novo.
+     * Do pedido de entrada ate aqui os frames vao sem indices (NovaSessao, EntraSessao).
+     */
+    public CollabDictionary ReiniciaDicionario()
+    {
+    	if (this.dicionario != null)
+    	{
+    		this.dicionario = new CollabDictionary();
+    		this.sender.setDictionary(this.dicionario);
+    	}
+    	return this.dicionario;
+    }
+    
+    /**
+     * Bytes enviados e recebidos nesta conexao, e o que os frames compactos economizaram.
+     */
+    public CollabTraffic getTrafego()
+    {
+    	return this.trafego;
+    }
+    
+    /**
+     * Por que a conexao caiu, ou a ultima tentativa de reconexao falhou; null com a conexao de pe.
+     */
+    public Throwable getErro()
+    {
+    	return this.erro;
+    }
+    
+    /**
+     * Tempo entre o pedido de envio e a escrita no socket.
+     */
+    public CollabLatency getLatencia()
+    {
+    	return (this.sender != null ? this.sender.getLatency() : null);
+    }
+    
     
     
 	public ClienteConecta() {
         this.connected = false;
-        this.objAenviar = new Vector();
 
 	}
 	
@@ -174,18 +559,18 @@ public class ClienteConecta extends Thread
 	
 	public Color retornaCor(String user)
 	{
-		Color retorno = null;
+		return this.retornaCor(this.roster != null ? this.roster.getMember(user) : null);
+	}
+	
+	/**
+	 * A cor do usuario pelo id, null para quem nao esta na sessao.
+	 */
+	public Color retornaCor(CollabMember usuario)
+	{
+		if( usuario == null || this.cores == null )
+			return null;
 		
-		if( user.startsWith("A") )
-   			retorno = vermelho;
-   		if( user.startsWith("B") )
-   			retorno = azul;
-   		if( user.startsWith("C") )
-   			retorno = cyan;
-   		if( user.startsWith("D") )
-   			retorno = laranja;
-   		
-   		return retorno;
+		return this.cores[usuario.getColor() % this.cores.length];
 	}
 	
 	public boolean SetaUser(String login,String senha) 
@@ -193,10 +578,11 @@ public class ClienteConecta extends Thread
         try 
 		{
 			
-        	azul = TuxGuitar.instance().getDisplay().getSystemColor(SWT.COLOR_BLUE);
-        	vermelho = TuxGuitar.instance().getDisplay().getSystemColor(SWT.COLOR_RED); 
-        	cyan = TuxGuitar.instance().getDisplay().getSystemColor(SWT.COLOR_CYAN);
-        	laranja =  TuxGuitar.instance().getDisplay().getSystemColor(SWT.COLOR_MAGENTA);
+        	cores = new Color[CORES.length];
+        	for(int i = 0;i < CORES.length;i ++)
+        	{
+        		cores[i] = TuxGuitar.instance().getDisplay().getSystemColor(CORES[i]);
+        	}
         	
         	
         	this.lo = login;
@@ -206,36 +592,21 @@ public class ClienteConecta extends Thread
 	        // O primeiro objeto a ser enviado  uma string que vai indicar
 	        // ao servidor se eh uma conexo para trocas de objetos no nvel do 
 	        // GEF ou nvel do ArgoUML. Devo enviar tambm o login e a senha
-	    	ArrayList l = new ArrayList();
-	      	l.add(this.lo); // 
-	        l.add(this.pass); // 
-	        
-	        this.EnviaEvento(l,"ARGO");
-
 	        // Removido devido  comunicao com o servidor em C#
 	        // this.os.writeObject((Object) objAenviar.elementAt(0));
 	        
-	        String m =  "TUXGUITAR;"+this.lo+";"+this.pass;
-	        this.os.write(m.getBytes() );
+	        CollabMessage m = new CollabMessage(CollabMessage.LOGIN, this.getFormatos(), new String[]{ this.lo, this.pass });
+	        m.setSequence(++ this.sequence);
+	        this.os.write(CollabCodec.encode(m));
 	        
 	        // this.os.writeObject("TUXGUITAR;"+this.lo+";"+this.pass);
             this.os.flush();
             // this.os.reset();
-            
-            objAenviar.clear();
 			
-            // Recebendo a resposta
-            byte[] clientObject = new byte[100];
-        	this.is.read(clientObject);
-
-        	String msg = new String(clientObject);
-        	
-        	String [] dados = msg.split(";");
-
-        	String nomeEvento = dados[dados.length -1];
-        	
+            // Recebendo a resposta, um frame completo
+            CollabMessage resposta = CollabCodec.read(this.is);
 	
-	    	if (nomeEvento.startsWith("ERRO"))
+	    	if (resposta == null || resposta.getType() == CollabMessage.LOGIN_ERROR)
 	    	{
 	    		// TODO:
 	    		// JOptionPane.showMessageDialog(ProjectBrowser.getInstance(),"Login ou senha incorretos!","Erro de conexo",JOptionPane.ERROR_MESSAGE);
@@ -247,14 +618,16 @@ public class ClienteConecta extends Thread
 	    	{
 	    		// Aqui vou armazenar as informaes que vo ser colocadas na tabela!
 
-            	if (nomeEvento.startsWith("PROT_lista_sessoes"))
+            	if (resposta.getType() == CollabMessage.SESSION_LIST)
             	{
+            		this.conexao = resposta.getValue(0);
+            		
             		ArrayList se = new ArrayList();
             		// Colocando os nomes das sesses colaborativas
             		
-            		for(int i=0;i<dados.length-1;i++)
+            		for(int i=0;i<resposta.countTexts();i++)
             		{
-            			se.add(dados[i]);
+            			se.add(resposta.getText(i));
             		}
             		
             		this.listaSessoes = se; 
@@ -269,10 +642,49 @@ public class ClienteConecta extends Thread
     	        	
             	} 
 
+            	// O site identifica este cliente na ordem das operacoes
+            	this.replica = new CollabReplica(this.lo + "@" + Long.toString(System.currentTimeMillis(), 36));
+            	
+            	// Os envios seguem a numeracao do login
+            	this.sender = new CollabSender(this.os, this.sequence);
+            	this.sender.setTraffic(this.trafego);
+            	this.IniciaDicionario(resposta);
+            	
+            	this.relogio = new CollabClock();
+            	this.roster = new CollabRoster();
+            	
             	// Iniciando a Thread que vai receber os dados
-                this.cr = new ClienteRecebe(socket,is);
+                this.cr = new ClienteRecebe(socket,is,resposta.getSequence());
 
                 this.cr.start();
+                
+                // As primeiras respostas pedem logo a proxima, depois o relogio e' conferido de tempos em tempos
+                this.sincroniza = new Timer(true);
+                this.sincroniza.schedule(new TimerTask()
+                {
+                	public void run()
+                	{
+                		SincronizaRelogio();
+                	}
+                }, 0, INTERVALO_RELOGIO);
+                
+                // O caret vai para os outros no maximo a cada intervalo, os movimentos entre dois envios se juntam
+                this.sincroniza.schedule(new TimerTask()
+                {
+                	public void run()
+                	{
+                		EnviaPresenca();
+                	}
+                }, CollabPresence.INTERVAL, CollabPresence.INTERVAL);
+                
+                // Quem comecou a reproducao corrige os outros de tempos em tempos
+                this.sincroniza.schedule(new TimerTask()
+                {
+                	public void run()
+                	{
+                		EnviaBatida();
+                	}
+                }, CollabTransport.BEACON_INTERVAL, CollabTransport.BEACON_INTERVAL);
 
 	            
 	    		return true;
@@ -315,13 +727,7 @@ public class ClienteConecta extends Thread
                 } catch (Exception e) {}
             }
 
-            InetAddress end = getHostAddress(serverName); 
-            
-            // socket = new Socket(serverName, serverPort);
-            
-            socket = new Socket(end, serverPort);
-            os = new DataOutputStream(socket.getOutputStream());
-            is = new DataInputStream(socket.getInputStream());
+            this.AbreSocket();
             connected = true;
             
              return true;
@@ -335,58 +741,173 @@ public class ClienteConecta extends Thread
         }
     }
     
+    private void AbreSocket() throws IOException {
+    	InetAddress end = getHostAddress(serverName); 
+    	
+    	// socket = new Socket(serverName, serverPort);
+    	
+    	socket = new Socket(end, serverPort);
+    	os = new DataOutputStream(socket.getOutputStream());
+    	is = new DataInputStream(socket.getInputStream());
+    }
+      
     public void run ()  {
     
-        try {
-   
-        	Object envia;
-            
-            while(true) {
-            	
-                for (int i = 0; i < objAenviar.size(); i++) {
-                	envia = (Object) objAenviar.elementAt(i);
-                	
-                	//TODO: Serializar o que est sendo enviado de forma
-                	// que o C# entenda
-                    // this.os.flush();
-                    // this.os.reset();
-                	String envio = AcertaFormatoEnvia(envia);
-                	
-                    this.os.write(envio.getBytes() );
-                    this.os.flush();
-                    // this.os.reset();
-                }
-                
-                // Limpando o vetor de itens enviados
-                objAenviar.clear();
-                
-                // Esperando alguns segundos
-                this.sleep(150);
-            }
+        // O envio acorda a cada objeto novo e escreve de uma vez tudo
+        // o que estiver pendente, sem esperar um intervalo fixo.
+        // Se a conexao cai, o que for enviado espera a reconexao
+        this.sender.run();
+        while (this.sender.getError() != null) {
+        	this.erro = this.sender.getError();
+        	if (!this.Reconecta())
+        		break;
+        	this.sender.run();
+        }
         
-        } catch (Exception e) {
-        	e.printStackTrace();
-        }    	
         disconnect();
     	
     }
+    
+    /**
+     * Conecta de novo ao servidor, esperando o dobro a cada tentativa (ate RECONEXAO_MAXIMA),
+     * com um sorteio para os clientes nao voltarem todos juntos.
+     * Retorna false se a Thread for interrompida.
+     */
+    private boolean Reconecta()
+    {
+    	this.FechaSocket();
+    	Random sorteio = new Random();
+    	int espera = RECONEXAO_INICIAL;
+    	try
+    	{
+    		// A leitura anterior termina com o socket fechado
+    		this.cr.join();
+    		
+    		while (true)
+    		{
+    			Thread.sleep((espera / 2) + sorteio.nextInt(espera / 2));
+    			try
+    			{
+    				this.AbreSocket();
+    				if (this.Retoma())
+    				{
+    					this.erro = null;
+    					return true;
+    				}
+    			}
+    			catch (IOException e)
+    			{
+    				this.erro = e;
+    			}
+    			this.FechaSocket();
+    			espera = Math.min(espera * 2, RECONEXAO_MAXIMA);
+    		}
+    	}
+    	catch (InterruptedException e)
+    	{
+    		return false;
+    	}
+    }
+    
+    /**
+     * Retoma a conexao perdida: o servidor manda o que nao chegou aqui e diz o que recebeu,
+     * o journal do envio manda de novo o resto, sem baixar o modelo outra vez.
+     * Se o servidor nao puder, faz o login e entra de novo na sessao: as edicoes nao confirmadas
+     * se perdem e o modelo vem de outro participante.
+     */
+    private boolean Retoma() throws IOException
+    {
+    	CollabMessage resposta = null;
+    	if (this.conexao > 0)
+    	{
+    		int[] valores = new int[]{ this.conexao, this.cr.getSequence(), this.sender.getJournal().getFirstSequence() };
+    		this.os.write(CollabCodec.encode(new CollabMessage(CollabMessage.RESUME, valores, new String[]{ this.lo, this.pass })));
+    		this.os.flush();
+    		
+    		resposta = CollabCodec.read(this.is);
+    		if (resposta != null && resposta.getType() == CollabMessage.RESUME)
+    		{
+    			this.sender.resume(this.os, resposta.getValue(0));
+    			// A presenca nao volta com o journal
+    			this.presenca.reset();
+    			this.cr = new ClienteRecebe(this.socket, this.is, this.cr);
+    			this.cr.start();
+    			return true;
+    		}
+    	}
+    	
+    	this.os.write(CollabCodec.encode(new CollabMessage(CollabMessage.LOGIN, this.getFormatos(), new String[]{ this.lo, this.pass })));
+    	this.os.flush();
+    	
+    	resposta = CollabCodec.read(this.is);
+    	if (resposta == null || resposta.getType() != CollabMessage.SESSION_LIST)
+    		return false;
+    	
+    	this.conexao = resposta.getValue(0);
+    	this.listaSessoes = new ArrayList(Arrays.asList(resposta.getTexts()));
+    	this.sender.restart(this.os);
+    	// Os indices do servidor valem para esta conexao so depois de enviados de novo
+    	this.IniciaDicionario(resposta);
+    	this.cr = new ClienteRecebe(this.socket, this.is, resposta.getSequence());
+    	this.cr.start();
+    	
+    	if (this.sessao != null)
+    	{
+    		if (this.listaSessoes.contains(this.sessao))
+    			this.EntraSessao(this.sessao);
+    		else
+    			this.NovaSessao(this.sessao);
+    	}
+    	return true;
+    }
+    
+    /**
+     * Formatos de frame que este cliente usa, mandados no login.
+     */
+    private int[] getFormatos()
+    {
+    	return new int[]{ COMPACTO ? CollabCodec.COMPACT : 0 };
+    }
+    
+    /**
+     * Frames compactos so se o servidor respondeu que os aceita (o CollabServer.cs nao aceita),
+     * com um dicionario vazio: os indices chegam do servidor (PROT_dicionario).
+     */
+    private void IniciaDicionario(CollabMessage resposta)
+    {
+    	if (COMPACTO && resposta.getType() == CollabMessage.SESSION_LIST && resposta.countValues() > 1 && (resposta.getValue(1) & CollabCodec.COMPACT) != 0)
+    		this.dicionario = new CollabDictionary();
+    	else
+    		this.dicionario = null;
+    	this.sender.setDictionary(this.dicionario);
+    }
+    
+    private void FechaSocket()
+    {
+    	try {
+    		this.socket.close();
+    	} catch (Exception e) {}
+    }
 
-    public String AcertaFormatoEnvia(Object envia)
+    public CollabMessage AcertaFormatoEnvia(Object envia)
     {
-    	String retorno= new String();
+    	if(envia instanceof CollabMessage)
+    	{
+    		return (CollabMessage) envia;
+    	}
+    	
     	ArrayList l =  new ArrayList();
     	l = (ArrayList) envia;
 
-    	retorno = ((String) l.get(1))+";";
-    	
     	// Por conveno, o primeiro elemento vai ser sempre um ArrayList
 
     	ArrayList dados =  new ArrayList();
     	dados = (ArrayList) l.get(0);
 
+    	String [] textos = new String[dados.size()];
         for (int i = 0; i < dados.size() ; i++)
         {
-        	retorno = retorno + ((String) dados.get(i)) + ";";
+        	textos[i] = (String) dados.get(i);
         	
         	/*
         	if( l[i].ToString().IndexOf("Array") >=0 )
@@ -411,18 +932,15 @@ public class ClienteConecta extends Thread
                 msg = msg + l[i].ToString() + ";";*/
         } 
     	
-        
-        retorno = retorno.substring(0, retorno.length()-1);
-        
-
-        
-    	return retorno;
+    	return CollabMessage.newEvent((String) l.get(1), textos);
     }
     
     public void disconnect () {
         try {
+        	if(this.sincroniza != null)
+        		this.sincroniza.cancel();
             
-        	this.sleep(3000);
+        	// O envio ja terminou, nao ha o que esperar
         	this.is.close();
             this.os.close();
             //close the socket of the server with this specific client.
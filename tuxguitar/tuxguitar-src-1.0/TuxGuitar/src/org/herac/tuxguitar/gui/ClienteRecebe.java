@@ -56,14 +56,28 @@ import org.herac.tuxguitar.gui.actions.tools.ScaleAction;
 import org.herac.tuxguitar.gui.editors.TGPainter;
 import org.herac.tuxguitar.gui.editors.tab.Caret;
 import org.herac.tuxguitar.gui.editors.tab.TGNoteImpl;
-import org.herac.tuxguitar.gui.undo.undoables.measure.UndoableMeasureGeneric;
+import org.herac.tuxguitar.gui.undo.undoables.UndoableJoined;
 import org.herac.tuxguitar.gui.undo.undoables.measure.UndoableAddMeasure;
+import org.herac.tuxguitar.gui.undo.undoables.measure.UndoableMeasureGeneric;
+import org.herac.tuxguitar.collab.CollabCodec;
+import org.herac.tuxguitar.collab.CollabDictionary;
+import org.herac.tuxguitar.collab.CollabMember;
+import org.herac.tuxguitar.collab.CollabMessage;
+import org.herac.tuxguitar.collab.CollabOperation;
+import org.herac.tuxguitar.collab.CollabRecorder;
+import org.herac.tuxguitar.collab.CollabReplica;
+import org.herac.tuxguitar.collab.CollabRoster;
+import org.herac.tuxguitar.collab.CollabSnapshot;
+import org.herac.tuxguitar.collab.CollabTraffic;
 import org.herac.tuxguitar.song.managers.TGSongManager;
 import org.herac.tuxguitar.song.models.TGBeat;
 import org.herac.tuxguitar.song.models.TGDuration;
+import org.herac.tuxguitar.song.models.TGMeasure;
 import org.herac.tuxguitar.song.models.TGNote;
+import org.herac.tuxguitar.song.models.TGSong;
 import org.herac.tuxguitar.song.models.TGString;
 import org.herac.tuxguitar.song.models.TGTrack;
+import org.herac.tuxguitar.util.TGSynchronizer;
 
 
 import javax.swing.JOptionPane;
@@ -109,11 +123,55 @@ public class ClienteRecebe extends Thread
 	
 	private Socket socket;
 	private DataInputStream is;
+	private volatile int sequence;
+	private List notas; // notas recebidas que ainda nao foram tocadas
+	private List atrasadas; // notas que chegaram antes do modelo da sessao
+	private volatile boolean esperaModelo;
+	private volatile boolean pintaCarets; // os carets dos outros ja vao ser pintados
+	private CollabRecorder gravador; // grava o que chega, null sem gravacao
+	private CollabDictionary dicionario; // textos dos frames compactos, null sem eles
+	private CollabTraffic trafego; // bytes recebidos e quanto seriam sem compactar
 	// private Editor e;
 	
-	public ClienteRecebe(Socket s,DataInputStream i) {
+	// Maximo de notas aplicadas de uma vez, para o editor nao ficar esperando
+	private static final int MAX_NOTAS = 64;
+	
+	public ClienteRecebe(Socket s,DataInputStream i,int sequence) {
 		this.socket = s;
 		this.is = i;
+		this.sequence = sequence; // ultima mensagem recebida antes desta Thread
+		this.notas = new ArrayList();
+		this.atrasadas = new ArrayList();
+		this.gravador = TuxGuitar.instance().clienteEnvia.getGravador();
+		this.dicionario = TuxGuitar.instance().clienteEnvia.getDicionario();
+		this.trafego = TuxGuitar.instance().clienteEnvia.getTrafego();
+	}
+	
+	/**
+	 * Continua a leitura de uma conexao perdida numa nova, depois do PROT_retoma:
+	 * o servidor manda a partir da ultima mensagem que chegou aqui.
+	 */
+	public ClienteRecebe(Socket s,DataInputStream i,ClienteRecebe anterior) {
+		this(s, i, anterior.getSequence());
+		this.notas.addAll(anterior.notas);
+		this.atrasadas.addAll(anterior.atrasadas);
+		this.esperaModelo = anterior.esperaModelo;
+	}
+	
+	/**
+	 * A ultima mensagem recebida, o servidor a esquece quando recebe o numero.
+	 */
+	public int getSequence()
+	{
+		return this.sequence;
+	}
+	
+	/**
+	 * Ao entrar numa sessao existente: as notas ficam guardadas ate chegar o modelo.
+	 */
+	public void EsperaModelo()
+	{
+		this.esperaModelo = true;
 	}
 	
     public void run ()  {
@@ -125,34 +183,89 @@ public class ClienteRecebe extends Thread
             //a loop that reads from and writes to the socket
             while (clientTalking) {
             	
-            	byte[] clientObject = new byte[100];
-            	//get what client wants to say...
-                
-            	this.is.read(clientObject);
+            	//get what client wants to say, one whole frame at a time
+            	CollabMessage clientObject = CollabCodec.read(this.is, this.dicionario, this.trafego);
+            	if (clientObject == null)
+            	{
+            		break;
+            	}
             	
-            	String msg = new String(clientObject);
+            	// System.out.println("Mensagem Completa:" + clientObject);
             	
-            	// System.out.println("Mensagem Completa:" + msg);
+            	// Faltaram mensagens antes desta: a conexao e' retomada a partir da ultima que chegou
+            	// e o servidor manda de novo as que faltam, esta inclusive (ClienteConecta.Retoma)
+            	if (clientObject.getSequence() > (this.sequence + 1))
+            	{
+            		break;
+            	}
+            	this.sequence = clientObject.getSequence();
             	
-            	String [] dados = msg.split(";");
-
-            	String nomeEvento = dados[0];
+            	// Gravado com o tempo de chegada, antes de ser tratado
+            	if (this.gravador != null)
+            	{
+            		this.Grava(clientObject);
+            	}
+            	
+            	String nomeEvento = clientObject.getName();
             	
             	
             	
-            	// Aqui vou tocar a nota e avanar o cursor
-               	if (nomeEvento.startsWith("PlayNote"))
+            	// Aqui vou guardar a nota, tocada junto com as que chegaram com ela
+               	if (clientObject.getType() == CollabMessage.PLAY_NOTE || clientObject.getType() == CollabMessage.NOTE_OPERATION)
             	{
-               		String user = (String) dados[3];
-               		
-               		TuxGuitar.instance().clienteEnvia.setCorAtual( TuxGuitar.instance().clienteEnvia.retornaCor(user));
-               		
-                	this.TocaNota(dados[1],user);
-                   		
+               		if (this.esperaModelo)
+               			this.atrasadas.add(clientObject);
+               		else
+               			this.notas.add(clientObject);
             	}
                 
+               	// Resposta do servidor com o relogio da sessao, as primeiras pedem logo a proxima
+               	if (clientObject.getType() == CollabMessage.CLOCK_SYNC)
+            	{
+               		if (TuxGuitar.instance().clienteEnvia.getRelogio().answer(clientObject))
+               			TuxGuitar.instance().clienteEnvia.SincronizaRelogio();
+               		
+               		// O que o servidor ja recebeu nao precisa ser enviado de novo
+               		if (clientObject.countValues() > 2)
+               			TuxGuitar.instance().clienteEnvia.Confirma(clientObject.getValue(2));
+            	}
+               	
+               	// Caret de outro usuario, so o ultimo de cada um e' pintado
+               	if (clientObject.getType() == CollabMessage.PRESENCE)
+            	{
+               		CollabMember quem = TuxGuitar.instance().clienteEnvia.getRoster().getMember(clientObject.getValue(0));
+               		if (quem != null && quem.moveCaret(clientObject.getValue(1), clientObject.getValue(2), clientObject.getValue(3), clientObject.getValue(4)))
+               			this.PintaCarets();
+            	}
+               	
+               	// Indice de um login ou site, que passa a vir assim nos frames compactos
+               	if (clientObject.getType() == CollabMessage.DICTIONARY && this.dicionario != null)
+            	{
+               		this.dicionario.put(clientObject.getValue(0), clientObject.getText(0));
+            	}
+               	
+               	// Tocar, parar ou mudar de compasso junto com a sessao, no tempo que vem no comando
+               	if (clientObject.getType() == CollabMessage.TRANSPORT)
+            	{
+               		TuxGuitar.instance().clienteEnvia.ExecutaTransporte(clientObject);
+            	}
+               	
+               	// Modelo da sessao, seguido das notas que chegaram depois do pedido
                	if (nomeEvento.startsWith("PROT_atualiza_modelo_cliente_inicial"))
             	{
+               		this.CarregaModelo(clientObject);
+            	}
+               	
+               	// Outro usuario entrou na sessao e precisa do modelo
+               	if (nomeEvento.startsWith("PROT_pede_modelo"))
+            	{
+               		// O modelo tem que ter tudo o que chegou antes do pedido
+               		if (!this.notas.isEmpty())
+               		{
+               			this.TocaNotas(this.notas);
+               			this.notas.clear();
+               		}
+               		this.EnviaModelo(clientObject.getText(0));
             	}
                	
                	
@@ -171,6 +284,16 @@ public class ClienteRecebe extends Thread
 //              Recebeu a notificao que algum cliente entrou na da sesso!
                	if (nomeEvento.startsWith("PROT_inicio_sessao"))
             	{
+               		TuxGuitar.instance().clienteEnvia.getRoster().join(clientObject.getValue(0), clientObject.getText(0), clientObject.getValue(1) == 1);
+               		
+               		// Este cliente entrou: os indices da sessao anterior nao valem mais
+               		if (clientObject.getValue(1) == 1)
+               			this.dicionario = TuxGuitar.instance().clienteEnvia.ReiniciaDicionario();
+               		
+               		// Quem entrou ainda nao viu o caret deste usuario
+               		if (clientObject.getValue(1) != 1)
+               			TuxGuitar.instance().clienteEnvia.ReenviaPresenca();
+               		
                		/*
                		ProjectBrowser.getInstance().getStatusBar().showStatusBlink("Usurio " + ((String) o) + " entrou na sesso.");
                		*/
@@ -180,6 +303,9 @@ public class ClienteRecebe extends Thread
 //              Recebeu a notificao que algum cliente saiu da sesso!
                	if (nomeEvento.startsWith("PROT_fim_sessao"))
             	{
+               		TuxGuitar.instance().clienteEnvia.getRoster().leave(clientObject.getValue(0));
+               		this.PintaCarets();
+               		
                		/*
                		ProjectBrowser.getInstance().getStatusBar().showStatusBlink("Usurio " + ((String) o) + " saiu da sesso.");
                		*/
@@ -206,254 +332,281 @@ public class ClienteRecebe extends Thread
                		*/
                     
             	}
-               	                
-                if (clientObject == null) 
-                    clientTalking = false;
+               	
+               	// As notas que chegaram juntas sao tocadas de uma vez
+               	if (!this.notas.isEmpty() && (this.is.available() == 0 || this.notas.size() >= MAX_NOTAS))
+               	{
+               		this.TocaNotas(this.notas);
+               		this.notas.clear();
+               	}
             }
            	
             } catch (Exception e) {
             	// Retirado para evitar mostrar o erro da desconexo!
             	e.printStackTrace();
-            }    	
+            }
+            
+            // A conexao caiu ou perdeu mensagens, o envio para e a conexao e' refeita
+            TuxGuitar.instance().clienteEnvia.ConexaoPerdida(this);
     }
     
     
-    private void TocaNota(String nota, String user)
+    /**
+     * Grava o frame recebido, vai para o arquivo quando nao ha mais nada para ler.
+     * Um erro no arquivo para a gravacao e nao a conexao.
+     */
+    private void Grava(CollabMessage mensagem)
     {
-    	
-   		// System.out.println("Mensagem:" + msg);
+    	try
+    	{
+    		this.gravador.record(mensagem);
+    		if (this.is.available() == 0)
+    			this.gravador.flush();
+    	}
+    	catch (IOException e)
+    	{
+    		e.printStackTrace();
+    		this.gravador = null;
+    	}
+    }
+    
+    /**
+     * Pinta os carets que se moveram, uma vez para todas as mensagens que chegarem ate la.
+     */
+    private void PintaCarets()
+    {
+    	if (this.pintaCarets)
+    		return;
+    	this.pintaCarets = true;
+    	TGSynchronizer.instance().addRunnableLater(new TGSynchronizer.TGRunnable() {
+    		public void run() {
+    			ClienteRecebe.this.pintaCarets = false;
+    			TuxGuitar.instance().getTablatureEditor().getTablature().redrawCollabCarets();
+    		}
+    	});
+    }
+    
+    /**
+     * Aplica as notas recebidas com um lock so e uma atualizacao por compasso alterado.
+     * Cada nota vai para a posicao da operacao (ou do cursor do usuario que tocou),
+     * o caret local nao e' movido.
+     */
+    private void TocaNotas(List mensagens)
+    {
+    	CollabReplica replica = TuxGuitar.instance().clienteEnvia.getReplica();
+    	TGSongManager manager = TuxGuitar.instance().getSongManager();
+    	CollabRoster roster = TuxGuitar.instance().clienteEnvia.getRoster();
+    	List compassos = new ArrayList();
+    	Map desfazer = new HashMap(); // o undo de cada compasso que ja existia, antes da primeira nota nele
+    	List editados = new ArrayList(); // track e numero dos compassos mudados, na ordem
+    	int tracks = 0;
+    	int medidas = 0;
+    	long agora = System.currentTimeMillis();
     	
     	TuxGuitar.instance().lock();
     	ActionLock.lock();
-    	
-    	if(!this.AddNote(nota,user))
+    	try
     	{
-    		System.out.print("Nota Erro");
-    		return;
+    		tracks = manager.getSong().countTracks();
+    		medidas = manager.getSong().countMeasureHeaders();
+    		
+    		for(int i = 0;i < mensagens.size();i ++)
+    		{
+    			CollabMessage mensagem = (CollabMessage) mensagens.get(i);
+    			CollabOperation operacao = null;
+    			
+    			if(mensagem.getType() == CollabMessage.PLAY_NOTE)
+    			{
+    				// O usuario pelo id (sem id, pelo login), cada um toca na sua track
+    				CollabMember usuario = roster.getMember(mensagem.getValue(4),mensagem.getText(0));
+    				if(usuario != null)
+    					usuario.addNote(agora);
+    				
+    				TuxGuitar.instance().clienteEnvia.setCorAtual( TuxGuitar.instance().clienteEnvia.retornaCor(usuario));
+    				
+    				// Sem o tempo da sessao (mensagens antigas) a nota vai para o cursor
+    				operacao = replica.newPlayNote(manager,mensagem,(usuario != null ? usuario.getTrack() : 0),compassos);
+    			}
+    			else
+    			{
+    				operacao = CollabOperation.fromMessage(mensagem);
+    				
+    				CollabMember usuario = roster.getMember(operacao.getUser());
+    				if(usuario != null)
+    					usuario.addOperation(agora);
+    			}
+    			
+    			if(operacao == null)
+    			{
+    				System.out.print("Nota Erro");
+    				continue;
+    			}
+    			this.GuardaCompasso(manager,operacao,tracks,medidas,desfazer,editados);
+    			replica.apply(manager,operacao,compassos);
+    		}
+    		
+    		// Um undo so para as notas que chegaram juntas; o undo e o redo vao
+    		// para os outros como operacoes (UndoableMeasureGeneric), a sessao continua igual
+    		if(!compassos.isEmpty())
+    		{
+    			TuxGuitar.instance().getUndoableManager().addEdit(this.JuntaUndo(manager,medidas,desfazer,editados));
+    			TuxGuitar.instance().getFileHistory().setUnsavedFile();
+    		}
+    		
+    		this.afterAction(compassos);
+    		
+    		tracks = (manager.getSong().countTracks() - tracks);
+    	}
+    	finally
+    	{
+    		ActionLock.unlock();
+    		TuxGuitar.instance().unlock();
     	}
     	
-    	this.afterAction();
-    	ActionLock.unlock();
-    	TuxGuitar.instance().unlock();
-    	
-     	MoveDireita();
-    	// TuxGuitar.instance().getAction(GoRightAction.NAME).process(null);
-    	// MoveDireita();
+    	// Usuarios novos ganham tracks novas, a tablatura e o mixer sao montados de novo
+    	if(tracks != 0)
+    	{
+    		TGSynchronizer.instance().addRunnableLater(new TGSynchronizer.TGRunnable() {
+    			public void run() {
+    				TuxGuitar.instance().fireUpdate();
+    				TuxGuitar.instance().getMixer().update();
+    			}
+    		});
+    	}
     	
-		// Este cdigo est em afterActions() de Piano.java
+		// Como em afterActions() de Piano.java, fora do lock para poder redesenhar
+		TuxGuitar.instance().updateCache(true);
     }
     
-    protected boolean AddNote(String nota,String user) 
-	{
+    /**
+     * Envia o modelo comprimido para quem entrou na sessao, marcado com o relogio da replica.
+     */
+    private void EnviaModelo(String quem)
+    {
+    	CollabReplica replica = TuxGuitar.instance().clienteEnvia.getReplica();
+    	TGSongManager manager = TuxGuitar.instance().getSongManager();
+    	byte[] modelo = null;
     	
-    	int value = getValue(nota);
-    	TGBeat beat = TuxGuitar.instance().getEditorCache().getEditBeat();
+    	TuxGuitar.instance().lock();
+    	ActionLock.lock();
+    	try
+    	{
+    		modelo = CollabSnapshot.write(manager,replica);
+    	}
+    	catch (IOException e)
+    	{
+    		e.printStackTrace();
+    	}
+    	finally
+    	{
+    		ActionLock.unlock();
+    		TuxGuitar.instance().unlock();
+    	}
     	
-		Caret caret = TuxGuitar.instance().getTablatureEditor().getTablature().getCaret();
-		
-		// Verifico se preciso mudar a track (pista) ou no
-		this.MudaTrack(user,caret);
-		
-		List strings = caret.getTrack().getStrings();
-		for(int i = 0;i < strings.size();i ++)
-		{
-			TGString string = (TGString)strings.get(i);
-			if(value >= string.getValue())
-			{
-				boolean emptyString = true;
-				
-				if(beat != null)
-				{
-					Iterator it = beat.getNotes().iterator();
-					while (it.hasNext()) 
-					{
-						TGNoteImpl note = (TGNoteImpl) it.next();
-						if (note.getString() == string.getNumber()) 
-						{
-							emptyString = false;
-							break;
-						}
-					}
-				}
-				if(emptyString){
-					TGSongManager manager = TuxGuitar.instance().getSongManager();
-					
-					//comienza el undoable
-					UndoableMeasureGeneric undoable = UndoableMeasureGeneric.startUndo();
-					
-					// Cria a nota
-					TGNote note = manager.getFactory().newNote();
-					note.setValue((value - string.getValue()));
-					note.setVelocity(caret.getVelocity());
-					note.setString(string.getNumber());
-					note.setUser(user);
-					
-					// Seta quem foi o criador!
-					
-					TGDuration duration = manager.getFactory().newDuration();
-					caret.getDuration().copy(duration);
-					
-					// System.out.println("Inserindo nota pelo piano!");
-					// System.out.println("Value:" + String.valueOf(value));
-					// System.out.println("String:" + string.getValue());
-					// System.out.println("Caret.getMeasue():" + caret.getMeasure());
-					// System.out.println("Caret.getPosition():" + caret.getPosition());
-					// System.out.println("note:" + note);
-					// System.out.println("duration:" + duration);
-					
-					manager.getMeasureManager().addNote(caret.getMeasure(),caret.getPosition(),note,duration);
-					
-					//termia el undoable
-					TuxGuitar.instance().getUndoableManager().addEdit(undoable.endUndo());
-					TuxGuitar.instance().getFileHistory().setUnsavedFile();
-					
-					//reprodusco las notas en el pulso
-					// caret.getSelectedBeat().play();
-					
-					return true;
-				}
-			}
-		}
-		
-		return false;
-
-
+    	if (modelo != null)
+    	{
+    		TuxGuitar.instance().clienteEnvia.EnviaModelo(quem,replica.getClock(),modelo);
+    	}
+    }
+    
+    /**
+     * Troca a musica pelo modelo da sessao e aplica as notas que chegaram enquanto ele era enviado.
+     * Sem modelo (nenhum outro usuario na sessao) a musica atual e' mantida.
+     */
+    private void CarregaModelo(CollabMessage mensagem)
+    {
+    	if (mensagem.getData() != null)
+    	{
+    		try
+    		{
+    			CollabReplica replica = TuxGuitar.instance().clienteEnvia.getReplica();
+    			final TGSong song = CollabSnapshot.read(TuxGuitar.instance().getSongManager().getFactory(),mensagem.getData(),replica);
+    			
+    			TGSynchronizer.instance().addRunnable(new TGSynchronizer.TGRunnable() {
+    				public void run() {
+    					TuxGuitar.instance().fireNewSong(song,null);
+    				}
+    			});
+    		}
+    		catch (Throwable e)
+    		{
+    			e.printStackTrace();
+    		}
+    	}
     	
-	}
+    	this.esperaModelo = false;
+    	if (!this.atrasadas.isEmpty())
+    	{
+    		this.TocaNotas(this.atrasadas);
+    		this.atrasadas.clear();
+    	}
+    }
     
-	protected void MudaTrack(String u,Caret c) 
-	{
-		int n_track = 0;
-		
-		TGTrack track = TuxGuitar.instance().getSongManager().getFirstTrack();
-		if(track != null)
-		{
-			if( u.startsWith("A") )
-				n_track = track.getNumber();
-	   		if( u.startsWith("B") )
-	   			n_track = track.getNumber() + 1;
-	   		if( u.startsWith("C") )
-	   			n_track = track.getNumber() + 2;
-	   		if( u.startsWith("D") )
-	   			n_track = track.getNumber() + 3;
-	   			
-	   		c.update(n_track);		
-		}
-				
-	}
+    /**
+     * Guarda como estava o compasso da operacao, na primeira vez que ele muda no lote.
+     * Os compassos e as tracks que o lote cria nao tem como estavam.
+     */
+    private void GuardaCompasso(TGSongManager manager,CollabOperation operacao,int tracks,int medidas,Map desfazer,List editados)
+    {
+    	String chave = (operacao.getTrack() + ":" + operacao.getMeasure());
+    	if(!desfazer.containsKey(chave))
+    	{
+    		UndoableMeasureGeneric undo = null;
+    		if(operacao.getTrack() >= 1 && operacao.getTrack() <= tracks && operacao.getMeasure() >= 1 && operacao.getMeasure() <= medidas)
+    		{
+    			TGMeasure compasso = manager.getTrackManager().getMeasure(manager.getTrack(operacao.getTrack()),operacao.getMeasure());
+    			if(compasso != null)
+    				undo = UndoableMeasureGeneric.startUndo(operacao.getTrack(),compasso);
+    		}
+    		desfazer.put(chave,undo);
+    		editados.add(new int[]{ operacao.getTrack(), operacao.getMeasure() });
+    	}
+    }
     
-	protected void afterAction() 
+    /**
+     * O undo do lote: primeiro os compassos novos, que o undo tira por ultimo,
+     * depois cada compasso mudado. Um compasso novo volta vazio e o redo poe as notas.
+     */
+    private UndoableJoined JuntaUndo(TGSongManager manager,int medidas,Map desfazer,List editados)
+    {
+    	UndoableJoined undoable = new UndoableJoined();
+    	for(int numero = (medidas + 1);numero <= manager.getSong().countMeasureHeaders();numero ++)
+    	{
+    		undoable.addUndoableEdit(UndoableAddMeasure.startUndo(numero).endUndo());
+    	}
+    	for(int i = 0;i < editados.size();i ++)
+    	{
+    		int[] editado = (int[]) editados.get(i);
+    		TGTrack track = manager.getTrack(editado[0]);
+    		TGMeasure compasso = (track != null ? manager.getTrackManager().getMeasure(track,editado[1]) : null);
+    		if(compasso == null)
+    			continue;
+    		
+    		UndoableMeasureGeneric undo = (UndoableMeasureGeneric) desfazer.get(editado[0] + ":" + editado[1]);
+    		if(undo == null)
+    		{
+    			// Antes do lote o compasso nao tinha notas: o undo as tira dos outros tambem
+    			TGMeasure vazio = compasso.clone(manager.getFactory(),compasso.getHeader());
+    			manager.getMeasureManager().cleanMeasure(vazio);
+    			undo = UndoableMeasureGeneric.startUndo(editado[0],vazio);
+    		}
+    		undoable.addUndoableEdit(undo.endUndo(compasso));
+    	}
+    	return undoable.endUndo();
+    }
+    
+	protected void afterAction(List compassos) 
 	{
-		int measure = TuxGuitar.instance().getTablatureEditor().getTablature().getCaret().getMeasure().getNumber();
+		// Compassos novos primeiro, na ordem
+		Collections.sort(compassos);
 		
-		TuxGuitar.instance().getTablatureEditor().getTablature().getViewLayout().fireUpdate(measure);
-		TuxGuitar.instance().updateCache(true);
-	}
-
-	protected void MoveDireita() 
-	{
-		if(TuxGuitar.instance().getPlayer().isRunning())
+		for(int i = 0;i < compassos.size();i ++)
 		{
-			TuxGuitar.instance().getTransport().gotoNext();
-		}
-		else
-		{
-			
-			/*GoRightAction d = TuxGuitar.instance().getAction(GoRightAction.NAME);
-			
-			TuxGuitar.instance().getAction(GoRightAction.NAME) */
-			
-			Caret caret = TuxGuitar.instance().getTablatureEditor().getTablature().getCaret();
+			int measure = ((Integer) compassos.get(i)).intValue();
 			
-			// Acertar
-			// System.out.println("Movendo-se para a direita !!");
-			if(!caret.moveRight())
-			{
-			 	int number = (TuxGuitar.instance().getSongManager().getSong().countMeasureHeaders() + 1);
-			
-				//comienza el undoable
-				UndoableAddMeasure undoable = UndoableAddMeasure.startUndo(number);
-				
-				// System.out.println("Movendo-se para a direita e criando compasso!!");
-				
-				TuxGuitar.instance().getSongManager().addNewMeasure(number);
-				TuxGuitar.instance().getTablatureEditor().getTablature().getViewLayout().fireUpdate(number);
-	
-				// Por algum motivo esse caret gera algum problema e a nota no  apresentada
-				caret.moveRight();
-				
-				TuxGuitar.instance().getFileHistory().setUnsavedFile();
-				
-				//termia el undoable
-				TuxGuitar.instance().getUndoableManager().addEdit(undoable.endUndo());
-			
-			}
+			TuxGuitar.instance().getTablatureEditor().getTablature().getViewLayout().fireUpdate(measure);
 		}
-	
 	}
-    
-    public int getValue (String nota)  
-    {
-    	int ret = 0;
-    	
-    	
-    	// Teclas normais (brancas)
-    	if(nota.equals("C1.WAV"))
-    		ret = 48;
-    	if(nota.equals("D1.WAV"))
-    		ret = 50;
-    	if(nota.equals("E1.WAV"))
-    		ret = 52;
-    	if(nota.equals("F1.WAV"))
-    		ret = 53;
-    	if(nota.equals("G1.WAV"))
-    		ret = 55;
-    	if(nota.equals("A1.WAV"))
-    		ret = 57;
-    	if(nota.equals("B1.WAV"))
-    		ret = 59;
-    	if(nota.equals("C2.WAV"))
-    		ret = 60;
-    	if(nota.equals("D2.WAV"))
-    		ret = 62;
-    	if(nota.equals("E2.WAV"))
-    		ret = 64;
-    	if(nota.equals("F2.WAV"))
-    		ret = 65;
-    	if(nota.equals("G2.WAV"))
-    		ret = 67;
-    	if(nota.equals("A2.WAV"))
-    		ret = 69;
-    	if(nota.equals("B2.WAV"))
-    		ret = 71;
-    	if(nota.equals("C3.WAV"))
-    		ret = 72;
-    		
-    	// Teclas sustenidos (pretas)
-    	
-    	if(nota.equals("CS1.WAV"))
-    		ret = 49;
-    	if(nota.equals("DS1.WAV"))
-    		ret = 51;
-    	if(nota.equals("FS1.WAV"))
-    		ret = 54;
-    	if(nota.equals("GS1.WAV"))
-    		ret = 56;
-    	if(nota.equals("AS1.WAV"))
-    		ret = 58;
-    	if(nota.equals("CS2.WAV"))
-    		ret = 61;
-    	if(nota.equals("DS2.WAV"))
-    		ret = 63;
-    	if(nota.equals("FS2.WAV"))
-    		ret = 66;
-    	if(nota.equals("GS2.WAV"))
-    		ret = 68;
-    	if(nota.equals("AS2.WAV"))
-    		ret = 70;
-        
-        return ret;
-    }
 
 }
 
@@ -64,7 +64,9 @@ import org.herac.tuxguitar.player.impl.sequencer.MidiSequencerProviderImpl;
 import org.herac.tuxguitar.song.managers.TGSongManager;
 import org.herac.tuxguitar.song.models.TGSong;
 import org.herac.tuxguitar.util.TGLock;
+import org.herac.tuxguitar.util.TGLockStats;
 import org.herac.tuxguitar.util.TGSynchronizer;
+import org.herac.tuxguitar.util.TGUpdateScheduler;
 
 /**
  * @author julian
@@ -77,6 +79,14 @@ public class TuxGuitar {
 	
 	public static final int MARGIN_WIDTH = 5;
 	
+	// maximum milliseconds a paint waits for the lock before it is skipped
+	public static final long PAINT_LOCK_TIMEOUT = 10;
+	
+	// update scheduler keys
+	private static final String UPDATE_ITEMS = "updateItems";
+	private static final String UPDATE_REDRAW = "redraw";
+	private static final String UPDATE_TITLE = "title";
+	
 	private static TuxGuitar instance;
 	
 	private TGLock lock;
@@ -166,7 +176,19 @@ public class TuxGuitar {
 					});
 				}
 			}
+			
+			public void excecuteLater(final TGSynchronizer.TGSynchronizerTask task) {
+				final Display display = getDisplay();
+				if(display != null && !display.isDisposed()){
+					display.asyncExec(new Runnable() {
+						public void run() {
+							task.runLater();
+						}
+					});
+				}
+			}
 		});
+		TGUpdateScheduler.instance().setFrameBudget(getConfig().getIntConfigValue(TGConfigKeys.UPDATE_FRAME_BUDGET));
 	}
 	
 	public void displayGUI(String[] args) {
@@ -559,6 +581,7 @@ public class TuxGuitar {
 		if(this.player == null){
 			this.player = new MidiPlayer();
 			this.player.init(getSongManager());
+			this.player.setParserThreads(getConfig().getIntConfigValue(TGConfigKeys.MIDI_PARSER_THREADS));
 			try {
 				//check midi sequencer
 				getPlayer().openSequencer(getConfig().getStringConfigValue(TGConfigKeys.MIDI_SEQUENCER));
@@ -575,24 +598,25 @@ public class TuxGuitar {
 	}
 	
 	public void showTitle(){
-		new SyncThread(new Runnable() {
+		TGUpdateScheduler.instance().schedule(UPDATE_TITLE, new Runnable() {
 			public void run() {
 				if(!isDisposed()){
 					getShell().setText(WindowTitleUtil.parseTitle());
 				}
 			}
-		}).start();
+		});
 	}
 	
 	public void updateCache(final boolean updateItems){
 		if(!this.isLocked()){
 			this.lock();
 			this.getEditorCache().updateEditMode();
+			this.getPlayer().invalidatePlaybackMap();
 			this.unlock();
-			new SyncThread(new Runnable() {
-				public void run() {
-					if(!isDisposed() && !isLocked()){
-						if(updateItems){
+			if(updateItems){
+				TGUpdateScheduler.instance().schedule(UPDATE_ITEMS, new Runnable() {
+					public void run() {
+						if(!isDisposed() && !isLocked()){
 							lock();
 							getItemManager().updateItems();
 							getTransport().updateItems();
@@ -601,10 +625,16 @@ public class TuxGuitar {
 							getTable().updateItems();
 							unlock();
 						}
+					}
+				});
+			}
+			TGUpdateScheduler.instance().schedule(UPDATE_REDRAW, new Runnable() {
+				public void run() {
+					if(!isDisposed() && !isLocked()){
 						redraw();
 					}
 				}
-			}).start();
+			});
 		}
 	}
 	
@@ -735,6 +765,8 @@ public class TuxGuitar {
 		this.lock();
 		
 		this.getEditorCache().reset();
+		this.getPlayer().invalidatePlaybackMap();
+		this.getPlayer().clearBlockCache();
 		this.getTablatureEditor().getTablature().updateTablature();
 		this.getTable().fireUpdate(false);
 		this.getLyricEditor().update();
@@ -771,4 +803,29 @@ public class TuxGuitar {
 	public boolean isLocked(){
 		return this.lock.isLocked();
 	}
+	
+	/**
+	 * Waits at most the given milliseconds for the lock.
+	 */
+	public boolean tryLock(long timeout){
+		return this.lock.tryLock(timeout);
+	}
+	
+	/**
+	 * Wait, hold and contention counters of the model lock.
+	 */
+	public TGLockStats getLockStats(){
+		return this.lock.getStats();
+	}
+	
+	public void resetLockStats(){
+		this.lock.resetStats();
+	}
+	
+	/**
+	 * Keeps the stack trace of the callers that hold the lock longer than the threshold (in nanoseconds), zero disables it.
+	 */
+	public void setLockTraceThreshold(long traceThreshold){
+		this.lock.setTraceThreshold(traceThreshold);
+	}
 }
\ No newline at end of file
@@ -9,9 +9,9 @@ package org.herac.tuxguitar.gui.actions;
 import org.eclipse.swt.events.TypedEvent;
 import org.herac.tuxguitar.gui.TuxGuitar;
 import org.herac.tuxguitar.gui.editors.TablatureEditor;
-import org.herac.tuxguitar.gui.helper.SyncThread;
 import org.herac.tuxguitar.gui.undo.UndoableEdit;
 import org.herac.tuxguitar.song.managers.TGSongManager;
+import org.herac.tuxguitar.util.TGSynchronizer;
 
 /**
  * @author julian
@@ -58,7 +58,7 @@ public abstract class Action extends ActionAdapter {
 				ActionLock.lock();
 			}
 			
-			new SyncThread(new Runnable() {
+			TGSynchronizer.instance().addRunnableLater(new TGSynchronizer.TGRunnable() {
 				public void run() {
 					if (!TuxGuitar.isDisposed()) {
 						int result = execute(e);
@@ -71,7 +71,7 @@ public abstract class Action extends ActionAdapter {
 						}
 					}
 				}
-			}).start();
+			});
 		}
 	}
 	
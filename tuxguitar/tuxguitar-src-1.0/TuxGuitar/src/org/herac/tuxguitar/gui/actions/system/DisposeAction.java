@@ -18,6 +18,7 @@ import org.herac.tuxguitar.gui.system.config.TGConfigKeys;
 import org.herac.tuxguitar.gui.system.config.TGConfigManager;
 import org.herac.tuxguitar.gui.table.TGTableViewer;
 import org.herac.tuxguitar.gui.util.ConfirmDialog;
+import org.herac.tuxguitar.util.TGUpdateScheduler;
 
 /**
  * @author julian
@@ -104,6 +105,7 @@ public class DisposeAction extends Action {
 	}
 	
 	protected void dispose(){
+		TGUpdateScheduler.instance().dispose();
 		TGTableViewer.disposeColors();
 		TuxGuitar.instance().getSongManager().clearSong();
 		TuxGuitar.instance().getFretBoardEditor().dispose();
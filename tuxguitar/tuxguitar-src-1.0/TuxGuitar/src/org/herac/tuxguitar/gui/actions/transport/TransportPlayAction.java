@@ -8,6 +8,7 @@ package org.herac.tuxguitar.gui.actions.transport;
 
 import org.eclipse.swt.events.TypedEvent;
 import org.eclipse.swt.widgets.Display;
+import org.herac.tuxguitar.collab.CollabTransport;
 import org.herac.tuxguitar.gui.TuxGuitar;
 import org.herac.tuxguitar.gui.actions.Action;
 import org.herac.tuxguitar.gui.util.MessageDialog;
@@ -32,6 +33,10 @@ public class TransportPlayAction extends Action {
 	protected int execute(TypedEvent e){
 		MidiPlayer player = TuxGuitar.instance().getPlayer();
 		if(!player.isRunning()){
+			// En una sesion todos empiezan juntos, tambien este cliente (ClienteConecta.ExecutaTransporte)
+			if(TuxGuitar.instance().clienteEnvia.Transporte(CollabTransport.PLAY, player.getTickPosition())){
+				return 0;
+			}
 			try{
 				player.getMode().reset();
 				player.play();
@@ -40,12 +45,31 @@ public class TransportPlayAction extends Action {
 				MessageDialog.errorMessage(exception);
 			}
 		}else{
+			if(TuxGuitar.instance().clienteEnvia.Transporte(CollabTransport.STOP, getMeasureTick())){
+				return 0;
+			}
 			player.pause();
 			updateTickPosition();
 		}
 		return 0;
 	}
 	
+	/**
+	 * Inicia la reproduccion desde el tick en el tiempo dado (System.nanoTime()),
+	 * para la reproduccion compartida por una sesion.
+	 */
+	public void play(long tick,long time){
+		MidiPlayer player = TuxGuitar.instance().getPlayer();
+		try{
+			player.setTickPosition(tick);
+			player.getMode().reset();
+			player.play(time);
+			playThread();
+		}catch(MidiPlayerException exception){
+			MessageDialog.errorMessage(exception);
+		}
+	}
+	
 	protected void playThread() {
 		final Display display = TuxGuitar.instance().getDisplay();
 		final TGSynchronizer.TGRunnable playing = new TGSynchronizer.TGRunnable() {
@@ -81,11 +105,20 @@ public class TransportPlayAction extends Action {
 	}
 	
 	protected void updateTickPosition(){
+		MidiPlayer player = TuxGuitar.instance().getPlayer();
+		player.setTickPosition(getMeasureTick());
+		getEditor().getTablature().getCaret().goToTickPosition();
+	}
+	
+	/**
+	 * Retorna el tick del compas que esta reproduciendo
+	 */
+	protected long getMeasureTick(){
 		MidiPlayer player = TuxGuitar.instance().getPlayer();
 		TGMeasureHeader header = getSongManager().getMeasureHeaderAt(MidiTickUtil.getStart(player.getTickPosition()));
 		if(header != null){
-			player.setTickPosition(MidiTickUtil.getTick(header.getStart()));
+			return MidiTickUtil.getTick(header.getStart());
 		}
-		getEditor().getTablature().getCaret().goToTickPosition();
+		return player.getTickPosition();
 	}
 }
\ No newline at end of file
@@ -7,10 +7,12 @@
 package org.herac.tuxguitar.gui.actions.transport;
 
 import org.eclipse.swt.events.TypedEvent;
+import org.herac.tuxguitar.collab.CollabTransport;
 import org.herac.tuxguitar.gui.TuxGuitar;
 import org.herac.tuxguitar.gui.actions.Action;
 import org.herac.tuxguitar.gui.util.MidiTickUtil;
 import org.herac.tuxguitar.player.base.MidiPlayer;
+import org.herac.tuxguitar.song.models.TGDuration;
 import org.herac.tuxguitar.song.models.TGMeasureHeader;
 
 /**
@@ -27,11 +29,25 @@ public class TransportStopAction extends Action{
 	}
 	
 	protected int execute(TypedEvent e){
+		// En una sesion todos paran juntos, tambien este cliente (ClienteConecta.ExecutaTransporte)
+		if(TuxGuitar.instance().clienteEnvia.Transporte(CollabTransport.STOP, TGDuration.QUARTER_TIME)){
+			return 0;
+		}
 		TuxGuitar.instance().getPlayer().reset();
 		updateTickPosition();
 		return 0;
 	}
 	
+	/**
+	 * Para la reproduccion y vuelve al compas del tick, para la reproduccion compartida por una sesion.
+	 */
+	public void stop(long tick){
+		MidiPlayer player = TuxGuitar.instance().getPlayer();
+		player.reset();
+		player.setTickPosition(tick);
+		updateTickPosition();
+	}
+	
 	protected void updateTickPosition(){
 		MidiPlayer player = TuxGuitar.instance().getPlayer();
 		TGMeasureHeader header = getSongManager().getMeasureHeaderAt(MidiTickUtil.getStart(player.getTickPosition()));
@@ -86,6 +86,7 @@ public class Caret {
 		this.updateBeat();
 		this.checkTransport();
 		this.setChanges(true);
+		this.updatePresence();
 	}
 	
 	private TGTrackImpl findTrack(int number){
@@ -128,42 +129,47 @@ public class Caret {
 	public void paintCaret(ViewLayout layout,TGPainter painter) {
 		if(!TuxGuitar.instance().getPlayer().isRunning()){
 			if (this.selectedMeasure != null && this.selectedBeat instanceof TGBeatImpl) {
-				
-				TGBeatImpl beat = (TGBeatImpl)this.selectedBeat;
-				if( (layout.getStyle() & ViewLayout.DISPLAY_TABLATURE) != 0){
-					int stringSpacing = this.tablature.getViewLayout().getStringSpacing();
-					int leftSpacing = beat.getMeasureImpl().getHeaderImpl().getLeftSpacing(layout);
-					int x = this.selectedMeasure.getPosX() + beat.getPosX() + beat.getSpacing() + leftSpacing - 5;
-					int y = this.selectedMeasure.getPosY() + this.selectedMeasure.getTs().getPosition(TrackSpacing.POSITION_TABLATURE) + ((this.string * stringSpacing) - stringSpacing) - 7;
-					int width = 14;
-					int height = 14;
-					layout.setCaretStyle(painter);
-					painter.initPath();
-					painter.addRectangle(x, y, width, height);
-					painter.closePath();
-				}
-				else if( (layout.getStyle() & ViewLayout.DISPLAY_SCORE) != 0){
-					int line = this.tablature.getViewLayout().getScoreLineSpacing();
-					int leftSpacing = beat.getMeasureImpl().getHeaderImpl().getLeftSpacing(layout);
-					float xMargin = (2.0f * layout.getScale());
-					float x1 = this.selectedMeasure.getPosX() + beat.getPosX() + beat.getSpacing() + leftSpacing - xMargin;
-					float x2 = (x1 + layout.getResources().getScoreNoteWidth() + xMargin);
-					float y1 = this.selectedMeasure.getPosY() + this.selectedMeasure.getTs().getPosition(TrackSpacing.POSITION_TOP) - line;
-					float y2 = this.selectedMeasure.getPosY() + this.selectedMeasure.getTs().getPosition(TrackSpacing.POSITION_BOTTOM);
-					layout.setCaretStyle(painter);
-					painter.initPath();
-					painter.moveTo(x1, y1);
-					painter.lineTo(x1 + ((x2 - x1) / 2f), y1 + (line / 2f));
-					painter.lineTo(x2, y1);
-					painter.moveTo(x1, y2 + line);
-					painter.lineTo(x1 + ((x2 - x1) / 2f), y2 + (line / 2f));
-					painter.lineTo(x2, y2 + line);
-					painter.closePath();
-				}
+				layout.setCaretStyle(painter);
+				paintCaret(layout,painter,this.selectedMeasure,(TGBeatImpl)this.selectedBeat,this.string);
 			}
 		}
 	}
 	
+	/**
+	 * Pinta un caret en el pulso y la cuerda, con el color ya elegido.
+	 * Tambien pinta los carets de los otros usuarios de la sesion (CollabCarets).
+	 */
+	public static void paintCaret(ViewLayout layout,TGPainter painter,TGMeasureImpl measure,TGBeatImpl beat,int string) {
+		if( (layout.getStyle() & ViewLayout.DISPLAY_TABLATURE) != 0){
+			int stringSpacing = layout.getStringSpacing();
+			int leftSpacing = beat.getMeasureImpl().getHeaderImpl().getLeftSpacing(layout);
+			int x = measure.getPosX() + beat.getPosX() + beat.getSpacing() + leftSpacing - 5;
+			int y = measure.getPosY() + measure.getTs().getPosition(TrackSpacing.POSITION_TABLATURE) + ((string * stringSpacing) - stringSpacing) - 7;
+			int width = 14;
+			int height = 14;
+			painter.initPath();
+			painter.addRectangle(x, y, width, height);
+			painter.closePath();
+		}
+		else if( (layout.getStyle() & ViewLayout.DISPLAY_SCORE) != 0){
+			int line = layout.getScoreLineSpacing();
+			int leftSpacing = beat.getMeasureImpl().getHeaderImpl().getLeftSpacing(layout);
+			float xMargin = (2.0f * layout.getScale());
+			float x1 = measure.getPosX() + beat.getPosX() + beat.getSpacing() + leftSpacing - xMargin;
+			float x2 = (x1 + layout.getResources().getScoreNoteWidth() + xMargin);
+			float y1 = measure.getPosY() + measure.getTs().getPosition(TrackSpacing.POSITION_TOP) - line;
+			float y2 = measure.getPosY() + measure.getTs().getPosition(TrackSpacing.POSITION_BOTTOM);
+			painter.initPath();
+			painter.moveTo(x1, y1);
+			painter.lineTo(x1 + ((x2 - x1) / 2f), y1 + (line / 2f));
+			painter.lineTo(x2, y1);
+			painter.moveTo(x1, y2 + line);
+			painter.lineTo(x1 + ((x2 - x1) / 2f), y2 + (line / 2f));
+			painter.lineTo(x2, y2 + line);
+			painter.closePath();
+		}
+	}
+	
 	public boolean moveRight() {
 		
 		if (getSelectedBeat() != null) 
@@ -259,6 +265,7 @@ public class Caret {
 	public void setStringNumber(int number){
 		this.string = number;
 		this.updateNote();
+		this.updatePresence();
 	}
 	
 	public int getStringNumber(){
@@ -348,6 +355,15 @@ public class Caret {
 		return (TGBeatImpl)this.selectedBeat;
 	}
 	
+	/**
+	 * En una sesion colaborativa los otros usuarios ven el caret (CollabPresence).
+	 */
+	private void updatePresence(){
+		if(TuxGuitar.instance().clienteEnvia.getConected() && this.selectedTrack != null && this.selectedMeasure != null){
+			TuxGuitar.instance().clienteEnvia.MoveCaret(this.selectedTrack.getNumber(), this.selectedMeasure.getNumber(), this.position, this.string);
+		}
+	}
+	
 	public TGSongManager getSongManager(){
 		return this.tablature.getSongManager();
 	}
@@ -0,0 +1,165 @@
+package org.herac.tuxguitar.gui.editors.tab;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.swt.graphics.Color;
+import org.herac.tuxguitar.collab.CollabMember;
+import org.herac.tuxguitar.collab.CollabRoster;
+import org.herac.tuxguitar.gui.TuxGuitar;
+import org.herac.tuxguitar.gui.editors.TGPainter;
+import org.herac.tuxguitar.gui.editors.tab.layout.ViewLayout;
+import org.herac.tuxguitar.song.managers.TGSongManager;
+import org.herac.tuxguitar.song.models.TGBeat;
+
+/**
+ * The carets of the other users of the collaborative session, each one in the color of its user.
+ * They are painted with the tablature, and when only they move the measures they leave are
+ * painted again from their buffer, as the play mode does, instead of the whole tablature.
+ */
+public class CollabCarets {
+	
+	private Tablature tablature;
+	private Map painted;
+	
+	public CollabCarets(Tablature tablature){
+		this.tablature = tablature;
+		this.painted = new HashMap();
+	}
+	
+	/**
+	 * Paints every caret, after the layout painted the measures.
+	 */
+	public void paintCarets(ViewLayout layout,TGPainter painter){
+		this.painted.clear();
+		if(TuxGuitar.instance().getPlayer().isRunning()){
+			return;
+		}
+		CollabMember[] members = this.getMembers();
+		for(int i = 0; i < members.length; i ++){
+			Position position = this.getPosition(layout, members[i]);
+			if(position != null){
+				this.paintCaret(layout, painter, members[i], position);
+			}
+		}
+	}
+	
+	/**
+	 * Paints the carets that moved since they were painted: the measures they leave are painted
+	 * again, then the carets on those measures and the ones that moved.
+	 */
+	public void updateCarets(ViewLayout layout,TGPainter painter){
+		CollabMember[] members = this.getMembers();
+		Position[] positions = new Position[members.length];
+		boolean[] moved = new boolean[members.length];
+		List measures = new ArrayList();
+		
+		// the carets that left, or that are not there any more
+		List left = new ArrayList(this.painted.keySet());
+		for(int i = 0; i < members.length; i ++){
+			positions[i] = this.getPosition(layout, members[i]);
+			Position last = (Position)this.painted.get(members[i]);
+			moved[i] = (positions[i] == null ? (last != null) : !positions[i].equals(last));
+			if(moved[i] && last != null && !measures.contains(last.measure)){
+				measures.add(last.measure);
+			}
+			left.remove(members[i]);
+		}
+		for(int i = 0; i < left.size(); i ++){
+			Position last = (Position)this.painted.remove(left.get(i));
+			if(!measures.contains(last.measure)){
+				measures.add(last.measure);
+			}
+		}
+		
+		for(int i = 0; i < measures.size(); i ++){
+			TGMeasureImpl measure = (TGMeasureImpl)measures.get(i);
+			if(!measure.isOutOfBounds()){
+				measure.paintMeasure(layout, painter);
+			}
+		}
+		Caret caret = this.tablature.getCaret();
+		if(caret.getMeasure() != null && measures.contains(caret.getMeasure())){
+			caret.paintCaret(layout, painter);
+		}
+		
+		for(int i = 0; i < members.length; i ++){
+			if(positions[i] == null){
+				this.painted.remove(members[i]);
+			}else if(moved[i] || measures.contains(positions[i].measure)){
+				this.paintCaret(layout, painter, members[i], positions[i]);
+			}
+		}
+	}
+	
+	private void paintCaret(ViewLayout layout,TGPainter painter,CollabMember member,Position position){
+		Color color = TuxGuitar.instance().clienteEnvia.retornaCor(member);
+		painter.setForeground(color != null ? color : layout.getResources().getLineColor());
+		Caret.paintCaret(layout, painter, position.measure, position.beat, position.string);
+		this.painted.put(member, position);
+	}
+	
+	/**
+	 * The other users present that sent their caret.
+	 */
+	private CollabMember[] getMembers(){
+		CollabRoster roster = TuxGuitar.instance().clienteEnvia.getRoster();
+		if(roster == null || !TuxGuitar.instance().clienteEnvia.getConected()){
+			return new CollabMember[0];
+		}
+		CollabMember[] members = roster.getMembers();
+		List others = new ArrayList();
+		for(int i = 0; i < members.length; i ++){
+			if(members[i].isPresent() && members[i].hasCaret() && members[i] != roster.getSelf()){
+				others.add(members[i]);
+			}
+		}
+		return (CollabMember[])others.toArray(new CollabMember[others.size()]);
+	}
+	
+	/**
+	 * Where the caret of the member is painted, null when it is not on the screen.
+	 */
+	private Position getPosition(ViewLayout layout,CollabMember member){
+		TGSongManager manager = this.tablature.getSongManager();
+		TGTrackImpl track = (TGTrackImpl)manager.getTrack(member.getCaretTrack());
+		if(track == null || ((layout.getStyle() & ViewLayout.DISPLAY_MULTITRACK) == 0 && track != this.tablature.getCaret().getTrack())){
+			return null;
+		}
+		TGMeasureImpl measure = (TGMeasureImpl)track.getMeasure(member.getCaretMeasure() - 1);
+		if(measure == null || measure.isOutOfBounds()){
+			return null;
+		}
+		TGBeat beat = manager.getMeasureManager().getBeatIn(measure, member.getCaretStart());
+		if(!(beat instanceof TGBeatImpl)){
+			return null;
+		}
+		return new Position(measure, (TGBeatImpl)beat, Math.min(Math.max(member.getCaretString(), 1), track.stringCount()));
+	}
+	
+	private static class Position{
+		protected TGMeasureImpl measure;
+		protected TGBeatImpl beat;
+		protected int string;
+		
+		public Position(TGMeasureImpl measure,TGBeatImpl beat,int string){
+			this.measure = measure;
+			this.beat = beat;
+			this.string = string;
+		}
+		
+		public boolean equals(Object object){
+			if(!(object instanceof Position)){
+				return false;
+			}
+			Position position = (Position)object;
+			return (this.measure == position.measure && this.beat == position.beat && this.string == position.string);
+		}
+		
+		public int hashCode(){
+			return (this.beat.hashCode() + this.string);
+		}
+	}
+}
@@ -19,7 +19,6 @@ import org.herac.tuxguitar.gui.editors.tab.painters.TGClefPainter;
 import org.herac.tuxguitar.gui.editors.tab.painters.TGKeySignaturePainter;
 import org.herac.tuxguitar.gui.editors.tab.painters.TGTempoPainter;
 import org.herac.tuxguitar.gui.editors.tab.painters.TGTripletFeelPainter;
-import org.herac.tuxguitar.gui.helper.SyncThread;
 import org.herac.tuxguitar.song.managers.TGSongManager;
 import org.herac.tuxguitar.song.models.TGBeat;
 import org.herac.tuxguitar.song.models.TGChord;
@@ -28,6 +27,7 @@ import org.herac.tuxguitar.song.models.TGMeasure;
 import org.herac.tuxguitar.song.models.TGMeasureHeader;
 import org.herac.tuxguitar.song.models.TGNoteEffect;
 import org.herac.tuxguitar.song.models.TGTupleto;
+import org.herac.tuxguitar.util.TGUpdateScheduler;
 
 /**
  * @author julian
@@ -1156,7 +1156,7 @@ public class TGMeasureImpl extends TGMeasure{
 	}
 	
 	public void dispose(){
-		new SyncThread( new Runnable() {
+		TGUpdateScheduler.instance().schedule( new Runnable() {
 			public void run() {
 				if(!TuxGuitar.isDisposed()){
 					getBuffer().dispose();
@@ -1167,6 +1167,6 @@ public class TGMeasureImpl extends TGMeasure{
 					}
 				}
 			}
-		} ).start();
+		});
 	}
 }
\ No newline at end of file
@@ -36,6 +36,7 @@ public class Tablature extends Composite {
 	
 	private TGSongManager songManager;
 	private Caret caret;
+	private CollabCarets collabCarets;
 	private int width;
 	private int height;
 	private ViewLayout viewLayout;
@@ -95,6 +96,7 @@ public class Tablature extends Composite {
 	
 	public void initDefaults(){
 		this.caret = new Caret(this);
+		this.collabCarets = new CollabCarets(this);
 	}
 	
 	public void updateTablature(){
@@ -108,8 +110,7 @@ public class Tablature extends Composite {
 	}
 	
 	public synchronized void paintTablature(TGPainter painter){
-		if(!TuxGuitar.instance().isLocked()){
-			TuxGuitar.instance().lock();
+		if(TuxGuitar.instance().tryLock(TuxGuitar.PAINT_LOCK_TIMEOUT)){
 			this.setPainting(true);
 			try{
 				this.checkScroll();
@@ -222,8 +223,7 @@ public class Tablature extends Composite {
 	}
 	
 	public void redrawPlayingMode(){
-		if(!super.isDisposed() && !isPainting() && !TuxGuitar.instance().isLocked()){
-			TuxGuitar.instance().lock();
+		if(!super.isDisposed() && !isPainting() && TuxGuitar.instance().tryLock(TuxGuitar.PAINT_LOCK_TIMEOUT)){
 			if(TuxGuitar.instance().getPlayer().isRunning()){
 				this.editorKit.tryBack();
 				this.setPainting(true);
@@ -238,6 +238,25 @@ public class Tablature extends Composite {
 		}
 	}
 	
+	/**
+	 * Pinta los carets de los otros usuarios de la sesion que se movieron,
+	 * sin pintar de nuevo toda la tablatura.
+	 */
+	public void redrawCollabCarets(){
+		if(!super.isDisposed() && !isPainting() && TuxGuitar.instance().tryLock(TuxGuitar.PAINT_LOCK_TIMEOUT)){
+			if(!TuxGuitar.instance().getPlayer().isRunning()){
+				this.setPainting(true);
+				
+				TGPainter painter = new TGPainter(new GC(this));
+				this.collabCarets.updateCarets(getViewLayout(),painter);
+				painter.dispose();
+				
+				this.setPainting(false);
+			}
+			TuxGuitar.instance().unlock();
+		}
+	}
+	
 	private void redrawPlayingMode(TGPainter painter,boolean force){
 		if(!super.isDisposed() && !TuxGuitar.instance().isLocked()){
 			try{
@@ -274,6 +293,10 @@ public class Tablature extends Composite {
 		return this.caret;
 	}
 	
+	public CollabCarets getCollabCarets(){
+		return this.collabCarets;
+	}
+	
 	public EditorKit getEditorKit() {
 		return this.editorKit;
 	}
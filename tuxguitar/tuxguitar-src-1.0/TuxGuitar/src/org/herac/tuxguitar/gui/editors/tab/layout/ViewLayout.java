@@ -183,6 +183,7 @@ public abstract class ViewLayout {
 			measure.update(this);
 		}
 		updateCaret();
+		TuxGuitar.instance().getPlayer().updateMeasure(measureNumber);
 	}
 	
 	public void reloadStyles(){
@@ -234,6 +235,7 @@ public abstract class ViewLayout {
 			if(!caret.getMeasure().isOutOfBounds()){
 				caret.paintCaret(this,painter);
 			}
+			getTablature().getCollabCarets().paintCarets(this,painter);
 		}
 	}
 	
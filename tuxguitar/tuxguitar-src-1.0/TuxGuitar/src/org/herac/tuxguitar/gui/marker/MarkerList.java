@@ -19,12 +19,12 @@ import org.eclipse.swt.widgets.TableItem;
 import org.herac.tuxguitar.gui.TuxGuitar;
 import org.herac.tuxguitar.gui.actions.ActionLock;
 import org.herac.tuxguitar.gui.editors.tab.Caret;
-import org.herac.tuxguitar.gui.helper.SyncThread;
 import org.herac.tuxguitar.gui.system.icons.IconLoader;
 import org.herac.tuxguitar.gui.system.language.LanguageLoader;
 import org.herac.tuxguitar.gui.undo.undoables.custom.UndoableChangeMarker;
 import org.herac.tuxguitar.gui.util.DialogUtils;
 import org.herac.tuxguitar.song.models.TGMarker;
+import org.herac.tuxguitar.util.TGUpdateScheduler;
 
 public class MarkerList implements IconLoader,LanguageLoader{
 	
@@ -187,13 +187,13 @@ public class MarkerList implements IconLoader,LanguageLoader{
 	
 	public void update(final boolean keepSelection){
 		if(!isDisposed()){
-			new SyncThread(new Runnable() {
+			TGUpdateScheduler.instance().schedule(this, new Runnable() {
 				public void run() {
 					if(!isDisposed()){
 						loadTableItems(keepSelection);
 					}
 				}
-			}).start();
+			});
 		}
 	}
 	
@@ -21,12 +21,12 @@ import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Scale;
 import org.eclipse.swt.widgets.Shell;
 import org.herac.tuxguitar.gui.TuxGuitar;
-import org.herac.tuxguitar.gui.helper.SyncThread;
 import org.herac.tuxguitar.gui.system.icons.IconLoader;
 import org.herac.tuxguitar.gui.system.language.LanguageLoader;
 import org.herac.tuxguitar.gui.util.DialogUtils;
 import org.herac.tuxguitar.song.models.TGChannel;
 import org.herac.tuxguitar.song.models.TGTrack;
+import org.herac.tuxguitar.util.TGUpdateScheduler;
 
 /**
  * @author julian
@@ -223,7 +223,7 @@ public class TGMixer implements IconLoader,LanguageLoader{
 	
 	public synchronized void update(){
 		if(!isDisposed()){
-			new SyncThread(new Runnable() {
+			TGUpdateScheduler.instance().schedule(this, new Runnable() {
 				public void run() {
 					if(!isDisposed()){
 						TGMixer.this.clear();
@@ -232,7 +232,7 @@ public class TGMixer implements IconLoader,LanguageLoader{
 						TGMixer.this.dialog.redraw();
 					}
 				}
-			}).start();
+			});
 		}
 	}
 	
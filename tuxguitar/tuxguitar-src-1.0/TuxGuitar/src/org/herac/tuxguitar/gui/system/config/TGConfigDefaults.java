@@ -86,6 +86,8 @@ public class TGConfigDefaults{
 		this.loadProperty(TGConfigKeys.COLOR_TAB_NOTE,"0,0,0");
 		this.loadProperty(TGConfigKeys.COLOR_PLAY_NOTE,"255,0,0");
 		this.loadProperty(TGConfigKeys.MAX_HISTORY_FILES,10);
+		this.loadProperty(TGConfigKeys.MIDI_PARSER_THREADS,0);
+		this.loadProperty(TGConfigKeys.UPDATE_FRAME_BUDGET,16);
 		this.loadProperty(TGConfigKeys.MIN_SCORE_TABLATURE_SPACING,20);
 		this.loadProperty(TGConfigKeys.SCORE_LINE_SPACING,8);
 		this.loadProperty(TGConfigKeys.TAB_LINE_SPACING,10);
@@ -54,7 +54,9 @@ public class TGConfigKeys {
 	public static final String COLOR_PLAY_NOTE = "color.play.note";
 	public static final String MIDI_PORT = "midi.port";
 	public static final String MIDI_SEQUENCER = "midi.sequencer";
+	public static final String MIDI_PARSER_THREADS = "midi.parser-threads";
 	public static final String MAX_HISTORY_FILES = "history.max-files";
+	public static final String UPDATE_FRAME_BUDGET = "update.frame-budget";
 	public static final String MIN_SCORE_TABLATURE_SPACING = "score.min.score-tab-spacing";
 	public static final String SCORE_LINE_SPACING = "score.line-spacing";
 	public static final String TAB_LINE_SPACING = "tab.line-spacing";
@@ -25,8 +25,7 @@ public class TGTableCanvasPainter implements PaintListener{
 	}
 	
 	protected void paintTrack(TGPainter painter){
-		if(!TuxGuitar.instance().isLocked()){
-			TuxGuitar.instance().lock();
+		if(TuxGuitar.instance().tryLock(TuxGuitar.PAINT_LOCK_TIMEOUT)){
 			
 			int x = -this.viewer.getHScrollSelection();
 			int y = 0;
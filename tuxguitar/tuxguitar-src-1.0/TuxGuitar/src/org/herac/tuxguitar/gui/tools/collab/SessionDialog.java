@@ -15,7 +15,6 @@ import org.eclipse.swt.widgets.List;
 import org.herac.tuxguitar.gui.TuxGuitar;
 import org.herac.tuxguitar.gui.util.DialogUtils;
 import org.herac.tuxguitar.gui.util.MessageDialog;
-import java.util.ArrayList;
 
 public class SessionDialog {
 	
@@ -109,20 +108,16 @@ public class SessionDialog {
 						//TODO: Validar o nome da sesso
 						//TODO: Validar o nome do usurio
 
-						// Entra em uma sesso existente
-		            	ArrayList l = new ArrayList();
-			        	l.add(TxtSession.getText()); 
-
 						// Se no selecionaou nada  por que  uma nova sesso!
 						if(sessions.getSelectionIndex() == -1)
 						{
 				    		//  Enviando para o argo uma mensagem de 'protocolo'
-				        	TuxGuitar.instance().clienteEnvia.EnviaEvento(l,"PROT_nova_sessao"); 
+				        	TuxGuitar.instance().clienteEnvia.NovaSessao(TxtSession.getText());
 						}
 						else
 						{
 			    			//	Enviando para o argo uma mensagem de 'protocolo'
-							TuxGuitar.instance().clienteEnvia.EnviaEvento(l,"PROT_sessao_existente");
+							TuxGuitar.instance().clienteEnvia.EntraSessao(TxtSession.getText());
 						}
 						
 					}
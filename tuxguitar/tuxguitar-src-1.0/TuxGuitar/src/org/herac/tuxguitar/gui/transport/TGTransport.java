@@ -25,12 +25,12 @@ import org.eclipse.swt.widgets.ProgressBar;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.ToolBar;
 import org.eclipse.swt.widgets.ToolItem;
+import org.herac.tuxguitar.collab.CollabTransport;
 import org.herac.tuxguitar.gui.TuxGuitar;
 import org.herac.tuxguitar.gui.actions.transport.TransportMetronomeAction;
 import org.herac.tuxguitar.gui.actions.transport.TransportModeAction;
 import org.herac.tuxguitar.gui.actions.transport.TransportPlayAction;
 import org.herac.tuxguitar.gui.actions.transport.TransportStopAction;
-import org.herac.tuxguitar.gui.helper.SyncThread;
 import org.herac.tuxguitar.gui.system.icons.IconLoader;
 import org.herac.tuxguitar.gui.system.language.LanguageLoader;
 import org.herac.tuxguitar.gui.util.DialogUtils;
@@ -40,6 +40,7 @@ import org.herac.tuxguitar.song.managers.TGSongManager;
 import org.herac.tuxguitar.song.models.TGDuration;
 import org.herac.tuxguitar.song.models.TGMeasure;
 import org.herac.tuxguitar.song.models.TGMeasureHeader;
+import org.herac.tuxguitar.util.TGUpdateScheduler;
 
 /**
  * @author julian
@@ -373,7 +374,11 @@ public class TGTransport implements IconLoader,LanguageLoader{
 	
 	protected void gotoMeasure(TGMeasureHeader header,boolean moveCaret){
 		if(header != null && this.position != header.getNumber()){
-			TuxGuitar.instance().getPlayer().setTickPosition(MidiTickUtil.getTick(header.getStart()));
+			long tick = MidiTickUtil.getTick(header.getStart());
+			// En una sesion, mientras reproduce, todos van juntos al compas
+			if(!TuxGuitar.instance().getPlayer().isRunning() || !TuxGuitar.instance().clienteEnvia.Transporte(CollabTransport.SEEK, tick)){
+				TuxGuitar.instance().getPlayer().setTickPosition(tick);
+			}
 			if(moveCaret){
 				TuxGuitar.instance().getTablatureEditor().getTablature().getCaret().goToTickPosition();
 				TuxGuitar.instance().updateCache(true);
@@ -408,7 +413,7 @@ public class TGTransport implements IconLoader,LanguageLoader{
 		if(!TuxGuitar.instance().isLocked()){
 			this.checkPosition();
 			if(!isDisposed()){
-				new SyncThread(new Runnable() {
+				TGUpdateScheduler.instance().schedule(this, new Runnable() {
 					public void run() {
 						if(!isDisposed() && !TuxGuitar.instance().isLocked()){
 							if(isEditingTickScale()){
@@ -422,7 +427,7 @@ public class TGTransport implements IconLoader,LanguageLoader{
 							}
 						}
 					}
-				}).start();
+				});
 			}
 		}
 	}
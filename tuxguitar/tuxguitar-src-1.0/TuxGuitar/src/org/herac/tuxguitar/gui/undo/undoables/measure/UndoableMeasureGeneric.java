@@ -27,6 +27,7 @@ public class UndoableMeasureGeneric implements UndoableEdit{
 			throw new CannotRedoException();
 		}
 		this.replace(this.redoMeasure);
+		this.notifyEdit(this.undoMeasure, this.redoMeasure);
 		this.redoCaret.update();
 		this.doAction = UNDO_ACTION;
 	}
@@ -36,6 +37,7 @@ public class UndoableMeasureGeneric implements UndoableEdit{
 			throw new CannotUndoException();
 		}
 		this.replace(this.undoMeasure);
+		this.notifyEdit(this.redoMeasure, this.undoMeasure);
 		this.undoCaret.update();
 		this.doAction = REDO_ACTION;
 	}
@@ -68,13 +70,44 @@ public class UndoableMeasureGeneric implements UndoableEdit{
 		return undoable;
 	}
 	
+	/**
+	 * Starts the undo of a measure of any track, for the edits that come from the other members.
+	 */
+	public static UndoableMeasureGeneric startUndo(int trackNumber,TGMeasure measure){
+		UndoableMeasureGeneric undoable = new UndoableMeasureGeneric();
+		undoable.doAction = UNDO_ACTION;
+		undoable.trackNumber = trackNumber;
+		undoable.undoCaret = new UndoableCaretHelper();
+		undoable.undoMeasure = measure.clone(TuxGuitar.instance().getSongManager().getFactory(),measure.getHeader().clone(TuxGuitar.instance().getSongManager().getFactory()));
+		return undoable;
+	}
+	
+	/**
+	 * Ends the undo of the edits of the other members, they already have them.
+	 */
+	public UndoableMeasureGeneric endUndo(TGMeasure measure){
+		this.redoCaret = new UndoableCaretHelper();
+		this.redoMeasure = measure.clone(TuxGuitar.instance().getSongManager().getFactory(),measure.getHeader().clone(TuxGuitar.instance().getSongManager().getFactory()));
+		return this;
+	}
+	
 	public UndoableMeasureGeneric endUndo(){
 		Caret caret = getCaret();
 		this.redoCaret = new UndoableCaretHelper();
 		this.redoMeasure = caret.getMeasure().clone(TuxGuitar.instance().getSongManager().getFactory(),caret.getMeasure().getHeader().clone(TuxGuitar.instance().getSongManager().getFactory()));
+		this.notifyEdit(this.undoMeasure, this.redoMeasure);
 		return this;
 	}
 	
+	/**
+	 * The notes changed go to the other members of the collaborative session.
+	 */
+	private void notifyEdit(TGMeasure before,TGMeasure after){
+		if(TuxGuitar.instance().clienteEnvia != null){
+			TuxGuitar.instance().clienteEnvia.EnviaCompasso(this.trackNumber, before, after);
+		}
+	}
+	
 	private static Caret getCaret(){
 		return TuxGuitar.instance().getTablatureEditor().getTablature().getCaret();
 	}
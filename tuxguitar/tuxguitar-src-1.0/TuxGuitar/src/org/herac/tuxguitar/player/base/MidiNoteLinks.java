@@ -0,0 +1,187 @@
+package org.herac.tuxguitar.player.base;
+
+import org.herac.tuxguitar.song.models.TGBeat;
+import org.herac.tuxguitar.song.models.TGMeasure;
+import org.herac.tuxguitar.song.models.TGNote;
+import org.herac.tuxguitar.song.models.TGTrack;
+
+/**
+ * Tied notes and previous notes of a track, resolved in a single forward pass.
+ * Each string keeps the notes still open for ties and the last note played on it.
+ * Notes are looked up by position (measure, beat and note index) so no object is created per note.
+ */
+public class MidiNoteLinks {
+	
+	private int[] measureBeats;
+	private int[] beatNotes;
+	private int beatCount;
+	
+	private long[] ends;
+	private TGNote[] previous;
+	private int size;
+	
+	private int[][] open;
+	private int[] openCount;
+	private TGNote[] last;
+	private TGNote[] beatFirst;
+	
+	public MidiNoteLinks(TGTrack track){
+		// the arrays are sized once, counting beats and notes is cheaper than growing them
+		int beats = 0;
+		int notes = 0;
+		for(int m = 0; m < track.countMeasures(); m ++){
+			TGMeasure measure = track.getMeasure(m);
+			beats += measure.countBeats();
+			for(int b = 0; b < measure.countBeats(); b ++){
+				notes += measure.getBeat(b).countNotes();
+			}
+		}
+		this.measureBeats = new int[track.countMeasures() + 1];
+		this.beatNotes = new int[Math.max(beats, 1)];
+		this.beatCount = 0;
+		this.ends = new long[Math.max(notes, 1)];
+		this.previous = new TGNote[Math.max(notes, 1)];
+		this.size = 0;
+		this.ensureStrings(track.stringCount());
+		for(int m = 0; m < track.countMeasures(); m ++){
+			TGMeasure measure = track.getMeasure(m);
+			this.measureBeats[m] = this.beatCount;
+			for(int b = 0; b < measure.countBeats(); b ++){
+				this.addBeat(measure.getBeat(b));
+			}
+		}
+		this.measureBeats[track.countMeasures()] = this.beatCount;
+		this.open = null;
+		this.openCount = null;
+		this.last = null;
+		this.beatFirst = null;
+	}
+	
+	/**
+	 * Time added to the note by the tied notes that follow it on the same string.
+	 */
+	public long getTieLength(TGNote note,int measure,int beat,int index){
+		int position = this.getPosition(measure, beat, index);
+		if(position < 0){
+			return 0;
+		}
+		return (this.ends[position] - (note.getBeat().getStart() + note.getBeat().getDuration().getTime()));
+	}
+	
+	/**
+	 * The first note on the same string in the closest previous beat that has one.
+	 */
+	public TGNote getPreviousNote(int measure,int beat,int index){
+		int position = this.getPosition(measure, beat, index);
+		return (position >= 0 ? this.previous[position] : null);
+	}
+	
+	private int getPosition(int measure,int beat,int index){
+		if(measure < 0 || (measure + 1) >= this.measureBeats.length){
+			return -1;
+		}
+		int globalBeat = (this.measureBeats[measure] + beat);
+		if(globalBeat >= this.measureBeats[measure + 1]){
+			return -1;
+		}
+		int position = (this.beatNotes[globalBeat] + index);
+		int limit = ((globalBeat + 1) < this.beatCount ? this.beatNotes[globalBeat + 1] : this.size);
+		return (position < limit ? position : -1);
+	}
+	
+	private void addBeat(TGBeat beat){
+		if(this.beatCount == this.beatNotes.length){
+			int[] beatNotes = new int[this.beatCount * 2];
+			System.arraycopy(this.beatNotes, 0, beatNotes, 0, this.beatCount);
+			this.beatNotes = beatNotes;
+		}
+		this.beatNotes[this.beatCount ++] = this.size;
+		int first = this.size;
+		int noteCount = beat.countNotes();
+		// a rest ends every tie
+		if(noteCount == 0){
+			for(int s = 0; s < this.openCount.length; s ++){
+				this.openCount[s] = 0;
+			}
+			return;
+		}
+		long end = (beat.getStart() + beat.getDuration().getTime());
+		for(int n = 0; n < noteCount; n ++){
+			TGNote note = beat.getNote(n);
+			int string = note.getString();
+			this.ensureStrings(string);
+			if(note.isTiedNote()){
+				for(int i = 0; i < this.openCount[string]; i ++){
+					this.ends[this.open[string][i]] = end;
+				}
+			}else{
+				this.openCount[string] = 0;
+			}
+			this.add(end, this.last[string]);
+			if(this.beatFirst[string] == null){
+				this.beatFirst[string] = note;
+			}
+		}
+		// notes of this beat start looking for ties on the next one
+		for(int n = 0; n < noteCount; n ++){
+			TGNote note = beat.getNote(n);
+			int string = note.getString();
+			if(this.beatFirst[string] != null){
+				this.last[string] = this.beatFirst[string];
+				this.beatFirst[string] = null;
+			}
+			if(!note.isTiedNote()){
+				this.open(string, (first + n));
+			}
+		}
+	}
+	
+	private void add(long end,TGNote previous){
+		if(this.size == this.ends.length){
+			long[] ends = new long[this.size * 2];
+			TGNote[] previousNotes = new TGNote[this.size * 2];
+			System.arraycopy(this.ends, 0, ends, 0, this.size);
+			System.arraycopy(this.previous, 0, previousNotes, 0, this.size);
+			this.ends = ends;
+			this.previous = previousNotes;
+		}
+		this.ends[this.size] = end;
+		this.previous[this.size] = previous;
+		this.size ++;
+	}
+	
+	private void open(int string,int index){
+		if(this.openCount[string] == this.open[string].length){
+			int[] open = new int[this.openCount[string] * 2];
+			System.arraycopy(this.open[string], 0, open, 0, this.openCount[string]);
+			this.open[string] = open;
+		}
+		this.open[string][this.openCount[string] ++] = index;
+	}
+	
+	private void ensureStrings(int string){
+		int length = (string + 1);
+		if(this.open != null && this.open.length >= length){
+			return;
+		}
+		int[][] open = new int[length][];
+		int[] openCount = new int[length];
+		TGNote[] last = new TGNote[length];
+		TGNote[] beatFirst = new TGNote[length];
+		int current = 0;
+		if(this.open != null){
+			current = this.open.length;
+			System.arraycopy(this.open, 0, open, 0, current);
+			System.arraycopy(this.openCount, 0, openCount, 0, current);
+			System.arraycopy(this.last, 0, last, 0, current);
+			System.arraycopy(this.beatFirst, 0, beatFirst, 0, current);
+		}
+		for(int i = current; i < length; i ++){
+			open[i] = new int[2];
+		}
+		this.open = open;
+		this.openCount = openCount;
+		this.last = last;
+		this.beatFirst = beatFirst;
+	}
+}
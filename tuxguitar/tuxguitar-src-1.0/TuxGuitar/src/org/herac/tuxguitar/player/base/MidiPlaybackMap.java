@@ -0,0 +1,186 @@
+package org.herac.tuxguitar.player.base;
+
+import org.herac.tuxguitar.song.models.TGDuration;
+import org.herac.tuxguitar.song.models.TGMeasureHeader;
+import org.herac.tuxguitar.song.models.TGSong;
+
+/**
+ * Measures in the order they are played, with repeats and alternative endings already resolved.
+ * Each segment is one played measure: the tick where it is played, the start of its header,
+ * its length, tempo and repeat pass. Built once, then tick and start conversions are binary searches.
+ */
+public class MidiPlaybackMap {
+	
+	private int count;
+	private long[] ticks;
+	private long[] starts;
+	private long[] lengths;
+	private int[] headers;
+	private int[] passes;
+	private int[] tempos;
+	
+	private long[] headerStarts;
+	private long[] headerLengths;
+	private long[] headerTicks;
+	
+	private long tickLength;
+	
+	public MidiPlaybackMap(TGSong song){
+		int headerCount = song.countMeasureHeaders();
+		this.headerStarts = new long[headerCount];
+		this.headerLengths = new long[headerCount];
+		this.headerTicks = new long[headerCount];
+		
+		int[] headerPasses = new int[headerCount];
+		for(int i = 0; i < headerCount; i ++){
+			TGMeasureHeader header = song.getMeasureHeader(i);
+			this.headerStarts[i] = header.getStart();
+			this.headerLengths[i] = header.getLength();
+			this.headerTicks[i] = -1;
+		}
+		
+		this.count = 0;
+		this.ticks = new long[Math.max(headerCount, 1)];
+		this.starts = new long[this.ticks.length];
+		this.lengths = new long[this.ticks.length];
+		this.headers = new int[this.ticks.length];
+		this.passes = new int[this.ticks.length];
+		this.tempos = new int[this.ticks.length];
+		
+		long tick = TGDuration.QUARTER_TIME;
+		MidiRepeatController controller = new MidiRepeatController(song);
+		while(!controller.finished()){
+			int index = controller.getIndex();
+			TGMeasureHeader header = song.getMeasureHeader(index);
+			controller.process();
+			if(controller.shouldPlay()){
+				this.addSegment(tick, header, index, headerPasses[index] ++);
+				if(this.headerTicks[index] < 0){
+					this.headerTicks[index] = tick;
+				}
+				tick += header.getLength();
+			}
+		}
+		this.tickLength = tick;
+	}
+	
+	private void addSegment(long tick,TGMeasureHeader header,int index,int pass){
+		if(this.count == this.ticks.length){
+			int length = (this.count * 2);
+			this.ticks = resize(this.ticks, length);
+			this.starts = resize(this.starts, length);
+			this.lengths = resize(this.lengths, length);
+			this.headers = resize(this.headers, length);
+			this.passes = resize(this.passes, length);
+			this.tempos = resize(this.tempos, length);
+		}
+		this.ticks[this.count] = tick;
+		this.starts[this.count] = header.getStart();
+		this.lengths[this.count] = header.getLength();
+		this.headers[this.count] = index;
+		this.passes[this.count] = pass;
+		this.tempos[this.count] = header.getTempo().getValue();
+		this.count ++;
+	}
+	
+	/**
+	 * Returns the song position (measure header start based) played at the given tick.
+	 */
+	public long getStart(long tick){
+		int segment = getSegmentAt(tick);
+		if(segment >= 0){
+			return (this.starts[segment] + (tick - this.ticks[segment]));
+		}
+		return this.tickLength;
+	}
+	
+	/**
+	 * Returns the tick where the measure containing the given song position is played the first time.
+	 */
+	public long getTick(long start){
+		int low = 0;
+		int high = this.headerStarts.length;
+		while(low < high){
+			int middle = ((low + high) >>> 1);
+			if(this.headerStarts[middle] <= start){
+				low = middle + 1;
+			}else{
+				high = middle;
+			}
+		}
+		int header = (low - 1);
+		if(header >= 0 && start < (this.headerStarts[header] + this.headerLengths[header]) && this.headerTicks[header] >= 0){
+			return this.headerTicks[header];
+		}
+		return this.tickLength;
+	}
+	
+	/**
+	 * Returns the index of the segment played at the given tick, or -1.
+	 */
+	public int getSegmentAt(long tick){
+		int low = 0;
+		int high = this.count;
+		while(low < high){
+			int middle = ((low + high) >>> 1);
+			if(this.ticks[middle] <= tick){
+				low = middle + 1;
+			}else{
+				high = middle;
+			}
+		}
+		int segment = (low - 1);
+		if(segment >= 0 && tick < (this.ticks[segment] + this.lengths[segment])){
+			return segment;
+		}
+		return -1;
+	}
+	
+	public int countHeaders(){
+		return this.headerStarts.length;
+	}
+	
+	public int countSegments(){
+		return this.count;
+	}
+	
+	public long getSegmentTick(int segment){
+		return this.ticks[segment];
+	}
+	
+	public long getSegmentStart(int segment){
+		return this.starts[segment];
+	}
+	
+	public long getSegmentLength(int segment){
+		return this.lengths[segment];
+	}
+	
+	public int getSegmentHeader(int segment){
+		return this.headers[segment];
+	}
+	
+	public int getSegmentPass(int segment){
+		return this.passes[segment];
+	}
+	
+	public int getSegmentTempo(int segment){
+		return this.tempos[segment];
+	}
+	
+	public long getTickLength(){
+		return this.tickLength;
+	}
+	
+	private static long[] resize(long[] array,int length){
+		long[] resized = new long[length];
+		System.arraycopy(array, 0, resized, 0, Math.min(array.length, length));
+		return resized;
+	}
+	
+	private static int[] resize(int[] array,int length){
+		int[] resized = new int[length];
+		System.arraycopy(array, 0, resized, 0, Math.min(array.length, length));
+		return resized;
+	}
+}
@@ -3,11 +3,13 @@ package org.herac.tuxguitar.player.base;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.locks.LockSupport;
 
 import org.herac.tuxguitar.song.managers.TGSongManager;
 import org.herac.tuxguitar.song.models.TGChannel;
 import org.herac.tuxguitar.song.models.TGDuration;
 import org.herac.tuxguitar.song.models.TGNote;
+import org.herac.tuxguitar.song.models.TGSong;
 import org.herac.tuxguitar.song.models.TGString;
 import org.herac.tuxguitar.song.models.TGTrack;
 import org.herac.tuxguitar.util.TGLock;
@@ -20,6 +22,9 @@ public class MidiPlayer{
 	
 	private static final int TIMER_DELAY = 10;
 	
+	// Drift to another player that follow() leaves alone, in nanoseconds.
+	private static final long FOLLOW_TOLERANCE = (2 * 1000 * 1000);
+	
 	private TGSongManager songManager;
 	
 	private MidiSequencer sequencer;
@@ -54,12 +59,21 @@ public class MidiPlayer{
 	
 	protected long tickPosition;
 	
+	private MidiPlaybackMap playbackMap;
+	
+	private MidiSequenceBlockCache blockCache;
+	
+	private boolean looping;
+	
+	private int parserThreads;
+	
 	protected boolean starting;
 	
 	protected TGLock lock = new TGLock();
 	
 	public MidiPlayer() {
 		this.lock = new TGLock();
+		this.blockCache = new MidiSequenceBlockCache();
 		this.volume = MAX_VOLUME;
 	}
 	
@@ -99,9 +113,87 @@ public class MidiPlayer{
 		this.lock.lock();
 		this.tickPosition = TGDuration.QUARTER_TIME;
 		this.setChangeTickPosition(false);
+		this.playbackMap = null;
 		this.lock.unlock();
 	}
 	
+	/**
+	 * Returns the playback map of the current song, it is built again after the song changes.
+	 * While playing it matches the sequence loaded in the sequencer.
+	 */
+	public MidiPlaybackMap getPlaybackMap(){
+		MidiPlaybackMap playbackMap = this.playbackMap;
+		if(playbackMap == null){
+			playbackMap = new MidiPlaybackMap(this.songManager.getSong());
+			this.playbackMap = playbackMap;
+		}
+		return playbackMap;
+	}
+	
+	/**
+	 * Called after the measure was changed (see ViewLayout.fireUpdate).
+	 * While playing, the events of the affected measures are generated again and replaced in the running sequence.
+	 */
+	public void updateMeasure(int number){
+		int[] headers = this.blockCache.invalidate(this.songManager.getSong(), (number - 1));
+		if(headers.length > 0 && this.isRunning()){
+			this.spliceMeasures(headers);
+		}
+	}
+	
+	/**
+	 * Drops every measure block, the next play generates the whole sequence again.
+	 */
+	public void clearBlockCache(){
+		this.blockCache.clear();
+	}
+	
+	private void spliceMeasures(int[] headers){
+		try{
+			MidiSequencer sequencer = getSequencer();
+			MidiPlaybackMap playbackMap = this.playbackMap;
+			TGSong song = this.songManager.getSong();
+			// structure changes (measures, repeats) still need a new sequence
+			if(!(sequencer instanceof MidiSequenceSplicer) || playbackMap == null || playbackMap.countHeaders() != song.countMeasureHeaders()){
+				return;
+			}
+			MidiSequenceParser parser = new MidiSequenceParser(this.songManager,MidiSequenceParser.DEFAULT_PLAY_FLAGS,getMode().getCurrentPercent(),0);
+			List blockIds = new ArrayList();
+			List blocks = new ArrayList();
+			for(int t = 0; t < song.countTracks(); t ++){
+				TGTrack track = song.getTrack(t);
+				for(int i = 0; i < headers.length; i ++){
+					blockIds.add(new Integer(MidiSequenceBlock.getBlockId(track.getNumber(), headers[i])));
+				}
+			}
+			for(int segment = 0; segment < playbackMap.countSegments(); segment ++){
+				int header = playbackMap.getSegmentHeader(segment);
+				if(header >= headers[0] && header <= headers[headers.length - 1]){
+					long move = (playbackMap.getSegmentTick(segment) - playbackMap.getSegmentStart(segment));
+					for(int t = 0; t < song.countTracks(); t ++){
+						blocks.add(this.blockCache.getBlock(parser, song.getTrack(t), header, move));
+					}
+				}
+			}
+			int[] ids = new int[blockIds.size()];
+			for(int i = 0; i < ids.length; i ++){
+				ids[i] = ((Integer)blockIds.get(i)).intValue();
+			}
+			((MidiSequenceSplicer)sequencer).spliceBlocks(ids, (MidiSequenceBlock[])blocks.toArray(new MidiSequenceBlock[blocks.size()]));
+		}catch(MidiPlayerException e){
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Discards the playback map after the song structure was changed.
+	 */
+	public void invalidatePlaybackMap(){
+		if(!this.isRunning()){
+			this.playbackMap = null;
+		}
+	}
+	
 	/**
 	 * Cierra el Secuenciador y Sintetizador
 	 * @throws MidiUnavailableException 
@@ -148,13 +240,27 @@ public class MidiPlayer{
 	 * @throws MidiPlayerException 
 	 * @throws MidiUnavailableException 
 	 */
-	public synchronized void play() throws MidiPlayerException{
+	public void play() throws MidiPlayerException{
+		this.play(System.nanoTime());
+	}
+	
+	/**
+	 * Inicia la reproduccion en el tiempo dado (System.nanoTime()),
+	 * la secuencia se prepara antes y el secuenciador espera ese tiempo para empezar.
+	 * @throws MidiPlayerException 
+	 */
+	public synchronized void play(final long time) throws MidiPlayerException{
 		try {
 			this.setStarting(true);
 			this.stop();
 			this.lock.lock();
 			this.getMidiPort().check();
 			this.systemReset();
+			// a loop restart plays the same sequence again, the measure blocks are still valid
+			if(!this.looping){
+				this.blockCache.clear();
+			}
+			this.looping = false;
 			this.addSecuence();
 			this.updatePrograms();
 			this.updateControllers();
@@ -162,12 +268,22 @@ public class MidiPlayer{
 			this.setMetronomeEnabled(isMetronomeEnabled());
 			this.changeTickPosition();
 			this.setRunning(true);
-			this.getSequencer().start();
+			final boolean scheduled = ((time - System.nanoTime()) > 0);
+			if(!scheduled){
+				this.getSequencer().start();
+			}
 			new Thread(new Runnable() {
 				public synchronized void run() {
 					try {
 						MidiPlayer.this.lock.lock();
 						
+						if(scheduled){
+							waitTime(time);
+							// stop() called while waiting
+							if(MidiPlayer.this.running){
+								getSequencer().start();
+							}
+						}
 						setStarting(false);
 						
 						MidiPlayer.this.tickPosition = getSequencer().getTickPosition();
@@ -208,12 +324,58 @@ public class MidiPlayer{
 		}
 	}
 	
+	private static void waitTime(long time){
+		long wait = (time - System.nanoTime());
+		while(wait > 0){
+			LockSupport.parkNanos(wait);
+			wait = (time - System.nanoTime());
+		}
+	}
+	
+	/**
+	 * Follows another player that plays the tick at the given time (System.nanoTime()):
+	 * when the sequencer is more than FOLLOW_TOLERANCE away it moves to play the tick at the same time.
+	 * Returns the drift in nanoseconds, positive when this player is late, 0 when the sequencer can not tell it.
+	 */
+	public long follow(long tick,long time){
+		try {
+			MidiSequencer sequencer = getSequencer();
+			if(this.running && !this.isStarting() && sequencer instanceof MidiSequenceClock){
+				MidiSequenceClock clock = (MidiSequenceClock)sequencer;
+				long drift = (clock.getTickTime(tick) - time);
+				if(Math.abs(drift) > FOLLOW_TOLERANCE){
+					clock.setTickTime(tick, time);
+				}
+				return drift;
+			}
+		} catch (MidiPlayerException e) {
+			e.printStackTrace();
+		}
+		return 0;
+	}
+	
+	/**
+	 * Returns the time (System.nanoTime()) when the sequencer plays the tick, -1 when it can not tell it.
+	 */
+	public long getTickTime(long tick){
+		try {
+			MidiSequencer sequencer = getSequencer();
+			if(this.running && !this.isStarting() && sequencer instanceof MidiSequenceClock){
+				return ((MidiSequenceClock)sequencer).getTickTime(tick);
+			}
+		} catch (MidiPlayerException e) {
+			e.printStackTrace();
+		}
+		return -1;
+	}
+	
 	protected void finish(){
 		try {
 			if(this.getMode().isLoop()){
 				this.setStarting(true);
 				this.reset();
 				this.getMode().notifyLoop();
+				this.looping = true;
 				this.play();
 				return;
 			}
@@ -328,8 +490,11 @@ public class MidiPlayer{
 	public void addSecuence() {
 		try{
 			MidiSequenceParser parser = new MidiSequenceParser(this.songManager,MidiSequenceParser.DEFAULT_PLAY_FLAGS,getMode().getCurrentPercent(),0);		
+			parser.setBlockCache(this.blockCache);
+			parser.setThreads(getParserThreads());
 			MidiSequenceHandler sequence = getSequencer().createSequence(this.songManager.getSong().countTracks() + 2);
 			parser.parse(sequence);
+			this.playbackMap = new MidiPlaybackMap(this.songManager.getSong());
 			this.infoTrack = sequence.getInfoTrack();
 			this.metronomeTrack = sequence.getMetronomeTrack();
 		} catch (MidiPlayerException e) {
@@ -337,6 +502,20 @@ public class MidiPlayer{
 		}
 	}
 	
+	/**
+	 * Maximum threads used to generate the sequence, zero uses one per available processor.
+	 */
+	public void setParserThreads(int parserThreads){
+		this.parserThreads = Math.max(parserThreads, 0);
+	}
+	
+	public int getParserThreads(){
+		if(this.parserThreads == 0){
+			return Runtime.getRuntime().availableProcessors();
+		}
+		return this.parserThreads;
+	}
+	
 	private void updateDefaultControllers(){
 		try{
 			for(int channel = 0; channel < MAX_CHANNELS;channel ++){
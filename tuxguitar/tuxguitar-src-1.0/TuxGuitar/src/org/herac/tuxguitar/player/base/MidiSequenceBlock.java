@@ -0,0 +1,48 @@
+package org.herac.tuxguitar.player.base;
+
+import org.herac.tuxguitar.song.models.TGTimeSignature;
+
+/**
+ * Events generated for one measure of one track, at one repeat position (move).
+ * They are recorded once and can be replayed into any sequence.
+ */
+public class MidiSequenceBlock extends MidiSequenceBuffer{
+	
+	public static final int NO_BLOCK = -1;
+	
+	private int id;
+	private long move;
+	
+	public MidiSequenceBlock(int id,long move,int tracks){
+		super(tracks);
+		this.id = id;
+		this.move = move;
+	}
+	
+	/**
+	 * Identifies the events of a track (by number) inside a measure header (by index).
+	 */
+	public static int getBlockId(int track,int header){
+		return (((track & 0x7ff) << 20) | (header & 0xfffff));
+	}
+	
+	public int getId(){
+		return this.id;
+	}
+	
+	public long getMove(){
+		return this.move;
+	}
+	
+	public void addTempoInUSQ(long tick,int track,int usq){
+		//not part of the measure blocks
+	}
+	
+	public void addTimeSignature(long tick,int track,TGTimeSignature ts){
+		//not part of the measure blocks
+	}
+	
+	public void setBlock(int block){
+		//not part of the measure blocks
+	}
+}
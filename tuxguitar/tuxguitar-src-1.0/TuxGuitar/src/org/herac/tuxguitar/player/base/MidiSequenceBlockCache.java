@@ -0,0 +1,137 @@
+package org.herac.tuxguitar.player.base;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.herac.tuxguitar.song.models.TGBeat;
+import org.herac.tuxguitar.song.models.TGMeasure;
+import org.herac.tuxguitar.song.models.TGSong;
+import org.herac.tuxguitar.song.models.TGTrack;
+
+/**
+ * Measure blocks generated by the MidiSequenceParser, by track and measure header.
+ * A header played more than once (repeats) keeps one block per repeat move.
+ */
+public class MidiSequenceBlockCache {
+	
+	private Map blocks;
+	private int headerCount;
+	private int trackCount;
+	private int generation;
+	
+	public MidiSequenceBlockCache(){
+		this.blocks = new HashMap();
+	}
+	
+	public synchronized void clear(){
+		this.blocks.clear();
+		this.generation ++;
+		this.headerCount = 0;
+		this.trackCount = 0;
+	}
+	
+	/**
+	 * Drops everything when the song structure is not the one the blocks were made for.
+	 */
+	public synchronized void check(TGSong song){
+		if(this.headerCount != song.countMeasureHeaders() || this.trackCount != song.countTracks()){
+			this.clear();
+			this.headerCount = song.countMeasureHeaders();
+			this.trackCount = song.countTracks();
+		}
+	}
+	
+	/**
+	 * Returns the cached block, missing blocks are generated outside the cache lock so tracks can be parsed concurrently.
+	 */
+	public MidiSequenceBlock getBlock(MidiSequenceParser parser,TGTrack track,int header,long move){
+		Integer id = new Integer(MidiSequenceBlock.getBlockId(track.getNumber(), header));
+		MidiSequenceBlock block = this.findBlock(id, move);
+		if(block == null){
+			int generation = this.getGeneration();
+			block = this.addBlock(id, parser.parseBlock(track, header, move), generation);
+		}
+		return block;
+	}
+	
+	private synchronized int getGeneration(){
+		return this.generation;
+	}
+	
+	private synchronized MidiSequenceBlock findBlock(Integer id,long move){
+		List list = (List)this.blocks.get(id);
+		if(list != null){
+			for(int i = 0; i < list.size(); i ++){
+				MidiSequenceBlock block = (MidiSequenceBlock)list.get(i);
+				if(block.getMove() == move){
+					return block;
+				}
+			}
+		}
+		return null;
+	}
+	
+	private synchronized MidiSequenceBlock addBlock(Integer id,MidiSequenceBlock block,int generation){
+		// the song was changed while the block was generated
+		if(generation != this.generation){
+			return block;
+		}
+		MidiSequenceBlock current = this.findBlock(id, block.getMove());
+		if(current != null){
+			return current;
+		}
+		List list = (List)this.blocks.get(id);
+		if(list == null){
+			list = new ArrayList();
+			this.blocks.put(id, list);
+		}
+		list.add(block);
+		return block;
+	}
+	
+	/**
+	 * Drops the blocks affected by a change in the given measure header and returns their header indexes.
+	 * Notes of the previous measures can be tied into it and the next measure looks back for hammer-on and slide notes,
+	 * so the neighbours are dropped too.
+	 */
+	public synchronized int[] invalidate(TGSong song,int header){
+		int headerCount = song.countMeasureHeaders();
+		if(header < 0 || header >= headerCount){
+			return new int[0];
+		}
+		int first = Math.max(header - 1, 0);
+		while(first > 0 && startsWithTiedNote(song, first)){
+			first --;
+		}
+		int last = Math.min(header + 1, headerCount - 1);
+		int[] headers = new int[(last - first) + 1];
+		this.generation ++;
+		for(int i = 0; i < headers.length; i ++){
+			headers[i] = (first + i);
+			for(int track = 0; track < song.countTracks(); track ++){
+				this.blocks.remove(new Integer(MidiSequenceBlock.getBlockId(song.getTrack(track).getNumber(), headers[i])));
+			}
+		}
+		return headers;
+	}
+	
+	private boolean startsWithTiedNote(TGSong song,int header){
+		for(int track = 0; track < song.countTracks(); track ++){
+			TGMeasure measure = song.getTrack(track).getMeasure(header);
+			for(int b = 0; b < measure.countBeats(); b ++){
+				TGBeat beat = measure.getBeat(b);
+				if(beat.getStart() != measure.getStart()){
+					continue;
+				}
+				for(int n = 0; n < beat.countNotes(); n ++){
+					if(beat.getNote(n).isTiedNote()){
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+}
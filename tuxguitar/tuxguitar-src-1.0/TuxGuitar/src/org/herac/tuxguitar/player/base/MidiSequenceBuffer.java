@@ -0,0 +1,147 @@
+package org.herac.tuxguitar.player.base;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.herac.tuxguitar.song.models.TGTimeSignature;
+
+/**
+ * Records the events added to a sequence, in order, so they can be replayed later into another one.
+ */
+public class MidiSequenceBuffer extends MidiSequenceHandler{
+	
+	private static final int NOTE_ON = 1;
+	private static final int NOTE_OFF = 2;
+	private static final int CONTROL_CHANGE = 3;
+	private static final int PROGRAM_CHANGE = 4;
+	private static final int PITCH_BEND = 5;
+	private static final int TEMPO = 6;
+	private static final int TIME_SIGNATURE = 7;
+	private static final int BLOCK = 8;
+	
+	private static final int INITIAL_CAPACITY = 64;
+	
+	private long[] ticks;
+	private int[] types;
+	private int[] tracks;
+	private int[] datas;
+	private int size;
+	private List timeSignatures;
+	
+	public MidiSequenceBuffer(int tracks){
+		super(tracks);
+		this.ticks = new long[INITIAL_CAPACITY];
+		this.types = new int[INITIAL_CAPACITY];
+		this.tracks = new int[INITIAL_CAPACITY];
+		this.datas = new int[INITIAL_CAPACITY];
+		this.size = 0;
+	}
+	
+	public int size(){
+		return this.size;
+	}
+	
+	/**
+	 * Adds the recorded events to the sequence.
+	 */
+	public void replay(MidiSequenceHandler sequence){
+		for(int i = 0; i < this.size; i ++){
+			int channel = (this.datas[i] & 0xff);
+			int value1 = ((this.datas[i] >>> 8) & 0xff);
+			int value2 = ((this.datas[i] >>> 16) & 0xff);
+			switch(this.types[i]){
+				case NOTE_ON:
+					sequence.addNoteOn(this.ticks[i], this.tracks[i], channel, value1, value2);
+					break;
+				case NOTE_OFF:
+					sequence.addNoteOff(this.ticks[i], this.tracks[i], channel, value1, value2);
+					break;
+				case CONTROL_CHANGE:
+					sequence.addControlChange(this.ticks[i], this.tracks[i], channel, value1, value2);
+					break;
+				case PROGRAM_CHANGE:
+					sequence.addProgramChange(this.ticks[i], this.tracks[i], channel, value1);
+					break;
+				case PITCH_BEND:
+					sequence.addPitchBend(this.ticks[i], this.tracks[i], channel, value1);
+					break;
+				case TEMPO:
+					sequence.addTempoInUSQ(this.ticks[i], this.tracks[i], this.datas[i]);
+					break;
+				case TIME_SIGNATURE:
+					sequence.addTimeSignature(this.ticks[i], this.tracks[i], (TGTimeSignature)this.timeSignatures.get(this.datas[i]));
+					break;
+				case BLOCK:
+					sequence.setBlock(this.datas[i]);
+					break;
+			}
+		}
+	}
+	
+	public void addNoteOn(long tick,int track,int channel,int note,int velocity){
+		this.add(tick, NOTE_ON, track, pack(channel, note, velocity));
+	}
+	
+	public void addNoteOff(long tick,int track,int channel,int note,int velocity){
+		this.add(tick, NOTE_OFF, track, pack(channel, note, velocity));
+	}
+	
+	public void addControlChange(long tick,int track,int channel,int controller,int value){
+		this.add(tick, CONTROL_CHANGE, track, pack(channel, controller, value));
+	}
+	
+	public void addProgramChange(long tick,int track,int channel,int instrument){
+		this.add(tick, PROGRAM_CHANGE, track, pack(channel, instrument, 0));
+	}
+	
+	public void addPitchBend(long tick,int track,int channel,int value){
+		this.add(tick, PITCH_BEND, track, pack(channel, value, 0));
+	}
+	
+	public void addTempoInUSQ(long tick,int track,int usq){
+		this.add(tick, TEMPO, track, usq);
+	}
+	
+	public void addTimeSignature(long tick,int track,TGTimeSignature ts){
+		if(this.timeSignatures == null){
+			this.timeSignatures = new ArrayList();
+		}
+		this.timeSignatures.add(ts);
+		this.add(tick, TIME_SIGNATURE, track, (this.timeSignatures.size() - 1));
+	}
+	
+	public void setBlock(int block){
+		this.add(0, BLOCK, 0, block);
+	}
+	
+	public void notifyFinish(){
+		//not implemented
+	}
+	
+	private static int pack(int channel,int value1,int value2){
+		return ((channel & 0xff) | ((value1 & 0xff) << 8) | ((value2 & 0xff) << 16));
+	}
+	
+	private void add(long tick,int type,int track,int data){
+		if(this.size == this.ticks.length){
+			int length = (this.size * 2);
+			long[] ticks = new long[length];
+			int[] types = new int[length];
+			int[] tracks = new int[length];
+			int[] datas = new int[length];
+			System.arraycopy(this.ticks, 0, ticks, 0, this.size);
+			System.arraycopy(this.types, 0, types, 0, this.size);
+			System.arraycopy(this.tracks, 0, tracks, 0, this.size);
+			System.arraycopy(this.datas, 0, datas, 0, this.size);
+			this.ticks = ticks;
+			this.types = types;
+			this.tracks = tracks;
+			this.datas = datas;
+		}
+		this.ticks[this.size] = tick;
+		this.types[this.size] = type;
+		this.tracks[this.size] = track;
+		this.datas[this.size] = data;
+		this.size ++;
+	}
+}
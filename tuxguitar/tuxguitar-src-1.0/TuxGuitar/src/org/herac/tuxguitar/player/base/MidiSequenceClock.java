@@ -0,0 +1,20 @@
+package org.herac.tuxguitar.player.base;
+
+/**
+ * Implemented by the sequencers that tell when each tick is played and can move it, to follow another clock.
+ * Times are System.nanoTime() values.
+ */
+public interface MidiSequenceClock {
+	
+	/**
+	 * Returns the time when the tick is (or was) played.
+	 */
+	public long getTickTime(long tick) throws MidiPlayerException;
+	
+	/**
+	 * Moves the next ticks so the given one is played at the time, without stopping.
+	 * A short move keeps the notes that are sounding, a longer one is a new position.
+	 */
+	public void setTickTime(long tick,long time) throws MidiPlayerException;
+	
+}
@@ -41,4 +41,12 @@ public abstract class MidiSequenceHandler {
 	public abstract void addTimeSignature(long tick,int track,TGTimeSignature ts);
 	
 	public abstract void notifyFinish();
+	
+	/**
+	 * Marks the block (see MidiSequenceBlock.getBlockId) of the events added next, NO_BLOCK when they are not part of any measure block.
+	 * Sequencers that can splice blocks while playing keep it with each event.
+	 */
+	public void setBlock(int block){
+		//not implemented
+	}
 }
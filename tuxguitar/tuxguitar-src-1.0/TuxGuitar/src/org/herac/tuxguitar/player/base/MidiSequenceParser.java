@@ -6,7 +6,9 @@
  */
 package org.herac.tuxguitar.player.base;
 
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.herac.tuxguitar.song.managers.TGSongManager;
 import org.herac.tuxguitar.song.models.TGBeat;
@@ -15,6 +17,7 @@ import org.herac.tuxguitar.song.models.TGDuration;
 import org.herac.tuxguitar.song.models.TGMeasure;
 import org.herac.tuxguitar.song.models.TGMeasureHeader;
 import org.herac.tuxguitar.song.models.TGNote;
+import org.herac.tuxguitar.song.models.TGSong;
 import org.herac.tuxguitar.song.models.TGString;
 import org.herac.tuxguitar.song.models.TGTrack;
 import org.herac.tuxguitar.song.models.TGVelocities;
@@ -85,32 +88,84 @@ public class MidiSequenceParser {
 	
 	private int transpose;
 	
+	private MidiSequenceBlockCache blockCache;
+	
+	private Map noteLinks;
+	
+	private int threads;
+	
 	public MidiSequenceParser(TGSongManager manager,int flags,int tempoPercent,int transpose) {
 		this.manager = manager;
 		this.flags = flags;
 		this.transpose = transpose;
 		this.tempoPercent = tempoPercent;
 		this.fisrtTickMove = (int)(((flags & ADD_FIRST_TICK_MOVE) != 0)?(-TGDuration.QUARTER_TIME):0);
+		this.noteLinks = new IdentityHashMap();
+		this.threads = 1;
 	}
 	
 	public MidiSequenceParser(TGSongManager manager,int flags) {
 		this(manager,flags,100,0);
 	}
 	
+	/**
+	 * Measure blocks are taken from (and added to) the cache instead of being generated on each parse.
+	 */
+	public void setBlockCache(MidiSequenceBlockCache blockCache) {
+		this.blockCache = blockCache;
+	}
+	
+	/**
+	 * Maximum number of threads used to generate the tracks, with one (the default) the tracks are generated in the calling thread.
+	 * The events are added to the sequence in the same order in both cases.
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(threads, 1);
+	}
+	
+	public int getThreads() {
+		return this.threads;
+	}
+	
 	/**
 	 * Crea la cancion
 	 */
 	public void parse(MidiSequenceHandler sequence) {
 		this.infoTrack = sequence.getInfoTrack();
 		this.metronomeTrack = sequence.getMetronomeTrack();
+		this.noteLinks.clear();
+		if(this.blockCache != null){
+			this.blockCache.check(this.manager.getSong());
+		}
 		addDefaultMessages(sequence);
-		for (int i = 0; i < this.manager.getSong().countTracks(); i++) {
-			TGTrack songTrack = this.manager.getSong().getTrack(i);
-			createTrack(sequence,songTrack);
+		int threads = Math.min(this.threads, this.manager.getSong().countTracks());
+		if(threads > 1){
+			createTracks(sequence, threads);
+		}else{
+			for (int i = 0; i < this.manager.getSong().countTracks(); i++) {
+				TGTrack songTrack = this.manager.getSong().getTrack(i);
+				createTrack(sequence,songTrack);
+			}
 		}
 		sequence.notifyFinish();
 	}
 	
+	/**
+	 * Generates the tracks in worker threads, each one into its own buffer.
+	 * The buffers are added to the sequence in track order as soon as they are ready.
+	 */
+	private void createTracks(MidiSequenceHandler sequence,int threads) {
+		TrackBuffers buffers = new TrackBuffers(this.manager.getSong(), sequence.getTracks());
+		for(int i = 0; i < threads; i ++){
+			Thread thread = new Thread(buffers, "MidiSequenceParser-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		for (int i = 0; i < this.manager.getSong().countTracks(); i++) {
+			buffers.take(i).replay(sequence);
+		}
+	}
+	
 	private int infoIndex(){
 		return this.infoTrack;
 	}
@@ -123,6 +178,20 @@ public class MidiSequenceParser {
 		return (tick + this.fisrtTickMove);
 	}
 	
+	/**
+	 * Ties and previous notes of the track, resolved once per parse.
+	 */
+	private MidiNoteLinks getNoteLinks(TGTrack track){
+		synchronized(this.noteLinks){
+			MidiNoteLinks links = (MidiNoteLinks)this.noteLinks.get(track);
+			if(links == null){
+				links = new MidiNoteLinks(track);
+				this.noteLinks.put(track, links);
+			}
+			return links;
+		}
+	}
+	
 	/**
 	 * Crea las pistas de la cancion
 	 */
@@ -144,12 +213,31 @@ public class MidiSequenceParser {
 					addMetronome(sequence,measure.getHeader(),move);
 				}
 				//agrego los pulsos
-				makeBeats(sequence,track.getNumber(), track, measure,index, move);
+				makeMeasure(sequence, track, measure, index, move);
 			}
 			previous = measure;
 		}
 	}
 	
+	private void makeMeasure(MidiSequenceHandler sequence,TGTrack track,TGMeasure measure,int index,long move) {
+		sequence.setBlock(MidiSequenceBlock.getBlockId(track.getNumber(), index));
+		if(this.blockCache != null){
+			this.blockCache.getBlock(this, track, index, move).replay(sequence);
+		}else{
+			makeBeats(sequence,track.getNumber(), track, measure,index, move);
+		}
+		sequence.setBlock(MidiSequenceBlock.NO_BLOCK);
+	}
+	
+	/**
+	 * Generates the events of one measure of the track, played at the given repeat move.
+	 */
+	public MidiSequenceBlock parseBlock(TGTrack track,int index,long move) {
+		MidiSequenceBlock block = new MidiSequenceBlock(MidiSequenceBlock.getBlockId(track.getNumber(), index), move, (track.getSong().countTracks() + 2));
+		makeBeats(block,track.getNumber(), track, track.getMeasure(index),index, move);
+		return block;
+	}
+	
 	private void makeBeats(MidiSequenceHandler sequence,int track, TGTrack songTrack, TGMeasure measure, int measureIdx, long startMove) {
 		for (int bIndex = 0; bIndex < measure.countBeats(); bIndex++) {
 			TGBeat beat = measure.getBeat(bIndex);
@@ -162,6 +250,7 @@ public class MidiSequenceParser {
 	 */
 	private void makeNotes(MidiSequenceHandler sequence,int track, TGTrack songTrack, TGBeat beat, int measureIdx,int bIndex, long startMove) {
 		BeatData data = checkTripletFeel(beat,bIndex);
+		MidiNoteLinks links = getNoteLinks(songTrack);
 		for (int noteIdx = 0; noteIdx < beat.countNotes(); noteIdx++) {
 			TGNote note = beat.getNote(noteIdx);
 			if (!note.isTiedNote()) {
@@ -169,8 +258,8 @@ public class MidiSequenceParser {
 				
 				
 				long start = data.getStart() + startMove;
-				long duration = getRealNoteDuration(note,data.getDuration(), songTrack, measureIdx,bIndex);
-				int velocity = getRealVelocity(note, songTrack, measureIdx, bIndex);
+				long duration = getRealNoteDuration(note,data.getDuration(), links, measureIdx, bIndex, noteIdx);
+				int velocity = getRealVelocity(note, songTrack, links, measureIdx, bIndex, noteIdx);
 				int channel = songTrack.getChannel().getChannel();
 				int effectChannel = songTrack.getChannel().getEffectChannel();
 				
@@ -354,40 +443,11 @@ public class MidiSequenceParser {
 	/**
 	 * Retorna la Duracion real de una nota, verificando si tiene otras ligadas
 	 */
-	private long getRealNoteDuration(TGNote note,long duration, TGTrack track, int mIndex, int bIndex) {
+	private long getRealNoteDuration(TGNote note,long duration, MidiNoteLinks links, int mIndex, int bIndex, int nIndex) {
 		if(note.getEffect().isDeadNote()){
 			return DEFAULT_DEAD_NOTE_DURATION;
 		}
-		long lastEnd = (note.getBeat().getStart() + note.getBeat().getDuration().getTime());
-		long realDuration = duration;
-		int nextBIndex = (bIndex + 1);
-		int measureCount = track.countMeasures();
-		for (int m = mIndex; m < measureCount; m++) {
-			TGMeasure measure = track.getMeasure( m );
-			int beatCount = measure.countBeats();
-			for (int b = nextBIndex; b < beatCount; b++) {
-				TGBeat beat = measure.getBeat(b);
-				if(beat.isRestBeat()){
-					return applyDurationEffects(note,realDuration);
-				}
-				int noteCount = beat.countNotes();
-				for (int n = 0; n < noteCount; n++) {
-					TGNote nextNote = beat.getNote( n );
-					if (!nextNote.equals(note)) {
-						if (nextNote.getString() == note.getString()) {
-							if (nextNote.isTiedNote()) {
-								realDuration += (beat.getStart() - lastEnd) + (nextNote.getBeat().getDuration().getTime());
-								lastEnd = (beat.getStart() + beat.getDuration().getTime());
-							} else {
-								return applyDurationEffects(note,realDuration);
-							}
-						}
-					}
-				}
-			}
-			nextBIndex = 0;
-		}
-		return applyDurationEffects(note,realDuration);
+		return applyDurationEffects(note,(duration + links.getTieLength(note, mIndex, bIndex, nIndex)));
 	}
 	
 	private long applyDurationEffects(TGNote note,long duration){
@@ -402,12 +462,12 @@ public class MidiSequenceParser {
 		return duration;
 	}
 	
-	private int getRealVelocity(TGNote note, TGTrack songTrack, int mIndex,int bIndex){
+	private int getRealVelocity(TGNote note, TGTrack songTrack, MidiNoteLinks links, int mIndex, int bIndex, int nIndex){
 		int velocity = note.getVelocity();
 		
 		//Check for Hammer effect
 		if(!songTrack.isPercussionTrack()){
-			TGNote prevNote = getPreviousNote(note,songTrack,mIndex,bIndex);
+			TGNote prevNote = links.getPreviousNote(mIndex, bIndex, nIndex);
 			if(prevNote != null && prevNote.getEffect().isHammer()){
 				velocity = Math.max(TGVelocities.MIN_VELOCITY,(velocity - 25));
 			}
@@ -684,29 +744,79 @@ public class MidiSequenceParser {
 		return null;
 	}
 	
-	private TGNote getPreviousNote(TGNote note,TGTrack track, int mIndex, int bIndex){
-		int nextBIndex = bIndex;
-		for (int m = mIndex; m >= 0; m--) {
-			TGMeasure measure = track.getMeasure( m );
-			nextBIndex = (nextBIndex < 0 ? measure.countBeats() : nextBIndex);
-			for (int b = (nextBIndex - 1); b >= 0; b--) {
-				TGBeat beat = measure.getBeat( b );
-				for (int n = 0; n < beat.countNotes(); n ++) {
-					TGNote current = beat.getNote( n );
-					if(current.getString() == note.getString()){
-						return current;
-					}
-				}
-			}
-			nextBIndex = -1;
-		}
-		return null;
-	}
 	/*
 	public long fixStart(long value){
 		return (((value % (TGDuration.QUARTER_TIME / 2)) + 10  > (TGDuration.QUARTER_TIME / 2))?(value + ((TGDuration.QUARTER_TIME / 2) - (value % (TGDuration.QUARTER_TIME / 2)))):value);
 	}
 	*/
+	private class TrackBuffers implements Runnable{
+		private TGSong song;
+		private int tracks;
+		private MidiSequenceBuffer[] buffers;
+		private int next;
+		private Throwable error;
+		
+		public TrackBuffers(TGSong song,int tracks){
+			this.song = song;
+			this.tracks = tracks;
+			this.buffers = new MidiSequenceBuffer[song.countTracks()];
+			this.next = 0;
+		}
+		
+		public void run() {
+			int index = -1;
+			while((index = this.nextTrack()) >= 0){
+				try{
+					MidiSequenceBuffer buffer = new MidiSequenceBuffer(this.tracks);
+					createTrack(buffer, this.song.getTrack(index));
+					this.put(index, buffer);
+				}catch(Throwable throwable){
+					this.fail(throwable);
+				}
+			}
+		}
+		
+		/**
+		 * Waits for the track buffer, the buffer is released once taken.
+		 */
+		public synchronized MidiSequenceBuffer take(int index) {
+			boolean interrupted = false;
+			while(this.buffers[index] == null && this.error == null){
+				try {
+					this.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if(interrupted){
+				Thread.currentThread().interrupt();
+			}
+			if(this.error != null){
+				throw new RuntimeException("Could not generate the track sequence", this.error);
+			}
+			MidiSequenceBuffer buffer = this.buffers[index];
+			this.buffers[index] = null;
+			return buffer;
+		}
+		
+		private synchronized int nextTrack() {
+			if(this.error != null || this.next >= this.buffers.length){
+				return -1;
+			}
+			return (this.next ++);
+		}
+		
+		private synchronized void put(int index,MidiSequenceBuffer buffer) {
+			this.buffers[index] = buffer;
+			this.notifyAll();
+		}
+		
+		private synchronized void fail(Throwable throwable) {
+			this.error = throwable;
+			this.notifyAll();
+		}
+	}
+	
 	private class BeatData{
 		private long start;
 		private long duration;
@@ -0,0 +1,13 @@
+package org.herac.tuxguitar.player.base;
+
+/**
+ * Implemented by the sequencers that can replace measure blocks of the loaded sequence while playing.
+ */
+public interface MidiSequenceSplicer {
+	
+	/**
+	 * Removes every event of the given block ids and adds the events of the new blocks, in one step.
+	 */
+	public void spliceBlocks(int[] blockIds,MidiSequenceBlock[] blocks) throws MidiPlayerException;
+	
+}
@@ -9,25 +9,25 @@ public class MidiEventDispacher{
 		this.sequencer = sequencer;
 	}
 	
-	public void dispatch(MidiEvent event) throws MidiPlayerException{
-		if(event.getType() == MidiEvent.MIDI_EVENT_NOTEON){
-			this.sequencer.getMidiPort().out().sendNoteOn(event.getData()[0],event.getData()[1],event.getData()[2]);
+	public void dispatch(int type,int data) throws MidiPlayerException{
+		if(type == MidiEvent.MIDI_EVENT_NOTEON){
+			this.sequencer.getMidiPort().out().sendNoteOn(MidiEventTimeline.unpack(data,0),MidiEventTimeline.unpack(data,1),MidiEventTimeline.unpack(data,2));
 		}
-		else if(event.getType() == MidiEvent.MIDI_EVENT_NOTEOFF){
-			this.sequencer.getMidiPort().out().sendNoteOff(event.getData()[0],event.getData()[1],event.getData()[2]);
+		else if(type == MidiEvent.MIDI_EVENT_NOTEOFF){
+			this.sequencer.getMidiPort().out().sendNoteOff(MidiEventTimeline.unpack(data,0),MidiEventTimeline.unpack(data,1),MidiEventTimeline.unpack(data,2));
 		}
-		else if(event.getType() == MidiEvent.MIDI_EVENT_CONTROL_CHANGE){
-			this.sequencer.getMidiPort().out().sendControlChange(event.getData()[0],event.getData()[1],event.getData()[2]);
+		else if(type == MidiEvent.MIDI_EVENT_CONTROL_CHANGE){
+			this.sequencer.getMidiPort().out().sendControlChange(MidiEventTimeline.unpack(data,0),MidiEventTimeline.unpack(data,1),MidiEventTimeline.unpack(data,2));
 		}
-		else if(event.getType() == MidiEvent.MIDI_EVENT_PROGRAM_CHANGE){
-			this.sequencer.getMidiPort().out().sendProgramChange(event.getData()[0],event.getData()[1]);
+		else if(type == MidiEvent.MIDI_EVENT_PROGRAM_CHANGE){
+			this.sequencer.getMidiPort().out().sendProgramChange(MidiEventTimeline.unpack(data,0),MidiEventTimeline.unpack(data,1));
 		}
-		else if(event.getType() == MidiEvent.MIDI_EVENT_PITCH_BEND){
-			this.sequencer.getMidiPort().out().sendPitchBend(event.getData()[0],event.getData()[1]);
+		else if(type == MidiEvent.MIDI_EVENT_PITCH_BEND){
+			this.sequencer.getMidiPort().out().sendPitchBend(MidiEventTimeline.unpack(data,0),MidiEventTimeline.unpack(data,1));
 		}
-		else if(event.getType() == MidiEvent.MIDI_SYSTEM_EVENT){
-			if(event.getData()[0] == 0x51){
-				int usq = ((event.getData()[1] & 0xff) | ((event.getData()[2] & 0xff) << 8) | ((event.getData()[3] & 0xff) << 16));
+		else if(type == MidiEvent.MIDI_SYSTEM_EVENT){
+			if(MidiEventTimeline.unpack(data,0) == 0x51){
+				int usq = (data >>> 8);
 				this.sequencer.setTempo( (int)((60.00 * 1000.00) / (usq / 1000.00)) );
 			}
 		}
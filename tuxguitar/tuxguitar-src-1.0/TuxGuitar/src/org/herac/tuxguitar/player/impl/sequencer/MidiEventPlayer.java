@@ -1,73 +1,141 @@
 package org.herac.tuxguitar.player.impl.sequencer;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import org.herac.tuxguitar.player.base.MidiPlayerException;
 
 public class MidiEventPlayer{
 	private MidiSequencerImpl sequencer;
-	private List events;
+	private MidiEventTimeline timeline;
 	
 	private long tick;
 	private long lastTick;
+	private int position;
 	private boolean reset;
 	
 	public MidiEventPlayer(MidiSequencerImpl sequencer){
 		this.sequencer = sequencer;
-		this.events = new ArrayList();
+		this.timeline = new MidiEventTimeline();
 		this.reset();
 	}
 	
 	public void process() throws MidiPlayerException {
 		this.lastTick = this.tick;
 		this.tick = this.sequencer.getTickPosition();
-		for(int i = 0;i < this.events.size();i ++){
-			MidiEvent event = (MidiEvent)this.events.get(i);
-			if(shouldSend(event,this.tick,this.lastTick)){
-				this.sequencer.sendEvent(event);
+		if(!this.timeline.isSorted()){
+			this.timeline.sort();
+			this.position = this.timeline.indexAfter(this.lastTick);
+		}
+		if(this.reset){
+			this.sendStateEvents(this.lastTick);
+			this.position = this.timeline.indexAfter(this.lastTick);
+		}
+		else if(this.tick < this.lastTick){
+			this.position = this.timeline.indexAfter(this.lastTick);
+		}
+		int size = this.timeline.size();
+		while(this.position < size && this.timeline.getTick(this.position) <= this.tick){
+			if(!this.reset){
+				this.addLatency(this.timeline.getTick(this.position));
 			}
+			this.sendEvent(this.position);
+			this.position ++;
 		}
 		this.reset = false;
 	}
 	
-	private boolean shouldSend(MidiEvent event,long tick,long lastTick){
-		if(event.getTick() > tick){
-			return false;
+	/**
+	 * Returns the tick of the next event to send.
+	 */
+	public long getNextTick(){
+		if(!this.timeline.isSorted()){
+			return this.tick;
 		}
-		if(event.getTrack() != MidiEvent.ALL_TRACKS){
-			if(this.sequencer.getMidiTrackController().isMute(event.getTrack())){
+		if(this.position < this.timeline.size()){
+			return this.timeline.getTick(this.position);
+		}
+		return Long.MAX_VALUE;
+	}
+	
+	private void addLatency(long tick){
+		MidiTickPlayer tickPlayer = this.sequencer.getMidiTickPlayer();
+		this.sequencer.getTimerStats().addLatency(Math.max(0, tickPlayer.getTime() - tickPlayer.getTime(tick)));
+	}
+	
+	/**
+	 * Restores the controllers, programs and tempo that were set before the new position.
+	 * Events placed after it are sent by the normal timeline walk.
+	 */
+	private void sendStateEvents(long tick) throws MidiPlayerException {
+		int count = this.timeline.countStateEventsUntil(tick);
+		for(int i = 0; i < count; i ++){
+			this.sendEvent(this.timeline.getStateEvent(i));
+		}
+	}
+	
+	private void sendEvent(int index) throws MidiPlayerException {
+		long message = this.timeline.getMessage(index);
+		if(shouldSend(MidiEventTimeline.getTrack(message))){
+			this.sequencer.sendEvent(MidiEventTimeline.getType(message),MidiEventTimeline.getData(message));
+		}
+	}
+	
+	private boolean shouldSend(int track){
+		if(track != MidiEvent.ALL_TRACKS){
+			if(this.sequencer.getMidiTrackController().isMute(track)){
 				return false;
 			}
-			if(this.sequencer.getMidiTrackController().isAnySolo() && !this.sequencer.getMidiTrackController().isSolo(event.getTrack())){
+			if(this.sequencer.getMidiTrackController().isAnySolo() && !this.sequencer.getMidiTrackController().isSolo(track)){
 				return false;
 			}
 		}
-		if(this.reset){
-			if(event.getType() == MidiEvent.MIDI_SYSTEM_EVENT){
-				return true;
-			}
-			if(event.getType() == MidiEvent.MIDI_EVENT_CONTROL_CHANGE){
-				return true;
-			}
-			if(event.getType() == MidiEvent.MIDI_EVENT_PROGRAM_CHANGE){
-				return true;
-			}
-		}
-		return (event.getTick() > lastTick);
+		return true;
 	}
 	
 	public void addEvent(MidiEvent event){
-		this.events.add(event);
+		this.timeline.addEvent(event);
+	}
+	
+	public void addEvent(MidiEvent event,int block){
+		this.timeline.addEvent(event,block);
+	}
+	
+	public void addEvent(long tick,int type,int track,int data,int block){
+		this.timeline.addEvent(tick,type,track,data,block);
+	}
+	
+	/**
+	 * Replaces the events of the given blocks (sorted ids) by the additions (sorted) without stopping.
+	 * Events placed before the current tick are not sent again.
+	 */
+	public void splice(int[] blockIds,MidiEventTimeline additions) throws MidiPlayerException {
+		this.timeline.sort();
+		this.releaseNotes(blockIds, additions);
+		this.timeline.splice(blockIds, additions);
+		this.position = this.timeline.indexAfter(this.tick);
+	}
+	
+	/**
+	 * Sends now the pending note off events that are removed and not added again,
+	 * otherwise a note started before the splice would keep sounding.
+	 */
+	private void releaseNotes(int[] blockIds,MidiEventTimeline additions) throws MidiPlayerException {
+		int size = this.timeline.size();
+		for(int i = this.timeline.indexAfter(this.tick); i < size; i ++){
+			if(this.timeline.getType(i) == MidiEvent.MIDI_EVENT_NOTEOFF && MidiEventTimeline.isSpliced(this.timeline.getBlock(i), blockIds)){
+				if(additions.indexOf(this.timeline.getTick(i), this.timeline.getMessage(i)) < 0){
+					this.sendEvent(i);
+				}
+			}
+		}
 	}
 	
 	public void clearEvents(){
-		this.events.clear();
+		this.timeline.clear();
+		this.position = 0;
 	}
 	
 	public void reset(){
 		this.tick = (this.sequencer.getTickPosition() - 1);
 		this.reset = true;
 	}
-	
+
 }
@@ -0,0 +1,341 @@
+package org.herac.tuxguitar.player.impl.sequencer;
+
+import java.util.Arrays;
+
+import org.herac.tuxguitar.player.base.MidiSequenceBlock;
+
+/**
+ * Tick sorted event store for the sequencer.
+ * Events are kept in parallel primitive arrays, the type, track and data bytes of each event are packed into one long (see message).
+ */
+public class MidiEventTimeline {
+	
+	private static final int INITIAL_CAPACITY = 1024;
+	
+	private long[] ticks;
+	private long[] messages;
+	private int[] blocks;
+	private int size;
+	
+	private int[] stateEvents;
+	private int stateSize;
+	
+	private int[] sortOrder;
+	private int[] sortBuffer;
+	
+	private boolean sorted;
+	
+	public MidiEventTimeline(){
+		this.ticks = new long[INITIAL_CAPACITY];
+		this.messages = new long[INITIAL_CAPACITY];
+		this.blocks = new int[INITIAL_CAPACITY];
+		this.stateEvents = new int[0];
+		this.clear();
+	}
+	
+	public void addEvent(MidiEvent event){
+		this.addEvent(event, MidiSequenceBlock.NO_BLOCK);
+	}
+	
+	public void addEvent(MidiEvent event,int block){
+		this.addEvent(event.getTick(), event.getType(), event.getTrack(), pack(event.getData()), block);
+	}
+	
+	public void addEvent(long tick,int type,int track,int data){
+		this.addEvent(tick, type, track, data, MidiSequenceBlock.NO_BLOCK);
+	}
+	
+	public void addEvent(long tick,int type,int track,int data,int block){
+		this.addMessage(tick, message(type, track, data), block);
+	}
+	
+	public void addMessage(long tick,long message,int block){
+		this.ensureCapacity(this.size + 1);
+		this.ticks[this.size] = tick;
+		this.messages[this.size] = message;
+		this.blocks[this.size] = block;
+		this.sorted = (this.sorted && (this.size == 0 || this.ticks[this.size - 1] <= tick));
+		this.size ++;
+	}
+	
+	public void clear(){
+		this.size = 0;
+		this.stateSize = 0;
+		this.sorted = true;
+	}
+	
+	public int size(){
+		return this.size;
+	}
+	
+	public long getTick(int index){
+		return this.ticks[index];
+	}
+	
+	public long getMessage(int index){
+		return this.messages[index];
+	}
+	
+	public int getType(int index){
+		return getType(this.messages[index]);
+	}
+	
+	public int getTrack(int index){
+		return getTrack(this.messages[index]);
+	}
+	
+	public int getData(int index){
+		return getData(this.messages[index]);
+	}
+	
+	public int getBlock(int index){
+		return this.blocks[index];
+	}
+	
+	public boolean isSorted(){
+		return this.sorted;
+	}
+	
+	/**
+	 * Sorts the events by tick, events with the same tick keep the order they were added.
+	 */
+	public void sort(){
+		if(!this.sorted){
+			// the sort buffers are kept, sorting the same song again does not allocate
+			if(this.sortOrder == null || this.sortOrder.length < this.size){
+				this.sortOrder = new int[this.ticks.length];
+				this.sortBuffer = new int[this.ticks.length];
+			}
+			int[] order = this.sortOrder;
+			for(int i = 0; i < this.size; i ++){
+				order[i] = i;
+			}
+			this.mergeSort(order, this.sortBuffer);
+			this.reorder(order);
+		}
+		this.sorted = true;
+		this.updateStateEvents();
+	}
+	
+	/**
+	 * Replaces the events of the given blocks (sorted ids) by the additions.
+	 * Both timelines must be sorted, they are merged in one pass and the result stays sorted.
+	 */
+	public void splice(int[] blockIds,MidiEventTimeline additions){
+		int length = Math.max(INITIAL_CAPACITY, (this.size + additions.size));
+		long[] ticks = new long[length];
+		long[] messages = new long[length];
+		int[] blocks = new int[length];
+		int count = 0;
+		int index = 0;
+		int added = 0;
+		while(index < this.size || added < additions.size){
+			if(index < this.size && isSpliced(this.blocks[index], blockIds)){
+				index ++;
+			}
+			else if(added >= additions.size || (index < this.size && this.ticks[index] <= additions.ticks[added])){
+				ticks[count] = this.ticks[index];
+				messages[count] = this.messages[index];
+				blocks[count] = this.blocks[index];
+				count ++;
+				index ++;
+			}
+			else{
+				ticks[count] = additions.ticks[added];
+				messages[count] = additions.messages[added];
+				blocks[count] = additions.blocks[added];
+				count ++;
+				added ++;
+			}
+		}
+		this.ticks = ticks;
+		this.messages = messages;
+		this.blocks = blocks;
+		this.size = count;
+		this.updateStateEvents();
+	}
+	
+	/**
+	 * Returns the index of an event equal to the given one, or -1.
+	 */
+	public int indexOf(long tick,long message){
+		for(int i = this.indexAfter(tick - 1); i < this.size && this.ticks[i] == tick; i ++){
+			if(this.messages[i] == message){
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	public static boolean isSpliced(int block,int[] blockIds){
+		return (block != MidiSequenceBlock.NO_BLOCK && Arrays.binarySearch(blockIds, block) >= 0);
+	}
+	
+	/**
+	 * Returns the index of the first event placed after the given tick.
+	 */
+	public int indexAfter(long tick){
+		int low = 0;
+		int high = this.size;
+		while(low < high){
+			int middle = ((low + high) >>> 1);
+			if(this.ticks[middle] <= tick){
+				low = middle + 1;
+			}else{
+				high = middle;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * Returns how many system, control change and program change events exists until the given tick (inclusive).
+	 * They are the events needed to restore the channel state when the position changes.
+	 */
+	public int countStateEventsUntil(long tick){
+		int low = 0;
+		int high = this.stateSize;
+		while(low < high){
+			int middle = ((low + high) >>> 1);
+			if(this.ticks[this.stateEvents[middle]] <= tick){
+				low = middle + 1;
+			}else{
+				high = middle;
+			}
+		}
+		return low;
+	}
+	
+	public int getStateEvent(int index){
+		return this.stateEvents[index];
+	}
+	
+	public static boolean isStateEvent(int type){
+		return (type == MidiEvent.MIDI_SYSTEM_EVENT || type == MidiEvent.MIDI_EVENT_CONTROL_CHANGE || type == MidiEvent.MIDI_EVENT_PROGRAM_CHANGE);
+	}
+	
+	/**
+	 * Packs an event into a long: type (bits 48-55), track + 1 (bits 32-47, zero for ALL_TRACKS) and data (bits 0-31).
+	 */
+	public static long message(int type,int track,int data){
+		return ((((long)type & 0xff) << 48) | (((long)(track + 1) & 0xffff) << 32) | ((long)data & 0xffffffffL));
+	}
+	
+	public static int getType(long message){
+		return (int)((message >>> 48) & 0xff);
+	}
+	
+	public static int getTrack(long message){
+		return ((int)((message >>> 32) & 0xffff) - 1);
+	}
+	
+	public static int getData(long message){
+		return (int)message;
+	}
+	
+	/**
+	 * Packs up to three data bytes (channel and values) into one int, the first one in the lowest byte.
+	 */
+	public static int pack(int data0,int data1,int data2){
+		return ((data0 & 0xff) | ((data1 & 0xff) << 8) | ((data2 & 0xff) << 16));
+	}
+	
+	public static int pack(byte[] data){
+		int packed = 0;
+		if(data != null){
+			for(int i = 0; i < data.length && i < 4; i ++){
+				packed |= ((data[i] & 0xff) << (i * 8));
+			}
+		}
+		return packed;
+	}
+	
+	public static int unpack(int data,int index){
+		return ((data >>> (index * 8)) & 0xff);
+	}
+	
+	private void updateStateEvents(){
+		this.stateSize = 0;
+		for(int i = 0; i < this.size; i ++){
+			if(isStateEvent(getType(this.messages[i]))){
+				if(this.stateSize == this.stateEvents.length){
+					int[] stateEvents = new int[Math.max(INITIAL_CAPACITY, this.stateEvents.length * 2)];
+					System.arraycopy(this.stateEvents, 0, stateEvents, 0, this.stateSize);
+					this.stateEvents = stateEvents;
+				}
+				this.stateEvents[this.stateSize ++] = i;
+			}
+		}
+	}
+	
+	private void mergeSort(int[] order,int[] buffer){
+		int[] source = order;
+		int[] target = buffer;
+		for(int width = 1; width < this.size; width *= 2){
+			for(int low = 0; low < this.size; low += (width * 2)){
+				int middle = Math.min(low + width, this.size);
+				int high = Math.min(low + (width * 2), this.size);
+				int left = low;
+				int right = middle;
+				for(int i = low; i < high; i ++){
+					if(left < middle && (right >= high || this.ticks[source[left]] <= this.ticks[source[right]])){
+						target[i] = source[left ++];
+					}else{
+						target[i] = source[right ++];
+					}
+				}
+			}
+			int[] swap = source;
+			source = target;
+			target = swap;
+		}
+		if(source != order){
+			System.arraycopy(source, 0, order, 0, this.size);
+		}
+	}
+	
+	/**
+	 * Moves each event to its sorted position in place, following the cycles of the permutation.
+	 * Visited entries of the order are marked by complementing them.
+	 */
+	private void reorder(int[] order){
+		for(int i = 0; i < this.size; i ++){
+			if(order[i] < 0 || order[i] == i){
+				continue;
+			}
+			long tick = this.ticks[i];
+			long message = this.messages[i];
+			int block = this.blocks[i];
+			int current = i;
+			while(true){
+				int source = order[current];
+				order[current] = ~source;
+				if(source == i){
+					this.ticks[current] = tick;
+					this.messages[current] = message;
+					this.blocks[current] = block;
+					break;
+				}
+				this.ticks[current] = this.ticks[source];
+				this.messages[current] = this.messages[source];
+				this.blocks[current] = this.blocks[source];
+				current = source;
+			}
+		}
+	}
+	
+	private void ensureCapacity(int capacity){
+		if(capacity > this.ticks.length){
+			int length = Math.max(capacity, this.ticks.length * 2);
+			long[] ticks = new long[length];
+			long[] messages = new long[length];
+			int[] blocks = new int[length];
+			System.arraycopy(this.ticks, 0, ticks, 0, this.size);
+			System.arraycopy(this.messages, 0, messages, 0, this.size);
+			System.arraycopy(this.blocks, 0, blocks, 0, this.size);
+			this.ticks = ticks;
+			this.messages = messages;
+			this.blocks = blocks;
+		}
+	}
+}
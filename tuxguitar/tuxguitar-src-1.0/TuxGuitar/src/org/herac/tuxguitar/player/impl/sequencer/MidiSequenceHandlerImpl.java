@@ -1,40 +1,65 @@
 package org.herac.tuxguitar.player.impl.sequencer;
 
+import org.herac.tuxguitar.player.base.MidiSequenceBlock;
 import org.herac.tuxguitar.player.base.MidiSequenceHandler;
 import org.herac.tuxguitar.song.models.TGTimeSignature;
 
 public class MidiSequenceHandlerImpl extends MidiSequenceHandler{
 	
 	private MidiSequencerImpl seq;
+	private MidiEventTimeline timeline;
+	private int block;
 	
 	public MidiSequenceHandlerImpl(MidiSequencerImpl seq,int tracks) {
 		super(tracks);
 		this.seq = seq;
 		this.seq.getMidiTrackController().init(getTracks());
+		this.block = MidiSequenceBlock.NO_BLOCK;
+	}
+	
+	/**
+	 * Handler that collects the events in a timeline instead of the sequencer, used to splice blocks.
+	 */
+	protected MidiSequenceHandlerImpl(MidiEventTimeline timeline) {
+		super(0);
+		this.timeline = timeline;
+		this.block = MidiSequenceBlock.NO_BLOCK;
+	}
+	
+	public void setBlock(int block){
+		this.block = block;
+	}
+	
+	private void addEvent(long tick,int type,int track,int data){
+		if(this.timeline != null){
+			this.timeline.addEvent(tick, type, track, data, this.block);
+		}else{
+			this.seq.addEvent(tick, type, track, data, this.block);
+		}
 	}
 	
 	public void addControlChange(long tick,int track,int channel, int controller, int value) {
-		this.seq.addEvent(MidiEvent.controlChange(tick, track, channel, controller, value));
+		this.addEvent(tick, MidiEvent.MIDI_EVENT_CONTROL_CHANGE, track, MidiEventTimeline.pack(channel, controller, value));
 	}
 	
 	public void addNoteOff(long tick,int track,int channel, int note, int velocity) {
-		this.seq.addEvent(MidiEvent.noteOff(tick, track, channel, note, velocity));
+		this.addEvent(tick, MidiEvent.MIDI_EVENT_NOTEOFF, track, MidiEventTimeline.pack(channel, note, velocity));
 	}
 	
 	public void addNoteOn(long tick,int track,int channel, int note, int velocity) {
-		this.seq.addEvent(MidiEvent.noteOn(tick, track, channel, note, velocity));
+		this.addEvent(tick, MidiEvent.MIDI_EVENT_NOTEON, track, MidiEventTimeline.pack(channel, note, velocity));
 	}
 	
 	public void addPitchBend(long tick,int track,int channel, int value) {
-		this.seq.addEvent(MidiEvent.pitchBend(tick, track, channel, value));
+		this.addEvent(tick, MidiEvent.MIDI_EVENT_PITCH_BEND, track, MidiEventTimeline.pack(channel, value, 0));
 	}
 	
 	public void addProgramChange(long tick,int track,int channel, int instrument) {
-		this.seq.addEvent(MidiEvent.programChange(tick, track, channel, instrument));
+		this.addEvent(tick, MidiEvent.MIDI_EVENT_PROGRAM_CHANGE, track, MidiEventTimeline.pack(channel, instrument, 0));
 	}
 	
 	public void addTempoInUSQ(long tick,int track,int usq) {
-		this.seq.addEvent(MidiEvent.tempoInUSQ(tick, usq));
+		this.addEvent(tick, MidiEvent.MIDI_SYSTEM_EVENT, MidiEvent.ALL_TRACKS, (0x51 | ((usq & 0xffffff) << 8)));
 	}
 	
 	public void addTimeSignature(long tick,int track,TGTimeSignature ts) {
@@ -1,12 +1,21 @@
 package org.herac.tuxguitar.player.impl.sequencer;
 
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
 import org.herac.tuxguitar.player.base.MidiPlayerException;
 import org.herac.tuxguitar.player.base.MidiPort;
 import org.herac.tuxguitar.player.base.MidiPortEmpty;
+import org.herac.tuxguitar.player.base.MidiSequenceClock;
+import org.herac.tuxguitar.player.base.MidiSequenceBlock;
 import org.herac.tuxguitar.player.base.MidiSequenceHandler;
+import org.herac.tuxguitar.player.base.MidiSequenceSplicer;
 import org.herac.tuxguitar.player.base.MidiSequencer;
 
-public class MidiSequencerImpl implements MidiSequencer{
+public class MidiSequencerImpl implements MidiSequencer,MidiSequenceSplicer,MidiSequenceClock{
+	
+	// Longest move of setTickTime that keeps the sounding notes, a longer one is a new position.
+	private static final long MAX_SMOOTH_MOVE = (20 * 1000 * 1000);
 	
 	private boolean reset;
 	private boolean running;
@@ -15,9 +24,12 @@ public class MidiSequencerImpl implements MidiSequencer{
 	private MidiEventPlayer midiEventPlayer;
 	private MidiEventDispacher midiEventDispacher;
 	private MidiTrackController midiTrackController;
+	private MidiTimerStats midiTimerStats;
+	private MidiTimer midiTimer;
 	
 	public MidiSequencerImpl(){
 		this.running = false;
+		this.midiTimerStats = new MidiTimerStats();
 		this.midiTickPlayer = new MidiTickPlayer();
 		this.midiEventPlayer = new MidiEventPlayer(this);
 		this.midiEventDispacher = new MidiEventDispacher(this);
@@ -28,6 +40,14 @@ public class MidiSequencerImpl implements MidiSequencer{
 		return this.midiTrackController;
 	}
 	
+	public synchronized MidiTickPlayer getMidiTickPlayer(){
+		return this.midiTickPlayer;
+	}
+	
+	public synchronized MidiTimerStats getTimerStats(){
+		return this.midiTimerStats;
+	}
+	
 	public synchronized void setTempo(int tempo){
 		this.midiTickPlayer.setTempo(tempo);
 	}
@@ -39,21 +59,50 @@ public class MidiSequencerImpl implements MidiSequencer{
 	public synchronized void setTickPosition(long tickPosition){
 		this.reset = true;
 		this.midiTickPlayer.setTick(tickPosition);
+		this.wakeupTimer();
+	}
+	
+	public synchronized long getTickTime(long tick){
+		return this.midiTickPlayer.getTime(tick);
+	}
+	
+	public synchronized void setTickTime(long tick,long time){
+		long move = (time - this.midiTickPlayer.getTime(tick));
+		if(Math.abs(move) > MAX_SMOOTH_MOVE){
+			this.reset = true;
+		}
+		this.midiTickPlayer.moveTime(move);
+		this.wakeupTimer();
 	}
 	
 	public synchronized long getTickLength(){
 		return this.midiTickPlayer.getTickLength();
 	}
 	
-	public synchronized void sendEvent(MidiEvent event) throws MidiPlayerException{
+	public synchronized void sendEvent(int type,int data) throws MidiPlayerException{
 		if(!this.reset){
-			this.midiEventDispacher.dispatch(event);
+			this.midiEventDispacher.dispatch(type,data);
 		}
 	}
 	
 	public synchronized void addEvent(MidiEvent event){
-		this.midiEventPlayer.addEvent(event);
-		this.midiTickPlayer.notifyTick(event.getTick());
+		this.addEvent(event, MidiSequenceBlock.NO_BLOCK);
+	}
+	
+	public synchronized void addEvent(MidiEvent event,int block){
+		this.addEvent(event.getTick(), event.getType(), event.getTrack(), MidiEventTimeline.pack(event.getData()), block);
+	}
+	
+	/**
+	 * Adds an event without creating a MidiEvent, data holds the bytes packed as MidiEventTimeline.pack does.
+	 */
+	public synchronized void addEvent(long tick,int type,int track,int data,int block){
+		this.midiEventPlayer.addEvent(tick,type,track,data,block);
+		this.midiTickPlayer.notifyTick(tick);
+		if(type == MidiEvent.MIDI_SYSTEM_EVENT && MidiEventTimeline.unpack(data, 0) == 0x51){
+			this.midiTickPlayer.addTempo(tick, (data >>> 8));
+		}
+		this.wakeupTimer();
 	}
 	
 	public synchronized boolean isRunning() {
@@ -65,8 +114,10 @@ public class MidiSequencerImpl implements MidiSequencer{
 		if(this.running){
 			this.setTempo(120);
 			this.setTickPosition( this.getTickPosition() );
-			new MidiTimer(this).start();
+			this.midiTimer = new MidiTimer(this);
+			this.midiTimer.start();
 		}
+		this.wakeupTimer();
 	}
 	
 	public synchronized void stop() throws MidiPlayerException{
@@ -95,6 +146,7 @@ public class MidiSequencerImpl implements MidiSequencer{
 				this.reset = false;
 				this.midiEventPlayer.reset();
 			}
+			this.midiTimerStats.addWakeup();
 			this.midiTickPlayer.process();
 			this.midiEventPlayer.process();
 			if(this.getTickPosition() > this.getTickLength()){
@@ -109,6 +161,25 @@ public class MidiSequencerImpl implements MidiSequencer{
 		return running;
 	}
 	
+	/**
+	 * Returns the nanoseconds to sleep until the next event is due, never more than the given max delay.
+	 */
+	protected synchronized long getTimerDelay(long maxDelay){
+		long nextTick = Math.min(this.midiEventPlayer.getNextTick(), (this.getTickLength() + 1));
+		long delay = (this.midiTickPlayer.getTime(nextTick) - System.nanoTime());
+		return Math.max(0, Math.min(delay, maxDelay));
+	}
+	
+	protected synchronized boolean isTimer(MidiTimer timer){
+		return (this.midiTimer == timer);
+	}
+	
+	private void wakeupTimer(){
+		if(this.midiTimer != null){
+			LockSupport.unpark(this.midiTimer);
+		}
+	}
+	
 	public synchronized MidiPort getMidiPort() {
 		if(this.midiPort == null){
 			this.midiPort = new MidiPortEmpty();
@@ -134,6 +205,29 @@ public class MidiSequencerImpl implements MidiSequencer{
 		return new MidiSequenceHandlerImpl(this,tracks);
 	}
 	
+	public void spliceBlocks(int[] blockIds,MidiSequenceBlock[] blocks) throws MidiPlayerException{
+		int[] sortedIds = new int[blockIds.length];
+		System.arraycopy(blockIds, 0, sortedIds, 0, blockIds.length);
+		Arrays.sort(sortedIds);
+		
+		// the new events are collected and sorted before taking the sequencer lock
+		MidiEventTimeline additions = new MidiEventTimeline();
+		MidiSequenceHandlerImpl handler = new MidiSequenceHandlerImpl(additions);
+		for(int i = 0; i < blocks.length; i ++){
+			handler.setBlock(blocks[i].getId());
+			blocks[i].replay(handler);
+		}
+		additions.sort();
+		
+		synchronized(this){
+			this.midiEventPlayer.splice(sortedIds, additions);
+			if(additions.size() > 0){
+				this.midiTickPlayer.notifyTick(additions.getTick(additions.size() - 1));
+			}
+			this.wakeupTimer();
+		}
+	}
+	
 	public synchronized void setSolo(int index,boolean solo) throws MidiPlayerException{
 		this.getMidiTrackController().setSolo(index, solo);
 	}
@@ -152,7 +246,8 @@ public class MidiSequencerImpl implements MidiSequencer{
 	
 	private class MidiTimer extends Thread{
 		
-		private static final int TIMER_DELAY = 15;
+		// Max time between two wakeups, the tick position is refreshed at least at this rate.
+		private static final long MAX_TIMER_DELAY = (15 * 1000 * 1000);
 		
 		private MidiSequencerImpl sequencer;
 		
@@ -162,10 +257,8 @@ public class MidiSequencerImpl implements MidiSequencer{
 		
 		public void run() {
 			try {
-				synchronized(this.sequencer) {
-					while( this.sequencer.process() ){
-						this.sequencer.wait( TIMER_DELAY );
-					}
+				while( this.sequencer.isTimer(this) && this.sequencer.process() ){
+					LockSupport.parkNanos( this.sequencer.getTimerDelay( MAX_TIMER_DELAY ) );
 				}
 			} catch (Throwable throwable) {
 				throwable.printStackTrace();
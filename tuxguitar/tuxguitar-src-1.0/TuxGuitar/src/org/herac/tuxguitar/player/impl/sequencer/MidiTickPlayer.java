@@ -2,49 +2,135 @@ package org.herac.tuxguitar.player.impl.sequencer;
 
 import org.herac.tuxguitar.song.models.TGDuration;
 
+/**
+ * Converts System.nanoTime() into ticks.
+ * The position is always computed from an anchor (tick + time) and the tempo map,
+ * the anchor only moves to the exact boundary of each tempo change so no rounding error is accumulated.
+ */
 public class MidiTickPlayer {
 	
-	private static final int SECOND_IN_MILLIS = 1000;
+	private static final double MINUTE_IN_NANOS = (60.0 * 1000.0 * 1000.0 * 1000.0);
+	
+	private static final double USQ_IN_NANOS = 1000.0;
+	
+	private static final int INITIAL_CAPACITY = 16;
 	
 	private int tempo;
 	private long tick;
 	private long time;
-	private long lastTime;
 	private long tickLength;
-	private boolean tickChanged;
+	
+	private long anchorTick;
+	private long anchorTime;
+	private int anchorIndex;
+	
+	private long[] tempoTicks;
+	private int[] tempoUsqs;
+	private int tempoCount;
 	
 	public MidiTickPlayer(){
-		super();
+		this.tempoTicks = new long[INITIAL_CAPACITY];
+		this.tempoUsqs = new int[INITIAL_CAPACITY];
+		this.clearTick();
 	}
 	
 	public void process() {
-		this.lastTime = this.time;
-		this.time = System.currentTimeMillis();
-		if(!this.tickChanged){
-			this.tick += (TGDuration.QUARTER_TIME * ((float)getTempo() * (float)(this.time - this.lastTime) / 60f) / SECOND_IN_MILLIS);
-		}
-		this.tickChanged = false;
+		this.time = System.nanoTime();
+		this.tick = this.getTick(this.time);
 	}
 	
 	public void clearTick(){
 		this.tickLength = 0;
+		this.tempoCount = 0;
+		this.anchorIndex = -1;
 	}
 	
+	/**
+	 * Default tempo, used until the first tempo change of the map.
+	 */
 	public int getTempo() {
 		return this.tempo;
 	}
 	
 	public void setTempo(int tempo) {
-		this.tempo = tempo;
+		if(this.tempo != tempo){
+			this.anchor(System.nanoTime());
+			this.tempo = tempo;
+		}
 	}
 	
+	public void addTempo(long tick,int usq){
+		if(this.tempoCount == this.tempoTicks.length){
+			long[] tempoTicks = new long[this.tempoCount * 2];
+			int[] tempoUsqs = new int[this.tempoCount * 2];
+			System.arraycopy(this.tempoTicks, 0, tempoTicks, 0, this.tempoCount);
+			System.arraycopy(this.tempoUsqs, 0, tempoUsqs, 0, this.tempoCount);
+			this.tempoTicks = tempoTicks;
+			this.tempoUsqs = tempoUsqs;
+		}
+		int index = this.tempoCount;
+		while(index > 0 && this.tempoTicks[index - 1] > tick){
+			this.tempoTicks[index] = this.tempoTicks[index - 1];
+			this.tempoUsqs[index] = this.tempoUsqs[index - 1];
+			index --;
+		}
+		this.tempoTicks[index] = tick;
+		this.tempoUsqs[index] = usq;
+		this.tempoCount ++;
+		this.anchorIndex = this.findTempoIndex(this.anchorTick);
+	}
+	
+	/**
+	 * Tick reached on the last process call.
+	 */
 	public long getTick() {
 		return this.tick;
 	}
 	
 	public void setTick(long tick) {
+		this.anchorTick = tick;
+		this.anchorTime = System.nanoTime();
+		this.anchorIndex = this.findTempoIndex(tick);
 		this.tick = tick;
-		this.tickChanged = true;
+		this.time = this.anchorTime;
+	}
+	
+	/**
+	 * System.nanoTime() of the last process call.
+	 */
+	public long getTime() {
+		return this.time;
+	}
+	
+	/**
+	 * Returns the System.nanoTime() when the tick is (or was) reached.
+	 */
+	public long getTime(long tick) {
+		long time = this.anchorTime;
+		long fromTick = this.anchorTick;
+		int index = this.anchorIndex;
+		if(tick < fromTick){
+			while(index >= 0 && this.tempoTicks[index] > tick){
+				time -= getNanos(fromTick - this.tempoTicks[index], getUsq(index));
+				fromTick = this.tempoTicks[index];
+				index --;
+			}
+			return (time - getNanos(fromTick - tick, getUsq(index)));
+		}
+		while((index + 1) < this.tempoCount && this.tempoTicks[index + 1] <= tick){
+			time += getNanos(this.tempoTicks[index + 1] - fromTick, getUsq(index));
+			fromTick = this.tempoTicks[index + 1];
+			index ++;
+		}
+		return (time + getNanos(tick - fromTick, getUsq(index)));
+	}
+	
+	/**
+	 * Moves the time of every next tick, later when the nanos are positive.
+	 */
+	public void moveTime(long nanos) {
+		this.anchorTime += nanos;
+		this.process();
 	}
 	
 	public long getTickLength() {
@@ -54,4 +140,58 @@ public class MidiTickPlayer {
 	public void notifyTick(long tick){
 		this.tickLength = Math.max(this.tickLength,tick);
 	}
+	
+	private long getTick(long time){
+		while((this.anchorIndex + 1) < this.tempoCount){
+			long nextTick = this.tempoTicks[this.anchorIndex + 1];
+			long nextTime = (this.anchorTime + getNanos(nextTick - this.anchorTick, getUsq(this.anchorIndex)));
+			if(nextTime > time){
+				break;
+			}
+			this.anchorTick = nextTick;
+			this.anchorTime = nextTime;
+			this.anchorIndex ++;
+		}
+		return (this.anchorTick + getTicks(time - this.anchorTime, getUsq(this.anchorIndex)));
+	}
+	
+	/**
+	 * Moves the anchor to the last whole tick reached at the given time.
+	 */
+	private void anchor(long time){
+		if(this.tempo > 0){
+			long tick = this.getTick(time);
+			this.anchorTime += getNanos(tick - this.anchorTick, getUsq(this.anchorIndex));
+			this.anchorTick = tick;
+		}
+	}
+	
+	private int findTempoIndex(long tick){
+		int low = 0;
+		int high = this.tempoCount;
+		while(low < high){
+			int middle = ((low + high) >>> 1);
+			if(this.tempoTicks[middle] <= tick){
+				low = middle + 1;
+			}else{
+				high = middle;
+			}
+		}
+		return (low - 1);
+	}
+	
+	private int getUsq(int index){
+		if(index >= 0 && index < this.tempoCount){
+			return this.tempoUsqs[index];
+		}
+		return (int)(MINUTE_IN_NANOS / USQ_IN_NANOS / Math.max(this.tempo, 1));
+	}
+	
+	private static long getTicks(long nanos,int usq){
+		return (long)Math.floor((nanos * (double)TGDuration.QUARTER_TIME) / (usq * USQ_IN_NANOS));
+	}
+	
+	private static long getNanos(long ticks,int usq){
+		return (long)Math.ceil((ticks * (usq * USQ_IN_NANOS)) / TGDuration.QUARTER_TIME);
+	}
 }
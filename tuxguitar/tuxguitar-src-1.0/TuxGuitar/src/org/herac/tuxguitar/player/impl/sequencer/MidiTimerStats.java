@@ -0,0 +1,83 @@
+package org.herac.tuxguitar.player.impl.sequencer;
+
+/**
+ * Dispatch latency measured by the sequencer timer.
+ * Each sample is the time between the moment an event was due (according to the tempo map) and the moment it was sent.
+ */
+public class MidiTimerStats {
+	
+	public static final long LATE_THRESHOLD = (1000 * 1000);
+	
+	private long samples;
+	private long wakeups;
+	private long lateSamples;
+	private long totalLatency;
+	private long maxLatency;
+	private double totalSquares;
+	
+	public MidiTimerStats(){
+		this.reset();
+	}
+	
+	public synchronized void reset(){
+		this.samples = 0;
+		this.wakeups = 0;
+		this.lateSamples = 0;
+		this.totalLatency = 0;
+		this.maxLatency = 0;
+		this.totalSquares = 0;
+	}
+	
+	public synchronized void addWakeup(){
+		this.wakeups ++;
+	}
+	
+	public synchronized void addLatency(long latency){
+		this.samples ++;
+		this.totalLatency += latency;
+		this.totalSquares += ((double)latency * (double)latency);
+		this.maxLatency = Math.max(this.maxLatency, latency);
+		if(latency > LATE_THRESHOLD){
+			this.lateSamples ++;
+		}
+	}
+	
+	public synchronized long getSamples(){
+		return this.samples;
+	}
+	
+	public synchronized long getWakeups(){
+		return this.wakeups;
+	}
+	
+	/**
+	 * Events dispatched more than one millisecond after they were due.
+	 */
+	public synchronized long getLateSamples(){
+		return this.lateSamples;
+	}
+	
+	public synchronized long getAverageLatency(){
+		return (this.samples > 0 ? (this.totalLatency / this.samples) : 0);
+	}
+	
+	public synchronized long getMaxLatency(){
+		return this.maxLatency;
+	}
+	
+	/**
+	 * Standard deviation of the latency, in nanoseconds.
+	 */
+	public synchronized long getJitter(){
+		if(this.samples > 0){
+			double average = ((double)this.totalLatency / (double)this.samples);
+			double variance = ((this.totalSquares / this.samples) - (average * average));
+			return (long)Math.sqrt(Math.max(variance, 0));
+		}
+		return 0;
+	}
+	
+	public synchronized String toString(){
+		return ("samples=" + this.samples + " wakeups=" + this.wakeups + " avg=" + getAverageLatency() + "ns max=" + this.maxLatency + "ns jitter=" + getJitter() + "ns late=" + this.lateSamples);
+	}
+}
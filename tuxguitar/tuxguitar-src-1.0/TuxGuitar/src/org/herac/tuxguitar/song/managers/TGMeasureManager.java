@@ -257,6 +257,21 @@ public class TGMeasureManager {
 	 * Retorna las Nota en la posicion y cuerda
 	 */
 	public TGBeat getBeat(TGMeasure measure,long start) {
+		if(measure.isBeatsOrdered()){
+			// first beat at the start, the list may hold more than one
+			int low = 0;
+			int high = measure.countBeats();
+			while(low < high){
+				int middle = ((low + high) >>> 1);
+				if(measure.getBeat(middle).getStart() < start){
+					low = (middle + 1);
+				}else{
+					high = middle;
+				}
+			}
+			TGBeat beat = measure.getBeat(low);
+			return ((beat != null && beat.getStart() == start) ? beat : null);
+		}
 		Iterator it = measure.getBeats().iterator();
 		while(it.hasNext()){
 			TGBeat beat = (TGBeat)it.next();
@@ -271,6 +286,30 @@ public class TGMeasureManager {
 	 * Retorna las Nota en la posicion y cuerda
 	 */
 	public TGBeat getBeatIn(TGMeasure measure,long start) {
+		if(measure.isBeatsOrdered()){
+			int low = 0;
+			int high = measure.countBeats();
+			while(low < high){
+				int middle = ((low + high) >>> 1);
+				if(measure.getBeat(middle).getStart() <= start){
+					low = (middle + 1);
+				}else{
+					high = middle;
+				}
+			}
+			// beats of a measure do not overlap, only the ones at the closest previous start can hold it
+			TGBeat beat = null;
+			for(int i = (low - 1); i >= 0; i --){
+				TGBeat current = measure.getBeat(i);
+				if(current.getStart() != measure.getBeat(low - 1).getStart()){
+					break;
+				}
+				if(current.getStart() + current.getDuration().getTime() > start){
+					beat = current;
+				}
+			}
+			return beat;
+		}
 		Iterator it = measure.getBeats().iterator();
 		while(it.hasNext()){
 			TGBeat beat = (TGBeat)it.next();
@@ -653,6 +653,16 @@ public class TGSongManager {
 	}
 	
 	public TGMeasureHeader getMeasureHeaderAt(long start){
+		if(getSong().isMeasureHeadersOrdered()){
+			int index = getMeasureHeaderIndexAfter(start);
+			if(index > 0){
+				TGMeasureHeader header = getSong().getMeasureHeader(index - 1);
+				if(start < header.getStart() + header.getLength()){
+					return header;
+				}
+			}
+			return null;
+		}
 		Iterator it = getSong().getMeasureHeaders();
 		while(it.hasNext()){
 			TGMeasureHeader header = (TGMeasureHeader)it.next();
@@ -666,6 +676,29 @@ public class TGSongManager {
 	}
 	
 	public TGMeasureHeader getMeasureHeader(int number){
+		if(getSong().isMeasureHeadersOrdered()){
+			// headers are usually numbered by position
+			if(number > 0 && number <= getSong().countMeasureHeaders()){
+				TGMeasureHeader header = getSong().getMeasureHeader(number - 1);
+				if(header.getNumber() == number){
+					return header;
+				}
+			}
+			int low = 0;
+			int high = (getSong().countMeasureHeaders() - 1);
+			while(low <= high){
+				int middle = ((low + high) >>> 1);
+				TGMeasureHeader header = getSong().getMeasureHeader(middle);
+				if(header.getNumber() < number){
+					low = (middle + 1);
+				}else if(header.getNumber() > number){
+					high = (middle - 1);
+				}else{
+					return header;
+				}
+			}
+			return null;
+		}
 		for (int i = 0; i < getSong().countMeasureHeaders(); i++) {
 			TGMeasureHeader header = getSong().getMeasureHeader(i);
 			if(header.getNumber() == number){
@@ -680,6 +713,13 @@ public class TGSongManager {
 	 */
 	public List getMeasureHeadersBeforeEnd(long fromStart) {
 		List headers = new ArrayList();
+		if(getSong().isMeasureHeadersOrdered()){
+			int index = getMeasureHeaderIndexAfter(fromStart - 1);
+			for(int i = index; i < getSong().countMeasureHeaders(); i ++){
+				headers.add(getSong().getMeasureHeader(i));
+			}
+			return headers;
+		}
 		Iterator it = getSong().getMeasureHeaders();
 		while(it.hasNext()){
 			TGMeasureHeader header = (TGMeasureHeader)it.next();
@@ -710,6 +750,20 @@ public class TGSongManager {
 	 */
 	public List getMeasureHeadersBetween(long p1,long p2) {
 		List headers = new ArrayList();
+		if(getSong().isMeasureHeadersOrdered()){
+			// the header that contains p1 may start before it
+			int index = Math.max(getMeasureHeaderIndexAfter(p1) - 1, 0);
+			for(int i = index; i < getSong().countMeasureHeaders(); i ++){
+				TGMeasureHeader header = getSong().getMeasureHeader(i);
+				if(header.getStart() >= p2){
+					break;
+				}
+				if((header.getStart() + header.getLength()) > p1){
+					headers.add(header);
+				}
+			}
+			return headers;
+		}
 		Iterator it = getSong().getMeasureHeaders();
 		while(it.hasNext()){
 			TGMeasureHeader header = (TGMeasureHeader)it.next();
@@ -720,6 +774,23 @@ public class TGSongManager {
 		return headers;
 	}
 	
+	/**
+	 * Index of the first header that starts after the given start, the headers must be ordered.
+	 */
+	private int getMeasureHeaderIndexAfter(long start){
+		int low = 0;
+		int high = getSong().countMeasureHeaders();
+		while(low < high){
+			int middle = ((low + high) >>> 1);
+			if(getSong().getMeasureHeader(middle).getStart() <= start){
+				low = (middle + 1);
+			}else{
+				high = middle;
+			}
+		}
+		return low;
+	}
+	
 	public void removeLastMeasure(){
 		removeLastMeasureHeader();
 	}
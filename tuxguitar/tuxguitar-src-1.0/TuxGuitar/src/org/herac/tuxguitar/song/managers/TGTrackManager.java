@@ -46,6 +46,16 @@ public class TGTrackManager {
 	}
 	
 	public TGMeasure getMeasureAt(TGTrack track,long start){
+		if(track.isMeasuresOrdered()){
+			int index = getMeasureIndexAfter(track,start);
+			if(index > 0){
+				TGMeasure measure = track.getMeasure(index - 1);
+				if(start < measure.getStart() + measure.getLength()){
+					return measure;
+				}
+			}
+			return null;
+		}
 		Iterator it = track.getMeasures();
 		while(it.hasNext()){
 			TGMeasure measure = (TGMeasure)it.next();
@@ -59,6 +69,27 @@ public class TGTrackManager {
 	}
 	
 	public TGMeasure getMeasure(TGTrack track,int number){
+		if(track.isMeasuresOrdered()){
+			// measures are usually numbered by position
+			TGMeasure measure = track.getMeasure(number - 1);
+			if(measure != null && measure.getNumber() == number){
+				return measure;
+			}
+			int low = 0;
+			int high = (track.countMeasures() - 1);
+			while(low <= high){
+				int middle = ((low + high) >>> 1);
+				measure = track.getMeasure(middle);
+				if(measure.getNumber() < number){
+					low = (middle + 1);
+				}else if(measure.getNumber() > number){
+					high = (middle - 1);
+				}else{
+					return measure;
+				}
+			}
+			return null;
+		}
 		Iterator it = track.getMeasures();
 		while(it.hasNext()){
 			TGMeasure measure = (TGMeasure)it.next();
@@ -74,6 +105,13 @@ public class TGTrackManager {
 	 */
 	public List getMeasuresBeforeEnd(TGTrack track,long fromStart) {
 		List measures = new ArrayList();
+		if(track.isMeasuresOrdered()){
+			int index = getMeasureIndexAfter(track,fromStart - 1);
+			for(int i = index; i < track.countMeasures(); i ++){
+				measures.add(track.getMeasure(i));
+			}
+			return measures;
+		}
 		Iterator it = track.getMeasures();
 		while(it.hasNext()){
 			TGMeasure currMeasure = (TGMeasure)it.next();
@@ -89,6 +127,20 @@ public class TGTrackManager {
 	 */
 	public List getMeasuresBetween(TGTrack track,long p1,long p2) {
 		List measures = new ArrayList();
+		if(track.isMeasuresOrdered()){
+			// the measure that contains p1 may start before it
+			int index = Math.max(getMeasureIndexAfter(track,p1) - 1, 0);
+			for(int i = index; i < track.countMeasures(); i ++){
+				TGMeasure measure = track.getMeasure(i);
+				if(measure.getStart() >= p2){
+					break;
+				}
+				if((measure.getStart() + measure.getLength()) > p1){
+					measures.add(measure);
+				}
+			}
+			return measures;
+		}
 		Iterator it = track.getMeasures();
 		while(it.hasNext()){
 			TGMeasure measure = (TGMeasure)it.next();
@@ -99,6 +151,23 @@ public class TGTrackManager {
 		return measures;
 	}
 	
+	/**
+	 * Index of the first measure that starts after the given start, the measures must be ordered.
+	 */
+	private int getMeasureIndexAfter(TGTrack track,long start){
+		int low = 0;
+		int high = track.countMeasures();
+		while(low < high){
+			int middle = ((low + high) >>> 1);
+			if(track.getMeasure(middle).getStart() <= start){
+				low = (middle + 1);
+			}else{
+				high = middle;
+			}
+		}
+		return low;
+	}
+	
 	public void addNewMeasureBeforeEnd(TGTrack track,TGMeasureHeader header){
 		addNewMeasureAfter(track,header,getLastMeasure(track));
 	}
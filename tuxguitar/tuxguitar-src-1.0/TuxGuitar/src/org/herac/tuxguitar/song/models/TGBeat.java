@@ -37,6 +37,9 @@ public abstract class TGBeat {
 	
 	public void setStart(long start) {
 		this.start = start;
+		if(this.measure != null){
+			this.measure.beatsChanged();
+		}
 	}
 	
 	public TGDuration getDuration() {
@@ -33,12 +33,17 @@ public abstract class TGMeasure {
 	private int keySignature;
 	
 	private List beats;
+	private int beatsVersion;
+	private int orderedVersion;
+	private boolean ordered;
 	
 	public TGMeasure(TGMeasureHeader header){
 		this.header = header;
 		this.clef = DEFAULT_CLEF;
 		this.keySignature = DEFAULT_KEY_SIGNATURE;
 		this.beats = new ArrayList();
+		this.beatsVersion = 0;
+		this.orderedVersion = -1;
 	}
 	
 	public TGTrack getTrack() {
@@ -72,15 +77,18 @@ public abstract class TGMeasure {
 	public void addBeat(TGBeat beat){
 		beat.setMeasure(this);
 		this.beats.add(beat);
+		this.beatsChanged();
 	}
 	
 	public void moveBeat(int index,TGBeat beat){
 		this.beats.remove(beat);
 		this.beats.add(index,beat);
+		this.beatsChanged();
 	}
 	
 	public void removeBeat(TGBeat beat){
 		this.beats.remove(beat);
+		this.beatsChanged();
 	}
 	
 	public TGBeat getBeat(int index){
@@ -94,12 +102,34 @@ public abstract class TGMeasure {
 		return this.beats.size();
 	}
 	
+	public void beatsChanged(){
+		this.beatsVersion ++;
+	}
+	
+	/**
+	 * True when the beats are sorted by start, so they can be binary searched.
+	 * The order is checked once after each change.
+	 */
+	public boolean isBeatsOrdered(){
+		if(this.orderedVersion != this.beatsVersion){
+			this.ordered = true;
+			for(int i = 1; i < this.beats.size() && this.ordered; i ++){
+				this.ordered = (((TGBeat)this.beats.get(i - 1)).getStart() <= ((TGBeat)this.beats.get(i)).getStart());
+			}
+			this.orderedVersion = this.beatsVersion;
+		}
+		return this.ordered;
+	}
+	
 	public TGMeasureHeader getHeader() {
 		return this.header;
 	}
 	
 	public void setHeader(TGMeasureHeader header) {
 		this.header = header;
+		if(this.track != null){
+			this.track.measuresChanged();
+		}
 	}
 	
 	public int getNumber() {
@@ -146,6 +176,7 @@ public abstract class TGMeasure {
 		this.clef = measure.getClef();
 		this.keySignature = measure.getKeySignature();
 		this.beats.clear();
+		this.beatsChanged();
 		for(int i = 0; i < measure.countBeats(); i ++){
 			TGBeat beat = measure.getBeat(i);
 			this.addBeat(beat);
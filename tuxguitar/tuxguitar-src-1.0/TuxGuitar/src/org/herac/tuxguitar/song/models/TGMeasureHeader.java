@@ -50,6 +50,7 @@ public abstract class TGMeasureHeader {
 	public void setNumber(int number) {
 		this.number = number;
 		this.checkMarker();
+		this.changed();
 	}
 	
 	public int getRepeatClose() {
@@ -86,6 +87,7 @@ public abstract class TGMeasureHeader {
 	
 	public void setStart(long start) {
 		this.start = start;
+		this.changed();
 	}
 	
 	public int getTripletFeel() {
@@ -124,6 +126,12 @@ public abstract class TGMeasureHeader {
 		return (getMarker() != null);
 	}
 	
+	private void changed(){
+		if(this.song != null){
+			this.song.measureHeadersChanged();
+		}
+	}
+	
 	private void checkMarker(){
 		if(hasMarker()){
 			this.marker.setMeasure(getNumber());
@@ -151,6 +159,7 @@ public abstract class TGMeasureHeader {
 		this.repeatClose = measure.getRepeatClose();
 		this.repeatAlternative = measure.getRepeatAlternative();
 		this.checkMarker();
+		this.changed();
 	}
 	
 	public TGMeasureHeader clone(TGFactory factory){
@@ -26,6 +26,9 @@ public abstract class TGSong {
 	private String author;
 	private List tracks;
 	private List measureHeaders;
+	private int measureHeadersVersion;
+	private int orderedVersion;
+	private boolean ordered;
 	
 	public TGSong() {
 		this.name = new String();
@@ -34,6 +37,8 @@ public abstract class TGSong {
 		this.author = new String();
 		this.tracks = new ArrayList();
 		this.measureHeaders = new ArrayList();
+		this.measureHeadersVersion = 0;
+		this.orderedVersion = -1;
 	}
 	
 	public String getName() {
@@ -79,14 +84,17 @@ public abstract class TGSong {
 	public void addMeasureHeader(int index,TGMeasureHeader measureHeader){
 		measureHeader.setSong(this);
 		this.measureHeaders.add(index,measureHeader);
+		this.measureHeadersChanged();
 	}
 	
 	public void removeMeasureHeader(int index){
 		this.measureHeaders.remove(index);
+		this.measureHeadersChanged();
 	}
 	
 	public void removeMeasureHeader(TGMeasureHeader measureHeader){
 		this.measureHeaders.remove(measureHeader);
+		this.measureHeadersChanged();
 	}
 	
 	public TGMeasureHeader getMeasureHeader(int index){
@@ -97,6 +105,34 @@ public abstract class TGSong {
 		return this.measureHeaders.iterator();
 	}
 	
+	/**
+	 * Changes each time a header is added, removed, moved or renumbered.
+	 */
+	public int getMeasureHeadersVersion(){
+		return this.measureHeadersVersion;
+	}
+	
+	public void measureHeadersChanged(){
+		this.measureHeadersVersion ++;
+	}
+	
+	/**
+	 * True when the headers are sorted by number and start, so they can be binary searched.
+	 * The order is checked once after each change.
+	 */
+	public boolean isMeasureHeadersOrdered(){
+		if(this.orderedVersion != this.measureHeadersVersion){
+			this.ordered = true;
+			for(int i = 1; i < this.measureHeaders.size() && this.ordered; i ++){
+				TGMeasureHeader previous = (TGMeasureHeader)this.measureHeaders.get(i - 1);
+				TGMeasureHeader header = (TGMeasureHeader)this.measureHeaders.get(i);
+				this.ordered = (previous.getNumber() < header.getNumber() && previous.getStart() < header.getStart());
+			}
+			this.orderedVersion = this.measureHeadersVersion;
+		}
+		return this.ordered;
+	}
+	
 	public int countTracks(){
 		return this.tracks.size();
 	}
@@ -30,6 +30,10 @@ public abstract class TGTrack {
 	private TGColor color;
 	private TGLyric lyrics;
 	private TGSong song;
+	private int measuresVersion;
+	private int orderedVersion;
+	private int orderedSongVersion;
+	private boolean ordered;
 	
 	public TGTrack(TGFactory factory) {
 		this.number = 0;
@@ -37,6 +41,8 @@ public abstract class TGTrack {
 		this.name = new String();
 		this.measures = new ArrayList();
 		this.strings = new ArrayList();
+		this.measuresVersion = 0;
+		this.orderedVersion = -1;
 		this.channel = factory.newChannel();
 		this.color = factory.newColor();
 		this.lyrics = factory.newLyric();
@@ -57,11 +63,13 @@ public abstract class TGTrack {
 	public void addMeasure(TGMeasure measure){
 		measure.setTrack(this);
 		this.measures.add(measure);
+		this.measuresChanged();
 	}
 	
 	public void addMeasure(int index,TGMeasure measure){
 		measure.setTrack(this);
 		this.measures.add(index,measure);
+		this.measuresChanged();
 	}
 	
 	public TGMeasure getMeasure(int index){
@@ -73,12 +81,36 @@ public abstract class TGTrack {
 	
 	public void removeMeasure(int index){
 		this.measures.remove(index);
+		this.measuresChanged();
 	}
 	
 	public int countMeasures(){
 		return this.measures.size();
 	}
 	
+	public void measuresChanged(){
+		this.measuresVersion ++;
+	}
+	
+	/**
+	 * True when the measures are sorted by number and start, so they can be binary searched.
+	 * Measures take both from their headers, so the order is checked again when the song headers change.
+	 */
+	public boolean isMeasuresOrdered(){
+		int songVersion = (this.song != null ? this.song.getMeasureHeadersVersion() : 0);
+		if(this.orderedVersion != this.measuresVersion || this.orderedSongVersion != songVersion){
+			this.ordered = true;
+			for(int i = 1; i < this.measures.size() && this.ordered; i ++){
+				TGMeasure previous = (TGMeasure)this.measures.get(i - 1);
+				TGMeasure measure = (TGMeasure)this.measures.get(i);
+				this.ordered = (previous.getNumber() < measure.getNumber() && previous.getStart() < measure.getStart());
+			}
+			this.orderedVersion = this.measuresVersion;
+			this.orderedSongVersion = songVersion;
+		}
+		return this.ordered;
+	}
+	
 	public TGChannel getChannel() {
 		return this.channel;
 	}
@@ -150,6 +182,7 @@ public abstract class TGTrack {
 	public void clear(){
 		this.strings.clear();
 		this.measures.clear();
+		this.measuresChanged();
 	}
 	
 	public TGTrack clone(TGFactory factory,TGSong song){
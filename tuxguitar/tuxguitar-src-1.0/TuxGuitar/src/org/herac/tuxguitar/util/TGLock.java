@@ -1,41 +1,123 @@
 package org.herac.tuxguitar.util;
 
+import java.util.LinkedList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fair reentrant lock.
+ * Waiting threads are parked in arrival order and the lock is handed over directly to the first one on release.
+ */
 public class TGLock {
 	
 	private Thread lock;
-	private long lockId;
-	private long lockCount;
+	private int holdCount;
+	private long lockTime;
+	private Throwable lockTrace;
+	private LinkedList waiters;
+	
+	private long traceThreshold;
+	private TGLockStats stats;
 	
 	public TGLock(){
-		this.lockId = 0;
-		this.lockCount = 0;
+		this.holdCount = 0;
+		this.waiters = new LinkedList();
+		this.stats = new TGLockStats();
 	}
 	
 	public void lock(){
 		Thread thread = Thread.currentThread();
-		
-		// Only if it isn't already locked
-		if( this.lock != thread){
-			
-			long lockId = this.lockId ++;
-			while( lockId != this.lockCount && thread != this.lock){
-				Thread.yield();
-			}
-			
-			while( isLocked(thread) ){
-				Thread.yield();
+		long time = System.nanoTime();
+		if( this.enter(thread, time) ){
+			return;
+		}
+		boolean interrupted = false;
+		while( !this.isOwner(thread) ){
+			LockSupport.park(this);
+			// park returns at once while the interrupt flag is set
+			interrupted = (Thread.interrupted() || interrupted);
+		}
+		this.acquired(time, System.nanoTime());
+		if( interrupted ){
+			thread.interrupt();
+		}
+	}
+	
+	/**
+	 * Acquires the lock only if it is free (or already held by the current thread).
+	 */
+	public boolean tryLock(){
+		Thread thread = Thread.currentThread();
+		synchronized( this ){
+			if( this.lock == thread || (this.lock == null && this.waiters.isEmpty()) ){
+				this.grant(thread, System.nanoTime());
+				return true;
 			}
-			
-			synchronized( this ){
-				this.lock = thread;
-				this.lockCount ++ ;
+			this.stats.timeouts ++;
+		}
+		return false;
+	}
+	
+	/**
+	 * Waits at most the given milliseconds for the lock.
+	 */
+	public boolean tryLock(long timeout){
+		Thread thread = Thread.currentThread();
+		long time = System.nanoTime();
+		long deadline = (time + (timeout * 1000000));
+		if( this.enter(thread, time) ){
+			return true;
+		}
+		boolean interrupted = false;
+		while( !this.isOwner(thread) ){
+			long remaining = (deadline - System.nanoTime());
+			if( remaining <= 0 ){
+				synchronized( this ){
+					// the lock could be handed over while the timeout expires
+					if( this.lock != thread ){
+						this.waiters.remove(thread);
+						this.stats.timeouts ++;
+						if( interrupted ){
+							thread.interrupt();
+						}
+						return false;
+					}
+				}
+				break;
 			}
+			LockSupport.parkNanos(this, remaining);
+			interrupted = (Thread.interrupted() || interrupted);
 		}
+		this.acquired(time, System.nanoTime());
+		if( interrupted ){
+			thread.interrupt();
+		}
+		return true;
 	}
 	
+	/**
+	 * Releases one hold of the lock.
+	 * A release from a thread other than the owner forces the lock free, this keeps working the
+	 * code that locks in one thread and unlocks in another (the error dialogs do it).
+	 */
 	public void unlock(){
+		Thread next = null;
 		synchronized( this ){
-			this.lock = null;
+			if( this.lock == null ){
+				return;
+			}
+			if( this.lock == Thread.currentThread() && this.holdCount > 1 ){
+				this.holdCount --;
+				return;
+			}
+			long time = System.nanoTime();
+			this.release(time);
+			if( !this.waiters.isEmpty() ){
+				next = (Thread)this.waiters.removeFirst();
+				this.grant(next, time);
+			}
+		}
+		if( next != null ){
+			LockSupport.unpark(next);
 		}
 	}
 	
@@ -48,4 +130,87 @@ public class TGLock {
 	public boolean isLocked(){
 		return isLocked( Thread.currentThread() );
 	}
+	
+	/**
+	 * Returns a copy of the lock counters.
+	 */
+	public synchronized TGLockStats getStats(){
+		return this.stats.copy();
+	}
+	
+	public synchronized void resetStats(){
+		this.stats = new TGLockStats();
+	}
+	
+	/**
+	 * Holds longer than the threshold (in nanoseconds) keep the stack trace of the caller that acquired the lock.
+	 * Zero disables it, collecting the trace costs one Throwable per acquisition.
+	 */
+	public synchronized void setTraceThreshold(long traceThreshold){
+		this.traceThreshold = traceThreshold;
+	}
+	
+	public synchronized long getTraceThreshold(){
+		return this.traceThreshold;
+	}
+	
+	private synchronized boolean enter(Thread thread,long time){
+		if( this.lock == thread || (this.lock == null && this.waiters.isEmpty()) ){
+			this.grant(thread, time);
+			return true;
+		}
+		this.waiters.addLast(thread);
+		this.stats.contentions ++;
+		return false;
+	}
+	
+	private synchronized boolean isOwner(Thread thread){
+		return (this.lock == thread);
+	}
+	
+	/**
+	 * Called by a waiting thread once the lock was handed over to it, the hold time starts here.
+	 */
+	private synchronized void acquired(long time,long now){
+		long waitTime = (now - time);
+		this.lockTime = now;
+		this.stats.totalWaitTime += waitTime;
+		this.stats.maxWaitTime = Math.max(this.stats.maxWaitTime, waitTime);
+		if( this.traceThreshold > 0 ){
+			this.lockTrace = new Throwable("Lock acquired by " + this.lock.getName());
+		}
+	}
+	
+	private void grant(Thread thread,long time){
+		if( this.lock == thread ){
+			this.holdCount ++;
+			return;
+		}
+		this.lock = thread;
+		this.holdCount = 1;
+		this.lockTime = time;
+		this.lockTrace = null;
+		this.stats.acquisitions ++;
+		if( this.traceThreshold > 0 && thread == Thread.currentThread() ){
+			this.lockTrace = new Throwable("Lock acquired by " + thread.getName());
+		}
+	}
+	
+	private void release(long time){
+		long holdTime = (time - this.lockTime);
+		this.stats.totalHoldTime += holdTime;
+		if( holdTime > this.stats.maxHoldTime ){
+			this.stats.maxHoldTime = holdTime;
+			this.stats.maxHoldThread = this.lock.getName();
+		}
+		if( this.lockTrace != null && holdTime > this.traceThreshold ){
+			this.stats.slowHolds ++;
+			if( holdTime >= this.stats.maxHoldTime ){
+				this.stats.maxHoldTrace = this.lockTrace;
+			}
+		}
+		this.lock = null;
+		this.holdCount = 0;
+		this.lockTrace = null;
+	}
 }
@@ -0,0 +1,111 @@
+package org.herac.tuxguitar.util;
+
+/**
+ * Counters of a TGLock, times are in nanoseconds.
+ */
+public class TGLockStats {
+	
+	protected long acquisitions;
+	protected long contentions;
+	protected long timeouts;
+	protected long totalWaitTime;
+	protected long maxWaitTime;
+	protected long totalHoldTime;
+	protected long maxHoldTime;
+	protected String maxHoldThread;
+	protected Throwable maxHoldTrace;
+	protected long slowHolds;
+	
+	protected TGLockStats(){
+		super();
+	}
+	
+	/**
+	 * Times the lock was taken (not counting reentrant holds).
+	 */
+	public long getAcquisitions(){
+		return this.acquisitions;
+	}
+	
+	/**
+	 * Times a thread had to wait because another one held the lock.
+	 */
+	public long getContentions(){
+		return this.contentions;
+	}
+	
+	/**
+	 * Failed tryLock calls.
+	 */
+	public long getTimeouts(){
+		return this.timeouts;
+	}
+	
+	public long getTotalWaitTime(){
+		return this.totalWaitTime;
+	}
+	
+	public long getAverageWaitTime(){
+		return (this.contentions > 0 ? (this.totalWaitTime / this.contentions) : 0);
+	}
+	
+	public long getMaxWaitTime(){
+		return this.maxWaitTime;
+	}
+	
+	public long getTotalHoldTime(){
+		return this.totalHoldTime;
+	}
+	
+	public long getAverageHoldTime(){
+		return (this.acquisitions > 0 ? (this.totalHoldTime / this.acquisitions) : 0);
+	}
+	
+	public long getMaxHoldTime(){
+		return this.maxHoldTime;
+	}
+	
+	/**
+	 * Name of the thread that held the lock for the longest time.
+	 */
+	public String getMaxHoldThread(){
+		return this.maxHoldThread;
+	}
+	
+	/**
+	 * Stack trace of the caller that held the lock for the longest time,
+	 * only available when the lock trace threshold is enabled.
+	 */
+	public Throwable getMaxHoldTrace(){
+		return this.maxHoldTrace;
+	}
+	
+	/**
+	 * Holds longer than the lock trace threshold.
+	 */
+	public long getSlowHolds(){
+		return this.slowHolds;
+	}
+	
+	protected TGLockStats copy(){
+		TGLockStats stats = new TGLockStats();
+		stats.acquisitions = this.acquisitions;
+		stats.contentions = this.contentions;
+		stats.timeouts = this.timeouts;
+		stats.totalWaitTime = this.totalWaitTime;
+		stats.maxWaitTime = this.maxWaitTime;
+		stats.totalHoldTime = this.totalHoldTime;
+		stats.maxHoldTime = this.maxHoldTime;
+		stats.maxHoldThread = this.maxHoldThread;
+		stats.maxHoldTrace = this.maxHoldTrace;
+		stats.slowHolds = this.slowHolds;
+		return stats;
+	}
+	
+	public String toString(){
+		return ("acquisitions=" + this.acquisitions + " contentions=" + this.contentions + " timeouts=" + this.timeouts +
+				" wait(avg/max)=" + getAverageWaitTime() + "/" + this.maxWaitTime + "ns" +
+				" hold(avg/max)=" + getAverageHoldTime() + "/" + this.maxHoldTime + "ns" +
+				" maxHoldThread=" + this.maxHoldThread + " slowHolds=" + this.slowHolds);
+	}
+}
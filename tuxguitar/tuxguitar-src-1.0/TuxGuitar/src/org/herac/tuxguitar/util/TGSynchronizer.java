@@ -28,6 +28,13 @@ public class TGSynchronizer {
 		}
 	}
 	
+	/**
+	 * Runs the runnable later without blocking the caller, errors are printed.
+	 */
+	public void addRunnableLater(TGRunnable runnable) {
+		this.controller.excecuteLater(new TGSynchronizerTask(runnable));
+	}
+	
 	public void setController(TGSynchronizerController controller){
 		this.controller = controller;
 	}
@@ -58,6 +65,13 @@ public class TGSynchronizer {
 				this.throwable = throwable;
 			}
 		}
+		
+		public void runLater(){
+			this.run();
+			if(this.throwable != null){
+				this.throwable.printStackTrace();
+			}
+		}
 	}
 	
 	public interface TGRunnable {
@@ -66,5 +80,7 @@ public class TGSynchronizer {
 	
 	public interface TGSynchronizerController{
 		public void excecute(TGSynchronizerTask task);
+		
+		public void excecuteLater(TGSynchronizerTask task);
 	}
 }
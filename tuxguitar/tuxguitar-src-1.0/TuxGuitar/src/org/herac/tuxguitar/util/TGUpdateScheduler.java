@@ -0,0 +1,224 @@
+package org.herac.tuxguitar.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Single thread that runs the interface updates through the TGSynchronizer.
+ * Requests scheduled with the same key while one is still pending are merged (the last runnable wins),
+ * and all pending requests run together in one synchronized pass per frame.
+ */
+public class TGUpdateScheduler implements Runnable{
+	
+	public static final long DEFAULT_FRAME_BUDGET = 16;
+	
+	private static TGUpdateScheduler instance;
+	
+	private Map pending;
+	private Thread thread;
+	private boolean disposed;
+	private long frameBudget;
+	private long frameTime;
+	
+	private long requests;
+	private long merged;
+	private long dropped;
+	private long deferred;
+	private long frames;
+	
+	private TGUpdateScheduler(){
+		this.pending = new LinkedHashMap();
+		this.frameBudget = DEFAULT_FRAME_BUDGET;
+	}
+	
+	public static TGUpdateScheduler instance(){
+		if (instance == null) {
+			synchronized (TGUpdateScheduler.class) {
+				instance = new TGUpdateScheduler();
+			}
+		}
+		return instance;
+	}
+	
+	/**
+	 * Schedules the runnable for the next frame, replacing the pending one with the same key.
+	 */
+	public synchronized void schedule(Object key,TGSynchronizer.TGRunnable runnable){
+		this.requests ++;
+		if(this.disposed){
+			this.dropped ++;
+			return;
+		}
+		if(this.pending.put(key, runnable) != null){
+			this.merged ++;
+		}
+		if(this.thread == null){
+			this.thread = new Thread(this, "TGUpdateScheduler");
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+		this.notifyAll();
+	}
+	
+	public void schedule(Object key,final Runnable runnable){
+		this.schedule(key, new TGSynchronizer.TGRunnable() {
+			public void run() throws Throwable {
+				runnable.run();
+			}
+		});
+	}
+	
+	/**
+	 * Schedules a request that is never merged with others.
+	 */
+	public void schedule(Runnable runnable){
+		this.schedule(runnable, runnable);
+	}
+	
+	public void run(){
+		Map tasks = null;
+		while((tasks = this.nextFrame()) != null){
+			final Map frame = tasks;
+			final boolean[] executed = new boolean[]{ false };
+			try {
+				TGSynchronizer.instance().addRunnable(new TGSynchronizer.TGRunnable() {
+					public void run() throws Throwable {
+						executed[0] = true;
+						runFrame(frame);
+					}
+				});
+			} catch (Throwable throwable) {
+				throwable.printStackTrace();
+			}
+			// the synchronizer skips the pass when the display is gone
+			if(!executed[0]){
+				this.drop(frame);
+			}
+		}
+	}
+	
+	/**
+	 * Runs the requests in order until the frame budget is spent, the remaining ones go back to the queue.
+	 */
+	protected void runFrame(Map tasks){
+		long deadline = (System.currentTimeMillis() + this.getFrameBudget());
+		Iterator it = tasks.entrySet().iterator();
+		while(it.hasNext()){
+			Map.Entry entry = (Map.Entry)it.next();
+			it.remove();
+			try {
+				((TGSynchronizer.TGRunnable)entry.getValue()).run();
+			} catch (Throwable throwable) {
+				throwable.printStackTrace();
+			}
+			if(!tasks.isEmpty() && System.currentTimeMillis() > deadline){
+				this.defer(tasks);
+				break;
+			}
+		}
+	}
+	
+	private synchronized Map nextFrame(){
+		try {
+			while(!this.disposed){
+				if(!this.pending.isEmpty()){
+					long delay = ((this.frameTime + this.frameBudget) - System.currentTimeMillis());
+					if(delay <= 0){
+						Map tasks = this.pending;
+						this.pending = new LinkedHashMap();
+						this.frameTime = System.currentTimeMillis();
+						this.frames ++;
+						return tasks;
+					}
+					this.wait(delay);
+				}else{
+					this.wait();
+				}
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		this.thread = null;
+		return null;
+	}
+	
+	private synchronized void defer(Map tasks){
+		this.deferred += tasks.size();
+		Iterator it = this.pending.entrySet().iterator();
+		while(it.hasNext()){
+			Map.Entry entry = (Map.Entry)it.next();
+			if(tasks.put(entry.getKey(), entry.getValue()) != null){
+				this.merged ++;
+			}
+		}
+		this.pending = tasks;
+	}
+	
+	private synchronized void drop(Map tasks){
+		this.dropped += tasks.size();
+	}
+	
+	/**
+	 * Stops the scheduler, pending requests are dropped.
+	 */
+	public synchronized void dispose(){
+		this.disposed = true;
+		this.dropped += this.pending.size();
+		this.pending.clear();
+		this.notifyAll();
+	}
+	
+	/**
+	 * Minimum time between two passes, also the time a pass may take before the rest is deferred (milliseconds).
+	 */
+	public synchronized long getFrameBudget(){
+		return this.frameBudget;
+	}
+	
+	public synchronized void setFrameBudget(long frameBudget){
+		this.frameBudget = Math.max(frameBudget, 0);
+		this.notifyAll();
+	}
+	
+	public synchronized long getRequests(){
+		return this.requests;
+	}
+	
+	/**
+	 * Requests replaced by a later one with the same key before they ran.
+	 */
+	public synchronized long getMerged(){
+		return this.merged;
+	}
+	
+	/**
+	 * Requests discarded without running (scheduler or display disposed).
+	 */
+	public synchronized long getDropped(){
+		return this.dropped;
+	}
+	
+	/**
+	 * Requests moved to the next frame because the pass ran out of budget.
+	 */
+	public synchronized long getDeferred(){
+		return this.deferred;
+	}
+	
+	public synchronized long getFrames(){
+		return this.frames;
+	}
+	
+	public synchronized void resetStats(){
+		this.requests = 0;
+		this.merged = 0;
+		this.dropped = 0;
+		this.deferred = 0;
+		this.frames = 0;
+	}
+	
+	public synchronized String toString(){
+		return ("requests=" + this.requests + " frames=" + this.frames + " merged=" + this.merged + " dropped=" + this.dropped + " deferred=" + this.deferred);
+	}
+}